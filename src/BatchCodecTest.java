@@ -0,0 +1,164 @@
+import cn.edu.njnu.earthgrid.core.codes.EQBatchCodec;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQDecodeCache;
+import cn.edu.njnu.earthgrid.core.geometry.DiamondBlock;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.core.geometry.Trigon;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * batch codec test, batch decoding is same as EQCodes for sorted and unsorted codes of mixed levels and domains,
+ * in one chunk and split over a pool
+ */
+public class BatchCodecTest {
+
+    private static final int[] SIZES = {1, 100, EQBatchCodec.CHUNK_SIZE, 3 * EQBatchCodec.CHUNK_SIZE + 17};
+
+    public static void main(String[] args) {
+        EQDecodeCache previous = EQCodes.getDecodeCache();
+        EQCodes.setDecodeCache(null);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Random random = new Random(0);
+            for (int size : SIZES) {
+                long[] codes = RandomCodes(random, size);
+                DecodeTest(codes, pool, "unsorted");
+                Arrays.sort(codes);
+                DecodeTest(codes, pool, "sorted");
+                DecodeTest(RunCodes(random, size), pool, "runs of");
+            }
+        } finally {
+            pool.shutdown();
+            EQCodes.setDecodeCache(previous);
+        }
+        System.out.println("batch codec test passed");
+    }
+
+    /**
+     * centroids, trigons and diamonds of codes are same as EQCodes, by common pool and by the given pool
+     */
+    private static void DecodeTest(long[] codes, ForkJoinPool pool, String name) {
+        int n = codes.length;
+        name += " " + n + " codes";
+        double[] lon = new double[n * 4], lat = new double[n * 4];
+
+        EQBatchCodec.decodeCentroids(codes, lon, lat);
+        CheckCentroids(codes, lon, lat, name);
+        Arrays.fill(lon, 0.);
+        EQBatchCodec.decode(codes, lon, lat, EQBatchCodec.DECODE_CENTROID, pool);
+        CheckCentroids(codes, lon, lat, name + " in pool");
+
+        EQBatchCodec.decodeTrigons(codes, lon, lat);
+        CheckTrigons(codes, lon, lat, name);
+        Arrays.fill(lon, 0.);
+        EQBatchCodec.decode(codes, lon, lat, EQBatchCodec.DECODE_TRIGON, pool);
+        CheckTrigons(codes, lon, lat, name + " in pool");
+
+        EQBatchCodec.decodeDiamonds(codes, lon, lat);
+        CheckDiamonds(codes, lon, lat, name);
+        Arrays.fill(lon, 0.);
+        EQBatchCodec.decode(codes, lon, lat, EQBatchCodec.DECODE_DIAMOND, pool);
+        CheckDiamonds(codes, lon, lat, name + " in pool");
+    }
+
+    private static void CheckCentroids(long[] codes, double[] lon, double[] lat, String name) {
+        for (int i = 0; i < codes.length; ++i) {
+            CheckPoint(EQCodes.toSpericalCoord(codes[i]), lon[i], lat[i], codes[i], "centroid of " + name);
+        }
+    }
+
+    /**
+     * vertexes of cells, NaN for other codes
+     */
+    private static void CheckTrigons(long[] codes, double[] lon, double[] lat, String name) {
+        for (int i = 0; i < codes.length; ++i) {
+            Trigon trigon = EQCodes.toTrigon(codes[i]);
+            SpericalCoord[] vertexes = null == trigon ? null : trigon.toSpericalCoord();
+            for (int k = 0; k < 3; ++k) {
+                CheckPoint(null == vertexes ? null : vertexes[k], lon[i * 3 + k], lat[i * 3 + k], codes[i],
+                        "trigon vertex " + k + " of " + name);
+            }
+        }
+    }
+
+    /**
+     * vertexes of diamonds, NaN for pole codes
+     */
+    private static void CheckDiamonds(long[] codes, double[] lon, double[] lat, String name) {
+        for (int i = 0; i < codes.length; ++i) {
+            DiamondBlock diamond = EQCodes.toDiamond(codes[i]);
+            SpericalCoord[] vertexes = null == diamond ? null : diamond.toSpericalCoord();
+            for (int k = 0; k < 4; ++k) {
+                CheckPoint(null == vertexes ? null : vertexes[k], lon[i * 4 + k], lat[i * 4 + k], codes[i],
+                        "diamond vertex " + k + " of " + name);
+            }
+        }
+    }
+
+    /**
+     * point is same as expected, or NaN if nothing is expected
+     * note: longitude isn't checked at a pole
+     */
+    private static void CheckPoint(SpericalCoord expected, double lon, double lat, long code, String name) {
+        if (null == expected) {
+            Check(Double.isNaN(lon) && Double.isNaN(lat), name + " isn't NaN for code " + code);
+            return;
+        }
+        boolean pole = Math.abs(Math.abs(expected.getLatitude()) - 90.) < 1e-9;
+        Check(Math.abs(lat - expected.getLatitude()) < 1e-9
+                        && (pole || Math.abs(lon - expected.getLongitude()) < 1e-9),
+                name + " is (" + lon + ", " + lat + ") for code " + code + ", expected ("
+                        + expected.getLongitude() + ", " + expected.getLatitude() + ")");
+    }
+
+    /**
+     * codes of random domain, element and level up to MAX_LEVEL, one in 50 is a pole node
+     */
+    private static long[] RandomCodes(Random random, int size) {
+        long[] codes = new long[size];
+        for (int i = 0; i < size; ++i) {
+            int level = random.nextInt(EQCodes.MAX_LEVEL + 1);
+            if (random.nextInt(50) == 0) {
+                codes[i] = EQCodes.pack(10 + random.nextInt(2), 0, level, 0);
+            } else {
+                long morton = (long) (random.nextDouble() * (1L << (2 * level)));
+                codes[i] = EQCodes.pack(random.nextInt(10), random.nextInt(6), level, morton);
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * runs of neighbouring codes at a deep level, as decoded from a band, broken by other levels and poles
+     */
+    private static long[] RunCodes(Random random, int size) {
+        long[] codes = new long[size];
+        int domain = 0, level = 20, element = 4;
+        long morton = 0;
+        for (int i = 0; i < size; ++i) {
+            if (0 == i % 1000) {
+                domain = random.nextInt(10);
+                level = 15 + random.nextInt(EQCodes.MAX_LEVEL - 14);
+                element = random.nextInt(6);
+                morton = (long) (random.nextDouble() * ((1L << (2 * level)) - size));
+            }
+            if (0 == i % 97) {
+                codes[i] = EQCodes.pack(10 + i % 2, 0, level, 0);
+            } else if (0 == i % 89) {
+                codes[i] = EQCodes.pack(domain, element, level - 3, morton >>> 6);
+            } else {
+                codes[i] = EQCodes.pack(domain, element, level, morton++);
+            }
+        }
+        return codes;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import cn.edu.njnu.earthgrid.core.codes.CellUnion;
+import cn.edu.njnu.earthgrid.core.codes.EQCellArea;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.operation.CodeOperation;
+
+import java.util.Random;
+
+/**
+ * cell area test of EQCellArea against trigon areas and the sphere's area
+ */
+public class CellAreaTest {
+
+    private static final int MAX_LEVEL = 6;
+    private static final double TOLERANCE = 1e-9;
+    private static final double SPHERE_AREA = 4 * MathUtil.PI * MathUtil.RADIUS * MathUtil.RADIUS;
+
+    public static void main(String[] args) {
+        for (int level = 0; level <= MAX_LEVEL; ++level) {
+            long[] cells = Cells(level);
+            TotalAreaTest(cells, level);
+            TableTest(cells);
+        }
+        Random random = new Random(0);
+        SubCellTest(random, EQCellArea.TABLE_MAX_LEVEL);
+        SubCellTest(random, 16);
+        UnionTest();
+        System.out.println("cell area test passed");
+    }
+
+    /**
+     * cells of a level cover the sphere once
+     */
+    private static void TotalAreaTest(long[] cells, int level) {
+        double sum = 0;
+        for (long cell : cells) {
+            sum += EQCellArea.area(cell);
+        }
+        Check(Close(sum, SPHERE_AREA), "total area " + sum + " at level " + level);
+        Check(Close(EQCellArea.sum(cells), SPHERE_AREA), "bulk total area at level " + level);
+    }
+
+    /**
+     * area read from table by the symmetries equals area of each cell's own trigon, in every domain
+     */
+    private static void TableTest(long[] cells) {
+        for (long cell : cells) {
+            double area = EQCellArea.area(cell);
+            Check(Close(area, EQCodes.toTrigon(cell).getArea()), "table area of " + cell);
+            Check(area == CodeOperation.GetCellArea(cell), "CodeOperation area of " + cell);
+        }
+    }
+
+    /**
+     * 4 sub cells of a cell of level have its area, across the last table level and deeper
+     */
+    private static void SubCellTest(Random random, int level) {
+        long n = 1L << level;
+        for (int k = 0; k < 1000; ++k) {
+            long cell = EQCodes.pack(random.nextInt(10), 4 + random.nextInt(2), level, (long) (random.nextDouble() * n * n));
+            long[] subs = CodeOperation.GetSubCode(cell);
+            Check(Close(EQCellArea.sum(subs), EQCellArea.area(cell)), "area of sub cells of " + cell);
+            Check(Close(EQCellArea.area(cell), EQCodes.toTrigon(cell).getArea()), "area of " + cell);
+        }
+    }
+
+    /**
+     * a domain is a tenth of sphere, summed over coarse cells of a union
+     */
+    private static void UnionTest() {
+        long[] cells = new long[2 * 64];
+        for (int morton = 0; morton < 64; ++morton) {
+            cells[2 * morton] = EQCodes.pack(3, 4, 3, morton);
+            cells[2 * morton + 1] = EQCodes.pack(3, 5, 3, morton);
+        }
+        Check(Close(EQCellArea.sum(CellUnion.fromCodes(cells)), SPHERE_AREA / 10), "area of a domain");
+    }
+
+    private static long[] Cells(int level) {
+        int n = 1 << level;
+        long[] cells = new long[20 * n * n];
+        int count = 0;
+        for (int domain = 0; domain < 10; ++domain) {
+            for (long morton = 0; morton < (long) n * n; ++morton) {
+                cells[count++] = EQCodes.pack(domain, 4, level, morton);
+                cells[count++] = EQCodes.pack(domain, 5, level, morton);
+            }
+        }
+        return cells;
+    }
+
+    private static boolean Close(double a, double b) {
+        return Math.abs(a - b) <= TOLERANCE * Math.abs(b);
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import cn.edu.njnu.earthgrid.core.codes.CellUnion;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.operation.CodeOperation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * CellUnion test against sets of leaf cells expanded by CodeOperation.GetSubCode
+ */
+public class CellUnionTest {
+
+    private static final int LEAF_LEVEL = 4;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        for (int round = 0; round < ROUNDS; ++round) {
+            long[] a = RandomCells(random), b = RandomCells(random);
+            HashSet<Long> leafA = Leaves(a), leafB = Leaves(b);
+            CellUnion unionA = CellUnion.fromCodes(a), unionB = CellUnion.fromCodes(b);
+
+            NormalizationTest(unionA, leafA);
+            SetAlgebraTest(unionA, unionB, leafA, leafB);
+            MembershipTest(random, unionA, leafA);
+            Check(unionA.equals(CellUnion.fromBytes(unionA.toBytes())), "bytes round trip");
+        }
+        Check(CellUnion.EMPTY.equals(CellUnion.fromBytes(CellUnion.EMPTY.toBytes())), "empty bytes round trip");
+        System.out.println("cell union test passed");
+    }
+
+    /**
+     * union is the leaf set, equal to the union of its leaves, and its least cells have no 4 siblings
+     */
+    private static void NormalizationTest(CellUnion union, HashSet<Long> leaves) {
+        Check(union.cellCount(LEAF_LEVEL) == leaves.size(), "cell count");
+        Check(ToSet(union.toCodes(LEAF_LEVEL)).equals(leaves), "cells at leaf level");
+
+        CellUnion fromLeaves = CellUnion.fromCodes(ToArray(leaves));
+        Check(union.equals(fromLeaves) && union.hashCode() == fromLeaves.hashCode(), "normalized by leaves");
+
+        long[] least = union.toCodes();
+        HashSet<Long> leastSet = ToSet(least);
+        Check(leastSet.size() == least.length, "duplicate least cell");
+        Check(Leaves(least).equals(leaves), "least cells cover the union");
+        int total = 0;
+        for (long cell : least) {
+            total += Leaves(new long[]{cell}).size();
+            if (EQCodes.level(cell) > 0) {
+                long[] siblings = CodeOperation.GetSubCode(CodeOperation.GetParentCode(cell));
+                boolean all = true;
+                for (long sibling : siblings) {
+                    all &= leastSet.contains(sibling);
+                }
+                Check(!all, "4 siblings aren't merged into parent " + cell);
+            }
+        }
+        Check(total == leaves.size(), "least cells overlap");
+    }
+
+    private static void SetAlgebraTest(CellUnion a, CellUnion b, HashSet<Long> leafA, HashSet<Long> leafB) {
+        HashSet<Long> expected = new HashSet<>(leafA);
+        expected.addAll(leafB);
+        Check(ToSet(a.union(b).toCodes(LEAF_LEVEL)).equals(expected), "union");
+
+        expected = new HashSet<>(leafA);
+        expected.retainAll(leafB);
+        Check(ToSet(a.intersection(b).toCodes(LEAF_LEVEL)).equals(expected), "intersection");
+        Check(a.intersects(b) == !expected.isEmpty(), "intersects union");
+
+        expected = new HashSet<>(leafA);
+        expected.removeAll(leafB);
+        Check(ToSet(a.difference(b).toCodes(LEAF_LEVEL)).equals(expected), "difference");
+
+        Check(a.contains(b) == leafA.containsAll(leafB), "contains union");
+        Check(a.contains(a.intersection(b)), "contains intersection");
+        Check(a.union(b).equals(b.union(a)), "union is symmetric");
+    }
+
+    /**
+     * a cell is contained if all its leaves are in set, and intersects if any is
+     */
+    private static void MembershipTest(Random random, CellUnion union, HashSet<Long> leaves) {
+        for (int k = 0; k < 50; ++k) {
+            long cell = RandomCell(random);
+            HashSet<Long> cellLeaves = Leaves(new long[]{cell});
+            boolean all = leaves.containsAll(cellLeaves);
+            cellLeaves.retainAll(leaves);
+            Check(union.contains(cell) == all, "contains cell " + cell);
+            Check(union.intersects(cell) == !cellLeaves.isEmpty(), "intersects cell " + cell);
+        }
+        Check(!union.contains(EQCodes.pack(0, 0, 2, 0)), "node isn't contained");
+    }
+
+    private static long[] RandomCells(Random random) {
+        long[] cells = new long[random.nextInt(60)];
+        for (int k = 0; k < cells.length; ++k) {
+            cells[k] = RandomCell(random);
+        }
+        return cells;
+    }
+
+    private static long RandomCell(Random random) {
+        // few domains and mostly fine levels, so cells overlap and siblings meet
+        int level = random.nextInt(4) == 0 ? random.nextInt(LEAF_LEVEL + 1) : LEAF_LEVEL - random.nextInt(2);
+        long n = 1L << level;
+        return EQCodes.pack(random.nextInt(2), 4 + random.nextInt(2), level, (long) (random.nextDouble() * n * n));
+    }
+
+    private static HashSet<Long> Leaves(long[] cells) {
+        HashSet<Long> leaves = new HashSet<>();
+        ArrayList<Long> stack = new ArrayList<>();
+        for (long cell : cells) {
+            stack.add(cell);
+        }
+        while (!stack.isEmpty()) {
+            long cell = stack.remove(stack.size() - 1);
+            if (EQCodes.level(cell) == LEAF_LEVEL) {
+                leaves.add(cell);
+            } else {
+                for (long sub : CodeOperation.GetSubCode(cell)) {
+                    stack.add(sub);
+                }
+            }
+        }
+        return leaves;
+    }
+
+    private static HashSet<Long> ToSet(long[] codes) {
+        HashSet<Long> set = new HashSet<>();
+        for (long code : codes) {
+            set.add(code);
+        }
+        return set;
+    }
+
+    private static long[] ToArray(HashSet<Long> set) {
+        long[] codes = new long[set.size()];
+        int k = 0;
+        for (long code : set) {
+            codes[k++] = code;
+        }
+        return codes;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
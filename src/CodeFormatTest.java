@@ -0,0 +1,152 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * round trip test of EQCodeFormat over every writer, and rejection of invalid text
+ */
+public class CodeFormatTest {
+
+    private static final int CODES = 20000;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        for (int k = 0; k < CODES; ++k) {
+            long code = RandomCode(random);
+            TextTest(code);
+            Base32Test(code);
+        }
+        TextTest(EQCodes.pack(10, 0, 0, 0));
+        TextTest(EQCodes.pack(11, 5, EQCodes.MAX_LEVEL, (1L << (2 * EQCodes.MAX_LEVEL)) - 1));
+        Base32Test(EQCodes.pack(11, 5, EQCodes.MAX_LEVEL, (1L << (2 * EQCodes.MAX_LEVEL)) - 1));
+        DeepLevelTest();
+        RejectTest();
+        System.out.println("code format test passed");
+    }
+
+    /**
+     * EQCode deeper than a packed code writes one digit per level
+     */
+    private static void DeepLevelTest() {
+        int level = EQCodes.MAX_LEVEL + 3;
+        StringBuilder expected = new StringBuilder("00110100");
+        for (int k = 0; k < level - 2; ++k) {
+            expected.append('0');
+        }
+        expected.append("31");
+        String text = new EQCode(3, 4, level, 13).toString();
+        Check(text.equals(expected.toString()), "text of level " + level + " is " + text);
+    }
+
+    /**
+     * every writer writes same text, and it's parsed back at an offset
+     */
+    private static void TextTest(long code) {
+        String text = EQCodes.toEQCode(code).toString();
+        Check(EQCodeFormat.toString(code).equals(text), "text isn't EQCode.toString " + text);
+        Check(EQCodeFormat.length(code) == text.length(), "length of " + text);
+        Check(EQCodeFormat.append(new StringBuilder("("), code).toString().equals("(" + text), "append " + text);
+
+        byte[] bytes = new byte[text.length() + 2];
+        Check(EQCodeFormat.format(code, bytes, 1) == text.length() + 1, "end of bytes " + text);
+        Check(new String(bytes, 1, text.length(), StandardCharsets.US_ASCII).equals(text), "bytes " + text);
+        Check(EQCodeFormat.parse(bytes, 1, text.length() + 1) == code, "parse bytes " + text);
+
+        CharBuffer heap = CharBuffer.allocate(text.length() + 1);
+        heap.put('x');
+        EQCodeFormat.format(code, heap);
+        CharBuffer direct = ByteBuffer.allocateDirect(2 * text.length() + 2).asCharBuffer();
+        direct.put('x');
+        EQCodeFormat.format(code, direct);
+        for (CharBuffer buffer : new CharBuffer[]{heap, direct}) {
+            Check(buffer.position() == text.length() + 1, "position of char buffer " + text);
+            buffer.flip();
+            Check(buffer.toString().equals("x" + text), "char buffer " + text);
+            Check(EQCodeFormat.parse(buffer, 1, text.length() + 1) == code, "parse char buffer " + text);
+        }
+
+        Check(EQCodeFormat.parse(text) == code, "parse " + text);
+        Check(EQCodeFormat.parse("," + text + ",", 1, text.length() + 1) == code, "parse range " + text);
+    }
+
+    private static void Base32Test(long code) {
+        String text = EQCodeFormat.toBase32(code);
+        Check(text.length() == EQCodeFormat.base32Length(code) && text.length() <= EQCodeFormat.MAX_BASE32_LENGTH,
+                "base32 length " + text);
+        Check(EQCodeFormat.parseBase32(text) == code, "parse base32 " + text);
+        Check(EQCodeFormat.parseBase32(text.toUpperCase()) == code, "parse upper case base32 " + text);
+
+        byte[] bytes = new byte[text.length() + 1];
+        Check(EQCodeFormat.formatBase32(code, bytes, 1) == bytes.length, "end of base32 bytes " + text);
+        Check(EQCodeFormat.parseBase32(bytes, 1, bytes.length) == code, "parse base32 bytes " + text);
+    }
+
+    /**
+     * invalid text throws IllegalArgumentException, also without assertions
+     */
+    private static void RejectTest() {
+        StringBuilder tooLong = new StringBuilder("00010100");
+        for (int k = 0; k <= EQCodes.MAX_LEVEL; ++k) {
+            tooLong.append('1');
+        }
+        String[] texts = {"", "0001010", "00010104", "000101004", "00020100", "0001010x1", "11000000", "00010110",
+                " 00010100", tooLong.toString()};
+        for (String text : texts) {
+            Check(Rejects(text, false), "text code '" + text + "' is accepted");
+            byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+            Check(RejectsBytes(bytes, false), "text code bytes '" + text + "' are accepted");
+        }
+
+        String valid = EQCodeFormat.toBase32(EQCodes.pack(3, 4, 5, 123));
+        String[] base32 = {"", "5", valid + "0", valid.substring(0, valid.length() - 1), valid.replace(valid.charAt(1), 'i'),
+                "z00000000000", "0zz", "0c0", "\u00e912"};
+        for (String text : base32) {
+            Check(Rejects(text, true), "base32 code '" + text + "' is accepted");
+            byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+            Check(RejectsBytes(bytes, true), "base32 code bytes '" + text + "' are accepted");
+        }
+    }
+
+    private static boolean Rejects(String text, boolean base32) {
+        try {
+            if (base32) {
+                EQCodeFormat.parseBase32(text);
+            } else {
+                EQCodeFormat.parse(text);
+            }
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean RejectsBytes(byte[] bytes, boolean base32) {
+        try {
+            if (base32) {
+                EQCodeFormat.parseBase32(bytes, 0, bytes.length);
+            } else {
+                EQCodeFormat.parse(bytes, 0, bytes.length);
+            }
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static long RandomCode(Random random) {
+        int level = random.nextInt(EQCodes.MAX_LEVEL + 1);
+        long morton = level == 0 ? 0 : random.nextLong() & ((1L << (2 * level)) - 1);
+        return EQCodes.pack(random.nextInt(12), random.nextInt(6), level, morton);
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
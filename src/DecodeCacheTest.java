@@ -0,0 +1,187 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQDecodeCache;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.core.geometry.DiamondCache;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.core.geometry.Trigon;
+import cn.edu.njnu.earthgrid.feature.Extent;
+import cn.edu.njnu.earthgrid.feature.Point;
+import cn.edu.njnu.earthgrid.feature.Polygon;
+import cn.edu.njnu.earthgrid.feature.Polyline;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * decode cache test, decoding is same with and without cache, and a benchmark of polygon containment
+ */
+public class DecodeCacheTest {
+
+    private static final int CODES = 20000;
+
+    /**
+     * vertices of benchmark polygon, and points tested against it
+     */
+    private static final int POLYGON_VERTICES = 400;
+    private static final int CONTAIN_POINTS = 2000;
+
+    public static void main(String[] args) {
+        EQDecodeCache previous = EQCodes.getDecodeCache();
+        try {
+            Random random = new Random(0);
+            long[] codes = new long[CODES];
+            for (int k = 0; k < CODES; ++k) {
+                codes[k] = RandomCode(random);
+            }
+            for (EQDecodeCache.Eviction eviction : EQDecodeCache.Eviction.values()) {
+                // capacity far below number of codes, so most reads evict
+                SameDecodeTest(codes, new EQDecodeCache(512, 4, eviction));
+                SameDecodeTest(codes, new EQDecodeCache(1 << 16, 16, eviction));
+            }
+            PoleTest();
+            DiamondCacheLevelTest();
+            ContainBenchmark(random);
+        } finally {
+            EQCodes.setDecodeCache(previous);
+        }
+        System.out.println("decode cache test passed");
+    }
+
+    /**
+     * lat/lon and trigon are identical with and without cache, on misses and on hits
+     */
+    private static void SameDecodeTest(long[] codes, EQDecodeCache cache) {
+        for (int round = 0; round < 2; ++round) {
+            for (long code : codes) {
+                EQCodes.setDecodeCache(null);
+                SpericalCoord expected = EQCodes.toSpericalCoord(code);
+                Trigon expectedTrigon = EQCodes.toTrigon(code);
+                EQCodes.setDecodeCache(cache);
+                SpericalCoord sc = EQCodes.toSpericalCoord(code);
+                Trigon trigon = EQCodes.toTrigon(code);
+
+                Check(sc.getLongitude() == expected.getLongitude() && sc.getLatitude() == expected.getLatitude(),
+                        "lat/lon of " + code + " with " + cache.getEviction() + " cache");
+                Check((null == trigon) == (null == expectedTrigon), "trigon of " + code + " is null in one way");
+                if (null != trigon) {
+                    for (int v = 0; v < 3; ++v) {
+                        Check(trigon.v(v).getX() == expectedTrigon.v(v).getX()
+                                        && trigon.v(v).getY() == expectedTrigon.v(v).getY()
+                                        && trigon.v(v).getZ() == expectedTrigon.v(v).getZ(),
+                                "trigon of " + code + " with " + cache.getEviction() + " cache");
+                    }
+                }
+            }
+        }
+        Check(cache.getHitCount() + cache.getMissCount() > 0, "cache isn't read");
+    }
+
+    /**
+     * a diamond cache out of 0 to MAX_LEVEL is rejected, also without assertions
+     */
+    private static void DiamondCacheLevelTest() {
+        for (int level : new int[]{-1, DiamondCache.MAX_LEVEL + 1}) {
+            boolean thrown = false;
+            try {
+                new DiamondCache(level);
+            } catch (IllegalArgumentException e) {
+                thrown = true;
+            }
+            Check(thrown, "diamond cache of level " + level);
+        }
+        Check(new DiamondCache(0).getLevel() == 0, "diamond cache of level 0");
+    }
+
+    /**
+     * pole codes decode to poles and have no trigon in both ways
+     */
+    private static void PoleTest() {
+        long[] poles = {EQCodes.pack(10, 0, 3, 0), EQCodes.pack(11, 0, 7, 0), EQCodes.pack(10, 4, 3, 0),
+                EQCodes.pack(11, 5, 3, 0)};
+        for (EQDecodeCache cache : new EQDecodeCache[]{null, new EQDecodeCache(64)}) {
+            EQCodes.setDecodeCache(cache);
+            for (long pole : poles) {
+                Check(null == EQCodes.toTrigon(pole), "trigon of pole " + pole);
+                Check(Math.abs(EQCodes.toSpericalCoord(pole).getLatitude()) == 90., "lat/lon of pole " + pole);
+            }
+        }
+    }
+
+    /**
+     * MathUtil.Contain decodes rings every call, so repeated calls on one polygon are served by cache
+     * note: timings are printed, not checked, results must be identical
+     */
+    private static void ContainBenchmark(Random random) {
+        Polygon polygon = CirclePolygon(100., 40., 20.);
+        SpericalCoord[] points = new SpericalCoord[CONTAIN_POINTS];
+        for (int k = 0; k < points.length; ++k) {
+            points[k] = new SpericalCoord(75. + random.nextDouble() * 50., 15. + random.nextDouble() * 50.);
+        }
+
+        EQCodes.setDecodeCache(null);
+        boolean[] expected = new boolean[points.length];
+        Contains(polygon, points, expected);
+        long start = System.nanoTime();
+        Contains(polygon, points, expected);
+        long plain = System.nanoTime() - start;
+
+        EQDecodeCache cache = new EQDecodeCache(4096);
+        EQCodes.setDecodeCache(cache);
+        boolean[] cached = new boolean[points.length];
+        Contains(polygon, points, cached);
+        start = System.nanoTime();
+        Contains(polygon, points, cached);
+        long withCache = System.nanoTime() - start;
+
+        for (int k = 0; k < points.length; ++k) {
+            Check(expected[k] == cached[k], "containment of point " + k + " differs with cache");
+        }
+        System.out.printf("contain %d points in %d-vertex polygon: %.1f ms without cache, %.1f ms with cache, "
+                        + "%.1fx, hit rate %.3f%n", points.length, POLYGON_VERTICES, plain / 1e6, withCache / 1e6,
+                (double) plain / withCache, cache.getHitRate());
+    }
+
+    private static void Contains(Polygon polygon, SpericalCoord[] points, boolean[] out) {
+        for (int k = 0; k < points.length; ++k) {
+            out[k] = MathUtil.Contain(polygon, points[k]);
+        }
+    }
+
+    /**
+     * polygon of POLYGON_VERTICES nodes of level 20 on a circle in lon/lat
+     */
+    private static Polygon CirclePolygon(double lon0, double lat0, double radius) {
+        long[] codes = new long[POLYGON_VERTICES + 1];
+        for (int k = 0; k < POLYGON_VERTICES; ++k) {
+            double angle = 2 * MathUtil.PI * k / POLYGON_VERTICES;
+            codes[k] = EQCodes.encode(lon0 + radius * Math.cos(angle), lat0 + radius * Math.sin(angle), 20,
+                    ElementType.GridNode);
+        }
+        codes[POLYGON_VERTICES] = codes[0];
+
+        Polygon polygon = new Polygon(new Polyline(codes, codes.length), new ArrayList<>());
+        polygon.setExtend(new Extent(CornerPoint(lon0 - radius, lat0 + radius), CornerPoint(lon0 + radius, lat0 + radius),
+                CornerPoint(lon0 - radius, lat0 - radius), CornerPoint(lon0 + radius, lat0 - radius)));
+        return polygon;
+    }
+
+    private static Point CornerPoint(double lon, double lat) {
+        return new Point(EQCodes.encode(lon, lat, 20, ElementType.GridCell));
+    }
+
+    private static long RandomCode(Random random) {
+        int level = random.nextInt(16);
+        long n = 1L << level;
+        if (random.nextInt(50) == 0) {
+            return EQCodes.pack(10 + random.nextInt(2), 0, level, 0);
+        }
+        return EQCodes.pack(random.nextInt(10), random.nextInt(6), level, (long) (random.nextDouble() * n * n));
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+
+import java.util.Random;
+
+/**
+ * encoder regression test
+ * note: expected codes are frozen from the recursive encoder of EGS 1.0 before the iterative descent,
+ *       packed by EQCodes.pack layout
+ */
+public class EncoderTest {
+
+    /**
+     * {lon, lat, level, element, expected packed code}
+     * random points of Random(0) up to level 20, then poles, domain corners and edges, and deep levels
+     */
+    private static final Object[][] CASES = {
+            {83.14840345559651, -31.260315570483204, 11, ElementType.GridCell, 3080462145174958308L},
+            {18.15732184234821, 11.250013645239122, 8, ElementType.GridCell, 144115188076026901L},
+            {-41.33189349334134, 75.85563281540847, 10, ElementType.GridNode, 2485986994314012752L},
+            {158.8497046135612, -26.74959108603861, 17, ElementType.GridCell, 3765009509507575045L},
+            {-127.22340324725343, -72.46322636587615, 9, ElementType.GridCell, 4197354852712149252L},
+            {167.21526984366602, -52.280805959071664, 11, ElementType.GridCell, 3656922897484262884L},
+            {-32.11336962321778, 33.54725728599885, 14, ElementType.GridEdge, 2558044591592843218L},
+            {-4.596175069148586, 29.503900556223037, 19, ElementType.GridEdge, 2648120924517276738L},
+            {114.22694570735678, 42.67046159361926, 20, ElementType.GridNode, 936756321477964000L},
+            {143.76060418013765, -47.06444362292632, 9, ElementType.GridEdge, 3620894100408303570L},
+            {172.28676245322248, 26.405057271238014, 12, ElementType.GridNode, 1369094286782783072L},
+            {-128.44066129178515, -4.248613811903681, 17, ElementType.GridEdge, 4341470177136347329L},
+            {-154.26060664323813, -17.64747166152944, 11, ElementType.GridNode, 4233383649742231744L},
+            {129.36835848767328, 70.5778156339307, 9, ElementType.GridEdge, 738590338890668370L},
+            {40.52919769555254, -39.94291249532364, 6, ElementType.GridEdge, 2990390152574017617L},
+            {127.61538013522465, -78.71121833621793, 14, ElementType.GridEdge, 3710966095685710913L},
+            {0.0, 90.0, 25, ElementType.GridNode, 6214967485771284480L},
+            {0.0, 90.0, 25, ElementType.GridEdge, 2762207771453904209L},
+            {0.0, 90.0, 25, ElementType.GridCell, 2762207771453904212L},
+            {0.0, -90.0, 25, ElementType.GridNode, 6791428238074707968L},
+            {0.0, -90.0, 25, ElementType.GridEdge, 5650516332474182307L},
+            {0.0, -90.0, 25, ElementType.GridCell, 5650516332474182309L},
+            {180.0, 0.0, 25, ElementType.GridNode, 1615666366319165440L},
+            {180.0, 0.0, 25, ElementType.GridEdge, 1615666366319165443L},
+            {180.0, 0.0, 25, ElementType.GridCell, 1615666366319165445L},
+            {-180.0, 0.0, 25, ElementType.GridNode, 1615666366319165440L},
+            {-180.0, 0.0, 25, ElementType.GridEdge, 1615666366319165443L},
+            {-180.0, 0.0, 25, ElementType.GridCell, 1615666366319165445L},
+            {0.0, 0.0, 25, ElementType.GridNode, 5646388032815759360L},
+            {0.0, 0.0, 25, ElementType.GridEdge, 5646388032815759361L},
+            {0.0, 0.0, 25, ElementType.GridCell, 5646388032815759365L},
+            {36.0, 26.56505117707799, 25, ElementType.GridNode, 460887139464926880L},
+            {36.0, 26.56505117707799, 25, ElementType.GridEdge, 460887139464926882L},
+            {36.0, 26.56505117707799, 25, ElementType.GridCell, 460887139464926885L},
+            {-144.0, -26.56505117707799, 25, ElementType.GridNode, 4493072450642618704L},
+            {-144.0, -26.56505117707799, 25, ElementType.GridEdge, 4493072450642618706L},
+            {-144.0, -26.56505117707799, 25, ElementType.GridCell, 4493072450642618708L},
+            {72.0, 0.0, 25, ElementType.GridNode, 3340545023602065408L},
+            {72.0, 0.0, 25, ElementType.GridEdge, 3340545023602065409L},
+            {72.0, 0.0, 25, ElementType.GridCell, 3340545023602065413L},
+            {90.0, 45.0, 25, ElementType.GridNode, 1029011213086850048L},
+            {90.0, 45.0, 25, ElementType.GridEdge, 1029011213086850051L},
+            {90.0, 45.0, 25, ElementType.GridCell, 1029011213086850053L},
+            {83.11614865318472, -10.360345868258324, 25, ElementType.GridEdge, 3341356774535229379L},
+            {-60.22185985457598, 69.31099074953694, 25, ElementType.GridEdge, 2761204223053405041L},
+            {166.93372692835476, 61.60990432185482, 23, ElementType.GridNode, 1567590045583247152L},
+            {157.34957360254907, -11.867629096144679, 21, ElementType.GridCell, 3837124387627937845L},
+            {-74.13946847854676, 0.7429897867008134, 23, ElementType.GridCell, 5026366494861348117L},
+            {97.39291682850399, 18.649948338269315, 24, ElementType.GridNode, 1009829730054124640L},
+            {-43.84726368442011, -46.0936810287557, 21, ElementType.GridCell, 4990053402239488981L},
+            {109.88199773053691, -81.86996018139499, 21, ElementType.GridNode, 3837111596912640560L},
+            {87.83441504543396, -45.72148628339641, 22, ElementType.GridNode, 3278867058093370000L},
+            {16.03973120172253, 8.87043214854595, 25, ElementType.GridCell, 453206118212818245L},
+            {44.41097182739969, -39.0933564682168, 24, ElementType.GridNode, 3315236996836530496L},
+            {-122.02440358618719, -40.08252538241334, 25, ElementType.GridEdge, 4501790694672388291L},
+    };
+
+    /**
+     * number of random points and hash of their expected codes, h = h * 31 + code in order
+     */
+    private static final int HASH_COUNT = 100000;
+    private static final int HASH_MAX_LEVEL = 20;
+    private static final long EXPECTED_HASH = -1003052943534704966L;
+
+    public static void main(String[] args) {
+        FrozenCodeTest();
+        EncoderDiffTest();
+        System.out.println("encoder test passed");
+    }
+
+    /**
+     * encode frozen cases by EQCodes.encode and EQCode.fromSpericalCoord
+     */
+    private static void FrozenCodeTest() {
+        double[] scratch = new double[EQCodes.SCRATCH_SIZE];
+        for (Object[] c : CASES) {
+            double lon = ((Number) c[0]).doubleValue();
+            double lat = ((Number) c[1]).doubleValue();
+            int level = (Integer) c[2];
+            ElementType ele = (ElementType) c[3];
+            long expected = (Long) c[4];
+
+            long code = EQCodes.encode(lon, lat, level, ele, scratch);
+            if (expected != code) {
+                throw new AssertionError("encode " + lon + "," + lat + " level " + level + " " + ele
+                        + ": " + code + " expected " + expected);
+            }
+
+            EQCode eqCode = new EQCode();
+            eqCode.fromSpericalCoord(new SpericalCoord(lon, lat), level, ele);
+            if (expected != EQCodes.pack(eqCode)) {
+                throw new AssertionError("fromSpericalCoord " + lon + "," + lat + " level " + level + " " + ele
+                        + ": " + EQCodes.pack(eqCode) + " expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * hash codes of random points and compare with frozen hash
+     */
+    private static void EncoderDiffTest() {
+        Random random = new Random(0);
+        ElementType[] eles = {ElementType.GridNode, ElementType.GridEdge, ElementType.GridCell};
+        double[] scratch = new double[EQCodes.SCRATCH_SIZE];
+        long hash = 0;
+
+        for (int i = 0; i < HASH_COUNT; ++i) {
+            double lon = random.nextDouble() * 360. - 180.;
+            double lat = Math.asin(random.nextDouble() * 2. - 1.) * 180. / MathUtil.PI;
+            int level = random.nextInt(HASH_MAX_LEVEL + 1);
+            ElementType ele = eles[random.nextInt(eles.length)];
+
+            hash = hash * 31 + EQCodes.encode(lon, lat, level, ele, scratch);
+        }
+
+        if (EXPECTED_HASH != hash) {
+            throw new AssertionError("hash of " + HASH_COUNT + " random codes: " + hash + " expected " + EXPECTED_HASH);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.FieldPyramid;
+import cn.edu.njnu.earthgrid.field.Reducer;
+import cn.edu.njnu.earthgrid.field.SparseFieldBand;
+import cn.edu.njnu.earthgrid.layer.FieldLayer;
+
+import java.util.ArrayList;
+
+/**
+ * field pyramid test, parents of cells, edges and nodes are reduced from their children by each reducer,
+ * skipping children of no data and in gaps of a sparse band
+ */
+public class FieldPyramidTest {
+
+    private static final int LEVEL = 2;
+    private static final float ND = -9999f;
+
+    /**
+     * reducers, in the order of expected values below
+     */
+    private static final Reducer[] REDUCERS = {Reducer.MEAN, Reducer.MIN, Reducer.MAX, Reducer.MODE};
+
+    public static void main(String[] args) {
+        CellParentTest();
+        CellTest();
+        EdgeTest();
+        NodeTest();
+        SparseTest();
+        OverviewTest();
+        System.out.println("field pyramid test passed");
+    }
+
+    /**
+     * center of every child cell is in the parent cell its attribute is reduced into
+     */
+    private static void CellParentTest() {
+        int cells = 2 << (2 * LEVEL);
+        for (int pos = 0; pos < cells; ++pos) {
+            FieldBand band = new FieldBand(ND, ElementType.GridCell);
+            band.setMBS(EQCodes.pack(3, 4, LEVEL, 0), cells);
+            band.addAttribute(3, pos, 1f);
+            FieldBand parent = FieldPyramid.reduce(band, Reducer.MAX);
+
+            SpericalCoord sc = EQCodes.toSpericalCoord(EQCodes.pack(3, 4 + pos % 2, LEVEL, pos / 2));
+            long code = EQCodes.encode(sc.getLongitude(), sc.getLatitude(), LEVEL - 1, ElementType.GridCell);
+            for (int k = 0; k < cells / 4; ++k) {
+                long other = EQCodes.pack(3, 4 + k % 2, LEVEL - 1, k / 2);
+                Check((parent.getAttribute(other) == 1f) == (other == code),
+                        "child cell " + pos + " is reduced into parent cell " + k);
+            }
+        }
+    }
+
+    /**
+     * parent upper cell holds upper cell of child 0, 1 and 3 and lower cell of child 1,
+     * parent lower cell holds lower cell of child 0, 2 and 3 and upper cell of child 2
+     */
+    private static void CellTest() {
+        FieldBand band = new FieldBand(ND, ElementType.GridCell);
+        // children of parent diamonds 1 and 2
+        band.setMBS(EQCodes.pack(3, 4, LEVEL, 4), 16);
+        SetAttributes(band, 3, 0, 1f, 2f, 3f, 4f, 5f, 6f, 7f, 8f);
+        SetAttributes(band, 3, 8, ND, 9f, 4f, 4f, ND, ND, 2f, ND);
+
+        for (int r = 0; r < REDUCERS.length; ++r) {
+            FieldBand parent = FieldPyramid.reduce(band, REDUCERS[r]);
+            String name = "cell parent by " + REDUCERS[r];
+            Check(parent.getMBS(3).getOffsetCode() == EQCodes.pack(3, 4, LEVEL - 1, 1)
+                    && parent.getMBS(3).getSize() == 4 && null == parent.getMBS(2), "segment of " + name);
+
+            // upper of 1,3,4,7 and lower of 2,5,6,8
+            float[] upper = {3.75f, 1f, 7f, 1f};
+            float[] lower = {5.25f, 2f, 8f, 2f};
+            CheckParent(parent, EQCodes.pack(3, 4, LEVEL - 1, 1), upper[r], name);
+            CheckParent(parent, EQCodes.pack(3, 5, LEVEL - 1, 1), lower[r], name);
+            // upper of 4,4,2 with child 0 no data, lower of 9 only
+            upper = new float[]{(float) (10.0 / 3), 2f, 4f, 4f};
+            CheckParent(parent, EQCodes.pack(3, 4, LEVEL - 1, 2), upper[r], name);
+            CheckParent(parent, EQCodes.pack(3, 5, LEVEL - 1, 2), 9f, name);
+
+            float[] min = {(float) (10.0 / 3), 1f, 4f, 1f};
+            Check(parent.getMin() == min[r] && parent.getMax() == 9f, "range of " + name);
+        }
+    }
+
+    /**
+     * parent edge k holds edge k of child 0 and of child 1, 3 and 2 for edge 0, 1 and 2
+     */
+    private static void EdgeTest() {
+        FieldBand band = new FieldBand(ND, ElementType.GridEdge);
+        band.setMBS(EQCodes.pack(5, 1, LEVEL, 0), 12);
+        // children of edge 0 are 10 and no data, of edge 1 are 1 and 3, of edge 2 are both no data,
+        // and other edges of children aren't along a parent edge
+        SetAttributes(band, 5, 0, 10f, 1f, ND, ND, 100f, 100f, 100f, 100f, ND, 100f, 3f, 100f);
+
+        float[] edge1 = {2f, 1f, 3f, 1f};
+        for (int r = 0; r < REDUCERS.length; ++r) {
+            FieldBand parent = FieldPyramid.reduce(band, REDUCERS[r]);
+            String name = "edge parent by " + REDUCERS[r];
+            Check(parent.getMBS(5).getOffsetCode() == EQCodes.pack(5, 1, LEVEL - 1, 0)
+                    && parent.getMBS(5).getSize() == 3, "segment of " + name);
+
+            CheckParent(parent, EQCodes.pack(5, 1, LEVEL - 1, 0), 10f, name);
+            CheckParent(parent, EQCodes.pack(5, 2, LEVEL - 1, 0), edge1[r], name);
+            CheckParent(parent, EQCodes.pack(5, 3, LEVEL - 1, 0), ND, name);
+        }
+    }
+
+    /**
+     * parent node is node of child 0, other child nodes are dropped
+     */
+    private static void NodeTest() {
+        FieldBand band = new FieldBand(ND, ElementType.GridNode);
+        band.setMBS(EQCodes.pack(0, 0, LEVEL, 0), 8);
+        SetAttributes(band, 0, 0, 5f, 50f, 60f, 70f, ND, 50f, 60f, 70f);
+
+        for (Reducer reducer : REDUCERS) {
+            FieldBand parent = FieldPyramid.reduce(band, reducer);
+            String name = "node parent by " + reducer;
+            Check(parent.getMBS(0).getSize() == 2, "segment of " + name);
+            CheckParent(parent, EQCodes.pack(0, 0, LEVEL - 1, 0), 5f, name);
+            CheckParent(parent, EQCodes.pack(0, 0, LEVEL - 1, 1), ND, name);
+        }
+    }
+
+    /**
+     * children in gaps and after the last segment of a sparse band are no data, a parent over a gap is no data,
+     * and parent is dense over the min bound segment of band
+     */
+    private static void SparseTest() {
+        SparseFieldBand band = new SparseFieldBand(ND, ElementType.GridCell);
+        // positions 0-2, 6-10 and 24-25 from the first cell of domain
+        band.setMBS(EQCodes.pack(7, 4, LEVEL, 0), 3);
+        band.setMBS(EQCodes.pack(7, 4, LEVEL, 3), 5);
+        band.setMBS(EQCodes.pack(7, 4, LEVEL, 12), 2);
+        SetAttributes(band, 7, 0, 1f, 2f, 3f);
+        SetAttributes(band, 7, 6, 4f, 5f, 6f, 7f, 8f);
+        SetAttributes(band, 7, 24, 9f, 10f);
+
+        // parent 0 of 1,2,3,-,-,-,4,5, parent 1 of 6,7,8 and parent 3 of 9,10, upper cell of parent 0 is the min
+        float[][] expected = {
+                {(float) (8.0 / 3), 1f, 4f, 1f}, {3.5f, 2f, 5f, 2f},
+                {7f, 6f, 8f, 6f}, {7f, 7f, 7f, 7f},
+                {ND, ND, ND, ND}, {ND, ND, ND, ND},
+                {9f, 9f, 9f, 9f}, {10f, 10f, 10f, 10f}};
+        for (int r = 0; r < REDUCERS.length; ++r) {
+            FieldBand parent = FieldPyramid.reduce(band, REDUCERS[r]);
+            String name = "sparse parent by " + REDUCERS[r];
+            Check(!(parent instanceof SparseFieldBand) && parent.getMBS(7).getOffsetCode()
+                    == EQCodes.pack(7, 4, LEVEL - 1, 0) && parent.getMBS(7).getSize() == 8, "segment of " + name);
+            for (int pos = 0; pos < expected.length; ++pos) {
+                CheckParent(parent, EQCodes.pack(7, 4 + pos % 2, LEVEL - 1, pos / 2), expected[pos][r], name);
+            }
+            Check(parent.getMin() == expected[0][r] && parent.getMax() == 10f, "range of " + name);
+        }
+    }
+
+    /**
+     * overview levels of a layer are reduced level by level down to the min level
+     */
+    private static void OverviewTest() {
+        FieldBand band = new FieldBand(ND, ElementType.GridCell);
+        band.setMBS(EQCodes.pack(3, 4, LEVEL, 4), 16);
+        SetAttributes(band, 3, 0, 1f, 2f, 3f, 4f, 5f, 6f, 7f, 8f);
+        SetAttributes(band, 3, 8, ND, 9f, 4f, 4f, ND, ND, 2f, ND);
+        ArrayList<FieldBand> bands = new ArrayList<>();
+        bands.add(band);
+        FieldLayer layer = new FieldLayer("", LEVEL, BaseCode.CodeType.EQCode, bands);
+        Check(!layer.hasLevel(LEVEL - 1) && null == layer.getBands(0, LEVEL - 1), "overview before build");
+
+        layer.buildOverviews(0, Reducer.MEAN);
+        Check(layer.hasLevel(LEVEL) && layer.hasLevel(1) && layer.hasLevel(0), "levels of layer");
+        Check(layer.getAttribute(0, EQCodes.pack(3, 4, 1, 1)) == 3.75f
+                && layer.getAttribute(0, EQCodes.pack(3, 5, 1, 2)) == 9f, "attribute of level 1");
+
+        // upper of child 1 at level 1 and lower of child 2 at level 1, with child 0 and 3 no data
+        float upper = (float) ((3.75 + 5.25) / 2);
+        float lower = (float) (((double) (float) (10.0 / 3) + 9.0) / 2);
+        Check(layer.getAttribute(0, EQCodes.pack(3, 4, 0, 0)) == upper
+                && layer.getAttribute(0, EQCodes.pack(3, 5, 0, 0)) == lower, "attribute of level 0");
+
+        layer.addBand(band);
+        Check(!layer.hasLevel(0), "overview after addBand");
+    }
+
+    private static void CheckParent(FieldBand parent, long code, float expected, String name) {
+        float value = parent.getAttribute(code);
+        Check(value == expected, "morton " + EQCodes.morton(code) + " element " + EQCodes.element(code)
+                + " of " + name + " is " + value + ", expected " + expected);
+    }
+
+    private static void SetAttributes(FieldBand band, int domain, int pos, float... values) {
+        band.setAttributes(domain, pos, values, 0, values.length);
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
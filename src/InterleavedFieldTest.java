@@ -0,0 +1,161 @@
+import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.InterleavedField;
+import cn.edu.njnu.earthgrid.field.SparseFieldBand;
+import cn.edu.njnu.earthgrid.layer.FieldLayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * interleaved field test, pixels match bands, and bands of different layout are rejected
+ */
+public class InterleavedFieldTest {
+
+    private static final int LEVEL = 4;
+    private static final float NO_DATA = -9999f;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        LayerTest(random);
+        AddBandTest(random);
+        SparseTest(random);
+        RejectTest();
+        System.out.println("interleaved field test passed");
+    }
+
+    /**
+     * an interleaved layer reads same attributes by band, by pixel and by run of pixels
+     */
+    private static void LayerTest(Random random) {
+        ArrayList<FieldBand> bands = new ArrayList<>();
+        for (int b = 0; b < 3; ++b) {
+            bands.add(RandomBand(random, new int[]{1, 6}, new long[]{0, 50}));
+        }
+        FieldBand[] expected = bands.toArray(new FieldBand[0]);
+        FieldLayer layer = new FieldLayer("", LEVEL, BaseCode.CodeType.EQCode, bands);
+        layer.interleave();
+        Check(layer.isInterleaved(), "layer isn't interleaved");
+
+        float[] pixel = new float[3];
+        for (int domID : new int[]{1, 6}) {
+            long firstMorton = EQCodes.morton(expected[0].getMBS(domID).getOffsetCode());
+            int size = (int) expected[0].getMBS(domID).getSize();
+            float[] pixels = new float[size * 3];
+            layer.getPixels(domID, 0, size, pixels, 0);
+            for (int pos = 0; pos < size; ++pos) {
+                long code = EQCodes.pack(domID, 4 + pos % 2, LEVEL, firstMorton + pos / 2);
+                layer.getPixel(code, pixel, 0);
+                for (int b = 0; b < 3; ++b) {
+                    float value = expected[b].getAttribute(domID, pos);
+                    Check(layer.getBands(b).getAttribute(domID, pos) == value && pixels[pos * 3 + b] == value
+                            && pixel[b] == value, "attribute " + pos + " of band " + b + " of domain " + domID);
+                }
+            }
+        }
+    }
+
+    /**
+     * pixels of a layer are same band by band, interleaved, and after a band is added to the interleaved layer
+     */
+    private static void AddBandTest(Random random) {
+        ArrayList<FieldBand> bands = new ArrayList<>();
+        for (int b = 0; b < 2; ++b) {
+            bands.add(RandomBand(random, new int[]{7}, new long[]{30}));
+        }
+        FieldLayer layer = new FieldLayer("", LEVEL, BaseCode.CodeType.EQCode, bands);
+        int size = (int) bands.get(0).getMBS(7).getSize();
+        float[] expected = new float[size * 2];
+        layer.getPixels(7, 0, size, expected, 0);
+        Check(!layer.isInterleaved() && layer.getBands(0) == bands.get(0), "layer is interleaved without interleave");
+
+        layer.interleave();
+        FieldBand view = layer.getBands(1);
+        layer.addBand(RandomBand(random, new int[]{7}, new long[]{30}));
+        Check(!layer.isInterleaved() && null == layer.getInterleaved(), "layer is interleaved after addBand");
+        Check(layer.getBands(1) == view, "view is dropped by addBand");
+
+        float[] pixels = new float[size * 2];
+        layer.getPixels(7, 0, size, pixels, 0);
+        Check(Arrays.equals(expected, pixels), "pixels after addBand");
+    }
+
+    /**
+     * sparse bands sharing segments are interleaved, gaps read as no data value
+     */
+    private static void SparseTest(Random random) {
+        ArrayList<FieldBand> bands = new ArrayList<>();
+        for (int b = 0; b < 2; ++b) {
+            SparseFieldBand band = new SparseFieldBand(NO_DATA, ElementType.GridCell);
+            // segments start at an upper and at a lower cell
+            band.setMBS(EQCodes.pack(3, 4, LEVEL, 10), 7);
+            band.setMBS(EQCodes.pack(3, 5, LEVEL, 40), 9);
+            for (int pos : new int[]{0, 6, 61, 69}) {
+                band.addAttribute(3, pos, random.nextFloat());
+            }
+            bands.add(band);
+        }
+        InterleavedField field = new InterleavedField(bands);
+
+        float[] pixel = new float[2];
+        for (int pos = 0; pos < bands.get(0).getMBS(3).getSize(); ++pos) {
+            field.getPixel(3, pos, pixel, 0);
+            for (int b = 0; b < 2; ++b) {
+                Check(pixel[b] == bands.get(b).getAttribute(3, pos), "sparse attribute " + pos + " of band " + b);
+            }
+        }
+        Check(field.getBand(0).getAttribute(3, 20) == NO_DATA, "gap of sparse band");
+    }
+
+    /**
+     * bands differing in element type or segments throw IllegalArgumentException, also without assertions
+     */
+    private static void RejectTest() {
+        Random random = new Random(1);
+        FieldBand band = RandomBand(random, new int[]{2}, new long[]{0});
+
+        FieldBand edges = new FieldBand(NO_DATA, ElementType.GridEdge);
+        edges.setMBS(band.getMBS(2).getOffsetCode(), (int) band.getMBS(2).getSize());
+        FieldBand shifted = RandomBand(random, new int[]{2}, new long[]{1});
+        FieldBand shorter = new FieldBand(NO_DATA, ElementType.GridCell);
+        shorter.setMBS(band.getMBS(2).getOffsetCode(), (int) band.getMBS(2).getSize() - 1);
+        FieldBand otherDomain = RandomBand(random, new int[]{2, 5}, new long[]{0, 0});
+
+        for (FieldBand other : new FieldBand[]{edges, shifted, shorter, otherDomain}) {
+            Check(Rejects(Arrays.asList(band, other)), "bands of different layout are interleaved");
+            Check(Rejects(Arrays.asList(other, band)), "bands of different layout are interleaved");
+        }
+        Check(Rejects(new ArrayList<>()), "no band is interleaved");
+    }
+
+    private static boolean Rejects(List<FieldBand> bands) {
+        try {
+            new InterleavedField(bands);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static FieldBand RandomBand(Random random, int[] domains, long[] firstMorton) {
+        FieldBand band = new FieldBand(NO_DATA, ElementType.GridCell);
+        for (int k = 0; k < domains.length; ++k) {
+            int size = 2 * (int) ((1L << (2 * LEVEL)) - firstMorton[k]);
+            band.setMBS(EQCodes.pack(domains[k], 4, LEVEL, firstMorton[k]), size);
+            for (int pos = 0; pos < size; ++pos) {
+                band.addAttribute(domains[k], pos, random.nextFloat() * 255f);
+            }
+        }
+        return band;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQLineWalker;
+import cn.edu.njnu.earthgrid.core.codes.EQTopology;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * continuity test of EQLineWalker, consecutive cells share an edge and no cell is walked twice
+ */
+public class LineWalkerTest {
+
+    private static final int MIN_LEVEL = 3;
+    private static final int MAX_LEVEL = 14;
+    private static final int ARCS = 20000;
+
+    /**
+     * about number of cells of the longest arc
+     */
+    private static final int MAX_CELLS = 2000;
+
+    public static void main(String[] args) {
+        EQLineWalker walker = new EQLineWalker();
+        VertexTest(walker);
+
+        Random random = new Random(0);
+        for (int k = 0; k < ARCS; ++k) {
+            int level = MIN_LEVEL + random.nextInt(MAX_LEVEL - MIN_LEVEL + 1);
+            // cells of level are about 63 / 2^level degrees wide
+            double span = random.nextDouble() * Math.min(170., MAX_CELLS * 63. / (1 << level));
+            double lon = random.nextDouble() * 360. - 180., lat = Math.toDegrees(Math.asin(random.nextDouble() * 2 - 1));
+            double endLon = lon + (random.nextDouble() - 0.5) * span;
+            double endLat = Math.max(-89.9, Math.min(89.9, lat + (random.nextDouble() - 0.5) * span));
+            endLon = endLon > 180. ? endLon - 360. : (endLon < -180. ? endLon + 360. : endLon);
+
+            long start = EQCodes.encode(lon, lat, level, ElementType.GridCell);
+            long end = EQCodes.encode(endLon, endLat, level, ElementType.GridCell);
+            walker.walk(start, end);
+            ArcTest(walker, start, end);
+        }
+        PolylineTest(walker, random);
+        System.out.println("line walker test passed");
+    }
+
+    /**
+     * arc through a vertex of level 3, cells only touching the vertex were emitted and skipped before
+     */
+    private static void VertexTest(EQLineWalker walker) {
+        long start = EQCodes.encode(128.1392, 20.9608, 3, ElementType.GridCell);
+        long end = EQCodes.encode(135.7945, 25.0779, 3, ElementType.GridCell);
+        walker.walk(start, end);
+        ArcTest(walker, start, end);
+    }
+
+    private static void ArcTest(EQLineWalker walker, long start, long end) {
+        int size = walker.size();
+        String arc = EQCodeFormat.toString(start) + " to " + EQCodeFormat.toString(end);
+        Check(walker.getCode(0) == start, "walk doesn't start at start cell " + arc);
+        Check(walker.getCode(size - 1) == end, "walk doesn't reach end cell " + arc);
+        Check(start != end || size == 1, "walk of one cell " + arc);
+
+        HashSet<Long> seen = new HashSet<>();
+        long[] neighbors = new long[3];
+        for (int k = 0; k < size; ++k) {
+            long cell = walker.getCode(k);
+            Check(seen.add(cell), "cell " + EQCodeFormat.toString(cell) + " is walked twice " + arc);
+            if (k > 0) {
+                EQTopology.edgeNeighbors(walker.getCode(k - 1), neighbors, 0);
+                Check(neighbors[0] == cell || neighbors[1] == cell || neighbors[2] == cell,
+                        "cells " + EQCodeFormat.toString(walker.getCode(k - 1)) + " and "
+                                + EQCodeFormat.toString(cell) + " don't share an edge " + arc);
+            }
+        }
+    }
+
+    /**
+     * cells along a polyline share edges, break points are walked once
+     */
+    private static void PolylineTest(EQLineWalker walker, Random random) {
+        for (int k = 0; k < 100; ++k) {
+            int level = MIN_LEVEL + random.nextInt(6);
+            long[] cells = new long[2 + random.nextInt(6)];
+            double lon = random.nextDouble() * 300. - 150., lat = random.nextDouble() * 120. - 60.;
+            for (int p = 0; p < cells.length; ++p) {
+                cells[p] = EQCodes.encode(lon, lat, level, ElementType.GridCell);
+                lon = Math.max(-179., Math.min(179., lon + (random.nextDouble() - 0.5) * 20.));
+                lat = Math.max(-85., Math.min(85., lat + (random.nextDouble() - 0.5) * 20.));
+            }
+
+            int size = walker.walk(cells, 0, cells.length);
+            long[] neighbors = new long[3];
+            int breaks = 0;
+            for (int index = 0; index < size; ++index) {
+                long cell = walker.getCode(index);
+                if (breaks < cells.length && cell == cells[breaks]) {
+                    ++breaks;
+                }
+                if (index > 0) {
+                    EQTopology.edgeNeighbors(walker.getCode(index - 1), neighbors, 0);
+                    Check(neighbors[0] == cell || neighbors[1] == cell || neighbors[2] == cell,
+                            "polyline cells don't share an edge");
+                }
+            }
+            Check(breaks == cells.length || HasRepeat(cells), "break points aren't walked in order");
+        }
+    }
+
+    private static boolean HasRepeat(long[] cells) {
+        for (int k = 1; k < cells.length; ++k) {
+            if (cells[k] == cells[k - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
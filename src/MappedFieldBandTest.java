@@ -0,0 +1,203 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.field.ChunkedFieldBand;
+import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.MappedFieldBand;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+import java.util.Random;
+
+/**
+ * MappedFieldBand test, attributes survive create, copy, force and open, and a read only or chunked band isn't set
+ */
+public class MappedFieldBandTest {
+
+    private static final int LEVEL = 6;
+    private static final float NO_DATA = -9999f;
+
+    /**
+     * domains of segments, and first diamond of each
+     */
+    private static final int[] DOMAINS = {0, 4, 9};
+    private static final long[] FIRST_MORTON = {0, 100, 4000};
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("mapped", ".band");
+        file.deleteOnExit();
+        try {
+            FieldBand band = RandomBand(new Random(0));
+            CopyTest(band, file.getPath());
+            ReopenTest(band, file.getPath());
+            ReadOnlyTest(band, file.getPath());
+            ChunkedTest(band, file.getPath());
+            CreateTest(file.getPath());
+        } finally {
+            file.delete();
+        }
+        System.out.println("mapped field band test passed");
+    }
+
+    /**
+     * a band copied into a file reads same attributes and range
+     */
+    private static void CopyTest(FieldBand band, String fileName) throws IOException {
+        MappedFieldBand mapped = MappedFieldBand.create(band, fileName);
+        Check(mapped.isWritable(), "created band is writable");
+        SameTest(band, mapped, "copied band");
+        mapped.force();
+    }
+
+    /**
+     * attributes set on a writable band are in the file after force
+     */
+    private static void ReopenTest(FieldBand band, String fileName) throws IOException {
+        MappedFieldBand writable = MappedFieldBand.open(fileName, true);
+        SameTest(band, writable, "opened band");
+
+        Random random = new Random(1);
+        float[] values = new float[500];
+        for (int k = 0; k < values.length; ++k) {
+            values[k] = random.nextFloat() * 100f;
+        }
+        int domain = DOMAINS[1];
+        writable.setAttributes(domain, 20, values, 0, values.length);
+        band.setAttributes(domain, 20, values, 0, values.length);
+        long code = EQCodes.pack(domain, 5, LEVEL, FIRST_MORTON[1] + 3);
+        writable.addAttribute(code, 42f);
+        band.addAttribute(code, 42f);
+        writable.setMax(1000f);
+        band.setMax(1000f);
+        writable.force();
+
+        SameTest(band, MappedFieldBand.open(fileName, false), "band reopened after force");
+    }
+
+    /**
+     * a band opened read only throws on setting attributes, and keeps its values
+     */
+    private static void ReadOnlyTest(FieldBand band, String fileName) throws IOException {
+        MappedFieldBand readOnly = MappedFieldBand.open(fileName, false);
+        Check(!readOnly.isWritable(), "band opened read only is writable");
+
+        int domain = DOMAINS[0];
+        boolean thrown = false;
+        try {
+            readOnly.addAttribute(domain, 0, 1f);
+        } catch (ReadOnlyBufferException e) {
+            thrown = true;
+        }
+        Check(thrown, "addAttribute on read only band");
+
+        thrown = false;
+        try {
+            readOnly.setAttributes(domain, 0, new float[]{1f, 2f}, 0, 2);
+        } catch (ReadOnlyBufferException e) {
+            thrown = true;
+        }
+        Check(thrown, "setAttributes on read only band");
+
+        readOnly.force();
+        SameTest(band, readOnly, "read only band");
+    }
+
+    /**
+     * a chunked band of the file reads same attributes, and throws on setting attributes as a read only band
+     */
+    private static void ChunkedTest(FieldBand band, String fileName) throws IOException {
+        try (ChunkedFieldBand chunked = ChunkedFieldBand.open(fileName, 3, 1 << 12)) {
+            SameTest(band, chunked, "chunked band");
+
+            boolean thrown = false;
+            try {
+                chunked.addAttribute(DOMAINS[0], 0, 1f);
+            } catch (ReadOnlyBufferException e) {
+                thrown = true;
+            }
+            Check(thrown, "addAttribute on chunked band");
+
+            thrown = false;
+            try {
+                chunked.setAttributes(DOMAINS[0], 0, new float[]{1f, 2f}, 0, 2);
+            } catch (ReadOnlyBufferException e) {
+                thrown = true;
+            }
+            Check(thrown, "setAttributes on chunked band");
+        }
+    }
+
+    /**
+     * a new band file holds no data value in every position
+     */
+    private static void CreateTest(String fileName) throws IOException {
+        long[] offsets = new long[DOMAINS.length];
+        int[] sizes = new int[DOMAINS.length];
+        for (int k = 0; k < DOMAINS.length; ++k) {
+            offsets[k] = EQCodes.pack(DOMAINS[k], 4, LEVEL, FIRST_MORTON[k]);
+            sizes[k] = 2 * (int) ((1L << (2 * LEVEL)) - FIRST_MORTON[k]);
+        }
+        MappedFieldBand band = MappedFieldBand.create(fileName, NO_DATA, ElementType.GridCell, offsets, sizes);
+        Check(band.getMBSCount() == DOMAINS.length, "segments of new band");
+        for (int k = 0; k < DOMAINS.length; ++k) {
+            Check(band.getMBS(DOMAINS[k]).getOffsetCode() == offsets[k]
+                    && band.getMBS(DOMAINS[k]).getSize() == sizes[k], "segment of domain " + DOMAINS[k]);
+            float[] values = new float[sizes[k]];
+            band.getAttributes(DOMAINS[k], 0, values, 0, sizes[k]);
+            for (float value : values) {
+                Check(value == NO_DATA, "attribute of new band isn't no data value");
+            }
+        }
+    }
+
+    private static void SameTest(FieldBand expected, FieldBand band, String name) {
+        Check(band.getNoData() == expected.getNoData() && band.getElementType() == expected.getElementType(),
+                "no data value or element type of " + name);
+        Check(band.getMin() == expected.getMin() && band.getMax() == expected.getMax(), "range of " + name);
+        Check(band.getMBSCount() == expected.getMBSCount(), "segments of " + name);
+        for (int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID) {
+            FieldBand.MinBoundSeg mbs = expected.getMBS(domID);
+            if (null == mbs) {
+                Check(null == band.getMBS(domID), "segment of domain " + domID + " of " + name);
+                continue;
+            }
+            Check(band.getMBS(domID).getOffsetCode() == mbs.getOffsetCode()
+                    && band.getMBS(domID).getSize() == mbs.getSize(), "segment of domain " + domID + " of " + name);
+
+            int size = (int) mbs.getSize();
+            float[] values = new float[size];
+            band.getAttributes(domID, 0, values, 0, size);
+            for (int pos = 0; pos < size; ++pos) {
+                Check(values[pos] == expected.getAttribute(domID, pos) && band.getAttribute(domID, pos) == values[pos],
+                        "attribute " + pos + " of domain " + domID + " of " + name);
+            }
+        }
+    }
+
+    private static FieldBand RandomBand(Random random) {
+        FieldBand band = new FieldBand(NO_DATA, ElementType.GridCell);
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (int k = 0; k < DOMAINS.length; ++k) {
+            int size = 2 * (int) ((1L << (2 * LEVEL)) - FIRST_MORTON[k]);
+            band.setMBS(EQCodes.pack(DOMAINS[k], 4, LEVEL, FIRST_MORTON[k]), size);
+            for (int pos = 0; pos < size; ++pos) {
+                // some positions are left as no data value
+                if (random.nextInt(10) != 0) {
+                    float value = random.nextFloat() * 200f - 100f;
+                    band.addAttribute(DOMAINS[k], pos, value);
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+        band.setMin(min);
+        band.setMax(max);
+        return band;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.data.Raster;
+import cn.edu.njnu.earthgrid.field.SparseFieldBand;
+import cn.edu.njnu.earthgrid.layer.FieldLayer;
+
+import java.util.ArrayList;
+
+/**
+ * raster test, a regional raster is stored only in segments covering it, shared by all bands
+ */
+public class RasterTest {
+
+    private static final int LEVEL = 6;
+    private static final float NO_DATA = -9999f;
+
+    public static void main(String[] args) {
+        // 10 x 10 degrees east of 100E and south of 30N, so extent is checked on every side
+        Raster raster = RegionalRaster(100f, 30f, 0.1f, 100, 100);
+        FieldLayer layer = raster.toFieldLayer("", LEVEL, BaseCode.CodeType.EQCode, ElementType.GridCell);
+        Check(layer.getBandNum() == 2, "band number");
+
+        SparseFieldBand band = (SparseFieldBand) layer.getBands(0);
+        SparseFieldBand other = (SparseFieldBand) layer.getBands(1);
+        int covered = 0;
+        for (int domID = 0; domID < 10; ++domID) {
+            boolean[] inside = Inside(raster, domID);
+            for (boolean in : inside) {
+                covered += in ? 1 : 0;
+            }
+            SegmentTest(band, inside, domID);
+            SharedTest(band, other, domID);
+        }
+
+        long cells = 20L << (2 * LEVEL);
+        Check(covered > 0, "raster covers no cell");
+        Check(band.getAttributeCount() >= covered && band.getAttributeCount() < cells / 100,
+                "regional raster stores " + band.getAttributeCount() + " of " + cells + " cells for "
+                        + covered + " covered cells");
+        System.out.println("raster test passed");
+    }
+
+    /**
+     * segments of domain are the covered cells, joined across gaps up to SPARSE_MAX_GAP, and cells out of
+     * raster are no data
+     */
+    private static void SegmentTest(SparseFieldBand band, boolean[] inside, int domID) {
+        ArrayList<int[]> expected = new ArrayList<>();
+        int last = -1;
+        for (int pos = 0; pos < inside.length; ++pos) {
+            if (!inside[pos]) {
+                continue;
+            }
+            if (last >= 0 && pos - last - 1 <= Raster.SPARSE_MAX_GAP) {
+                expected.get(expected.size() - 1)[1] = pos + 1;
+            } else {
+                expected.add(new int[]{pos, pos + 1});
+            }
+            last = pos;
+        }
+
+        Check(band.getSegmentCount(domID) == expected.size(), "segment count " + band.getSegmentCount(domID)
+                + " of domain " + domID + ", expected " + expected.size());
+        for (int seg = 0; seg < expected.size(); ++seg) {
+            long offset = band.getSegmentOffset(domID, seg);
+            int start = (int) (EQCodes.morton(offset) * 2 + EQCodes.element(offset) - 4);
+            Check(start == expected.get(seg)[0] && band.getSegmentSize(domID, seg) == expected.get(seg)[1] - start,
+                    "segment " + seg + " of domain " + domID);
+        }
+
+        for (int pos = 0; pos < inside.length; ++pos) {
+            float value = band.getAttribute(EQCodes.pack(domID, 4 + pos % 2, LEVEL, pos / 2));
+            Check(inside[pos] == (value != NO_DATA), "cell " + pos + " of domain " + domID + " reads " + value);
+        }
+    }
+
+    /**
+     * bands of a raster have same segments
+     */
+    private static void SharedTest(SparseFieldBand band, SparseFieldBand other, int domID) {
+        Check(band.getSegmentCount(domID) == other.getSegmentCount(domID), "segment count of bands in " + domID);
+        for (int seg = 0; seg < band.getSegmentCount(domID); ++seg) {
+            Check(band.getSegmentOffset(domID, seg) == other.getSegmentOffset(domID, seg)
+                    && band.getSegmentSize(domID, seg) == other.getSegmentSize(domID, seg),
+                    "segment " + seg + " of bands in domain " + domID);
+        }
+    }
+
+    /**
+     * whether center of each cell of domain is in raster, by position from the first cell of domain
+     */
+    private static boolean[] Inside(Raster raster, int domID) {
+        boolean[] inside = new boolean[2 << (2 * LEVEL)];
+        for (int pos = 0; pos < inside.length; ++pos) {
+            SpericalCoord sc = EQCodes.toSpericalCoord(EQCodes.pack(domID, 4 + pos % 2, LEVEL, pos / 2));
+            inside[pos] = raster.isInExtent(sc.getLongitude(), sc.getLatitude());
+        }
+        return inside;
+    }
+
+    private static Raster RegionalRaster(float left, float top, float cellSize, int rows, int cols) {
+        Raster raster = new Raster(left, top, cellSize, -cellSize, rows, cols, 2);
+        for (int b = 0; b < 2; ++b) {
+            float[] data = new float[rows * cols];
+            for (int row = 0; row < rows; ++row) {
+                for (int col = 0; col < cols; ++col) {
+                    data[row * cols + col] = 1f + row + (b + 1) * col;
+                }
+            }
+            raster.setBand(b, data);
+            raster.setNoData(b, NO_DATA);
+            raster.setMin(b, 1f);
+            raster.setMax(b, rows + (b + 1) * cols);
+        }
+        return raster;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
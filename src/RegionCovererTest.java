@@ -0,0 +1,184 @@
+import cn.edu.njnu.earthgrid.core.codes.CellUnion;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.feature.Extent;
+import cn.edu.njnu.earthgrid.feature.Point;
+import cn.edu.njnu.earthgrid.feature.Polygon;
+import cn.edu.njnu.earthgrid.feature.Polyline;
+import cn.edu.njnu.earthgrid.operation.RegionCoverer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * RegionCoverer test against the full scan of every cell of a level by MathUtil.Contain
+ */
+public class RegionCovererTest {
+
+    private static final int MIN_LEVEL = 4;
+    private static final int MAX_LEVEL = 7;
+
+    /**
+     * {center lon, center lat, radius, vertex count} of exterior ring, then of each inner ring
+     */
+    private static final double[][][] POLYGONS = {
+            {{30, 20, 25, 17}, {28, 18, 8, 9}},
+            {{-100, 55, 20, 23}, {-105, 55, 5, 7}, {-92, 60, 4, 11}},
+            {{0, -30, 35, 31}},
+            {{120, -65, 12, 13}, {121, -64, 3, 5}},
+    };
+
+    public static void main(String[] args) {
+        for (double[][] rings : POLYGONS) {
+            Polygon polygon = StarPolygon(rings);
+            for (int level = MIN_LEVEL; level <= MAX_LEVEL; ++level) {
+                HashSet<Long> expected = FullScan(polygon, level);
+                FullScanTest(polygon, level, expected);
+                MaxCellsTest(polygon, level, expected, 100);
+                MaxCellsTest(polygon, level, expected, 1000);
+            }
+        }
+        System.out.println("region coverer test passed");
+    }
+
+    /**
+     * without limit of cells, interior is the full scan
+     */
+    private static void FullScanTest(Polygon polygon, int level, HashSet<Long> expected) {
+        RegionCoverer coverer = new RegionCoverer(level);
+        coverer.cover(polygon);
+        HashSet<Long> interior = ToSet(coverer.getInterior().toCodes(level));
+        Check(interior.equals(expected), "interior at level " + level + ": " + interior.size()
+                + " cells, full scan " + expected.size());
+
+        long count = 0;
+        for (long cell : coverer.getCells()) {
+            count += 1L << (2 * (level - EQCodes.level(cell)));
+        }
+        Check(count == expected.size(), "getCells at level " + level);
+    }
+
+    /**
+     * with limit of cells, interior is in full scan and boundary covers the rest of it
+     * note: coarse boundary cells are crossed by a ring edge in their lon/lat box, which is larger than cell,
+     *       so some of them may be wholly in or out of polygon
+     */
+    private static void MaxCellsTest(Polygon polygon, int level, HashSet<Long> expected, int maxCells) {
+        RegionCoverer coverer = new RegionCoverer(0, level, maxCells);
+        coverer.cover(polygon);
+        CellUnion interior = coverer.getInterior(), boundary = coverer.getBoundary();
+
+        HashSet<Long> inner = ToSet(interior.toCodes(level));
+        Check(expected.containsAll(inner), "interior out of full scan at level " + level + ", max cells " + maxCells);
+
+        HashSet<Long> covered = new HashSet<>(inner);
+        covered.addAll(ToSet(boundary.toCodes(level)));
+        Check(covered.containsAll(expected), "full scan isn't covered at level " + level + ", max cells " + maxCells);
+
+        // boundary left coarser than level by maxCells, siblings of it may be merged to parents
+        long[] coarse = boundary.toCodes();
+        int finest = -1;
+        for (long cell : coarse) {
+            finest = Math.max(finest, EQCodes.level(cell));
+        }
+        if (finest >= 0 && finest < level) {
+            Check(interior.toCodes().length + coarse.length <= maxCells,
+                    "more than " + maxCells + " cells at level " + level);
+            Check(!interior.intersects(boundary), "coarse boundary in interior at level " + level);
+        }
+    }
+
+    /**
+     * every cell of level whose center is in polygon, as the polygon renderer scanned before RegionCoverer
+     */
+    private static HashSet<Long> FullScan(Polygon polygon, int level) {
+        ArrayList<SpericalCoord> exterior = new ArrayList<>();
+        ArrayList<ArrayList<SpericalCoord>> inners = new ArrayList<>();
+        Set<Integer> domains = new HashSet<>();
+        MathUtil.DecodePolyline(polygon.getExteriorRing(), exterior, domains);
+        for (int ringID = 0; ringID < polygon.getRingNum() - 1; ++ringID) {
+            ArrayList<SpericalCoord> inner = new ArrayList<>();
+            MathUtil.DecodePolyline(polygon.getInnerRing(ringID), inner, domains);
+            inners.add(inner);
+        }
+
+        HashSet<Long> cells = new HashSet<>();
+        long n = 1L << level;
+        for (int domain = 0; domain < 10; ++domain) {
+            for (long morton = 0; morton < n * n; ++morton) {
+                for (int element = 4; element <= 5; ++element) {
+                    long cell = EQCodes.pack(domain, element, level, morton);
+                    SpericalCoord sc = EQCodes.toSpericalCoord(cell);
+                    if (!polygon.getExtend().Contains(sc) || !MathUtil.Contain(exterior, sc)) {
+                        continue;
+                    }
+                    boolean hole = false;
+                    for (ArrayList<SpericalCoord> inner : inners) {
+                        hole |= MathUtil.Contain(inner, sc);
+                    }
+                    if (!hole) {
+                        cells.add(cell);
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * polygon of star shaped rings, vertices are nodes of level 20, extent is as ShapeReaderWriter builds it
+     */
+    private static Polygon StarPolygon(double[][] rings) {
+        ArrayList<Polyline> inners = new ArrayList<>();
+        Polyline exterior = null;
+        double minLon = 180, maxLon = -180, minLat = 90, maxLat = -90;
+        for (int ringID = 0; ringID < rings.length; ++ringID) {
+            double lon0 = rings[ringID][0], lat0 = rings[ringID][1], radius = rings[ringID][2];
+            int count = (int) rings[ringID][3];
+            long[] codes = new long[count + 1];
+            for (int k = 0; k < count; ++k) {
+                double angle = 2 * MathUtil.PI * k / count;
+                double r = radius * (k % 2 == 0 ? 1. : 0.6);
+                double lon = lon0 + r * Math.cos(angle), lat = lat0 + r * Math.sin(angle);
+                codes[k] = EQCodes.encode(lon, lat, 20, ElementType.GridNode);
+                minLon = Math.min(minLon, lon);
+                maxLon = Math.max(maxLon, lon);
+                minLat = Math.min(minLat, lat);
+                maxLat = Math.max(maxLat, lat);
+            }
+            codes[count] = codes[0];
+            Polyline ring = new Polyline(codes, count + 1);
+            if (ringID == 0) {
+                exterior = ring;
+            } else {
+                inners.add(ring);
+            }
+        }
+
+        Polygon polygon = new Polygon(exterior, inners);
+        polygon.setExtend(new Extent(CornerPoint(minLon, maxLat), CornerPoint(maxLon, maxLat),
+                CornerPoint(minLon, minLat), CornerPoint(maxLon, minLat)));
+        return polygon;
+    }
+
+    private static Point CornerPoint(double lon, double lat) {
+        return new Point(EQCodes.encode(lon, lat, 20, ElementType.GridCell));
+    }
+
+    private static HashSet<Long> ToSet(long[] codes) {
+        HashSet<Long> set = new HashSet<>();
+        for (long code : codes) {
+            set.add(code);
+        }
+        return set;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQRings;
+import cn.edu.njnu.earthgrid.core.codes.EQTopology;
+import cn.edu.njnu.earthgrid.core.geometry.CartesianCoord;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * k-ring and disk test of EQRings against a reference BFS and a brute-force distance scan
+ */
+public class RingsTest {
+
+    private static final int MAX_LEVEL = 4;
+    private static final int CENTERS = 40;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        EQRings walker = new EQRings();
+        for (int level = 0; level <= MAX_LEVEL; ++level) {
+            for (int c = 0; c < CENTERS; ++c) {
+                long cell = RandomCell(random, level);
+                KRingTest(walker, cell, random.nextInt(6));
+                DiskTest(walker, cell, random.nextDouble() * 3000000.);
+            }
+        }
+        ReuseTest(walker, random);
+        System.out.println("rings test passed");
+    }
+
+    /**
+     * rings are BFS layers over vertex neighbors
+     */
+    private static void KRingTest(EQRings walker, long cell, int k) {
+        HashMap<Long, Integer> layers = Bfs(cell, k);
+        int size = walker.kRing(cell, k);
+        Check(size == layers.size(), "kRing size " + size + " expected " + layers.size() + " of " + cell);
+
+        HashSet<Long> seen = new HashSet<>();
+        for (int ring = 0; ring < walker.ringCount(); ++ring) {
+            for (int index = walker.ringStart(ring); index < walker.ringStart(ring + 1); ++index) {
+                long code = walker.getCode(index);
+                Check(seen.add(code), "duplicate cell " + code + " in kRing of " + cell);
+                Integer layer = layers.get(code);
+                Check(null != layer && layer == ring, "cell " + code + " in ring " + ring + " of " + cell);
+            }
+        }
+    }
+
+    /**
+     * disk is the cells whose centers are within distance, cells on the limit aren't checked
+     */
+    private static void DiskTest(EQRings walker, long cell, double meters) {
+        int size = walker.disk(cell, meters);
+        HashSet<Long> disk = new HashSet<>();
+        for (int index = 0; index < size; ++index) {
+            Check(disk.add(walker.getCode(index)), "duplicate cell in disk of " + cell);
+        }
+
+        double angle = Math.min(meters / MathUtil.RADIUS, MathUtil.PI);
+        double limit = 2 * MathUtil.RADIUS * Math.sin(angle / 2);
+        CartesianCoord center = Center(cell);
+        int level = EQCodes.level(cell);
+        long n = 1L << level;
+        for (int domain = 0; domain < 10; ++domain) {
+            for (long morton = 0; morton < n * n; ++morton) {
+                for (int element = 4; element <= 5; ++element) {
+                    long code = EQCodes.pack(domain, element, level, morton);
+                    double dist = Distance(center, Center(code));
+                    if (Math.abs(dist - limit) < 1e-6 * MathUtil.RADIUS) {
+                        continue;
+                    }
+                    Check((dist < limit) == disk.contains(code),
+                            "cell " + code + " at " + dist + " of disk " + limit + " around " + cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * small queries after a large one give the same cells as a new walker
+     */
+    private static void ReuseTest(EQRings walker, Random random) {
+        walker.kRing(RandomCell(random, 12), 300);
+        EQRings fresh = new EQRings();
+        for (int c = 0; c < CENTERS; ++c) {
+            long cell = RandomCell(random, 10);
+            int size = walker.kRing(cell, 3);
+            Check(size == fresh.kRing(cell, 3), "kRing size after a large kRing");
+            for (int index = 0; index < size; ++index) {
+                Check(walker.getCode(index) == fresh.getCode(index), "kRing cell after a large kRing");
+            }
+        }
+    }
+
+    private static HashMap<Long, Integer> Bfs(long cell, int k) {
+        HashMap<Long, Integer> layers = new HashMap<>();
+        ArrayList<Long> front = new ArrayList<>();
+        layers.put(cell, 0);
+        front.add(cell);
+        long[] neighbors = new long[EQTopology.MAX_VERTEX_NEIGHBORS];
+        for (int ring = 1; ring <= k; ++ring) {
+            ArrayList<Long> next = new ArrayList<>();
+            for (long code : front) {
+                int count = EQTopology.vertexNeighbors(code, neighbors, 0);
+                for (int t = 0; t < count; ++t) {
+                    if (!layers.containsKey(neighbors[t])) {
+                        layers.put(neighbors[t], ring);
+                        next.add(neighbors[t]);
+                    }
+                }
+            }
+            front = next;
+        }
+        return layers;
+    }
+
+    private static long RandomCell(Random random, int level) {
+        long n = 1L << level;
+        return EQCodes.pack(random.nextInt(10), 4 + random.nextInt(2), level, (long) (random.nextDouble() * n * n));
+    }
+
+    private static CartesianCoord Center(long cell) {
+        return CartesianCoord.FromSpericalCoord(EQCodes.toSpericalCoord(cell));
+    }
+
+    private static double Distance(CartesianCoord a, CartesianCoord b) {
+        double dx = a.getX() - b.getX(), dy = a.getY() - b.getY(), dz = a.getZ() - b.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
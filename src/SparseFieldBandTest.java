@@ -0,0 +1,278 @@
+import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.data.EQGridReaderWriter;
+import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.SparseFieldBand;
+import cn.edu.njnu.earthgrid.layer.FieldLayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/**
+ * SparseFieldBand test, positions are found at segment bounds and in gaps, gaps read as no data value,
+ * segments survive a field file, and a field file band of several segments a domain must be float32
+ */
+public class SparseFieldBandTest {
+
+    private static final int LEVEL = 5;
+    private static final float NO_DATA = -9999f;
+
+    /**
+     * segments of domain 4 as first and last position from the first cell of domain, and a segment of domain 9
+     */
+    private static final int[][] SEGMENTS = {{10, 19}, {25, 25}, {26 + 64, 26 + 64 + 40}, {1000, 1023}};
+    private static final int[] SEGMENT_9 = {3, 8};
+
+    public static void main(String[] args) throws IOException {
+        SparseFieldBand band = NewBand();
+        SearchTest(band);
+        RangeTest(band);
+        BuilderTest();
+        File file = File.createTempFile("sparse", ".eqf");
+        file.deleteOnExit();
+        try {
+            RoundTripTest(band, file);
+            RejectTest(band, file);
+        } finally {
+            file.delete();
+        }
+        System.out.println("sparse field band test passed");
+    }
+
+    /**
+     * attribute of each position is found by its segment, first and last position of a segment, positions
+     * next to it in a gap, and positions before the first and after the last segment
+     */
+    private static void SearchTest(SparseFieldBand band) {
+        Check(band.getSegmentCount(4) == SEGMENTS.length && band.getSegmentCount(9) == 1
+                && band.getSegmentCount(0) == 0 && band.getSegmentCount() == SEGMENTS.length + 1, "segment count");
+        Check(band.getMBS(4).getOffsetCode() == Cell(4, SEGMENTS[0][0])
+                && band.getMBS(4).getSize() == SEGMENTS[SEGMENTS.length - 1][1] - SEGMENTS[0][0] + 1,
+                "min bound segment");
+
+        for (int seg = 0; seg < SEGMENTS.length; ++seg) {
+            int first = SEGMENTS[seg][0], last = SEGMENTS[seg][1];
+            Check(band.getSegmentOffset(4, seg) == Cell(4, first) && band.getSegmentSize(4, seg) == last - first + 1,
+                    "segment " + seg);
+            CheckCell(band, 4, first, Value(4, first));
+            CheckCell(band, 4, last, Value(4, last));
+            CheckCell(band, 4, (first + last) / 2, Value(4, (first + last) / 2));
+            if (seg > 0 && SEGMENTS[seg - 1][1] + 1 < first) {
+                CheckCell(band, 4, first - 1, NO_DATA);
+            }
+            if (seg + 1 < SEGMENTS.length && last + 1 < SEGMENTS[seg + 1][0]) {
+                CheckCell(band, 4, last + 1, NO_DATA);
+            }
+        }
+        // before the first and after the last segment, and domains without segment
+        CheckCell(band, 4, 0, NO_DATA);
+        CheckCell(band, 4, SEGMENTS[0][0] - 1, NO_DATA);
+        CheckCell(band, 4, SEGMENTS[SEGMENTS.length - 1][1] + 1, NO_DATA);
+        CheckCell(band, 4, (2 << (2 * LEVEL)) - 1, NO_DATA);
+        CheckCell(band, 9, SEGMENT_9[0], Value(9, SEGMENT_9[0]));
+        CheckCell(band, 0, 0, NO_DATA);
+        Check(band.getAttribute(0, 0) == NO_DATA, "attribute of domain without segment");
+
+        // a dense band has no position in a domain without segment, also without assertions
+        FieldBand dense = new FieldBand(NO_DATA, ElementType.GridCell);
+        dense.setMBS(Cell(9, SEGMENT_9[0]), SEGMENT_9[1] - SEGMENT_9[0] + 1);
+        boolean thrown = false;
+        try {
+            dense.getPosition(Cell(4, SEGMENTS[0][0]));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        Check(thrown, "position in domain without segment of dense band");
+    }
+
+    /**
+     * a range read over gaps and past the last segment fills no data value, from any start
+     */
+    private static void RangeTest(SparseFieldBand band) {
+        int first = SEGMENTS[0][0];
+        int size = SEGMENTS[SEGMENTS.length - 1][1] - first + 1 + 8;
+        float[] expected = new float[size];
+        for (int pos = 0; pos < size; ++pos) {
+            expected[pos] = InSegment(first + pos) ? Value(4, first + pos) : NO_DATA;
+        }
+
+        // starts in a segment, at a segment, in a gap and right after a segment, with ends of each kind
+        int[] starts = {0, 5, 9, 10, 12, 15, 16, 17, 80, 200, size - 10};
+        for (int start : starts) {
+            for (int len : new int[]{1, 2, 7, 16, 17, 100, size - start}) {
+                if (start + len > size) {
+                    continue;
+                }
+                float[] out = new float[len + 2];
+                out[0] = out[len + 1] = 42f;
+                band.getAttributes(4, start, out, 1, len);
+                for (int k = 0; k < len; ++k) {
+                    Check(out[k + 1] == expected[start + k], "attribute " + (start + k) + " of range from " + start
+                            + " of " + len + " is " + out[k + 1]);
+                }
+                Check(out[0] == 42f && out[len + 1] == 42f, "range from " + start + " of " + len + " overruns");
+            }
+        }
+
+        float[] out = new float[4];
+        band.getAttributes(0, 0, out, 0, 4);
+        for (float value : out) {
+            Check(value == NO_DATA, "range of domain without segment");
+        }
+    }
+
+    /**
+     * a builder closes a segment at any gap by default, and keeps gaps up to max gap in a segment
+     */
+    private static void BuilderTest() {
+        int[] positions = {3, 4, 6, 9, 10, 40};
+        for (int maxGap : new int[]{0, 1, 2, 100}) {
+            SparseFieldBand.Builder builder = new SparseFieldBand.Builder(NO_DATA, ElementType.GridCell);
+            if (maxGap > 0) {
+                builder.setMaxGap(maxGap);
+            }
+            for (int pos : positions) {
+                builder.add(Cell(2, pos), pos);
+                // no data value isn't stored, so doesn't extend the segment
+                builder.add(Cell(2, pos + 1), NO_DATA);
+            }
+            SparseFieldBand band = builder.build();
+
+            int count = 1, stored = 1;
+            for (int k = 1; k < positions.length; ++k) {
+                int gap = positions[k] - positions[k - 1] - 1;
+                count += gap > maxGap ? 1 : 0;
+                stored += gap > maxGap ? 1 : gap + 1;
+            }
+            Check(band.getSegmentCount(2) == count, "segments with max gap " + maxGap + " are "
+                    + band.getSegmentCount(2) + ", expected " + count);
+            Check(band.getAttributeCount() == stored,
+                    "stored attributes with max gap " + maxGap + " are " + band.getAttributeCount());
+            for (int pos = 0; pos < 50; ++pos) {
+                boolean in = false;
+                for (int p : positions) {
+                    in |= p == pos;
+                }
+                CheckCell(band, 2, pos, in ? pos : NO_DATA);
+            }
+            Check(band.getMin() == 3f && band.getMax() == 40f, "range of built band");
+        }
+    }
+
+    /**
+     * a band written to a field file and read back has same segments and attributes
+     */
+    private static void RoundTripTest(SparseFieldBand band, File file) {
+        WriteLayer(band, file);
+        FieldBand read = EQGridReaderWriter.ReadFieldFile(file.getPath()).getBands(0);
+        Check(read instanceof SparseFieldBand, "band read from field file isn't sparse");
+
+        SparseFieldBand sparse = (SparseFieldBand) read;
+        Check(sparse.getNoData() == NO_DATA && sparse.getElementType() == ElementType.GridCell
+                && sparse.getMin() == band.getMin() && sparse.getMax() == band.getMax(), "header of band read");
+        for (int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID) {
+            Check(sparse.getSegmentCount(domID) == band.getSegmentCount(domID), "segment count of domain " + domID);
+            for (int seg = 0; seg < band.getSegmentCount(domID); ++seg) {
+                int size = band.getSegmentSize(domID, seg);
+                Check(sparse.getSegmentOffset(domID, seg) == band.getSegmentOffset(domID, seg)
+                        && sparse.getSegmentSize(domID, seg) == size, "segment " + seg + " of domain " + domID);
+
+                float[] expected = new float[size], values = new float[size];
+                band.getSegmentAttributes(domID, seg, 0, expected, 0, size);
+                sparse.getSegmentAttributes(domID, seg, 0, values, 0, size);
+                for (int k = 0; k < size; ++k) {
+                    Check(values[k] == expected[k], "attribute " + k + " of segment " + seg + " of domain " + domID);
+                }
+            }
+        }
+        Check(sparse.getAttributeCount() == band.getAttributeCount(), "stored attributes of band read");
+    }
+
+    /**
+     * the field file of band with another storage type than float32 is rejected
+     */
+    private static void RejectTest(SparseFieldBand band, File file) throws IOException {
+        WriteLayer(band, file);
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        for (String storageType : new String[]{"uint8", "int16", "float16"}) {
+            String typed = text.replace("\nmbs\n", "\nstorage_type " + storageType + "\nscale 1.0\noffset 0.0\nmbs\n");
+            Files.write(file.toPath(), typed.getBytes(StandardCharsets.UTF_8));
+
+            boolean thrown = false;
+            try {
+                EQGridReaderWriter.ReadFieldFile(file.getPath());
+            } catch (IllegalArgumentException e) {
+                thrown = true;
+            }
+            Check(thrown, "sparse " + storageType + " band is read");
+        }
+    }
+
+    private static void WriteLayer(SparseFieldBand band, File file) {
+        ArrayList<FieldBand> bands = new ArrayList<>();
+        bands.add(band);
+        EQGridReaderWriter.WriteFieldFile(new FieldLayer("sparse", LEVEL, BaseCode.CodeType.EQCode, bands),
+                file.getPath());
+    }
+
+    /**
+     * band of SEGMENTS in domain 4 and SEGMENT_9 in domain 9, set out of order, a few attributes are no data
+     */
+    private static SparseFieldBand NewBand() {
+        SparseFieldBand band = new SparseFieldBand(NO_DATA, ElementType.GridCell);
+        for (int seg = SEGMENTS.length - 1; seg >= 0; --seg) {
+            band.setMBS(Cell(4, SEGMENTS[seg][0]), SEGMENTS[seg][1] - SEGMENTS[seg][0] + 1);
+        }
+        band.setMBS(Cell(9, SEGMENT_9[0]), SEGMENT_9[1] - SEGMENT_9[0] + 1);
+
+        for (int[] segment : SEGMENTS) {
+            for (int pos = segment[0]; pos <= segment[1]; ++pos) {
+                band.addAttribute(Cell(4, pos), Value(4, pos));
+            }
+        }
+        for (int pos = SEGMENT_9[0]; pos <= SEGMENT_9[1]; ++pos) {
+            band.addAttribute(Cell(9, pos), Value(9, pos));
+        }
+        band.setMin(Value(4, SEGMENTS[0][0]));
+        band.setMax(Value(9, SEGMENT_9[1]));
+        return band;
+    }
+
+    private static boolean InSegment(int pos) {
+        for (int[] segment : SEGMENTS) {
+            if (pos >= segment[0] && pos <= segment[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * attribute of position, every 7th is no data value
+     */
+    private static float Value(int domain, int pos) {
+        return 0 == pos % 7 ? NO_DATA : domain * 10000f + pos;
+    }
+
+    /**
+     * cell of domain at position from the first cell of domain
+     */
+    private static long Cell(int domain, int pos) {
+        return EQCodes.pack(domain, 4 + pos % 2, LEVEL, pos / 2);
+    }
+
+    private static void CheckCell(SparseFieldBand band, int domain, int pos, float expected) {
+        float value = band.getAttribute(Cell(domain, pos));
+        Check(value == expected, "cell " + pos + " of domain " + domain + " is " + value + ", expected " + expected);
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+import cn.edu.njnu.earthgrid.data.EQGridReaderWriter;
+import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.StorageType;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * storage type test, no data value survives integer and float16 storage and isn't taken by valid values
+ */
+public class StorageTypeTest {
+
+    private static final int LEVEL = 3;
+    private static final int SIZE = 2 << (2 * LEVEL);
+
+    public static void main(String[] args) throws IOException {
+        // no data value out of range and between integers
+        NoDataTest(StorageType.UINT8, -9999f, 1.f, 0.f, new float[]{0f, 1f, 128f, 254f}, 255f, 254f);
+        NoDataTest(StorageType.UINT8, 0.5f, 1.f, 0.f, new float[]{0f, 1f, 254f}, 300f, 254f);
+        NoDataTest(StorageType.INT16, Float.NaN, 1.f, 0.f, new float[]{0f, -32768f, 32766f}, 32767f, 32766f);
+        // no data value held by type
+        NoDataTest(StorageType.UINT8, 0f, 1.f, 0.f, new float[]{1f, 128f, 255f}, 0.2f, 1f);
+        NoDataTest(StorageType.UINT8, 255f, 1.f, 0.f, new float[]{0f, 1f, 254f}, 1000f, 254f);
+        NoDataTest(StorageType.INT16, -32768f, 1.f, 0.f, new float[]{0f, -32767f, 32767f}, -40000f, -32767f);
+        NoDataTest(StorageType.INT16, -9999f, 0.5f, 0.f, new float[]{0f, -9998.5f, 100.5f}, -9999.2f, -9999.5f);
+        // float16 value rounded onto no data, and overflowing onto infinite no data
+        NoDataTest(StorageType.FLOAT16, 1000f, 1.f, 0.f, new float[]{0f, 999.5f, 1001f}, 1000.2f, 1000.5f);
+        NoDataTest(StorageType.FLOAT16, 1000f, 1.f, 0.f, new float[]{0f, 999.5f, 1001f}, 999.9f, 999.5f);
+        NoDataTest(StorageType.FLOAT16, -2f, 1.f, 0.f, new float[]{0f, -1.9990234375f, -2.001953125f}, -2.0004f, -2.001953125f);
+        NoDataTest(StorageType.FLOAT16, 99999f, 1.f, 0.f, new float[]{0f, 1f, 65504f}, 70000f, 65504f);
+        NoDataTest(StorageType.FLOAT16, Float.NEGATIVE_INFINITY, 1.f, 0.f, new float[]{0f, -65504f}, -1e6f, -65504f);
+        SparseTest();
+        System.out.println("storage type test passed");
+    }
+
+    /**
+     * no data reads as no data value, values read back as they are, and a value rounded or clamped
+     * onto raw no data reads as its neighbor
+     */
+    private static void NoDataTest(StorageType type, float noData, float scale, float valueOffset, float[] values,
+                                   float moved, float expected) {
+        FieldBand band = new FieldBand(noData, ElementType.GridCell, type, scale, valueOffset);
+        band.setMBS(EQCodes.pack(2, 4, LEVEL, 0), SIZE);
+        String name = type.getName() + " with no data value " + noData;
+
+        for (int pos = 0; pos < SIZE; ++pos) {
+            Check(IsNoData(band.getAttribute(2, pos), noData), "new position " + pos + " of " + name);
+        }
+        for (int k = 0; k < values.length; ++k) {
+            band.addAttribute(2, k, values[k]);
+        }
+        band.addAttribute(2, values.length, noData);
+        band.addAttribute(2, values.length + 1, moved);
+
+        for (int k = 0; k < values.length; ++k) {
+            Check(band.getAttribute(2, k) == values[k], "value " + values[k] + " of " + name);
+        }
+        Check(IsNoData(band.getAttribute(2, values.length), noData), "no data of " + name);
+        Check(band.getAttribute(2, values.length + 1) == expected, "value " + moved + " of " + name + " reads "
+                + band.getAttribute(2, values.length + 1));
+        Check(IsNoData(band.getAttribute(2, SIZE - 1), noData), "last position of " + name);
+    }
+
+    /**
+     * a field file band of several segments a domain and of integer storage is rejected
+     */
+    private static void SparseTest() throws IOException {
+        File file = File.createTempFile("sparse", ".eqf");
+        file.deleteOnExit();
+        try {
+            WriteSparseFile(file, "uint8");
+            boolean thrown = false;
+            try {
+                EQGridReaderWriter.ReadFieldFile(file.getPath());
+            } catch (IllegalArgumentException e) {
+                thrown = true;
+            }
+            Check(thrown, "sparse uint8 band is read");
+
+            WriteSparseFile(file, "float32");
+            FieldBand band = EQGridReaderWriter.ReadFieldFile(file.getPath()).getBands(0);
+            Check(band.getStorageType() == StorageType.FLOAT32, "storage type of sparse band");
+            Check(band.getAttribute(EQCodes.pack(1, 4, LEVEL, 10)) == 7f, "attribute of sparse band");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void WriteSparseFile(File file, String storageType) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("eqtm_header\nformat ascii\ndata_type raster\nlevel " + LEVEL + "\nband_num 1\nend_header\n\n");
+            writer.write("band 0\nelement_type cell\nmax 9\nmin 1\nnodata -9999\n");
+            writer.write("storage_type " + storageType + "\nscale 1.0\noffset 0.0\n");
+            writer.write("mbs\n");
+            writer.write(EQCodeFormat.toString(EQCodes.pack(1, 4, LEVEL, 0)) + ",2\n");
+            writer.write(EQCodeFormat.toString(EQCodes.pack(1, 4, LEVEL, 10)) + ",2\n");
+            writer.write("end_mbs\n");
+            writer.write("(1,2)\n(7,9)\n\n");
+        }
+    }
+
+    private static boolean IsNoData(float value, float noData) {
+        return value == noData || (Float.isNaN(value) && Float.isNaN(noData));
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
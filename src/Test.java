@@ -36,5 +36,53 @@ public class Test {
         //FieldLayer layer = GDALReaderWriter.ReadRaster("E:\\Data\\Natural Earth Vector\\WorldImg\\NE1_50M_SR_W.tif");
         //layer = GDALReaderWriter.ReadRaster("E:\\Data\\ETOPO1\\etopo1tiff.tif");
         //EQGridReaderWriter.WriteFieldFile(layer, "C:\\Users\\LWJie\\Desktop\\img_level7.dgg");
+
+        // Encoder regression test
+        EncoderTest.main(args);
+
+        // Topology test
+        TopologyTest.main(args);
+
+        // Ring and disk test
+        RingsTest.main(args);
+
+        // Cell union test
+        CellUnionTest.main(args);
+
+        // Region coverer test
+        RegionCovererTest.main(args);
+
+        // Line walker test
+        LineWalkerTest.main(args);
+
+        // Code format test
+        CodeFormatTest.main(args);
+
+        // Cell area test
+        CellAreaTest.main(args);
+
+        // Batch codec test
+        BatchCodecTest.main(args);
+
+        // Decode cache test
+        DecodeCacheTest.main(args);
+
+        // Mapped field band test
+        MappedFieldBandTest.main(args);
+
+        // Storage type test
+        StorageTypeTest.main(args);
+
+        // Interleaved field test
+        InterleavedFieldTest.main(args);
+
+        // Raster test
+        RasterTest.main(args);
+
+        // Sparse field band test
+        SparseFieldBandTest.main(args);
+
+        // Field pyramid test
+        FieldPyramidTest.main(args);
     }
 }
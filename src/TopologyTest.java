@@ -0,0 +1,190 @@
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQTopology;
+import cn.edu.njnu.earthgrid.core.geometry.CartesianCoord;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.geometry.Trigon;
+
+import java.util.HashSet;
+
+/**
+ * adjacency test of EQTopology over every element of low levels
+ */
+public class TopologyTest {
+
+    private static final int MAX_LEVEL = 5;
+    private static final double TOLERANCE = 1e-9;
+
+    public static void main(String[] args) {
+        for (int level = 0; level <= MAX_LEVEL; ++level) {
+            ElementCountTest(level);
+            CellNodeTest(level);
+            EdgeNeighborTest(level);
+            NodeRingTest(level);
+            EdgeCellTest(level);
+        }
+        System.out.println("topology test passed");
+    }
+
+    /**
+     * distinct nodes and edges reached from cells satisfy Euler's formula, so seam elements are canonical,
+     * and every cell is counted by its 3 nodes
+     */
+    private static void ElementCountTest(int level) {
+        long n = 1L << level;
+        HashSet<Long> nodes = new HashSet<>(), edges = new HashSet<>();
+        long[] out = new long[3];
+        long[] cells = Cells(level);
+        for (long cell : cells) {
+            EQTopology.nodes(cell, out, 0);
+            for (long node : out) {
+                nodes.add(node);
+            }
+            EQTopology.edges(cell, out, 0);
+            for (long edge : out) {
+                edges.add(edge);
+            }
+        }
+        Check(nodes.size() == 10 * n * n + 2, nodes.size() + " nodes at level " + level);
+        Check(edges.size() == 30 * n * n, edges.size() + " edges at level " + level);
+        Check(nodes.size() - edges.size() + cells.length == 2, "euler formula at level " + level);
+
+        long degrees = 0;
+        for (long node : Nodes(level)) {
+            degrees += EQTopology.degree(node);
+        }
+        Check(degrees == 3L * cells.length, "sum of node degrees at level " + level);
+    }
+
+    /**
+     * nodes of every cell coincide with trigon vertices, across domain seams too
+     */
+    private static void CellNodeTest(int level) {
+        long[] nodes = new long[3];
+        for (long cell : Cells(level)) {
+            Check(EQTopology.nodes(cell, nodes, 0) == 3, "cell has 3 nodes");
+            Trigon trigon = EQCodes.toTrigon(cell);
+            for (long node : nodes) {
+                CartesianCoord p = CartesianCoord.FromSpericalCoord(EQCodes.toSpericalCoord(node));
+                boolean found = false;
+                for (int v = 0; v < 3; ++v) {
+                    found |= Distance(p, trigon.v(v)) < TOLERANCE;
+                }
+                Check(found, "node " + node + " isn't a vertex of cell " + cell);
+            }
+        }
+    }
+
+    /**
+     * edge neighbors are symmetric, distinct and share 2 nodes with cell
+     */
+    private static void EdgeNeighborTest(int level) {
+        long[] neighbors = new long[3], back = new long[3];
+        long[] nodes = new long[3], other = new long[3];
+        for (long cell : Cells(level)) {
+            EQTopology.edgeNeighbors(cell, neighbors, 0);
+            EQTopology.nodes(cell, nodes, 0);
+            Check(neighbors[0] != neighbors[1] && neighbors[1] != neighbors[2] && neighbors[0] != neighbors[2],
+                    "distinct edge neighbors of " + cell);
+
+            for (long neighbor : neighbors) {
+                Check(neighbor != cell, "cell is its own neighbor " + cell);
+                EQTopology.edgeNeighbors(neighbor, back, 0);
+                Check(back[0] == cell || back[1] == cell || back[2] == cell,
+                        "edge neighbor isn't symmetric " + cell + " " + neighbor);
+
+                EQTopology.nodes(neighbor, other, 0);
+                int shared = 0;
+                for (long a : nodes) {
+                    for (long b : other) {
+                        shared += a == b ? 1 : 0;
+                    }
+                }
+                Check(shared == 2, "edge neighbors share " + shared + " nodes " + cell + " " + neighbor);
+            }
+        }
+    }
+
+    /**
+     * cells and nodes around a node contain it and are symmetric
+     */
+    private static void NodeRingTest(int level) {
+        long[] cells = new long[EQTopology.MAX_DEGREE], nodes = new long[3];
+        for (long node : Nodes(level)) {
+            int degree = EQTopology.cells(node, cells, 0);
+            for (int k = 0; k < degree; ++k) {
+                EQTopology.nodes(cells[k], nodes, 0);
+                Check(nodes[0] == node || nodes[1] == node || nodes[2] == node,
+                        "cell " + cells[k] + " around node " + node + " misses it");
+                for (int m = 0; m < k; ++m) {
+                    Check(cells[m] != cells[k], "duplicate cell around node " + node);
+                }
+
+                long next = EQTopology.nodeNode(node, k);
+                boolean back = false;
+                for (int m = 0; m < EQTopology.degree(next); ++m) {
+                    back |= EQTopology.nodeNode(next, m) == node;
+                }
+                Check(back, "node neighbor isn't symmetric " + node + " " + next);
+            }
+        }
+    }
+
+    /**
+     * an edge is an edge of its 2 cells, and its nodes are nodes of them
+     */
+    private static void EdgeCellTest(int level) {
+        long[] cells = new long[2], edges = new long[3], edgeNodes = new long[2], cellNodes = new long[3];
+        for (long cell : Cells(level)) {
+            EQTopology.edges(cell, edges, 0);
+            for (long edge : edges) {
+                Check(EQTopology.cells(edge, cells, 0) == 2, "edge has 2 cells");
+                Check(cells[0] == cell || cells[1] == cell, "edge " + edge + " misses cell " + cell);
+
+                EQTopology.nodes(edge, edgeNodes, 0);
+                EQTopology.nodes(cell, cellNodes, 0);
+                for (long node : edgeNodes) {
+                    Check(node == cellNodes[0] || node == cellNodes[1] || node == cellNodes[2],
+                            "node of edge " + edge + " isn't a node of cell " + cell);
+                }
+            }
+        }
+    }
+
+    private static long[] Cells(int level) {
+        int n = 1 << level;
+        long[] cells = new long[20 * n * n];
+        int count = 0;
+        for (int domain = 0; domain < 10; ++domain) {
+            for (long morton = 0; morton < (long) n * n; ++morton) {
+                cells[count++] = EQCodes.pack(domain, 4, level, morton);
+                cells[count++] = EQCodes.pack(domain, 5, level, morton);
+            }
+        }
+        return cells;
+    }
+
+    private static long[] Nodes(int level) {
+        int n = 1 << level;
+        long[] nodes = new long[10 * n * n + 2];
+        int count = 0;
+        for (int domain = 0; domain < 10; ++domain) {
+            for (long morton = 0; morton < (long) n * n; ++morton) {
+                nodes[count++] = EQCodes.pack(domain, 0, level, morton);
+            }
+        }
+        nodes[count++] = EQCodes.pack(10, 0, level, 0);
+        nodes[count] = EQCodes.pack(11, 0, level, 0);
+        return nodes;
+    }
+
+    private static double Distance(CartesianCoord a, CartesianCoord b) {
+        double dx = a.getX() - b.getX(), dy = a.getY() - b.getY(), dz = a.getZ() - b.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz) / MathUtil.RADIUS;
+    }
+
+    private static void Check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
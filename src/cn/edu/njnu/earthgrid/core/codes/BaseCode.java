@@ -160,6 +160,14 @@ public abstract class BaseCode {
                 && this.level == ((BaseCode) obj).level;
     }
 
+    @Override
+    public int hashCode() {
+        int hash = codeType.hashCode();
+        hash = 31 * hash + domainID;
+        hash = 31 * hash + elementCode;
+        return 31 * hash + level;
+    }
+
     /**
      * The type of grid code
      */
@@ -0,0 +1,549 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Normalized set of EQTM cells
+ * note: cells follow the trigon hierarchy (see CodeOperation), so a cell is a range of trigon keys at MAX_LEVEL,
+ *       key is {top trigon (domain * 2 + upper/lower), child index 0-3 of each level}, child index is the order
+ *       of sub trigons given by CodeOperation.GetSubCode.
+ *       the set is kept as sorted, disjoint and non-adjacent key ranges [start, end) in two primitive arrays,
+ *       so 4 sibling cells are always merged into their parent and equal sets have equal ranges.
+ *       set algebra merges ranges of two unions in linear time, a union is immutable once built
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+public final class CellUnion {
+
+    /**
+     * bits of trigon key below top trigon
+     */
+    private static final int PATH_BITS = 2 * EQCodes.MAX_LEVEL;
+
+    /**
+     * bits of level in sort key of cell
+     */
+    private static final int LEVEL_BITS = 5;
+
+    /**
+     * number of top trigons, 2 for each domain
+     */
+    private static final int TOP_TRIGONS = 20;
+
+    /**
+     * union without any cell
+     */
+    public static final CellUnion EMPTY = new CellUnion(new long[0], new long[0], 0);
+
+    /**
+     * key ranges, range k is [starts[k], ends[k])
+     */
+    private final long[] starts;
+    private final long[] ends;
+    private final int count;
+
+    private CellUnion(long[] starts, long[] ends, int count) {
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+    }
+
+    /**
+     * build union of packed cell codes
+     * note: codes may be of any level, in any order and overlapped
+     *
+     * @param cells packed cell codes
+     * @return normalized union
+     */
+    public static CellUnion fromCodes(long[] cells) {
+        return fromCodes(cells, 0, cells.length);
+    }
+
+    /**
+     * build union of packed cell codes in cells[from, to)
+     *
+     * @param cells packed cell codes
+     * @param from  start index in cells
+     * @param to    end index in cells, exclusive
+     * @return normalized union
+     */
+    public static CellUnion fromCodes(long[] cells, int from, int to) {
+        int n = to - from;
+        long[] keys = new long[n];
+        for (int k = 0; k < n; ++k) {
+            keys[k] = toKey(cells[from + k]);
+        }
+        Arrays.sort(keys);
+
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        int count = 0;
+        for (long key : keys) {
+            long start = rangeStart(key);
+            long end = start + rangeSize(key);
+            if (count > 0 && start <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], end);
+            } else {
+                starts[count] = start;
+                ends[count++] = end;
+            }
+        }
+        return new CellUnion(starts, ends, count);
+    }
+
+    /**
+     * build union of EQTM cell codes
+     *
+     * @param cells EQTM cell codes
+     * @return normalized union
+     */
+    public static CellUnion fromCodes(List<? extends BaseCode> cells) {
+        long[] codes = new long[cells.size()];
+        for (int k = 0; k < codes.length; ++k) {
+            assert cells.get(k) instanceof EQCode;
+            codes[k] = EQCodes.pack((EQCode) cells.get(k));
+        }
+        return fromCodes(codes);
+    }
+
+    /**
+     * whether no cell is in union
+     *
+     * @return true if union is empty
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * get number of normalized ranges
+     *
+     * @return number of ranges
+     */
+    public int rangeCount() {
+        return count;
+    }
+
+    /**
+     * whether a cell is covered by union
+     *
+     * @param cell packed code, codes that aren't cell are never covered
+     * @return true if the whole cell is in union
+     */
+    public boolean contains(long cell) {
+        if (!isCell(cell)) {
+            return false;
+        }
+
+        long key = toKey(cell);
+        long start = rangeStart(key);
+        int k = floor(start);
+        return k >= 0 && start + rangeSize(key) <= ends[k];
+    }
+
+    /**
+     * whether an EQTM code is covered by union
+     *
+     * @param code EQTM code
+     * @return true if code is a cell and the whole cell is in union
+     */
+    public boolean contains(BaseCode code) {
+        return code instanceof EQCode && contains(EQCodes.pack((EQCode) code));
+    }
+
+    /**
+     * whether a cell overlaps union
+     *
+     * @param cell packed code, codes that aren't cell never overlap
+     * @return true if any part of cell is in union
+     */
+    public boolean intersects(long cell) {
+        if (!isCell(cell)) {
+            return false;
+        }
+
+        long key = toKey(cell);
+        long start = rangeStart(key);
+        long end = start + rangeSize(key);
+        int k = floor(end - 1);
+        return k >= 0 && ends[k] > start;
+    }
+
+    /**
+     * whether another union is covered by this union
+     *
+     * @param other union
+     * @return true if every cell of other is in this union
+     */
+    public boolean contains(CellUnion other) {
+        int k = 0;
+        for (int m = 0; m < other.count; ++m) {
+            while (k < count && ends[k] <= other.starts[m]) {
+                ++k;
+            }
+            if (k == count || starts[k] > other.starts[m] || ends[k] < other.ends[m]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * whether two unions share any part
+     *
+     * @param other union
+     * @return true if intersection isn't empty
+     */
+    public boolean intersects(CellUnion other) {
+        int k = 0, m = 0;
+        while (k < count && m < other.count) {
+            if (ends[k] <= other.starts[m]) {
+                ++k;
+            } else if (other.ends[m] <= starts[k]) {
+                ++m;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * get union of two unions
+     *
+     * @param other union
+     * @return cells in either union
+     */
+    public CellUnion union(CellUnion other) {
+        long[] rs = new long[count + other.count];
+        long[] re = new long[count + other.count];
+        int n = 0;
+        int k = 0, m = 0;
+        while (k < count || m < other.count) {
+            long s, e;
+            if (m == other.count || (k < count && starts[k] <= other.starts[m])) {
+                s = starts[k];
+                e = ends[k++];
+            } else {
+                s = other.starts[m];
+                e = other.ends[m++];
+            }
+            if (n > 0 && s <= re[n - 1]) {
+                re[n - 1] = Math.max(re[n - 1], e);
+            } else {
+                rs[n] = s;
+                re[n++] = e;
+            }
+        }
+        return new CellUnion(rs, re, n);
+    }
+
+    /**
+     * get intersection of two unions
+     *
+     * @param other union
+     * @return cells in both unions
+     */
+    public CellUnion intersection(CellUnion other) {
+        long[] rs = new long[count + other.count];
+        long[] re = new long[count + other.count];
+        int n = 0;
+        int k = 0, m = 0;
+        while (k < count && m < other.count) {
+            long s = Math.max(starts[k], other.starts[m]);
+            long e = Math.min(ends[k], other.ends[m]);
+            if (s < e) {
+                rs[n] = s;
+                re[n++] = e;
+            }
+            if (ends[k] < other.ends[m]) {
+                ++k;
+            } else {
+                ++m;
+            }
+        }
+        return new CellUnion(rs, re, n);
+    }
+
+    /**
+     * get difference of two unions
+     *
+     * @param other union
+     * @return cells in this union but not in other
+     */
+    public CellUnion difference(CellUnion other) {
+        long[] rs = new long[count + other.count];
+        long[] re = new long[count + other.count];
+        int n = 0;
+        int m = 0;
+        for (int k = 0; k < count; ++k) {
+            long s = starts[k];
+            long e = ends[k];
+            while (m < other.count && other.ends[m] <= s) {
+                ++m;
+            }
+            // cut off every range of other that starts within [s, e)
+            int t = m;
+            while (t < other.count && other.starts[t] < e) {
+                if (other.starts[t] > s) {
+                    rs[n] = s;
+                    re[n++] = other.starts[t];
+                }
+                s = Math.max(s, other.ends[t]);
+                if (other.ends[t] >= e) {
+                    break;
+                }
+                ++t;
+            }
+            if (s < e) {
+                rs[n] = s;
+                re[n++] = e;
+            }
+        }
+        return new CellUnion(rs, re, n);
+    }
+
+    /**
+     * get number of cells at a level covered by union
+     *
+     * @param level level no less than level of any cell in union
+     * @return number of cells
+     */
+    public long cellCount(int level) {
+        int shift = 2 * (EQCodes.MAX_LEVEL - level);
+        long sum = 0;
+        for (int k = 0; k < count; ++k) {
+            assert ((starts[k] | ends[k]) & ((1L << shift) - 1)) == 0;
+            sum += (ends[k] - starts[k]) >>> shift;
+        }
+        return sum;
+    }
+
+    /**
+     * get the least set of cells of union
+     * note: cells are in ascending order of trigon key, each range is split into largest aligned trigons
+     *
+     * @return packed cell codes
+     */
+    public long[] toCodes() {
+        int n = 0;
+        for (int k = 0; k < count; ++k) {
+            n += splitCount(starts[k], ends[k]);
+        }
+
+        long[] ret = new long[n];
+        n = 0;
+        for (int k = 0; k < count; ++k) {
+            long s = starts[k];
+            while (s < ends[k]) {
+                int shift = alignShift(s, ends[k]);
+                ret[n++] = fromKey(s, EQCodes.MAX_LEVEL - shift / 2);
+                s += 1L << shift;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * get cells of union at a level
+     * note: larger cells are split into their descendants at level
+     *
+     * @param level level no less than level of any cell in union
+     * @return packed cell codes in ascending order of trigon key
+     */
+    public long[] toCodes(int level) {
+        long total = cellCount(level);
+        assert total <= Integer.MAX_VALUE;
+
+        int shift = 2 * (EQCodes.MAX_LEVEL - level);
+        long[] ret = new long[(int) total];
+        int n = 0;
+        for (int k = 0; k < count; ++k) {
+            for (long s = starts[k]; s < ends[k]; s += 1L << shift) {
+                ret[n++] = fromKey(s, level);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * serialize union into bytes
+     * note: range count, then gap from previous range and length of each range, all as unsigned varints,
+     *       lengths and gaps are multiples of 4^k for cells of level MAX_LEVEL - k,
+     *       so a range of coarse cells takes a few bytes
+     *
+     * @return serialized union
+     */
+    public byte[] toBytes() {
+        byte[] buf = new byte[10 * (2 * count + 1)];
+        int pos = writeVarint(buf, 0, count);
+        long prev = 0;
+        for (int k = 0; k < count; ++k) {
+            pos = writeVarint(buf, pos, starts[k] - prev);
+            pos = writeVarint(buf, pos, ends[k] - starts[k]);
+            prev = ends[k];
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * deserialize union from bytes written by toBytes
+     *
+     * @param bytes serialized union
+     * @return union
+     */
+    public static CellUnion fromBytes(byte[] bytes) {
+        int[] pos = {0};
+        int n = (int) readVarint(bytes, pos);
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        long prev = 0;
+        for (int k = 0; k < n; ++k) {
+            starts[k] = prev + readVarint(bytes, pos);
+            ends[k] = starts[k] + readVarint(bytes, pos);
+            prev = ends[k];
+        }
+        return new CellUnion(starts, ends, n);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CellUnion)) {
+            return false;
+        }
+
+        CellUnion other = (CellUnion) obj;
+        return count == other.count
+                && Arrays.equals(starts, 0, count, other.starts, 0, count)
+                && Arrays.equals(ends, 0, count, other.ends, 0, count);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int k = 0; k < count; ++k) {
+            hash = 31 * (31 * hash + Long.hashCode(starts[k])) + Long.hashCode(ends[k]);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CellUnion{ranges=" + count + ", cells=" + toCodes().length + "}";
+    }
+
+    /**
+     * get sort key of cell, which is {start of trigon key range, MAX_LEVEL - level in 5 bits},
+     * so cells are sorted by start of their ranges and then by size
+     */
+    private static long toKey(long cell) {
+        assert isCell(cell);
+
+        int level = EQCodes.level(cell);
+        int element = EQCodes.element(cell);
+        long morton = EQCodes.morton(cell);
+
+        // from bottom, the digit 1 or 2 above a trigon decides the parent, digits 0 and 3 keep it
+        long path = 0;
+        for (int lev = 0; lev < level; ++lev) {
+            int digit = (int) ((morton >>> (2 * lev)) & 3);
+            int child = digit == 0 || digit == 3 ? digit : (element == 4 ? 1 : 2);
+            path |= (long) child << (2 * lev);
+            if (digit == 1) {
+                element = 4;
+            } else if (digit == 2) {
+                element = 5;
+            }
+        }
+
+        int top = EQCodes.domain(cell) * 2 + element - 4;
+        int shift = PATH_BITS - 2 * level;
+        long start = ((long) top << PATH_BITS) | (path << shift);
+        return (start << LEVEL_BITS) | (EQCodes.MAX_LEVEL - level);
+    }
+
+    private static long rangeStart(long key) {
+        return key >>> LEVEL_BITS;
+    }
+
+    private static long rangeSize(long key) {
+        return 1L << (2 * (key & ((1 << LEVEL_BITS) - 1)));
+    }
+
+    /**
+     * get packed cell code of trigon whose range starts at key
+     */
+    private static long fromKey(long key, int level) {
+        int top = (int) (key >>> PATH_BITS);
+        assert top < TOP_TRIGONS;
+
+        int element = 4 + (top & 1);
+        long morton = 0;
+        for (int lev = 1; lev <= level; ++lev) {
+            int child = (int) ((key >>> (PATH_BITS - 2 * lev)) & 3);
+            int digit = child;
+            if (child == 1 || child == 2) {
+                digit = element == 4 ? 1 : 2;
+                element = child == 1 ? 4 : 5;
+            }
+            morton = (morton << 2) | digit;
+        }
+        return EQCodes.pack(top >> 1, element, level, morton);
+    }
+
+    /**
+     * get shift of largest aligned trigon range starting at s within [s, e)
+     */
+    private static int alignShift(long s, long e) {
+        int shift = s == 0 ? PATH_BITS : Math.min(PATH_BITS, Long.numberOfTrailingZeros(s) & ~1);
+        while ((1L << shift) > e - s) {
+            shift -= 2;
+        }
+        return shift;
+    }
+
+    private static int splitCount(long s, long e) {
+        int n = 0;
+        while (s < e) {
+            s += 1L << alignShift(s, e);
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * index of last range starting no later than key, -1 if none
+     */
+    private int floor(long key) {
+        int k = Arrays.binarySearch(starts, 0, count, key);
+        return k >= 0 ? k : -k - 2;
+    }
+
+    private static boolean isCell(long code) {
+        int element = EQCodes.element(code);
+        return (element == 4 || element == 5) && EQCodes.domain(code) < 10;
+    }
+
+    private static int writeVarint(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarint(byte[] buf, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,65 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.DiamondCache;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+/**
+ * Diamonds of each level along the path of the last loaded code
+ * note: codes close to each other share most of their path, so a code only descends from its deepest
+ *       common ancestor with the last code, or from its ancestor in DiamondCache if that is deeper
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+final class DiamondStack {
+
+    /**
+     * vertices of diamond of level l are stack[l * 12] to stack[l * 12 + 11]
+     */
+    final double[] stack = new double[(EQCodes.MAX_LEVEL + 1) * 12];
+
+    private int domain = -1;
+    private int level = -1;
+    private long morton = 0;
+
+    /**
+     * load diamond of code
+     *
+     * @param domain domain id, 0-9
+     * @param level  diamond's level
+     * @param morton diamond's morton code
+     * @return start index of diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z} in stack
+     */
+    int load(int domain, int level, long morton) {
+        int common = -1;
+        if (domain == this.domain && level == this.level) {
+            long diff = morton ^ this.morton;
+            common = diff == 0 ? level : level - ((63 - Long.numberOfLeadingZeros(diff)) / 2 + 1);
+        }
+        DiamondCache cache = DiamondCache.getInstance();
+        int top = Math.min(level, cache.getLevel());
+        if (common < top) {
+            cache.getDiamond(domain, top, morton >>> (2 * (level - top)), stack, top * 12);
+            common = top;
+        }
+        for (int lev = common + 1; lev <= level; ++lev) {
+            int subid = (int) ((morton >> (2 * (level - lev))) & 3);
+            MathUtil.GetSubDiamond(stack, (lev - 1) * 12, stack, lev * 12, subid);
+        }
+        this.domain = domain;
+        this.level = level;
+        this.morton = morton;
+
+        return level * 12;
+    }
+
+    /**
+     * load diamond of packed code
+     *
+     * @param code packed code, not a pole
+     * @return start index of diamond's vertices in stack
+     */
+    int load(long code) {
+        return load(EQCodes.domain(code), EQCodes.level(code), EQCodes.morton(code));
+    }
+}
@@ -0,0 +1,296 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.CartesianCoord;
+import cn.edu.njnu.earthgrid.core.geometry.DiamondCache;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bulk encoder/decoder between lon/lat arrays and packed EQTM codes
+ * note: input is split into chunks and run in a ForkJoin pool,
+ *       each chunk reuses one scratch array, nothing is allocated per point
+ *       decoding reuses the diamonds shared with the previous code in chunk,
+ *       so codes sorted by morton share most of their descent
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQCodes
+ */
+public final class EQBatchCodec {
+
+    private EQBatchCodec() {
+        throw new AssertionError();
+    }
+
+    /**
+     * number of points below which a chunk is processed sequentially
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * decode mode, also the number of points written for each code
+     */
+    public static final int DECODE_CENTROID = 1;
+    public static final int DECODE_TRIGON = 3;
+    public static final int DECODE_DIAMOND = 4;
+
+    /**
+     * convert lon/lat arrays into packed EQTM codes, using common pool
+     *
+     * @param lon   points' longitude
+     * @param lat   points' latitude
+     * @param level grid's level
+     * @param ele   element identifier
+     * @param out   returned packed codes, out[i] for point i
+     */
+    public static void encode(double[] lon, double[] lat, int level, ElementType ele, long[] out) {
+        encode(lon, lat, level, ele, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * convert lon/lat arrays into packed EQTM codes
+     *
+     * @param lon   points' longitude
+     * @param lat   points' latitude
+     * @param level grid's level
+     * @param ele   element identifier
+     * @param out   returned packed codes, out[i] for point i
+     * @param pool  pool to run chunks in
+     */
+    public static void encode(double[] lon, double[] lat, int level, ElementType ele, long[] out,
+                              ForkJoinPool pool) {
+        assert lon.length == lat.length && out.length >= lon.length;
+        assert level >= 0 && level <= EQCodes.MAX_LEVEL;
+
+        if (lon.length <= CHUNK_SIZE) {
+            encodeRange(lon, lat, level, ele, out, 0, lon.length);
+        } else {
+            // initialize icosahedron and cache before forking, so workers see them through task submission
+            DiamondCache.getInstance();
+            pool.invoke(new EncodeTask(lon, lat, level, ele, out, 0, lon.length));
+        }
+    }
+
+    /**
+     * sequentially encode points in [from, to)
+     */
+    private static void encodeRange(double[] lon, double[] lat, int level, ElementType ele, long[] out,
+                                    int from, int to) {
+        double[] scratch = new double[EQCodes.SCRATCH_SIZE];
+        for (int i = from; i < to; ++i) {
+            out[i] = EQCodes.encode(lon[i], lat[i], level, ele, scratch);
+        }
+    }
+
+    /**
+     * decode packed EQTM codes into element points, using common pool
+     * note: same result as EQCodes.toSpericalCoord,
+     *       midpoint for grid edge, center for grid cell, vertex v3 of located diamond for grid node,
+     *       and the pole for codes of domain 10 and 11
+     *
+     * @param codes packed codes
+     * @param lon   returned longitude, lon[i] for code i
+     * @param lat   returned latitude, lat[i] for code i
+     */
+    public static void decodeCentroids(long[] codes, double[] lon, double[] lat) {
+        decode(codes, lon, lat, DECODE_CENTROID, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * decode packed EQTM cell codes into trigon vertexes, using common pool
+     * note: vertexes are in the same order as EQCodes.toTrigon, NaN for codes that aren't cell
+     *
+     * @param codes packed codes
+     * @param lon   returned longitude, lon[i * 3 + k] for vertex k of code i
+     * @param lat   returned latitude, lat[i * 3 + k] for vertex k of code i
+     */
+    public static void decodeTrigons(long[] codes, double[] lon, double[] lat) {
+        decode(codes, lon, lat, DECODE_TRIGON, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * decode packed EQTM codes into vertexes of located diamonds, using common pool
+     * note: vertexes are in the same order as EQCodes.toDiamond, NaN for pole codes
+     *
+     * @param codes packed codes
+     * @param lon   returned longitude, lon[i * 4 + k] for vertex k of code i
+     * @param lat   returned latitude, lat[i * 4 + k] for vertex k of code i
+     */
+    public static void decodeDiamonds(long[] codes, double[] lon, double[] lat) {
+        decode(codes, lon, lat, DECODE_DIAMOND, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * decode packed EQTM codes
+     *
+     * @param codes packed codes
+     * @param lon   returned longitude
+     * @param lat   returned latitude
+     * @param mode  DECODE_CENTROID, DECODE_TRIGON or DECODE_DIAMOND
+     * @param pool  pool to run chunks in
+     */
+    public static void decode(long[] codes, double[] lon, double[] lat, int mode, ForkJoinPool pool) {
+        assert mode == DECODE_CENTROID || mode == DECODE_TRIGON || mode == DECODE_DIAMOND;
+        assert lon.length >= codes.length * mode && lat.length >= codes.length * mode;
+
+        if (codes.length <= CHUNK_SIZE) {
+            decodeRange(codes, lon, lat, mode, 0, codes.length);
+        } else {
+            // initialize icosahedron and cache before forking, so workers see them through task submission
+            DiamondCache.getInstance();
+            pool.invoke(new DecodeTask(codes, lon, lat, mode, 0, codes.length));
+        }
+    }
+
+    /**
+     * sequentially decode codes in [from, to)
+     * note: stack holds the diamond of each level along the previous code's path,
+     *       a code only descends from its deepest common ancestor with the previous code,
+     *       or from its ancestor in DiamondCache if that is deeper
+     */
+    private static void decodeRange(long[] codes, double[] lon, double[] lat, int mode, int from, int to) {
+        DiamondCache cache = DiamondCache.getInstance();
+        double[] stack = new double[(EQCodes.MAX_LEVEL + 1) * 12];
+        double[] point = new double[3];
+        int preDomain = -1;
+        int preLevel = -1;
+        long preMorton = 0;
+
+        for (int i = from; i < to; ++i) {
+            long code = codes[i];
+            int domain = EQCodes.domain(code);
+            int element = EQCodes.element(code);
+            int level = EQCodes.level(code);
+            long morton = EQCodes.morton(code);
+
+            // pole
+            if (domain == 10 || domain == 11) {
+                if (mode == DECODE_CENTROID) {
+                    lon[i] = 0.;
+                    lat[i] = domain == 10 ? 90. : -90.;
+                } else {
+                    fillNaN(lon, lat, i * mode, mode);
+                }
+                continue;
+            }
+            if (mode == DECODE_TRIGON && element != 4 && element != 5) {
+                fillNaN(lon, lat, i * mode, mode);
+                continue;
+            }
+
+            // deepest level shared with previous code, levels in cache are read from cache
+            int common = -1;
+            if (domain == preDomain && level == preLevel) {
+                long diff = morton ^ preMorton;
+                common = diff == 0 ? level : level - ((63 - Long.numberOfLeadingZeros(diff)) / 2 + 1);
+            }
+            int top = Math.min(level, cache.getLevel());
+            if (common < top) {
+                cache.getDiamond(domain, top, morton >>> (2 * (level - top)), stack, top * 12);
+                common = top;
+            }
+            for (int lev = common + 1; lev <= level; ++lev) {
+                int subid = (int) ((morton >> (2 * (level - lev))) & 3);
+                MathUtil.GetSubDiamond(stack, (lev - 1) * 12, stack, lev * 12, subid);
+            }
+            preDomain = domain;
+            preLevel = level;
+            preMorton = morton;
+
+            int off = level * 12;
+            if (mode == DECODE_CENTROID) {
+                MathUtil.GetDiamondElement(stack, off, element, point, 0);
+                CartesianCoord.ToSpericalCoord(point[0], point[1], point[2], lon, lat, i);
+            } else if (mode == DECODE_TRIGON) {
+                // upper cell {v0, v1, v3}, lower cell {v2, v1, v3}
+                int first = element == 4 ? 0 : 2;
+                toSpericalCoord(stack, off + first * 3, lon, lat, i * 3);
+                toSpericalCoord(stack, off + 3, lon, lat, i * 3 + 1);
+                toSpericalCoord(stack, off + 9, lon, lat, i * 3 + 2);
+            } else {
+                for (int k = 0; k < 4; ++k) {
+                    toSpericalCoord(stack, off + k * 3, lon, lat, i * 4 + k);
+                }
+            }
+        }
+    }
+
+    private static void toSpericalCoord(double[] v, int off, double[] lon, double[] lat, int index) {
+        CartesianCoord.ToSpericalCoord(v[off], v[off + 1], v[off + 2], lon, lat, index);
+    }
+
+    private static void fillNaN(double[] lon, double[] lat, int from, int count) {
+        for (int k = from; k < from + count; ++k) {
+            lon[k] = Double.NaN;
+            lat[k] = Double.NaN;
+        }
+    }
+
+    private static class EncodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] lon;
+        private final double[] lat;
+        private final int level;
+        private final ElementType ele;
+        private final long[] out;
+        private final int from;
+        private final int to;
+
+        EncodeTask(double[] lon, double[] lat, int level, ElementType ele, long[] out, int from, int to) {
+            this.lon = lon;
+            this.lat = lat;
+            this.level = level;
+            this.ele = ele;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                encodeRange(lon, lat, level, ele, out, from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new EncodeTask(lon, lat, level, ele, out, from, mid),
+                    new EncodeTask(lon, lat, level, ele, out, mid, to));
+        }
+    }
+
+    private static class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] codes;
+        private final double[] lon;
+        private final double[] lat;
+        private final int mode;
+        private final int from;
+        private final int to;
+
+        DecodeTask(long[] codes, double[] lon, double[] lat, int mode, int from, int to) {
+            this.codes = codes;
+            this.lon = lon;
+            this.lat = lat;
+            this.mode = mode;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                decodeRange(codes, lon, lat, mode, from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecodeTask(codes, lon, lat, mode, from, mid),
+                    new DecodeTask(codes, lon, lat, mode, mid, to));
+        }
+    }
+}
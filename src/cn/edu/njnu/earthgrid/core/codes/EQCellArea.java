@@ -0,0 +1,163 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Spherical area of packed EQTM cells
+ * note: the 10 domains are congruent, and in a domain of n * n diamonds
+ *       upper (i, j) == lower (j, i)                 mirrored over diagonal v1-v3
+ *       upper (i, j) == lower (n - 1 - i, n - 1 - j) turned half around center of diagonal
+ *       so upper (i, j) == upper (n - 1 - j, n - 1 - i), and every cell's area is one of the upper cells
+ *       with i + j < n of domain 0, n * (n + 1) / 2 areas for a level instead of 10 * 2 * n * n.
+ *       tables are built lazily up to TABLE_MAX_LEVEL and are read in O(1),
+ *       deeper cells are computed from their vertices
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see MathUtil#SphericalTriangleArea
+ */
+public final class EQCellArea {
+
+    private EQCellArea() {
+        throw new AssertionError();
+    }
+
+    /**
+     * deepest level with area table, its table holds 2^20 / 2 areas
+     */
+    public static final int TABLE_MAX_LEVEL = 10;
+
+    /**
+     * area table of each level, slot s * (s + 1) / 2 + i holds upper cell (i, s - i) of domain 0
+     */
+    private static final AtomicReferenceArray<double[]> TABLES = new AtomicReferenceArray<>(TABLE_MAX_LEVEL + 1);
+
+    /**
+     * get area of cell
+     *
+     * @param cell packed cell code
+     * @return spherical area in square meters
+     */
+    public static double area(long cell) {
+        int level = EQCodes.level(cell);
+        if (level <= TABLE_MAX_LEVEL) {
+            return lookup(table(level), cell, level);
+        }
+        return compute(new DiamondStack(), cell);
+    }
+
+    /**
+     * get total area of cells
+     * note: cells in order, e.g. sorted or walked, share most diamonds of their path when they are computed
+     *
+     * @param cells packed cell codes, of any levels
+     * @param from  index of first cell
+     * @param to    index after last cell
+     * @return sum of spherical areas in square meters
+     */
+    public static double sum(long[] cells, int from, int to) {
+        DiamondStack path = null;
+        double sum = 0;
+        for (int k = from; k < to; ++k) {
+            long cell = cells[k];
+            int level = EQCodes.level(cell);
+            if (level <= TABLE_MAX_LEVEL) {
+                sum += lookup(table(level), cell, level);
+            } else {
+                if (path == null) {
+                    path = new DiamondStack();
+                }
+                sum += compute(path, cell);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * get total area of cells
+     *
+     * @param cells packed cell codes, of any levels
+     * @return sum of spherical areas in square meters
+     */
+    public static double sum(long[] cells) {
+        return sum(cells, 0, cells.length);
+    }
+
+    /**
+     * get area covered by a cell union
+     * note: summed over its largest aligned cells, so no cell of finest level is enumerated
+     *
+     * @param union cell union
+     * @return spherical area in square meters
+     */
+    public static double sum(CellUnion union) {
+        return sum(union.toCodes());
+    }
+
+    private static double lookup(double[] table, long cell, int level) {
+        assert isCell(cell);
+
+        int n = 1 << level;
+        long morton = EQCodes.morton(cell);
+        int i = MathUtil.MortonToI(morton), j = MathUtil.MortonToJ(morton);
+        if (EQCodes.element(cell) == 5) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        if (i + j >= n) {
+            int swap = n - 1 - i;
+            i = n - 1 - j;
+            j = swap;
+        }
+        int s = i + j;
+        return table[s * (s + 1) / 2 + i];
+    }
+
+    private static double[] table(int level) {
+        double[] table = TABLES.get(level);
+        if (table == null) {
+            table = build(level);
+            if (!TABLES.compareAndSet(level, null, table)) {
+                table = TABLES.get(level);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * compute areas of upper cells with i + j < n in domain 0, diamonds are visited in morton order
+     */
+    private static double[] build(int level) {
+        int n = 1 << level;
+        double[] table = new double[n * (n + 1) / 2];
+        DiamondStack path = new DiamondStack();
+        long count = 1L << (2 * level);
+        for (long morton = 0; morton < count; ++morton) {
+            int i = MathUtil.MortonToI(morton), j = MathUtil.MortonToJ(morton);
+            int s = i + j;
+            if (s < n) {
+                table[s * (s + 1) / 2 + i] = compute(path, EQCodes.pack(0, 4, level, morton));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * area of trigon {v0, v1, v3} of upper cell or {v2, v1, v3} of lower cell
+     */
+    private static double compute(DiamondStack path, long cell) {
+        assert isCell(cell);
+
+        int off = path.load(cell);
+        int side = EQCodes.element(cell) == 4 ? off : off + 6;
+        return MathUtil.SphericalTriangleArea(path.stack, side, off + 3, off + 9);
+    }
+
+    private static boolean isCell(long code) {
+        int element = EQCodes.element(code);
+        return (element == 4 || element == 5) && EQCodes.domain(code) < 10;
+    }
+}
@@ -36,6 +36,17 @@ public class EQCode extends BaseCode {
         this.morton = morton;
     }
 
+    /**
+     * Constructor
+     *
+     * @param code packed EQTM code
+     * @see EQCodes
+     */
+    public EQCode(long code) {
+        super(CodeType.EQCode, EQCodes.domain(code), EQCodes.element(code), EQCodes.level(code));
+        this.morton = EQCodes.morton(code);
+    }
+
     /**
      * copy Constructor
      *
@@ -64,6 +75,36 @@ public class EQCode extends BaseCode {
         this.morton = code;
     }
 
+    /**
+     * get lattice position along v3 to v0 of domain
+     *
+     * @return row of diamond within domain
+     * @see MathUtil#MortonToI
+     */
+    public int getI() {
+        return MathUtil.MortonToI(this.morton);
+    }
+
+    /**
+     * get lattice position along v3 to v2 of domain
+     *
+     * @return column of diamond within domain
+     * @see MathUtil#MortonToJ
+     */
+    public int getJ() {
+        return MathUtil.MortonToJ(this.morton);
+    }
+
+    /**
+     * set morton code of this EQTM code by lattice position
+     *
+     * @param i row of diamond within domain
+     * @param j column of diamond within domain
+     */
+    public void setIJ(int i, int j) {
+        this.morton = MathUtil.IJToMorton(i, j);
+    }
+
     /**
      * get grid element type of this EQTM code
      *
@@ -71,11 +112,21 @@ public class EQCode extends BaseCode {
      */
     @Override
     public final ElementType getElementType() {
-        if (getElementCode() == 0) {
+        return ElementTypeOf(getElementCode());
+    }
+
+    /**
+     * get grid element type of an EQTM element type code
+     *
+     * @param elementCode element type code
+     * @return grid element
+     */
+    public static ElementType ElementTypeOf(int elementCode) {
+        if (elementCode == 0) {
             return ElementType.GridNode;
-        } else if (getElementCode() >= 1 && getElementCode() <= 3) {
+        } else if (elementCode >= 1 && elementCode <= 3) {
             return ElementType.GridEdge;
-        } else if (getElementCode() == 4 || getElementCode() == 5) {
+        } else if (elementCode == 4 || elementCode == 5) {
             return ElementType.GridCell;
         } else {
             return ElementType.NoDef;
@@ -91,31 +142,12 @@ public class EQCode extends BaseCode {
      */
     @Override
     public SpericalCoord toSpericalCoord() {
-        // check pole
-        if (getDomainID() == 10) {      // north pole
-            return new SpericalCoord(0., 90.);
-        } else if (getDomainID() == 11) {    //south pole
-            return new SpericalCoord(0., -90.);
-        }
-
-        DiamondBlock d = toDiamond();
-
-        CartesianCoord cc = MathUtil.GetDiamondElement(d, this.getElementCode());
-        SpericalCoord sc = CartesianCoord.ToSpericalCoord(cc);
-        return sc;
+        return EQCodes.toSpericalCoord(getDomainID(), getElementCode(), getLevel(), this.morton);
     }
 
     @Override
     public Trigon toTrigon() {
-        DiamondBlock d = toDiamond();
-
-        if (4 == getElementCode()) {
-            return new Trigon(d.v(0), d.v(1), d.v(3));
-        } else if (5 == getElementCode()) {
-            return new Trigon(d.v(2), d.v(1), d.v(3));
-        }
-
-        return null;
+        return EQCodes.toTrigon(getDomainID(), getElementCode(), getLevel(), this.morton);
     }
 
     /**
@@ -124,25 +156,18 @@ public class EQCode extends BaseCode {
      * @return diamond of this EQTM code located in
      */
     public DiamondBlock toDiamond() {
-        // check pole
-        if (getDomainID() == 10) {      // north pole
-            return null;
-        } else if (getDomainID() == 11) {    //south pole
-            return null;
-        }
-
-        CartesianCoord v0 = new CartesianCoord();
-        CartesianCoord v1 = new CartesianCoord();
-        CartesianCoord v2 = new CartesianCoord();
-        CartesianCoord v3 = new CartesianCoord();
-        MathUtil.GetDomainCorner(getDomainID(), v0, v1, v2, v3);
-
-        DiamondBlock d = new DiamondBlock(v0, v1, v2, v3);
-        MathUtil.GetDiamond(d, this.morton, this.getLevel());
-
-        return d;
+        return EQCodes.toDiamond(getDomainID(), getLevel(), this.morton);
     }
 
+    /**
+     * pack this EQTM code into a long
+     *
+     * @return packed code
+     * @see EQCodes
+     */
+    public long pack() {
+        return EQCodes.pack(this);
+    }
 
     /**
      * convert lat/lon into EQTM code.
@@ -173,22 +198,23 @@ public class EQCode extends BaseCode {
         }
 
         CartesianCoord cc = CartesianCoord.FromSpericalCoord(sc);
-        this.setDomainID(MathUtil.PredictDomain(cc));
-
-        CartesianCoord v0 = new CartesianCoord();
-        CartesianCoord v1 = new CartesianCoord();
-        CartesianCoord v2 = new CartesianCoord();
-        CartesianCoord v3 = new CartesianCoord();
-        MathUtil.GetDomainCorner(this.getDomainID(), v0, v1, v2, v3);      //wait to debug, maybe error
+        double x = cc.getX(), y = cc.getY(), z = cc.getZ();
+        this.setDomainID(MathUtil.PredictDomain(x, y, z));
 
-        DiamondBlock d = new DiamondBlock(v0, v1, v2, v3);
-        //get morton
-        long temp = 0;
-        this.morton = MathUtil.CalcMorton(temp, cc, d, this.getLevel());
+        //get morton, descend iteratively from cached diamonds
+        double[] d = new double[12];
+        this.morton = DiamondCache.getInstance().calcMorton(x, y, z, this.getDomainID(), d, this.getLevel());
 
-        this.setElementCode(MathUtil.CalcType(cc, d, ele));
+        this.setElementCode(MathUtil.CalcType(x, y, z, d, ele));
     }
 
+    /**
+     * text code of this EQTM code, same as EQCodeFormat for a level up to MAX_LEVEL
+     * note: fields are formatted directly, so a deeper level than packed code holds is written too
+     *
+     * @return text code
+     * @see EQCodeFormat
+     */
     @Override
     public String toString() {
         String domStr = MathUtil.DecimalToBinary(getDomainID(), 4);
@@ -205,4 +231,9 @@ public class EQCode extends BaseCode {
 
         return super.equals(obj) && this.morton == ((EQCode) obj).morton;
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Long.hashCode(this.morton);
+    }
 }
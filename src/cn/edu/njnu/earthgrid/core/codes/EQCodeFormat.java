@@ -0,0 +1,358 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import java.nio.CharBuffer;
+
+/**
+ * Text formats of packed EQTM code
+ * note: text code is what EQCode.toString writes,
+ *       4 binary digits of domain id, 4 binary digits of element code, then one quaternary digit of morton
+ *       code per level from top, so level is length - 8.
+ *       base32 code is compact for logs and urls, one digit of level, then domain, element and morton code
+ *       as one number of 8 + 2 * level bits in base32 digits "0-9a-z" without "ilou", most significant first.
+ *       both are ascii, formatters write into caller's buffer and parsers read ranges without substring
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQCodes
+ */
+public final class EQCodeFormat {
+
+    private EQCodeFormat() {
+        throw new AssertionError();
+    }
+
+    /**
+     * max length of text code
+     */
+    public static final int MAX_LENGTH = 8 + EQCodes.MAX_LEVEL;
+
+    /**
+     * max length of base32 code
+     */
+    public static final int MAX_BASE32_LENGTH = 1 + (8 + 2 * EQCodes.MAX_LEVEL + 4) / 5;
+
+    private static final char[] BASE32_DIGITS = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+
+    /**
+     * value of base32 digit by char, -1 if invalid, upper case is accepted
+     */
+    private static final byte[] BASE32_VALUES = new byte[128];
+
+    static {
+        java.util.Arrays.fill(BASE32_VALUES, (byte) -1);
+        for (int k = 0; k < BASE32_DIGITS.length; ++k) {
+            BASE32_VALUES[BASE32_DIGITS[k]] = (byte) k;
+            BASE32_VALUES[Character.toUpperCase(BASE32_DIGITS[k])] = (byte) k;
+        }
+    }
+
+    /**
+     * get length of text code
+     *
+     * @param code packed code
+     * @return number of chars
+     */
+    public static int length(long code) {
+        return 8 + EQCodes.level(code);
+    }
+
+    /**
+     * write text code into byte array
+     *
+     * @param code packed code
+     * @param out  returned ascii text from out[off]
+     * @param off  start index in out
+     * @return index after the last written byte
+     */
+    public static int format(long code, byte[] out, int off) {
+        for (int k = 0, length = length(code); k < length; ++k) {
+            out[off++] = (byte) digit(code, k);
+        }
+        return off;
+    }
+
+    /**
+     * write text code into char array
+     *
+     * @param code packed code
+     * @param out  returned text from out[off]
+     * @param off  start index in out
+     * @return index after the last written char
+     */
+    public static int format(long code, char[] out, int off) {
+        for (int k = 0, length = length(code); k < length; ++k) {
+            out[off++] = digit(code, k);
+        }
+        return off;
+    }
+
+    /**
+     * write text code at buffer's position, position is advanced
+     *
+     * @param code packed code
+     * @param out  char buffer with at least length(code) remaining
+     */
+    public static void format(long code, CharBuffer out) {
+        if (out.hasArray()) {
+            int pos = out.position();
+            int end = format(code, out.array(), out.arrayOffset() + pos);
+            out.position(end - out.arrayOffset());
+            return;
+        }
+
+        for (int k = 0, length = length(code); k < length; ++k) {
+            out.put(digit(code, k));
+        }
+    }
+
+    /**
+     * append text code to string builder
+     *
+     * @param sb   string builder
+     * @param code packed code
+     * @return sb
+     */
+    public static StringBuilder append(StringBuilder sb, long code) {
+        for (int k = 0, length = length(code); k < length; ++k) {
+            sb.append(digit(code, k));
+        }
+        return sb;
+    }
+
+    /**
+     * get text code
+     *
+     * @param code packed code
+     * @return text code
+     */
+    public static String toString(long code) {
+        char[] text = new char[length(code)];
+        format(code, text, 0);
+        return new String(text);
+    }
+
+    /**
+     * parse text code from ascii bytes
+     *
+     * @param in   ascii text
+     * @param from index of first char
+     * @param to   index after last char
+     * @return packed code
+     * @throws IllegalArgumentException if text isn't a text code
+     */
+    public static long parse(byte[] in, int from, int to) {
+        return parseText(in, null, from, to);
+    }
+
+    /**
+     * parse text code from chars, a CharBuffer is read relative to its position
+     *
+     * @param in   text, String, StringBuilder or CharBuffer
+     * @param from index of first char
+     * @param to   index after last char
+     * @return packed code
+     * @throws IllegalArgumentException if text isn't a text code
+     */
+    public static long parse(CharSequence in, int from, int to) {
+        return parseText(null, in, from, to);
+    }
+
+    /**
+     * parse text code
+     *
+     * @param in text code
+     * @return packed code
+     * @throws IllegalArgumentException if text isn't a text code
+     */
+    public static long parse(CharSequence in) {
+        return parse(in, 0, in.length());
+    }
+
+    /**
+     * get length of base32 code
+     *
+     * @param code packed code
+     * @return number of chars
+     */
+    public static int base32Length(long code) {
+        return 1 + base32Digits(EQCodes.level(code));
+    }
+
+    /**
+     * write base32 code into byte array
+     *
+     * @param code packed code
+     * @param out  returned ascii text from out[off]
+     * @param off  start index in out
+     * @return index after the last written byte
+     */
+    public static int formatBase32(long code, byte[] out, int off) {
+        for (int k = 0, length = base32Length(code); k < length; ++k) {
+            out[off++] = (byte) base32Digit(code, k);
+        }
+        return off;
+    }
+
+    /**
+     * write base32 code into char array
+     *
+     * @param code packed code
+     * @param out  returned text from out[off]
+     * @param off  start index in out
+     * @return index after the last written char
+     */
+    public static int formatBase32(long code, char[] out, int off) {
+        for (int k = 0, length = base32Length(code); k < length; ++k) {
+            out[off++] = base32Digit(code, k);
+        }
+        return off;
+    }
+
+    /**
+     * get base32 code
+     *
+     * @param code packed code
+     * @return base32 code
+     */
+    public static String toBase32(long code) {
+        char[] text = new char[base32Length(code)];
+        formatBase32(code, text, 0);
+        return new String(text);
+    }
+
+    /**
+     * parse base32 code from ascii bytes
+     *
+     * @param in   ascii text
+     * @param from index of first char
+     * @param to   index after last char
+     * @return packed code
+     * @throws IllegalArgumentException if text isn't a base32 code
+     */
+    public static long parseBase32(byte[] in, int from, int to) {
+        return parseBase32(in, null, from, to);
+    }
+
+    /**
+     * parse base32 code from chars
+     *
+     * @param in   text
+     * @param from index of first char
+     * @param to   index after last char
+     * @return packed code
+     * @throws IllegalArgumentException if text isn't a base32 code
+     */
+    public static long parseBase32(CharSequence in, int from, int to) {
+        return parseBase32(null, in, from, to);
+    }
+
+    /**
+     * parse base32 code
+     *
+     * @param in base32 code
+     * @return packed code
+     * @throws IllegalArgumentException if text isn't a base32 code
+     */
+    public static long parseBase32(CharSequence in) {
+        return parseBase32(in, 0, in.length());
+    }
+
+    private static int base32Digits(int level) {
+        return (8 + 2 * level + 4) / 5;
+    }
+
+    private static long base32Value(long code, int level) {
+        return ((long) EQCodes.domain(code) << (4 + 2 * level))
+                | ((long) EQCodes.element(code) << (2 * level))
+                | EQCodes.morton(code);
+    }
+
+    /**
+     * get char k of text code, 4 binary digits of domain, 4 binary digits of element, then morton digits
+     */
+    private static char digit(long code, int k) {
+        if (k < 4) {
+            return (char) ('0' + ((EQCodes.domain(code) >> (3 - k)) & 1));
+        } else if (k < 8) {
+            return (char) ('0' + ((EQCodes.element(code) >> (7 - k)) & 1));
+        }
+        int shift = 2 * (EQCodes.level(code) - 1 - (k - 8));
+        return (char) ('0' + ((EQCodes.morton(code) >> shift) & 3));
+    }
+
+    /**
+     * get char k of base32 code, level then digits of value
+     */
+    private static char base32Digit(long code, int k) {
+        int level = EQCodes.level(code);
+        if (k == 0) {
+            return BASE32_DIGITS[level];
+        }
+        int shift = 5 * (base32Digits(level) - k);
+        return BASE32_DIGITS[(int) (base32Value(code, level) >>> shift) & 31];
+    }
+
+    /**
+     * parse text code from bytes, or from chars if bytes is null
+     */
+    private static long parseText(byte[] bytes, CharSequence chars, int from, int to) {
+        int level = to - from - 8;
+        if (level < 0 || level > EQCodes.MAX_LEVEL) {
+            throw new IllegalArgumentException("length of text code is " + (to - from)
+                    + ", not in [8, " + MAX_LENGTH + "]");
+        }
+
+        long value = 0;
+        for (int k = from; k < to; ++k) {
+            int c = null != bytes ? bytes[k] : chars.charAt(k);
+            int max = k < from + 8 ? '1' : '3';
+            if (c < '0' || c > max) {
+                throw new IllegalArgumentException("invalid char '" + (char) c + "' at " + (k - from)
+                        + " of text code");
+            }
+            value = (value << (k < from + 8 ? 1 : 2)) | (c - '0');
+        }
+        return fromValue(value, level);
+    }
+
+    /**
+     * parse base32 code from bytes, or from chars if bytes is null
+     */
+    private static long parseBase32(byte[] bytes, CharSequence chars, int from, int to) {
+        int level = to > from ? base32(bytes, chars, from) : -1;
+        if (level < 0 || level > EQCodes.MAX_LEVEL || to - from != 1 + base32Digits(level)) {
+            throw new IllegalArgumentException("invalid level or length of base32 code");
+        }
+
+        long value = 0;
+        for (int k = from + 1; k < to; ++k) {
+            int digit = base32(bytes, chars, k);
+            if (digit < 0) {
+                throw new IllegalArgumentException("invalid char at " + (k - from) + " of base32 code");
+            }
+            value = (value << 5) | digit;
+        }
+        return fromValue(value, level);
+    }
+
+    /**
+     * get packed code from domain, element and morton code as one number of 8 + 2 * level bits
+     */
+    private static long fromValue(long value, int level) {
+        long domain = value >>> (4 + 2 * level);
+        int element = (int) (value >>> (2 * level)) & 15;
+        if (domain > 11 || element > 5) {
+            throw new IllegalArgumentException("invalid domain " + domain + " or element " + element);
+        }
+        long morton = value & ((1L << (2 * level)) - 1);
+        return EQCodes.pack((int) domain, element, level, morton);
+    }
+
+    /**
+     * value of base32 digit at k, -1 if invalid
+     */
+    private static int base32(byte[] bytes, CharSequence chars, int k) {
+        int c = null != bytes ? bytes[k] : chars.charAt(k);
+        return c >= 0 && c < 128 ? BASE32_VALUES[c] : -1;
+    }
+}
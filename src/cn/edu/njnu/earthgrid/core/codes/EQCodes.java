@@ -0,0 +1,402 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.*;
+
+/**
+ * Packed 64-bit EQTM code and its codec
+ * note: bit layout from high to low
+ *       1  bit  always 0, so packed codes compare correctly as signed long
+ *       4  bits domain id, 0-9 for cell and edge, 10/11 for north/south pole
+ *       5  bits level
+ *       50 bits morton code within domain, right aligned
+ *       4  bits element code
+ *       so sorting packed codes sorts them by domain, level, morton and element in turn
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQCode
+ */
+public final class EQCodes {
+
+    private EQCodes() {
+        throw new AssertionError();
+    }
+
+    /**
+     * max level a packed code can hold
+     */
+    public static final int MAX_LEVEL = 25;
+
+    /**
+     * packed value of an undefined code, same as default EQCode
+     */
+    public static final long NONE = -1L;
+
+    /**
+     * min length of scratch array for encoding
+     */
+    public static final int SCRATCH_SIZE = 24;
+
+    /**
+     * cache used by decoding into lat/lon and trigon, null for no cache
+     */
+    private static volatile EQDecodeCache decodeCache = null;
+
+    private static final int ELEMENT_BITS = 4;
+    private static final int MORTON_BITS = 2 * MAX_LEVEL;
+    private static final int LEVEL_BITS = 5;
+
+    private static final int MORTON_SHIFT = ELEMENT_BITS;
+    private static final int LEVEL_SHIFT = MORTON_SHIFT + MORTON_BITS;
+    private static final int DOMAIN_SHIFT = LEVEL_SHIFT + LEVEL_BITS;
+
+    private static final long ELEMENT_MASK = (1L << ELEMENT_BITS) - 1;
+    private static final long MORTON_MASK = (1L << MORTON_BITS) - 1;
+    private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1;
+    private static final long DOMAIN_MASK = 0x0F;
+
+    /**
+     * pack code fields into a long
+     *
+     * @param domainID    the domain of code located in
+     * @param elementCode code's element type code
+     * @param level       the level of code, no more than MAX_LEVEL
+     * @param morton      the morton code within domain
+     * @return packed code
+     */
+    public static long pack(int domainID, int elementCode, int level, long morton) {
+        assert domainID >= 0 && domainID <= 11;
+        assert elementCode >= 0 && elementCode <= 5;
+        assert level >= 0 && level <= MAX_LEVEL;
+        assert morton >= 0 && morton <= MORTON_MASK;
+
+        return ((long) domainID << DOMAIN_SHIFT)
+                | ((long) level << LEVEL_SHIFT)
+                | (morton << MORTON_SHIFT)
+                | elementCode;
+    }
+
+    /**
+     * pack EQTM code object into a long
+     *
+     * @param code EQTM code, NONE is returned if it is undefined
+     * @return packed code
+     */
+    public static long pack(EQCode code) {
+        if (code.getDomainID() < 0 || code.getElementCode() < 0 || code.getLevel() < 0) {
+            return NONE;
+        }
+        return pack(code.getDomainID(), code.getElementCode(), code.getLevel(), code.getMorton());
+    }
+
+    /**
+     * get domain id of packed code
+     *
+     * @param code packed code
+     * @return domain id
+     */
+    public static int domain(long code) {
+        return (int) ((code >>> DOMAIN_SHIFT) & DOMAIN_MASK);
+    }
+
+    /**
+     * get level of packed code
+     *
+     * @param code packed code
+     * @return level
+     */
+    public static int level(long code) {
+        return (int) ((code >>> LEVEL_SHIFT) & LEVEL_MASK);
+    }
+
+    /**
+     * get morton code of packed code
+     *
+     * @param code packed code
+     * @return morton code within domain
+     */
+    public static long morton(long code) {
+        return (code >>> MORTON_SHIFT) & MORTON_MASK;
+    }
+
+    /**
+     * pack code fields with lattice position into a long
+     *
+     * @param domainID    the domain of code located in
+     * @param elementCode code's element type code
+     * @param level       the level of code, no more than MAX_LEVEL
+     * @param i           position along v3 to v0 of domain, in [0, 2^level)
+     * @param j           position along v3 to v2 of domain, in [0, 2^level)
+     * @return packed code
+     */
+    public static long fromIJ(int domainID, int elementCode, int level, int i, int j) {
+        assert MathUtil.IJInRange(i, j, level);
+
+        return pack(domainID, elementCode, level, MathUtil.IJToMorton(i, j));
+    }
+
+    /**
+     * get lattice position along v3 to v0 of packed code
+     *
+     * @param code packed code
+     * @return row of diamond within domain
+     */
+    public static int i(long code) {
+        return MathUtil.MortonToI(morton(code));
+    }
+
+    /**
+     * get lattice position along v3 to v2 of packed code
+     *
+     * @param code packed code
+     * @return column of diamond within domain
+     */
+    public static int j(long code) {
+        return MathUtil.MortonToJ(morton(code));
+    }
+
+    /**
+     * offset packed code by lattice steps within its domain
+     *
+     * @param code packed code
+     * @param di   steps along v3 to v0
+     * @param dj   steps along v3 to v2
+     * @return packed code of offset diamond with same element, NONE if it is out of domain
+     */
+    public static long offset(long code, long di, long dj) {
+        long morton = MathUtil.OffsetMorton(morton(code), level(code), di, dj);
+        if (morton < 0) {
+            return NONE;
+        }
+
+        return (code & ~(MORTON_MASK << MORTON_SHIFT)) | (morton << MORTON_SHIFT);
+    }
+
+    /**
+     * whether two packed codes are in same domain and level
+     *
+     * @param a packed code
+     * @param b packed code
+     * @return true if lattice positions of them are comparable
+     */
+    public static boolean sameLattice(long a, long b) {
+        return (a >>> LEVEL_SHIFT) == (b >>> LEVEL_SHIFT);
+    }
+
+    /**
+     * truncate packed code to an upper level
+     *
+     * @param code  packed code
+     * @param level targeted level, no more than code's level
+     * @return packed code of ancestor diamond with same domain and element
+     */
+    public static long truncate(long code, int level) {
+        long morton = MathUtil.TruncateMorton(morton(code), level(code), level);
+
+        return pack(domain(code), element(code), level, morton);
+    }
+
+    /**
+     * get element type code of packed code
+     *
+     * @param code packed code
+     * @return element type code
+     * @see ElementType
+     */
+    public static int element(long code) {
+        return (int) (code & ELEMENT_MASK);
+    }
+
+    /**
+     * get grid element type of packed code
+     *
+     * @param code packed code
+     * @return grid element
+     */
+    public static ElementType elementType(long code) {
+        return EQCode.ElementTypeOf(element(code));
+    }
+
+    /**
+     * unpack code into EQTM code object
+     *
+     * @param code packed code
+     * @return EQTM code, default code if code is NONE
+     */
+    public static EQCode toEQCode(long code) {
+        if (code == NONE) {
+            return new EQCode();
+        }
+        return new EQCode(domain(code), element(code), level(code), morton(code));
+    }
+
+    /**
+     * convert lat/lon into packed EQTM code.
+     *
+     * @param sc    the point's lat/lon
+     * @param level grid's level
+     * @param ele   element identifier
+     * @return packed code
+     */
+    public static long encode(SpericalCoord sc, int level, ElementType ele) {
+        return encode(sc.getLongitude(), sc.getLatitude(), level, ele);
+    }
+
+    /**
+     * convert lat/lon into packed EQTM code.
+     *
+     * @param lon   the point's longitude
+     * @param lat   the point's latitude
+     * @param level grid's level
+     * @param ele   element identifier
+     * @return packed code
+     */
+    public static long encode(double lon, double lat, int level, ElementType ele) {
+        return encode(lon, lat, level, ele, new double[SCRATCH_SIZE]);
+    }
+
+    /**
+     * convert lat/lon into packed EQTM code.
+     * note: works over the scratch array, nothing is allocated,
+     *       levels in DiamondCache are read from cache and deeper levels are projected
+     *
+     * @param lon     the point's longitude
+     * @param lat     the point's latitude
+     * @param level   grid's level
+     * @param ele     element identifier
+     * @param scratch working array, length no less than SCRATCH_SIZE, reusable between calls
+     * @return packed code
+     * @see MathUtil#CalcMortonByProjection
+     */
+    public static long encode(double lon, double lat, int level, ElementType ele, double[] scratch) {
+        //check pole
+        if (ele == ElementType.GridNode) {
+            if (Math.abs(lat - 90.0) <= MathUtil.EPS) { // north pole
+                return pack(10, 0, level, 0);
+            }
+
+            if (Math.abs(lat + 90.0) <= MathUtil.EPS) { // south pole
+                return pack(11, 0, level, 0);
+            }
+        }
+
+        CartesianCoord.FromSpericalCoord(lon, lat, scratch, 12);
+        double x = scratch[12], y = scratch[13], z = scratch[14];
+
+        int domainID = MathUtil.PredictDomain(x, y, z);
+        long morton = MathUtil.CalcMortonByProjection(x, y, z, domainID, scratch, level);
+
+        return pack(domainID, MathUtil.CalcType(x, y, z, scratch, ele), level, morton);
+    }
+
+    /**
+     * convert packed EQTM code into lat/lon.
+     * note: return midpoint if tpye is grid edge
+     *       return center if type is grid cell
+     *
+     * @param code packed code
+     * @return lat/lon of cell element
+     */
+    public static SpericalCoord toSpericalCoord(long code) {
+        return toSpericalCoord(domain(code), element(code), level(code), morton(code));
+    }
+
+    /**
+     * convert packed EQTM code into diamond cell
+     *
+     * @param code packed code
+     * @return diamond of this EQTM code located in, null for pole
+     */
+    public static DiamondBlock toDiamond(long code) {
+        return toDiamond(domain(code), level(code), morton(code));
+    }
+
+    /**
+     * convert packed EQTM cell code into trigon cell
+     *
+     * @param code packed code
+     * @return trigon cell, null if code isn't a cell, pole domains have no cell
+     */
+    public static Trigon toTrigon(long code) {
+        return toTrigon(domain(code), element(code), level(code), morton(code));
+    }
+
+    /**
+     * set cache used by toSpericalCoord and toTrigon of EQCodes and EQCode
+     *
+     * @param cache decode cache shared by all threads, null to decode every time
+     */
+    public static void setDecodeCache(EQDecodeCache cache) {
+        decodeCache = cache;
+    }
+
+    /**
+     * get cache used by toSpericalCoord and toTrigon
+     *
+     * @return decode cache, null if not set
+     */
+    public static EQDecodeCache getDecodeCache() {
+        return decodeCache;
+    }
+
+    /**
+     * decode code fields into lat/lon
+     */
+    static SpericalCoord toSpericalCoord(int domainID, int elementCode, int level, long morton) {
+        EQDecodeCache cache = decodeCache;
+        if (cache != null && level <= MAX_LEVEL) {
+            return cache.toSpericalCoord(pack(domainID, elementCode, level, morton));
+        }
+
+        // check pole
+        if (domainID == 10) {      // north pole
+            return new SpericalCoord(0., 90.);
+        } else if (domainID == 11) {    //south pole
+            return new SpericalCoord(0., -90.);
+        }
+
+        DiamondBlock d = toDiamond(domainID, level, morton);
+
+        CartesianCoord cc = MathUtil.GetDiamondElement(d, elementCode);
+        return CartesianCoord.ToSpericalCoord(cc);
+    }
+
+    /**
+     * decode code fields into diamond cell
+     */
+    static DiamondBlock toDiamond(int domainID, int level, long morton) {
+        // check pole
+        if (domainID == 10 || domainID == 11) {
+            return null;
+        }
+
+        double[] d = new double[12];
+        DiamondCache.getInstance().getDiamond(domainID, level, morton, d, 0);
+
+        return new DiamondBlock(new CartesianCoord(d[0], d[1], d[2]), new CartesianCoord(d[3], d[4], d[5]),
+                new CartesianCoord(d[6], d[7], d[8]), new CartesianCoord(d[9], d[10], d[11]));
+    }
+
+    /**
+     * decode code fields into trigon cell
+     */
+    static Trigon toTrigon(int domainID, int elementCode, int level, long morton) {
+        // pole domains have no cell, same with and without cache
+        if ((4 != elementCode && 5 != elementCode) || domainID == 10 || domainID == 11) {
+            return null;
+        }
+
+        EQDecodeCache cache = decodeCache;
+        if (cache != null && level <= MAX_LEVEL) {
+            return cache.toTrigon(pack(domainID, elementCode, level, morton));
+        }
+
+        DiamondBlock d = toDiamond(domainID, level, morton);
+
+        if (4 == elementCode) {
+            return new Trigon(d.v(0), d.v(1), d.v(3));
+        } else {
+            return new Trigon(d.v(2), d.v(1), d.v(3));
+        }
+    }
+}
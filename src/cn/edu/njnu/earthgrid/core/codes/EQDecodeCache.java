@@ -0,0 +1,397 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.CartesianCoord;
+import cn.edu.njnu.earthgrid.core.geometry.DiamondCache;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.core.geometry.Trigon;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of decoded packed EQTM codes
+ * note: entries are kept in sets of WAYS slots, a code is hashed to one set and evicts within it,
+ *       sets are split into stripes, each guarded by its own lock.
+ *       a slot holds code's lon/lat and, for cells, trigon vertices {v.x, v.y, v.z} x 3 in one double slab,
+ *       results are copied out, so returned objects can be modified by caller.
+ *       decoding on a miss runs outside the lock, two threads may decode the same code at the same time.
+ *       set EQCodes.setDecodeCache to let EQCodes and EQCode decoding go through a cache
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQCodes#setDecodeCache
+ */
+public final class EQDecodeCache {
+
+    /**
+     * slot to evict when a set is full
+     */
+    public enum Eviction {
+        /**
+         * first inserted slot
+         */
+        FIFO,
+        /**
+         * least recently read slot
+         */
+        LRU,
+        /**
+         * second chance, a slot read since the hand passed it is skipped once
+         */
+        CLOCK
+    }
+
+    /**
+     * number of slots in a set
+     */
+    public static final int WAYS = 8;
+
+    /**
+     * default number of stripes
+     */
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final int LONLAT = 1;
+    private static final int TRIGON = 2;
+    private static final int REFERENCED = 4;
+
+    /**
+     * doubles of a slot, lon, lat and trigon vertices
+     */
+    private static final int SLOT_SIZE = 11;
+
+    private final Stripe[] stripes;
+    private final int stripeBits;
+    private final int setMask;
+    private final Eviction eviction;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor, CLOCK eviction over DEFAULT_STRIPES stripes
+     *
+     * @param capacity max number of cached codes, rounded up to a power of two sets
+     */
+    public EQDecodeCache(int capacity) {
+        this(capacity, DEFAULT_STRIPES, Eviction.CLOCK);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity max number of cached codes, rounded up to a power of two sets
+     * @param stripes  number of locks, rounded up to a power of two
+     * @param eviction eviction policy
+     */
+    public EQDecodeCache(int capacity, int stripes, Eviction eviction) {
+        assert capacity > 0 && stripes > 0 && eviction != null;
+
+        int stripeCount = ceilPowerOfTwo(stripes);
+        int sets = (capacity + WAYS - 1) / WAYS;
+        int setsPerStripe = ceilPowerOfTwo((sets + stripeCount - 1) / stripeCount);
+
+        this.stripes = new Stripe[stripeCount];
+        for (int s = 0; s < stripeCount; ++s) {
+            this.stripes[s] = new Stripe(setsPerStripe * WAYS, setsPerStripe);
+        }
+        this.stripeBits = Integer.numberOfTrailingZeros(stripeCount);
+        this.setMask = setsPerStripe - 1;
+        this.eviction = eviction;
+    }
+
+    /**
+     * decode code into lat/lon, same as EQCodes.toSpericalCoord without cache
+     *
+     * @param code packed code
+     * @return new lat/lon of element
+     */
+    public SpericalCoord toSpericalCoord(long code) {
+        double[] lonLat = new double[2];
+        getLonLat(code, lonLat, 0);
+        return new SpericalCoord(lonLat[0], lonLat[1]);
+    }
+
+    /**
+     * decode cell code into trigon, same as EQCodes.toTrigon without cache
+     *
+     * @param code packed code
+     * @return new trigon, null if code isn't a cell
+     */
+    public Trigon toTrigon(long code) {
+        double[] v = new double[9];
+        if (!getTrigon(code, v, 0)) {
+            return null;
+        }
+        return new Trigon(new CartesianCoord(v[0], v[1], v[2]), new CartesianCoord(v[3], v[4], v[5]),
+                new CartesianCoord(v[6], v[7], v[8]));
+    }
+
+    /**
+     * decode code into lon/lat without allocation on a hit
+     *
+     * @param code packed code
+     * @param out  returned {lon, lat} from out[off]
+     * @param off  start index in out
+     */
+    public void getLonLat(long code, double[] out, int off) {
+        if (read(code, LONLAT, 0, out, off, 2)) {
+            return;
+        }
+
+        double[] slab = new double[SLOT_SIZE];
+        decodeLonLat(code, slab);
+        write(code, LONLAT, slab);
+        out[off] = slab[0];
+        out[off + 1] = slab[1];
+    }
+
+    /**
+     * decode cell code into trigon vertices without allocation on a hit
+     *
+     * @param code packed code
+     * @param out  returned {v0.x, v0.y, v0.z, v1.x, ..., v2.z} from out[off], same vertices as toTrigon
+     * @param off  start index in out
+     * @return false if code isn't a cell
+     */
+    public boolean getTrigon(long code, double[] out, int off) {
+        int element = EQCodes.element(code);
+        if ((element != 4 && element != 5) || EQCodes.domain(code) >= 10) {
+            return false;
+        }
+        if (read(code, TRIGON, 2, out, off, 9)) {
+            return true;
+        }
+
+        double[] slab = new double[SLOT_SIZE];
+        decodeTrigon(code, slab);
+        write(code, TRIGON, slab);
+        System.arraycopy(slab, 2, out, off, 9);
+        return true;
+    }
+
+    /**
+     * get number of reads served from cache
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * get number of reads that decoded
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * get number of evicted codes
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * get ratio of hits in all reads
+     *
+     * @return hit rate, 0 if nothing is read
+     */
+    public double getHitRate() {
+        long hit = hits.sum(), total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * get max number of cached codes
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return stripes.length * (setMask + 1) * WAYS;
+    }
+
+    /**
+     * get eviction policy
+     *
+     * @return eviction
+     */
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    /**
+     * remove all cached codes and reset counters
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Arrays.fill(stripe.keys, EQCodes.NONE);
+                Arrays.fill(stripe.flags, (byte) 0);
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    /**
+     * copy part of a cached slot
+     *
+     * @return false if code or its part isn't cached
+     */
+    private boolean read(long code, int part, int from, double[] out, int off, int len) {
+        long hash = hash(code);
+        Stripe stripe = stripes[(int) hash & (stripes.length - 1)];
+        int set = (int) (hash >>> stripeBits) & setMask;
+        synchronized (stripe) {
+            int slot = stripe.find(code, set);
+            if (slot >= 0 && (stripe.flags[slot] & part) != 0) {
+                System.arraycopy(stripe.slab, slot * SLOT_SIZE + from, out, off, len);
+                if (eviction == Eviction.LRU) {
+                    stripe.stamps[slot] = ++stripe.tick;
+                } else if (eviction == Eviction.CLOCK) {
+                    stripe.flags[slot] |= REFERENCED;
+                }
+                hits.increment();
+                return true;
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * store part of a slot, the other part is kept if code is cached
+     */
+    private void write(long code, int part, double[] slab) {
+        long hash = hash(code);
+        Stripe stripe = stripes[(int) hash & (stripes.length - 1)];
+        int set = (int) (hash >>> stripeBits) & setMask;
+        int from = part == LONLAT ? 0 : 2, len = part == LONLAT ? 2 : 9;
+        synchronized (stripe) {
+            int slot = stripe.find(code, set);
+            if (slot < 0) {
+                slot = victim(stripe, set);
+                if (stripe.keys[slot] != EQCodes.NONE) {
+                    evictions.increment();
+                }
+                stripe.keys[slot] = code;
+                stripe.flags[slot] = 0;
+                stripe.stamps[slot] = ++stripe.tick;
+            }
+            System.arraycopy(slab, from, stripe.slab, slot * SLOT_SIZE + from, len);
+            stripe.flags[slot] |= part;
+        }
+    }
+
+    /**
+     * choose slot to replace in a set, an empty slot first
+     */
+    private int victim(Stripe stripe, int set) {
+        int base = set * WAYS;
+        for (int w = 0; w < WAYS; ++w) {
+            if (stripe.keys[base + w] == EQCodes.NONE) {
+                return base + w;
+            }
+        }
+
+        if (eviction == Eviction.CLOCK) {
+            while (true) {
+                int slot = base + stripe.hands[set];
+                stripe.hands[set] = (stripe.hands[set] + 1) & (WAYS - 1);
+                if ((stripe.flags[slot] & REFERENCED) == 0) {
+                    return slot;
+                }
+                stripe.flags[slot] &= ~REFERENCED;
+            }
+        }
+
+        // FIFO stamps are set on insert only, LRU stamps on every read
+        int oldest = base;
+        for (int w = 1; w < WAYS; ++w) {
+            if (stripe.stamps[base + w] < stripe.stamps[oldest]) {
+                oldest = base + w;
+            }
+        }
+        return oldest;
+    }
+
+    private static int ceilPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    private static long hash(long code) {
+        long h = code * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * decode lon/lat into slab[0, 2), same as EQCodes.toSpericalCoord
+     */
+    private static void decodeLonLat(long code, double[] slab) {
+        int domain = EQCodes.domain(code);
+        if (domain == 10 || domain == 11) {
+            slab[0] = 0.;
+            slab[1] = domain == 10 ? 90. : -90.;
+            return;
+        }
+
+        double[] d = new double[12];
+        double[] p = new double[3];
+        DiamondCache.getInstance().getDiamond(domain, EQCodes.level(code), EQCodes.morton(code), d, 0);
+        MathUtil.GetDiamondElement(d, 0, EQCodes.element(code), p, 0);
+        SpericalCoord sc = CartesianCoord.ToSpericalCoord(new CartesianCoord(p[0], p[1], p[2]));
+        slab[0] = sc.getLongitude();
+        slab[1] = sc.getLatitude();
+    }
+
+    /**
+     * decode trigon vertices into slab[2, 11), same as EQCodes.toTrigon
+     */
+    private static void decodeTrigon(long code, double[] slab) {
+        double[] d = new double[12];
+        DiamondCache.getInstance().getDiamond(EQCodes.domain(code), EQCodes.level(code), EQCodes.morton(code), d, 0);
+        System.arraycopy(d, EQCodes.element(code) == 4 ? 0 : 6, slab, 2, 3);
+        System.arraycopy(d, 3, slab, 5, 3);
+        System.arraycopy(d, 9, slab, 8, 3);
+    }
+
+    /**
+     * slots of some sets, guarded by itself
+     */
+    private static final class Stripe {
+        final long[] keys;
+        final byte[] flags;
+        final long[] stamps;
+        final double[] slab;
+        final int[] hands;
+        long tick = 0;
+
+        Stripe(int slots, int sets) {
+            keys = new long[slots];
+            Arrays.fill(keys, EQCodes.NONE);
+            flags = new byte[slots];
+            stamps = new long[slots];
+            slab = new double[slots * SLOT_SIZE];
+            hands = new int[sets];
+        }
+
+        int find(long code, int set) {
+            int base = set * WAYS;
+            for (int w = 0; w < WAYS; ++w) {
+                if (keys[base + w] == code) {
+                    return base + w;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Walker of EQTM cells crossed by great arcs
+ * note: the arc from center of start cell to center of end cell is followed from cell to cell,
+ *       vertexes of a trigon are split by the arc's plane, same great arcs as edges of encoder's diamonds,
+ *       and the trigon is left through the split edge other than the way in,
+ *       the next cell is the edge neighbor from EQTopology, so domain seams are crossed by lattice arithmetic.
+ *       a vertex within SIDE_TOLERANCE of the plane is taken on its positive side from every cell around it,
+ *       so an arc through vertexes or along edges still goes from edge to edge.
+ *       if no edge is left, the walk goes on from the cell of a point slightly ahead on the arc, found by the
+ *       encoder, and the cells around the vertex shared by the two are emitted, so consecutive cells always
+ *       share an edge.
+ *       a walker keeps its buffers between calls and is meant to be reused, it isn't safe to share across threads
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQTopology
+ */
+public final class EQLineWalker {
+
+    /**
+     * first step of arc position when walking on from a point ahead
+     */
+    private static final double JUMP_STEP = 1e-9;
+
+    /**
+     * distance of a vertex to arc's plane taken as on arc, relative to radius
+     */
+    private static final double SIDE_TOLERANCE = 1e-12;
+
+    /**
+     * max halvings of the step to a cell sharing a vertex
+     */
+    private static final int JUMP_BISECTIONS = 64;
+
+    /**
+     * emitted cells
+     */
+    private long[] codes = new long[64];
+    private int size = 0;
+
+    private final DiamondStack path = new DiamondStack();
+    private final long[] neighbors = new long[3];
+    private final long[] nodes = new long[3];
+    private final long[] otherNodes = new long[3];
+    private final long[] around = new long[EQTopology.MAX_DEGREE];
+    private final double[] point = new double[3];
+    private final double[] trigon = new double[9];
+    private final double[] scratch = new double[EQCodes.SCRATCH_SIZE];
+    private double jumpPos;
+
+    /**
+     * walk cells from start cell to end cell
+     *
+     * @param start packed cell code of arc's start
+     * @param end   packed cell code of arc's end, of same level as start
+     * @return number of cells, start and end included, cells are read by getCode in order along arc
+     */
+    public int walk(long start, long end) {
+        size = 0;
+        append(start, end, true);
+        return size;
+    }
+
+    /**
+     * walk cells along a polyline of cells
+     * note: every cell is emitted once between two break points, a break point is emitted once
+     *
+     * @param cells packed cell codes of break points, of same level
+     * @param from  index of first break point
+     * @param to    index of last break point, exclusive
+     * @return number of cells
+     */
+    public int walk(long[] cells, int from, int to) {
+        size = 0;
+        for (int k = from; k + 1 < to; ++k) {
+            append(cells[k], cells[k + 1], k + 2 == to);
+        }
+        if (to - from == 1) {
+            add(cells[from]);
+        }
+        return size;
+    }
+
+    /**
+     * get number of walked cells
+     *
+     * @return number of cells
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get walked cell
+     *
+     * @param index index of cell, in [0, size())
+     * @return packed cell code
+     */
+    public long getCode(int index) {
+        assert index >= 0 && index < size;
+
+        return codes[index];
+    }
+
+    /**
+     * get walked cells
+     *
+     * @return new array of packed cell codes
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(codes, size);
+    }
+
+    /**
+     * get walked cells as stream, backed by walker's buffer until next walk
+     *
+     * @return stream of packed cell codes in order along arc
+     */
+    public LongStream stream() {
+        return Arrays.stream(codes, 0, size);
+    }
+
+    /**
+     * append cells from start to end, end is appended if withEnd
+     */
+    private void append(long start, long end, boolean withEnd) {
+        assert isCell(start) && isCell(end) && EQCodes.level(start) == EQCodes.level(end);
+
+        center(start);
+        double ax = point[0], ay = point[1], az = point[2];
+        center(end);
+        double bx = point[0], by = point[1], bz = point[2];
+        double nx = ay * bz - az * by;
+        double ny = az * bx - ax * bz;
+        double nz = ax * by - ay * bx;
+        double n2 = nx * nx + ny * ny + nz * nz;
+
+        long cell = start, from = EQCodes.NONE;
+        int first = size;
+        double pos = 0.;
+        double tolerance = SIDE_TOLERANCE * Math.sqrt(n2) * MathUtil.RADIUS;
+        while (cell != end && n2 > 0.) {
+            add(cell);
+            loadTrigon(cell);
+            EQTopology.edgeNeighbors(cell, neighbors, 0);
+
+            // a vertex on arc within tolerance is on positive side for every cell around it, so an arc through
+            // vertexes or along edges still separates vertexes of a cell by two edges, one is the way in
+            int exit = -1;
+            double exitPos = pos;
+            for (int e = 0; e < 3; ++e) {
+                int u = EDGE_VERTEX[e * 2] * 3, v = EDGE_VERTEX[e * 2 + 1] * 3;
+                double su = nx * trigon[u] + ny * trigon[u + 1] + nz * trigon[u + 2];
+                double sv = nx * trigon[v] + ny * trigon[v + 1] + nz * trigon[v + 2];
+                if ((su > -tolerance) == (sv > -tolerance) || neighbors[e] == from) {
+                    continue;
+                }
+
+                double crossPos = arcPosition(ax, ay, az, bx, by, bz, nx, ny, nz, u, v);
+                if (exit < 0 || crossPos > exitPos) {
+                    exit = e;
+                    exitPos = crossPos;
+                }
+            }
+
+            if (exitPos >= 1.) {
+                // end point is in this cell, the end cell doesn't agree with geometry
+                break;
+            }
+            if (exit < 0) {
+                long next = jump(cell, pos, ax, ay, az, bx, by, bz);
+                if (next == EQCodes.NONE) {
+                    break;
+                }
+                int emitted = indexOf(next, first);
+                if (emitted >= 0) {
+                    // arc went around a vertex and came back, the loop is dropped
+                    size = emitted;
+                } else {
+                    bridge(first, cell, next);
+                }
+                cell = next;
+                from = EQCodes.NONE;
+                pos = jumpPos;
+                continue;
+            }
+
+            from = cell;
+            cell = neighbors[exit];
+            pos = Math.max(pos, exitPos);
+        }
+        if (cell != end) {
+            // end cell doesn't agree with geometry, or arc is degenerate
+            bridge(first, cell, end);
+        }
+        if (withEnd) {
+            add(end);
+        }
+    }
+
+    /**
+     * edges of trigon in order of EQTopology.edges, by index of vertex in trigon {v3, v0 or v2, v1}
+     */
+    private static final int[] EDGE_VERTEX = {0, 1, 0, 2, 1, 2};
+
+    /**
+     * load trigon's vertices {v3, v0, v1} for upper cell or {v3, v2, v1} for lower cell
+     */
+    private void loadTrigon(long cell) {
+        int off = path.load(cell);
+        int side = EQCodes.element(cell) == 4 ? 0 : 6;
+        System.arraycopy(path.stack, off + 9, trigon, 0, 3);
+        System.arraycopy(path.stack, off + side, trigon, 3, 3);
+        System.arraycopy(path.stack, off + 3, trigon, 6, 3);
+    }
+
+    /**
+     * position along arc of crossing with edge, 0 at start and 1 at end
+     */
+    private double arcPosition(double ax, double ay, double az, double bx, double by, double bz,
+                               double nx, double ny, double nz, int u, int v) {
+        double ux = trigon[u], uy = trigon[u + 1], uz = trigon[u + 2];
+        double vx = trigon[v], vy = trigon[v + 1], vz = trigon[v + 2];
+        double mx = uy * vz - uz * vy;
+        double my = uz * vx - ux * vz;
+        double mz = ux * vy - uy * vx;
+
+        // crossing of two great circles, on the side of edge
+        double xx = ny * mz - nz * my;
+        double xy = nz * mx - nx * mz;
+        double xz = nx * my - ny * mx;
+        if (xx * (ux + vx) + xy * (uy + vy) + xz * (uz + vz) < 0) {
+            xx = -xx;
+            xy = -xy;
+            xz = -xz;
+        }
+
+        // x = alpha * a + beta * b
+        double alpha = ((xy * bz - xz * by) * nx + (xz * bx - xx * bz) * ny + (xx * by - xy * bx) * nz);
+        double beta = ((ay * xz - az * xy) * nx + (az * xx - ax * xz) * ny + (ax * xy - ay * xx) * nz);
+        if (alpha + beta <= 0) {
+            return -1.;
+        }
+        return beta / (alpha + beta);
+    }
+
+    /**
+     * find cell of the first point ahead on arc out of cell, position of the point is set in jumpPos
+     * note: the point is moved back toward cell until the two cells share a vertex
+     *
+     * @return packed cell code, NONE if the point reaches end
+     */
+    private long jump(long cell, double pos, double ax, double ay, double az, double bx, double by, double bz) {
+        int level = EQCodes.level(cell);
+        double in = pos;
+        for (double step = JUMP_STEP; pos + step < 1.; step *= 2) {
+            double out = pos + step;
+            long next = cellAt(out, level, ax, ay, az, bx, by, bz);
+            if (next == cell) {
+                in = out;
+                continue;
+            }
+
+            for (int k = 0; k < JUMP_BISECTIONS && sharedNode(cell, next) == EQCodes.NONE; ++k) {
+                double mid = (in + out) * 0.5;
+                long code = cellAt(mid, level, ax, ay, az, bx, by, bz);
+                if (code == cell) {
+                    in = mid;
+                } else {
+                    out = mid;
+                    next = code;
+                }
+            }
+            jumpPos = out;
+            return next;
+        }
+        return EQCodes.NONE;
+    }
+
+    /**
+     * encode cell of point at position s of arc
+     */
+    private long cellAt(double s, int level, double ax, double ay, double az, double bx, double by, double bz) {
+        double x = (1 - s) * ax + s * bx;
+        double y = (1 - s) * ay + s * by;
+        double z = (1 - s) * az + s * bz;
+        double len = Math.sqrt(x * x + y * y + z * z);
+        x *= MathUtil.RADIUS / len;
+        y *= MathUtil.RADIUS / len;
+        z *= MathUtil.RADIUS / len;
+
+        int domain = MathUtil.PredictDomain(x, y, z);
+        long morton = MathUtil.CalcMortonByProjection(x, y, z, domain, scratch, level);
+        return EQCodes.pack(domain, MathUtil.CalcType(x, y, z, scratch, ElementType.GridCell), level, morton);
+    }
+
+    /**
+     * emit cells around the vertex shared by two cells, from cell to next, both excluded
+     * note: the shorter way around vertex is taken, unless it goes back over emitted cells.
+     *       if the cell before cell is also around the vertex, arc only touched cell at the vertex,
+     *       so cell is taken back and the way starts from the cell before
+     *
+     * @param first index of the first cell of this arc, it isn't taken back
+     */
+    private void bridge(int first, long cell, long next) {
+        EQTopology.edgeNeighbors(cell, neighbors, 0);
+        if (neighbors[0] == next || neighbors[1] == next || neighbors[2] == next) {
+            return;
+        }
+
+        long node = sharedNode(cell, next);
+        assert node != EQCodes.NONE : "cells don't share a vertex " + EQCodeFormat.toString(cell) + " " + EQCodeFormat.toString(next) + " " + java.util.Arrays.toString(java.util.Arrays.stream(codes, 0, size).mapToObj(EQCodeFormat::toString).toArray());
+        if (node == EQCodes.NONE) {
+            return;
+        }
+        if (size - 1 > first && codes[size - 1] == cell && isAround(codes[size - 2], node)) {
+            --size;
+            bridge(first, codes[size - 1], next);
+            return;
+        }
+
+        int degree = EQTopology.cells(node, around, 0);
+        EQTopology.nodes(next, otherNodes, 0);
+        int from = 0, to = 0;
+        for (int k = 0; k < degree; ++k) {
+            if (around[k] == cell) {
+                from = k;
+            } else if (around[k] == next) {
+                to = k;
+            }
+        }
+
+        // counterclockwise steps from cell to next, the other way takes degree - steps
+        int steps = (to - from + degree) % degree;
+        boolean ccw = steps <= degree - steps;
+        if (ccw ? revisits(first, from, steps, 1, degree) : revisits(first, from, degree - steps, -1, degree)) {
+            ccw = !ccw;
+        }
+        int count = ccw ? steps : degree - steps;
+        int dir = ccw ? 1 : -1;
+        for (int k = 1; k < count; ++k) {
+            add(around[(from + dir * k + degree) % degree]);
+        }
+    }
+
+    /**
+     * get a vertex shared by two cells
+     *
+     * @return packed node code, NONE if cells don't share a vertex
+     */
+    private long sharedNode(long a, long b) {
+        EQTopology.nodes(a, nodes, 0);
+        EQTopology.nodes(b, otherNodes, 0);
+        for (long u : nodes) {
+            for (long v : otherNodes) {
+                if (u == v) {
+                    return u;
+                }
+            }
+        }
+        return EQCodes.NONE;
+    }
+
+    /**
+     * whether node is a vertex of cell
+     */
+    private boolean isAround(long cell, long node) {
+        EQTopology.nodes(cell, nodes, 0);
+        return nodes[0] == node || nodes[1] == node || nodes[2] == node;
+    }
+
+    /**
+     * whether cells between from and from + dir * count around vertex are emitted since index first
+     */
+    private boolean revisits(int first, int from, int count, int dir, int degree) {
+        for (int k = 1; k < count; ++k) {
+            if (indexOf(around[(from + dir * k + degree) % degree], first) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void center(long cell) {
+        int off = path.load(cell);
+        MathUtil.GetDiamondElement(path.stack, off, EQCodes.element(cell), point, 0);
+    }
+
+    private void add(long code) {
+        if (size > 0 && codes[size - 1] == code) {
+            return;
+        }
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+        }
+        codes[size++] = code;
+    }
+
+    /**
+     * get index of an emitted cell since index first
+     *
+     * @return index in codes, -1 if code isn't emitted
+     */
+    private int indexOf(long code, int first) {
+        for (int k = size - 1; k >= first; --k) {
+            if (codes[k] == code) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isCell(long code) {
+        int element = EQCodes.element(code);
+        return (element == 4 || element == 5) && EQCodes.domain(code) < 10;
+    }
+}
@@ -0,0 +1,333 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+import java.util.Arrays;
+
+/**
+ * Ring and disk walker over packed EQTM cell codes
+ * note: one step goes to cells sharing a node (EQTopology.vertexNeighbors), so ring k is the cells
+ *       k steps away, which is close to a hexagon around the center.
+ *       rings are grown from the previous ring and visited cells are kept in an open addressing set,
+ *       so cells across domain seams are emitted once.
+ *       a walker keeps its buffers between calls and is meant to be reused for many centers,
+ *       it isn't safe to share across threads
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQTopology
+ */
+public final class EQRings {
+
+    /**
+     * hash multiplier of visited set, 2^64 / golden ratio
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * emitted codes, ring by ring
+     */
+    private long[] codes = new long[64];
+    private int size = 0;
+
+    /**
+     * start index of each ring in codes, ringStart[rings] is size
+     */
+    private int[] ringStart = new int[8];
+    private int rings = 0;
+
+    /**
+     * codes of current and previous ring that are expanded, may hold cells that aren't emitted
+     */
+    private long[] front = new long[64];
+    private long[] next = new long[64];
+
+    /**
+     * visited codes, a slot is used if its stamp is generation,
+     * so the set is emptied by a new generation instead of clearing the table
+     */
+    private long[] visited = new long[256];
+    private int[] visitedStamp = new int[256];
+    private int generation = 1;
+    private int visitedCount = 0;
+
+    private final long[] neighbors = new long[EQTopology.MAX_VERTEX_NEIGHBORS];
+    /**
+     * diamonds along the path of the last centroid, and start of its diamond in stack
+     */
+    private final DiamondStack path = new DiamondStack();
+    private int pathOff = 0;
+    private final double[] point = new double[3];
+
+    /**
+     * collect cells within k steps of a cell
+     *
+     * @param cell packed cell code
+     * @param k    number of rings, 0 for the cell itself
+     * @return number of collected cells, cells are read by getCode in ring order
+     */
+    public int kRing(long cell, int k) {
+        assert k >= 0;
+        assert EQCodes.element(cell) == 4 || EQCodes.element(cell) == 5;
+
+        reset(cell);
+        int frontCount = 1;
+        front[0] = cell;
+        for (int r = 1; r <= k && frontCount > 0; ++r) {
+            int nextCount = 0;
+            for (int f = 0; f < frontCount; ++f) {
+                int n = EQTopology.vertexNeighbors(front[f], neighbors, 0);
+                for (int t = 0; t < n; ++t) {
+                    long c = neighbors[t];
+                    if (visit(c)) {
+                        next = grow(next, nextCount);
+                        next[nextCount++] = c;
+                        append(c);
+                    }
+                }
+            }
+            endRing();
+            long[] swap = front;
+            front = next;
+            next = swap;
+            frontCount = nextCount;
+        }
+        return size;
+    }
+
+    /**
+     * collect cells whose centers are within a distance of a cell's center
+     * note: rings are grown on until a whole ring is farther than distance plus twice the center cell's size,
+     *       so cells whose rings are bent by domain seams aren't missed.
+     *       distance is compared as chord of sphere with MathUtil.RADIUS
+     *
+     * @param cell   packed cell code
+     * @param meters great arc distance
+     * @return number of collected cells, cells are read by getCode in ring order of their first emitted ring
+     */
+    public int disk(long cell, double meters) {
+        assert meters >= 0;
+        assert EQCodes.element(cell) == 4 || EQCodes.element(cell) == 5;
+
+        reset(cell);
+        centroid(cell);
+        double cx = point[0], cy = point[1], cz = point[2];
+        double limit = chord(meters);
+        double explore = limit + 2 * cellSize();
+        limit *= limit;
+        explore *= explore;
+
+        int frontCount = 1;
+        front[0] = cell;
+        while (frontCount > 0) {
+            int nextCount = 0;
+            for (int f = 0; f < frontCount; ++f) {
+                int n = EQTopology.vertexNeighbors(front[f], neighbors, 0);
+                for (int t = 0; t < n; ++t) {
+                    long c = neighbors[t];
+                    if (!visit(c)) {
+                        continue;
+                    }
+
+                    centroid(c);
+                    double dx = point[0] - cx, dy = point[1] - cy, dz = point[2] - cz;
+                    double dist2 = dx * dx + dy * dy + dz * dz;
+                    if (dist2 <= explore) {
+                        next = grow(next, nextCount);
+                        next[nextCount++] = c;
+                    }
+                    if (dist2 <= limit) {
+                        append(c);
+                    }
+                }
+            }
+            endRing();
+            long[] swap = front;
+            front = next;
+            next = swap;
+            frontCount = nextCount;
+        }
+
+        // trailing rings only explored the margin
+        while (rings > 1 && ringStart[rings - 1] == size) {
+            --rings;
+        }
+        return size;
+    }
+
+    /**
+     * get number of collected cells
+     *
+     * @return number of cells
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get collected cell
+     *
+     * @param index index of cell, in [0, size())
+     * @return packed cell code
+     */
+    public long getCode(int index) {
+        assert index >= 0 && index < size;
+
+        return codes[index];
+    }
+
+    /**
+     * copy collected cells
+     *
+     * @param out returned packed cell codes from out[off]
+     * @param off start index in out
+     */
+    public void getCodes(long[] out, int off) {
+        System.arraycopy(codes, 0, out, off, size);
+    }
+
+    /**
+     * get collected cells
+     *
+     * @return new array of packed cell codes
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(codes, size);
+    }
+
+    /**
+     * get number of rings, ring 0 is the center
+     *
+     * @return number of collected rings
+     */
+    public int ringCount() {
+        return rings;
+    }
+
+    /**
+     * get start index of a ring
+     *
+     * @param ring ring index, in [0, ringCount()], ringStart(ringCount()) is size()
+     * @return index of ring's first cell
+     */
+    public int ringStart(int ring) {
+        assert ring >= 0 && ring <= rings;
+
+        return ringStart[ring];
+    }
+
+    private void reset(long cell) {
+        if (visitedCount > 0) {
+            if (++generation == 0) {
+                Arrays.fill(visitedStamp, 0);
+                generation = 1;
+            }
+            visitedCount = 0;
+        }
+        size = 0;
+        rings = 0;
+        ringStart[0] = 0;
+        visit(cell);
+        append(cell);
+        endRing();
+    }
+
+    private void append(long code) {
+        codes = grow(codes, size);
+        codes[size++] = code;
+    }
+
+    /**
+     * close current ring, the next ring starts at size
+     */
+    private void endRing() {
+        if (rings + 1 >= ringStart.length) {
+            ringStart = Arrays.copyOf(ringStart, ringStart.length * 2);
+        }
+        ringStart[++rings] = size;
+    }
+
+    /**
+     * add code into visited set
+     *
+     * @return true if code wasn't visited
+     */
+    private boolean visit(long code) {
+        if ((visitedCount + 1) * 2 > visited.length) {
+            rehash();
+        }
+
+        int mask = visited.length - 1;
+        int slot = hash(code) & mask;
+        while (visitedStamp[slot] == generation) {
+            if (visited[slot] == code) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        visited[slot] = code;
+        visitedStamp[slot] = generation;
+        ++visitedCount;
+        return true;
+    }
+
+    private void rehash() {
+        long[] old = visited;
+        int[] oldStamp = visitedStamp;
+        visited = new long[old.length * 2];
+        visitedStamp = new int[old.length * 2];
+        visitedCount = 0;
+        for (int k = 0; k < old.length; ++k) {
+            if (oldStamp[k] == generation) {
+                visit(old[k]);
+            }
+        }
+    }
+
+    /**
+     * mix all 64 bits of code into slot bits, high bits are folded before multiplying
+     * since low bits of a product only depend on low bits of code
+     */
+    private static int hash(long code) {
+        long h = (code ^ (code >>> 32)) * HASH_MULTIPLIER;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long[] grow(long[] array, int count) {
+        return count < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * set point to center of cell
+     * note: cells in a ring are close to each other, so only levels below their common ancestor are subdivided
+     */
+    private void centroid(long cell) {
+        pathOff = path.load(cell);
+        MathUtil.GetDiamondElement(path.stack, pathOff, EQCodes.element(cell), point, 0);
+    }
+
+    /**
+     * longest side of the diamond last read by centroid
+     */
+    private double cellSize() {
+        double[] stack = path.stack;
+        int off = pathOff;
+        double max = 0;
+        for (int k = 0; k < 4; ++k) {
+            int a = off + k * 3, b = off + ((k + 1) & 3) * 3;
+            double dx = stack[a] - stack[b];
+            double dy = stack[a + 1] - stack[b + 1];
+            double dz = stack[a + 2] - stack[b + 2];
+            max = Math.max(max, dx * dx + dy * dy + dz * dz);
+        }
+        return Math.sqrt(max);
+    }
+
+    /**
+     * chord of great arc with length meters
+     */
+    private static double chord(double meters) {
+        double angle = Math.min(meters / MathUtil.RADIUS, MathUtil.PI);
+        return 2 * MathUtil.RADIUS * Math.sin(angle / 2);
+    }
+}
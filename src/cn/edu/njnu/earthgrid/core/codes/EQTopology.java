@@ -0,0 +1,565 @@
+package cn.edu.njnu.earthgrid.core.codes;
+
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+
+/**
+ * Adjacency of packed EQTM codes by lattice arithmetic
+ * note: in each domain of level l, node (i, j) is v3 of diamond (i, j), i goes to v0 and j goes to v2,
+ *       nodes and edges of a diamond are its node 0 and edges 1-3 from v3, so a domain holds
+ *       nodes and edges with 0 <= i, j < 2^l, those on its sides v0v1 and v1v2 belong to neighbors.
+ *       icosahedron vertexes are v3 of domain 0-9 or the poles.
+ *       elements across a side are moved into neighbor domain by a rotation of lattice and a shift,
+ *       all domains are of same orientation, so the table is found from shared corners of domains
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see EQCodes
+ */
+public final class EQTopology {
+
+    private EQTopology() {
+        throw new AssertionError();
+    }
+
+    /**
+     * max number of cells sharing a vertex with a cell
+     */
+    public static final int MAX_VERTEX_NEIGHBORS = 12;
+
+    /**
+     * max number of edges, cells or nodes around a node
+     */
+    public static final int MAX_DEGREE = 6;
+
+    /**
+     * sides of domain, v3v0 (j < 0), v0v1 (i >= n), v2v1 (j >= n) and v3v2 (i < 0)
+     */
+    private static final int SIDE_V3V0 = 0;
+    private static final int SIDE_V0V1 = 1;
+    private static final int SIDE_V2V1 = 2;
+    private static final int SIDE_V3V2 = 3;
+
+    /**
+     * corners of each side, and lattice position of corners in unit of 2^level
+     */
+    private static final int[][] SIDE_CORNERS = {{3, 0}, {0, 1}, {2, 1}, {3, 2}};
+    private static final int[] CORNER_I = {1, 1, 0, 0};
+    private static final int[] CORNER_J = {0, 1, 1, 0};
+
+    /**
+     * nodes of each element from v3 of its diamond, {di, dj, ...}
+     */
+    private static final int[][] ELEMENT_NODES = {
+            {0, 0}, {0, 0, 1, 0}, {0, 0, 1, 1}, {0, 0, 0, 1}, {0, 0, 1, 0, 1, 1}, {0, 0, 0, 1, 1, 1}
+    };
+
+    /**
+     * neighbor domain across each side of each domain, and the map (i, j) -> R^k (i, j) + n (ti, tj),
+     * where R (i, j) = (i - j, i) is rotation of lattice by 60 degrees, index is domain * 4 + side
+     */
+    private static final int[] SEAM_DOMAIN = new int[40];
+    private static final int[] SEAM_ROTATION = new int[40];
+    private static final int[] SEAM_TI = new int[40];
+    private static final int[] SEAM_TJ = new int[40];
+
+    /**
+     * element after rotation R^k, its new type and shift of v3, index is k * 6 + element
+     */
+    private static final int[] ROTATE_TYPE = new int[36];
+    private static final int[] ROTATE_DI = new int[36];
+    private static final int[] ROTATE_DJ = new int[36];
+
+    /**
+     * domain holding each icosahedron vertex
+     */
+    private static final int[] VERTEX_DOMAIN = new int[12];
+
+    static {
+        VERTEX_DOMAIN[0] = 10;
+        VERTEX_DOMAIN[11] = 11;
+        for (int d = 0; d < 10; ++d) {
+            VERTEX_DOMAIN[MathUtil.GetDomainCornerIndex(d, 3)] = d;
+        }
+
+        for (int k = 0; k < 6; ++k) {
+            for (int e = 0; e < 6; ++e) {
+                initRotation(k, e);
+            }
+        }
+
+        for (int d = 0; d < 10; ++d) {
+            for (int side = 0; side < 4; ++side) {
+                initSeam(d, side);
+            }
+        }
+    }
+
+    /**
+     * find type and v3 of element after rotation R^k
+     */
+    private static void initRotation(int k, int element) {
+        int[] nodes = ELEMENT_NODES[element];
+        int count = nodes.length / 2;
+        int[] ri = new int[count];
+        int[] rj = new int[count];
+        int minI = Integer.MAX_VALUE, minJ = Integer.MAX_VALUE;
+        for (int n = 0; n < count; ++n) {
+            long r = rotate(nodes[n * 2], nodes[n * 2 + 1], k);
+            ri[n] = (int) (r >> 32);
+            rj[n] = (int) r;
+            minI = Math.min(minI, ri[n]);
+            minJ = Math.min(minJ, rj[n]);
+        }
+
+        int type;
+        if (count == 1) {
+            type = 0;
+        } else if (count == 2) {
+            int di = Math.abs(ri[1] - ri[0]), dj = Math.abs(rj[1] - rj[0]);
+            type = di == 1 && dj == 0 ? 1 : (di == 1 ? 2 : 3);
+        } else {
+            type = 5;
+            for (int n = 0; n < count; ++n) {
+                if (ri[n] - minI == 1 && rj[n] - minJ == 0) {
+                    type = 4;
+                }
+            }
+        }
+
+        ROTATE_TYPE[k * 6 + element] = type;
+        ROTATE_DI[k * 6 + element] = minI;
+        ROTATE_DJ[k * 6 + element] = minJ;
+    }
+
+    /**
+     * find neighbor domain and lattice map across a side
+     */
+    private static void initSeam(int d, int side) {
+        int ca = SIDE_CORNERS[side][0], cb = SIDE_CORNERS[side][1];
+        int pa = MathUtil.GetDomainCornerIndex(d, ca), pb = MathUtil.GetDomainCornerIndex(d, cb);
+
+        for (int e = 0; e < 10; ++e) {
+            int ea = cornerOf(e, pa), eb = cornerOf(e, pb);
+            if (e == d || ea < 0 || eb < 0) {
+                continue;
+            }
+
+            for (int k = 0; k < 6; ++k) {
+                long r = rotate(CORNER_I[cb] - CORNER_I[ca], CORNER_J[cb] - CORNER_J[ca], k);
+                if ((int) (r >> 32) == CORNER_I[eb] - CORNER_I[ea] && (int) r == CORNER_J[eb] - CORNER_J[ea]) {
+                    long a = rotate(CORNER_I[ca], CORNER_J[ca], k);
+                    int idx = d * 4 + side;
+                    SEAM_DOMAIN[idx] = e;
+                    SEAM_ROTATION[idx] = k;
+                    SEAM_TI[idx] = CORNER_I[ea] - (int) (a >> 32);
+                    SEAM_TJ[idx] = CORNER_J[ea] - (int) a;
+                    return;
+                }
+            }
+        }
+        assert false : "no neighbor domain across side " + side + " of domain " + d;
+    }
+
+    /**
+     * corner of domain at icosahedron vertex, -1 if it isn't a corner
+     */
+    private static int cornerOf(int domain, int vertex) {
+        for (int c = 0; c < 4; ++c) {
+            if (MathUtil.GetDomainCornerIndex(domain, c) == vertex) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * rotate lattice vector by R^k, returned as (i << 32) | (j & 0xFFFFFFFF)
+     */
+    private static long rotate(long i, long j, int k) {
+        for (int n = 0; n < k; ++n) {
+            long t = i - j;
+            j = i;
+            i = t;
+        }
+        return (i << 32) | (j & 0xFFFFFFFFL);
+    }
+
+    /**
+     * get packed code of an element by its position in a domain's lattice.
+     * note: element may lie on sides of domain or across one of them,
+     *       it's then moved into the domain holding it
+     *
+     * @param domain  domain id, 0-9
+     * @param level   grid's level
+     * @param i       v3 of element's diamond along v3 to v0
+     * @param j       v3 of element's diamond along v3 to v2
+     * @param element element type code
+     * @return packed code
+     */
+    public static long toCode(int domain, int level, long i, long j, int element) {
+        long n = 1L << level;
+
+        for (int hop = 0; hop < 3; ++hop) {
+            if (i >= 0 && i < n && j >= 0 && j < n) {
+                return EQCodes.pack(domain, element, level, MathUtil.IJToMorton((int) i, (int) j));
+            }
+
+            // icosahedron vertex
+            if (element == 0 && (i == 0 || i == n) && (j == 0 || j == n)) {
+                int corner = i == n ? (j == 0 ? 0 : 1) : 2;
+                int owner = VERTEX_DOMAIN[MathUtil.GetDomainCornerIndex(domain, corner)];
+                return EQCodes.pack(owner, 0, level, 0);
+            }
+
+            int side;
+            if (j < 0) {
+                side = SIDE_V3V0;
+            } else if (i >= n) {
+                side = SIDE_V0V1;
+            } else if (j >= n) {
+                side = SIDE_V2V1;
+            } else {
+                side = SIDE_V3V2;
+            }
+            assert (side == SIDE_V3V0 || side == SIDE_V2V1 ? i >= 0 && i < n : j >= 0 && j < n)
+                    : "element beyond corner of domain";
+
+            int idx = domain * 4 + side;
+            int k = SEAM_ROTATION[idx];
+            long r = rotate(i, j, k);
+            int rot = k * 6 + element;
+            i = (r >> 32) + SEAM_TI[idx] * n + ROTATE_DI[rot];
+            j = (int) r + SEAM_TJ[idx] * n + ROTATE_DJ[rot];
+            element = ROTATE_TYPE[rot];
+            domain = SEAM_DOMAIN[idx];
+        }
+
+        assert false : "element isn't next to domain";
+        return EQCodes.NONE;
+    }
+
+    /**
+     * get number of edges, cells or nodes around a node
+     *
+     * @param node packed node code
+     * @return 5 for icosahedron vertexes, 6 for others
+     */
+    public static int degree(long node) {
+        assert EQCodes.element(node) == 0;
+
+        return EQCodes.domain(node) >= 10 || EQCodes.morton(node) == 0 ? 5 : 6;
+    }
+
+    /**
+     * get one of the cells around a node
+     * note: cells are in counterclockwise order,
+     *       for a node (i, j) not on corner they are upper (i, j), lower (i, j), upper (i - 1, j),
+     *       lower (i - 1, j - 1), upper (i - 1, j - 1) and lower (i, j - 1)
+     *
+     * @param node packed node code
+     * @param k    index of cell, less than degree(node)
+     * @return packed cell code
+     */
+    public static long nodeCell(long node, int k) {
+        int domain = EQCodes.domain(node);
+        int level = EQCodes.level(node);
+        long n = 1L << level;
+
+        if (domain == 10) {
+            return EQCodes.pack(k, 4, level, MathUtil.IJToMorton((int) n - 1, 0));
+        } else if (domain == 11) {
+            return EQCodes.pack(5 + k, 5, level, MathUtil.IJToMorton(0, (int) n - 1));
+        }
+
+        long i = EQCodes.i(node), j = EQCodes.j(node);
+        if (i == 0 && j == 0) {
+            switch (k) {
+                case 0:
+                    return toCode(domain, level, 0, 0, 4);
+                case 1:
+                    return toCode(domain, level, 0, 0, 5);
+                case 2:
+                    return toCode(domain, level, -1, 0, 4);
+                case 3:
+                    return vertexGapCell(domain, level);
+                default:
+                    return toCode(domain, level, 0, -1, 5);
+            }
+        }
+
+        switch (k) {
+            case 0:
+                return toCode(domain, level, i, j, 4);
+            case 1:
+                return toCode(domain, level, i, j, 5);
+            case 2:
+                return toCode(domain, level, i - 1, j, 4);
+            case 3:
+                return toCode(domain, level, i - 1, j - 1, 5);
+            case 4:
+                return toCode(domain, level, i - 1, j - 1, 4);
+            default:
+                return toCode(domain, level, i, j - 1, 5);
+        }
+    }
+
+    /**
+     * get the cell around v3 of domain that lattice of domain misses
+     * note: it's across edge from v3 to (-1, 0) of upper cell (-1, 0), which is in neighbor across v3v2,
+     *       so it's found in that neighbor's lattice
+     */
+    private static long vertexGapCell(int domain, int level) {
+        long n = 1L << level;
+        int idx = domain * 4 + SIDE_V3V2;
+        int k = SEAM_ROTATION[idx];
+        long ti = SEAM_TI[idx] * n, tj = SEAM_TJ[idx] * n;
+
+        // v3, (-1, 0) and (0, 1) of upper cell (-1, 0) in neighbor
+        long p = rotate(0, 0, k), s = rotate(-1, 0, k), q = rotate(0, 1, k);
+        long pi = (p >> 32) + ti, pj = (int) p + tj;
+        long si = (s >> 32) + ti, sj = (int) s + tj;
+        long qi = (q >> 32) + ti, qj = (int) q + tj;
+        long xi = pi + si - qi, xj = pj + sj - qj;
+
+        long minI = Math.min(pi, Math.min(si, xi)), minJ = Math.min(pj, Math.min(sj, xj));
+        boolean upper = (pi == minI + 1 && pj == minJ) || (si == minI + 1 && sj == minJ)
+                || (xi == minI + 1 && xj == minJ);
+        return toCode(SEAM_DOMAIN[idx], level, minI, minJ, upper ? 4 : 5);
+    }
+
+    /**
+     * get one of the nodes next to a node
+     * note: in same order as nodeCell, node k is between cell k - 1 and cell k
+     *
+     * @param node packed node code
+     * @param k    index of node, less than degree(node)
+     * @return packed node code
+     */
+    public static long nodeNode(long node, int k) {
+        int domain = EQCodes.domain(node);
+        int level = EQCodes.level(node);
+        long n = 1L << level;
+
+        if (domain == 10) {
+            return toCode(k, level, n - 1, 0, 0);
+        } else if (domain == 11) {
+            return toCode(5 + k, level, 0, n - 1, 0);
+        }
+
+        long i = EQCodes.i(node), j = EQCodes.j(node);
+        if (i == 0 && j == 0 && k >= 3) {
+            return k == 3 ? toCode(domain, level, -1, 0, 0) : toCode(domain, level, 0, -1, 0);
+        }
+
+        switch (k) {
+            case 0:
+                return toCode(domain, level, i + 1, j, 0);
+            case 1:
+                return toCode(domain, level, i + 1, j + 1, 0);
+            case 2:
+                return toCode(domain, level, i, j + 1, 0);
+            case 3:
+                return toCode(domain, level, i - 1, j, 0);
+            case 4:
+                return toCode(domain, level, i - 1, j - 1, 0);
+            default:
+                return toCode(domain, level, i, j - 1, 0);
+        }
+    }
+
+    /**
+     * get one of the edges from a node
+     * note: edge k goes to nodeNode(node, k)
+     *
+     * @param node packed node code
+     * @param k    index of edge, less than degree(node)
+     * @return packed edge code
+     */
+    public static long nodeEdge(long node, int k) {
+        int domain = EQCodes.domain(node);
+        int level = EQCodes.level(node);
+        long n = 1L << level;
+
+        if (domain == 10) {
+            return toCode(k, level, n - 1, 0, 1);
+        } else if (domain == 11) {
+            return toCode(5 + k, level, 0, n - 1, 3);
+        }
+
+        long i = EQCodes.i(node), j = EQCodes.j(node);
+        if (i == 0 && j == 0 && k >= 3) {
+            return k == 3 ? toCode(domain, level, -1, 0, 1) : toCode(domain, level, 0, -1, 3);
+        }
+
+        switch (k) {
+            case 0:
+                return toCode(domain, level, i, j, 1);
+            case 1:
+                return toCode(domain, level, i, j, 2);
+            case 2:
+                return toCode(domain, level, i, j, 3);
+            case 3:
+                return toCode(domain, level, i - 1, j, 1);
+            case 4:
+                return toCode(domain, level, i - 1, j - 1, 2);
+            default:
+                return toCode(domain, level, i, j - 1, 3);
+        }
+    }
+
+    /**
+     * get nodes of a cell or an edge
+     *
+     * @param code packed cell or edge code, a node returns itself
+     * @param out  returned packed node codes from out[off], 3 for cell, 2 for edge
+     * @param off  start index in out
+     * @return number of nodes
+     */
+    public static int nodes(long code, long[] out, int off) {
+        int element = EQCodes.element(code);
+        if (element == 0) {
+            out[off] = code;
+            return 1;
+        }
+
+        int domain = EQCodes.domain(code);
+        int level = EQCodes.level(code);
+        long i = EQCodes.i(code), j = EQCodes.j(code);
+        int[] nodes = ELEMENT_NODES[element];
+        for (int k = 0; k < nodes.length / 2; ++k) {
+            out[off + k] = toCode(domain, level, i + nodes[k * 2], j + nodes[k * 2 + 1], 0);
+        }
+        return nodes.length / 2;
+    }
+
+    /**
+     * get edges of a cell, or edges from a node
+     *
+     * @param code packed cell or node code
+     * @param out  returned packed edge codes from out[off], 3 for cell, degree for node
+     * @param off  start index in out
+     * @return number of edges
+     */
+    public static int edges(long code, long[] out, int off) {
+        int element = EQCodes.element(code);
+        if (element == 0) {
+            int count = degree(code);
+            for (int k = 0; k < count; ++k) {
+                out[off + k] = nodeEdge(code, k);
+            }
+            return count;
+        }
+        assert element == 4 || element == 5;
+
+        int domain = EQCodes.domain(code);
+        int level = EQCodes.level(code);
+        long i = EQCodes.i(code), j = EQCodes.j(code);
+        out[off] = toCode(domain, level, i, j, element == 4 ? 1 : 3);
+        out[off + 1] = toCode(domain, level, i, j, 2);
+        out[off + 2] = element == 4 ? toCode(domain, level, i + 1, j, 3) : toCode(domain, level, i, j + 1, 1);
+        return 3;
+    }
+
+    /**
+     * get cells on an edge, or cells around a node
+     *
+     * @param code packed edge or node code
+     * @param out  returned packed cell codes from out[off], 2 for edge, degree for node
+     * @param off  start index in out
+     * @return number of cells
+     */
+    public static int cells(long code, long[] out, int off) {
+        int element = EQCodes.element(code);
+        if (element == 0) {
+            int count = degree(code);
+            for (int k = 0; k < count; ++k) {
+                out[off + k] = nodeCell(code, k);
+            }
+            return count;
+        }
+        assert element >= 1 && element <= 3;
+
+        int domain = EQCodes.domain(code);
+        int level = EQCodes.level(code);
+        long i = EQCodes.i(code), j = EQCodes.j(code);
+        if (element == 1) {
+            out[off] = toCode(domain, level, i, j, 4);
+            out[off + 1] = toCode(domain, level, i, j - 1, 5);
+        } else if (element == 2) {
+            out[off] = toCode(domain, level, i, j, 4);
+            out[off + 1] = toCode(domain, level, i, j, 5);
+        } else {
+            out[off] = toCode(domain, level, i, j, 5);
+            out[off + 1] = toCode(domain, level, i - 1, j, 4);
+        }
+        return 2;
+    }
+
+    /**
+     * get cells sharing an edge with a cell
+     *
+     * @param cell packed cell code
+     * @param out  returned 3 packed cell codes from out[off], in same order as edges(cell)
+     * @param off  start index in out
+     * @return number of cells, always 3
+     */
+    public static int edgeNeighbors(long cell, long[] out, int off) {
+        int element = EQCodes.element(cell);
+        assert element == 4 || element == 5;
+
+        int domain = EQCodes.domain(cell);
+        int level = EQCodes.level(cell);
+        long i = EQCodes.i(cell), j = EQCodes.j(cell);
+        if (element == 4) {
+            out[off] = toCode(domain, level, i, j - 1, 5);
+            out[off + 1] = toCode(domain, level, i, j, 5);
+            out[off + 2] = toCode(domain, level, i + 1, j, 5);
+        } else {
+            out[off] = toCode(domain, level, i - 1, j, 4);
+            out[off + 1] = toCode(domain, level, i, j, 4);
+            out[off + 2] = toCode(domain, level, i, j + 1, 4);
+        }
+        return 3;
+    }
+
+    /**
+     * get cells sharing a node with a cell
+     * note: edge neighbors are included, cells are collected around each node of cell in turn
+     *
+     * @param cell packed cell code
+     * @param out  returned packed cell codes from out[off], no more than MAX_VERTEX_NEIGHBORS
+     * @param off  start index in out
+     * @return number of cells, 12 or 11 if a node of cell is an icosahedron vertex
+     */
+    public static int vertexNeighbors(long cell, long[] out, int off) {
+        int element = EQCodes.element(cell);
+        assert element == 4 || element == 5;
+
+        int domain = EQCodes.domain(cell);
+        int level = EQCodes.level(cell);
+        long i = EQCodes.i(cell), j = EQCodes.j(cell);
+        int[] nodes = ELEMENT_NODES[element];
+
+        int count = 0;
+        for (int v = 0; v < 3; ++v) {
+            long node = toCode(domain, level, i + nodes[v * 2], j + nodes[v * 2 + 1], 0);
+            int degree = degree(node);
+            for (int k = 0; k < degree; ++k) {
+                long c = nodeCell(node, k);
+                if (c != cell && !contains(out, off, count, c)) {
+                    out[off + count++] = c;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean contains(long[] codes, int off, int count, long code) {
+        for (int k = off; k < off + count; ++k) {
+            if (codes[k] == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
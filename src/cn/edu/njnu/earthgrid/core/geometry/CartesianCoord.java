@@ -6,23 +6,24 @@ package cn.edu.njnu.earthgrid.core.geometry;
  *       origin is the center of earth
  *       positive Z axis points to the north pole
  *       positive X axis points to the intersection of the prime meridian with the equator
+ *       a coordinate is an immutable value, so it can be shared across threads, e.g. Icosahedron's vertexes
  *
  * @author LWJie, Xudepeng
  * @version EGS 1.0
  */
-public class CartesianCoord {
+public final class CartesianCoord {
     /**
      * X coordinate
      */
-    private double x;
+    private final double x;
     /**
      * Y coordinate
      */
-    private double y;
+    private final double y;
     /**
      * Z coordinate
      */
-    private double z;
+    private final double z;
 
     /**
      * default Constructor
@@ -90,6 +91,50 @@ public class CartesianCoord {
         return sc;
     }
 
+    /**
+     * convert cartesian coordinate to longitude/latitude without allocation
+     * note: same result as ToSpericalCoord
+     *
+     * @param x     X coordinate
+     * @param y     Y coordinate
+     * @param z     Z coordinate
+     * @param lon   returned longitude at lon[index]
+     * @param lat   returned latitude at lat[index]
+     * @param index index in lon and lat
+     */
+    public static void ToSpericalCoord(double x, double y, double z, double[] lon, double[] lat, int index) {
+        double longitude;
+
+        if (Math.abs(x - 0) <= MathUtil.EPS && y > 0) {
+            longitude = 90.;
+        } else if (Math.abs(x - 0) < MathUtil.EPS && y < 0) {
+            longitude = -90.;
+        } else if (x > 0 && Math.abs(y - 0) < MathUtil.EPS) {
+            longitude = 0.;
+        } else if (x < 0 && Math.abs(y - 0) < MathUtil.EPS) {
+            longitude = 180.;
+        } else if (Math.abs(x - 0) < MathUtil.EPS && Math.abs(y - 0) < MathUtil.EPS) {
+            longitude = 0.;
+        } else {
+            longitude = Math.atan(y / x) / MathUtil.PI * 180.;
+        }
+
+        if (x < 0. && y > 0.) {
+            longitude += 180.;
+        } else if (x < 0. && y < 0.) {
+            longitude -= 180.;
+        }
+
+        if (longitude < -180.) {
+            longitude += 180.;
+        } else if (longitude > 180.) {
+            longitude -= 180.;
+        }
+
+        lon[index] = longitude;
+        lat[index] = Math.asin(z / MathUtil.RADIUS) / MathUtil.PI * 180.;
+    }
+
     /**
      * convert sperical coordinate to cartesian coordinate
      *
@@ -97,75 +142,84 @@ public class CartesianCoord {
      * @return cartesian coordinate
      */
     public static CartesianCoord FromSpericalCoord(SpericalCoord sc) {
-        SpericalCoord tempsc = sc;
+        double longitude = sc.getLongitude();
+        double latitude = sc.getLatitude();
 
-        if (tempsc.getLongitude() < MathUtil.EPS) {
-            tempsc.setLongitude(360 + tempsc.getLongitude());
+        if (longitude < MathUtil.EPS) {
+            longitude = 360 + longitude;
         }
 
-        double x = MathUtil.RADIUS * Math.cos(tempsc.getLatitude() * MathUtil.PI / 180.0) * Math.cos(tempsc.getLongitude() * MathUtil.PI / 180.0);
-        double y = MathUtil.RADIUS * Math.cos(tempsc.getLatitude() * MathUtil.PI / 180.0) * Math.sin(tempsc.getLongitude() * MathUtil.PI / 180.0);
-        double z = MathUtil.RADIUS * Math.sin(tempsc.getLatitude() * MathUtil.PI / 180.0);
-
-        CartesianCoord cc = new CartesianCoord(x, y, z);
+        double x = MathUtil.RADIUS * Math.cos(latitude * MathUtil.PI / 180.0) * Math.cos(longitude * MathUtil.PI / 180.0);
+        double y = MathUtil.RADIUS * Math.cos(latitude * MathUtil.PI / 180.0) * Math.sin(longitude * MathUtil.PI / 180.0);
+        double z = MathUtil.RADIUS * Math.sin(latitude * MathUtil.PI / 180.0);
 
-        return cc;
+        return new CartesianCoord(x, y, z);
     }
 
-    public final double getX() {
-        return x;
-    }
+    /**
+     * convert longitude/latitude to cartesian coordinate without allocation
+     * note: same result as FromSpericalCoord
+     *
+     * @param longitude longitude in degree
+     * @param latitude  latitude in degree
+     * @param out       returned {x, y, z} from out[offset]
+     * @param offset    start index in out
+     */
+    public static void FromSpericalCoord(double longitude, double latitude, double[] out, int offset) {
+        if (longitude < MathUtil.EPS) {
+            longitude = 360 + longitude;
+        }
 
-    public void setX(double x) {
-        this.x = x;
+        out[offset] = MathUtil.RADIUS * Math.cos(latitude * MathUtil.PI / 180.0) * Math.cos(longitude * MathUtil.PI / 180.0);
+        out[offset + 1] = MathUtil.RADIUS * Math.cos(latitude * MathUtil.PI / 180.0) * Math.sin(longitude * MathUtil.PI / 180.0);
+        out[offset + 2] = MathUtil.RADIUS * Math.sin(latitude * MathUtil.PI / 180.0);
     }
 
-    public final double getY() {
-        return y;
+    public double getX() {
+        return x;
     }
 
-    public void setY(double y) {
-        this.y = y;
+    public double getY() {
+        return y;
     }
 
-    public final double getZ() {
+    public double getZ() {
         return z;
     }
 
-    public void setZ(double z) {
-        this.z = z;
-    }
-
-    /**
-     * operator=
-     *
-     * @param cc
-     */
-    public void setValue(CartesianCoord cc) {
-        this.x = cc.x;
-        this.y = cc.y;
-        this.z = cc.z;
-    }
-
     /**
      * operator+
      *
      * @param rhs
+     * @return new coordinate of this + rhs
      */
-    public void Add(CartesianCoord rhs) {
-        this.x += rhs.x;
-        this.y += rhs.y;
-        this.z += rhs.z;
+    public CartesianCoord Add(CartesianCoord rhs) {
+        return new CartesianCoord(this.x + rhs.x, this.y + rhs.y, this.z + rhs.z);
     }
 
     /**
      * operator/
      *
      * @param rhs
+     * @return new coordinate of this / rhs
      */
-    public void Divide(double rhs) {
-        this.x /= rhs;
-        this.y /= rhs;
-        this.z /= rhs;
+    public CartesianCoord Divide(double rhs) {
+        return new CartesianCoord(this.x / rhs, this.y / rhs, this.z / rhs);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CartesianCoord)) {
+            return false;
+        }
+        CartesianCoord cc = (CartesianCoord) obj;
+        return Double.compare(x, cc.x) == 0 && Double.compare(y, cc.y) == 0 && Double.compare(z, cc.z) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(x);
+        result = 31 * result + Double.hashCode(y);
+        return 31 * result + Double.hashCode(z);
     }
 }
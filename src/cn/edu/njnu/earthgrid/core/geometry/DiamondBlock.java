@@ -3,11 +3,13 @@ package cn.edu.njnu.earthgrid.core.geometry;
 /**
  * Diamond Block of EQTM
  * using Cartesian coordinate
+ * note: a diamond is immutable and can be shared across threads,
+ *       MathUtil returns a new diamond for sub diamonds instead of updating its argument
  *
  * @author LWJie, Xudepeng
  * @version EGS 1.0
  */
-public class DiamondBlock {
+public final class DiamondBlock {
     /**
      * four vertxes of diamond cell
      * v[0], north vertex
@@ -15,7 +17,7 @@ public class DiamondBlock {
      * v[2], south vertex
      * v[3], west vertex
      */
-    private CartesianCoord[] v = new CartesianCoord[4];
+    private final CartesianCoord[] v = new CartesianCoord[4];
 
     /**
      * Constructor
@@ -50,20 +52,6 @@ public class DiamondBlock {
         }
     }
 
-    /**
-     * change vertxes's value
-     * @param v0 north vertex
-     * @param v1 east vertex
-     * @param v2 south vertex
-     * @param v3 west vertex
-     */
-    public void setValue(CartesianCoord v0, CartesianCoord v1, CartesianCoord v2, CartesianCoord v3) {
-        this.v[0] = v0;
-        this.v[1] = v1;
-        this.v[2] = v2;
-        this.v[3] = v3;
-    }
-
     /**
      * convert vertexes's Cartesian Coord to SpericalCoord
      *
@@ -80,10 +68,11 @@ public class DiamondBlock {
 
     /**
      * area of this diamond block
+     * note: spherical area on sphere with MathUtil.RADIUS, sum of its upper and lower trigon
      *
-     * @return
+     * @return area in square meters
      */
     public double getArea(){
-        return 0.0;
+        return MathUtil.SphericalTriangleArea(v[0], v[1], v[3]) + MathUtil.SphericalTriangleArea(v[2], v[1], v[3]);
     }
 }
@@ -0,0 +1,223 @@
+package cn.edu.njnu.earthgrid.core.geometry;
+
+/**
+ * Precomputed diamonds of the top levels of every domain
+ * note: diamonds of level 0 to getLevel() are kept in one primitive array,
+ *       {v0.x, v0.y, v0.z, ..., v3.z} for each diamond, built by the same subdivision as GetSubDiamond,
+ *       so encoding and decoding through the cache give the same result as descending from domain corners.
+ *       the shared instance is built on first use and never modified after, so it's safe to use across threads
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+public final class DiamondCache {
+
+    /**
+     * system property to set level of shared instance, read once when it is built
+     * note: a value that isn't a level from 0 to MAX_LEVEL fails building with IllegalArgumentException,
+     *       thrown as cause of ExceptionInInitializerError by the first getInstance
+     */
+    public static final String LEVEL_PROPERTY = "egs.diamondcache.level";
+
+    /**
+     * default level of shared instance, 10 * 4^6 diamonds at the deepest level, about 5 MB
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * max level of cache, keeps table within one array
+     */
+    public static final int MAX_LEVEL = 10;
+
+    /**
+     * deepest cached level
+     */
+    private final int level;
+
+    /**
+     * vertexes of all cached diamonds, ordered by level, domain and morton in turn
+     */
+    private final double[] table;
+
+    /**
+     * time of building table in nanoseconds
+     */
+    private final long buildTime;
+
+    /**
+     * build cache of level 0 to level
+     *
+     * @param level deepest cached level, no more than MAX_LEVEL
+     * @throws IllegalArgumentException if level is out of 0 to MAX_LEVEL
+     */
+    public DiamondCache(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level of diamond cache is " + level
+                    + ", not from 0 to " + MAX_LEVEL);
+        }
+
+        long start = System.nanoTime();
+        this.level = level;
+        this.table = new double[(int) (levelStart(level + 1) * 12)];
+
+        for (int domain = 0; domain < 10; ++domain) {
+            double[] corner = new double[12];
+            MathUtil.GetDomainCorner(domain, corner);
+            System.arraycopy(corner, 0, table, offset(domain, 0, 0), 12);
+        }
+        for (int lev = 1; lev <= level; ++lev) {
+            long count = 10L << (2 * lev);
+            for (long i = 0; i < count; ++i) {
+                int src = (int) ((levelStart(lev - 1) + (i >> 2)) * 12);
+                MathUtil.GetSubDiamond(table, src, table, (int) ((levelStart(lev) + i) * 12), (int) (i & 3));
+            }
+        }
+
+        this.buildTime = System.nanoTime() - start;
+    }
+
+    /**
+     * holder of shared instance, built on first access
+     */
+    private static class Holder {
+        private static final DiamondCache INSTANCE = new DiamondCache(propertyLevel());
+    }
+
+    /**
+     * level set by LEVEL_PROPERTY, DEFAULT_LEVEL if it isn't set
+     *
+     * @throws IllegalArgumentException if property isn't a level from 0 to MAX_LEVEL
+     */
+    private static int propertyLevel() {
+        String value = System.getProperty(LEVEL_PROPERTY);
+        if (null == value) {
+            return DEFAULT_LEVEL;
+        }
+
+        int level;
+        try {
+            level = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(LEVEL_PROPERTY + " is " + value + ", not a level", e);
+        }
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException(LEVEL_PROPERTY + " is " + level + ", not from 0 to " + MAX_LEVEL);
+        }
+        return level;
+    }
+
+    /**
+     * get shared instance
+     *
+     * @return shared instance, level is set by LEVEL_PROPERTY
+     */
+    public static DiamondCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * get deepest cached level
+     *
+     * @return cached level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * get size of cached vertexes
+     *
+     * @return size in bytes
+     */
+    public long getMemorySize() {
+        return (long) table.length * Double.BYTES;
+    }
+
+    /**
+     * get time of building cache
+     *
+     * @return time in nanoseconds
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * get diamond of code
+     * note: the cached ancestor is copied, then only levels below cache are subdivided
+     *
+     * @param domain domain id, 0-9
+     * @param level  diamond's level
+     * @param morton diamond's morton code
+     * @param d      returned diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z} from d[off]
+     * @param off    start index in d
+     */
+    public void getDiamond(int domain, int level, long morton, double[] d, int off) {
+        assert domain >= 0 && domain < 10;
+
+        int top = Math.min(level, this.level);
+        int rest = level - top;
+        System.arraycopy(table, offset(domain, top, morton >>> (2 * rest)), d, off, 12);
+        for (int lev = rest; lev > 0; --lev) {
+            MathUtil.GetSubDiamond(d, off, d, off, (int) ((morton >> (lev * 2 - 2)) & 3));
+        }
+    }
+
+    /**
+     * get point's morton code within domain
+     * note: same result as MathUtil.CalcMorton from domain corners,
+     *       midpoints of cached levels are read from the sub diamonds in cache
+     *
+     * @param x      the point's x coordinate
+     * @param y      the point's y coordinate
+     * @param z      the point's z coordinate
+     * @param domain domain id of point, 0-9
+     * @param d      returned final sub diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z}
+     * @param level  grid's level
+     * @return morton code
+     */
+    public long calcMorton(double x, double y, double z, int domain, double[] d, int level) {
+        assert domain >= 0 && domain < 10;
+
+        int top = Math.min(level, this.level);
+        long morton = 0;
+        for (int lev = 0; lev < top; ++lev) {
+            // north sub diamond is {v0, m0, c, m3}, south sub diamond is {c, m1, v2, m2}
+            int north = offset(domain, lev + 1, (morton << 2) | 1);
+            int south = north + 12;
+
+            int subid = MathUtil.SubDiamondID(x, y, z,
+                    table[north + 6], table[north + 7], table[north + 8],
+                    table[north + 3], table[north + 4], table[north + 5],
+                    table[south + 3], table[south + 4], table[south + 5],
+                    table[south + 9], table[south + 10], table[south + 11],
+                    table[north + 9], table[north + 10], table[north + 11]);
+            morton = (morton << 2) | subid;
+        }
+        System.arraycopy(table, offset(domain, top, morton), d, 0, 12);
+
+        int rest = level - top;
+        return (morton << (2 * rest)) | MathUtil.CalcMorton(x, y, z, d, rest);
+    }
+
+    /**
+     * index of diamond's first vertex in table
+     */
+    private static int offset(int domain, int level, long morton) {
+        return (int) ((levelStart(level) + ((long) domain << (2 * level)) + morton) * 12);
+    }
+
+    /**
+     * number of diamonds above level, 10 * (4^level - 1) / 3
+     */
+    private static long levelStart(int level) {
+        return 10 * (((1L << (2 * level)) - 1) / 3);
+    }
+
+    @Override
+    public String toString() {
+        return "DiamondCache{level=" + level
+                + ", memory=" + getMemorySize() / 1024 + "KB"
+                + ", build=" + buildTime / 1000000 + "ms}";
+    }
+}
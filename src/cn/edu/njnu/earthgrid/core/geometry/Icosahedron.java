@@ -2,15 +2,17 @@ package cn.edu.njnu.earthgrid.core.geometry;
 
 /**
  * Sphere Icosahedron
+ * note: vertexes are immutable and set once in constructor, the shared instance is built by class holder
+ *       on first access, so it is safely published and can be read by any thread
  *
  * @author LWJie, Xudepeng
  * @version EGS 1.0
  */
-public class Icosahedron {
+public final class Icosahedron {
     /**
      * vertxes of Sphere Icosahedron
      */
-    private CartesianCoord[] p =new CartesianCoord[12];
+    private final CartesianCoord[] p = new CartesianCoord[12];
 
     /**
      * get one vertex of Sphere Icosahedron
@@ -40,18 +42,17 @@ public class Icosahedron {
     }
 
     /**
-     * Singleton Pattern
+     * holder of Singleton instance, built on first access
      */
-    private static Icosahedron instance = null;
+    private static class Holder {
+        private static final Icosahedron INSTANCE = new Icosahedron();
+    }
 
     /**
      * get Singleton instance
      * @return Singleton instance
      */
     public static Icosahedron getInstance(){
-        if(instance == null){
-            instance = new Icosahedron();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 }
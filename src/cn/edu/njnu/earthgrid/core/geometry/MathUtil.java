@@ -2,6 +2,8 @@ package cn.edu.njnu.earthgrid.core.geometry;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
 import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQLineWalker;
 import cn.edu.njnu.earthgrid.core.codes.ElementType;
 import cn.edu.njnu.earthgrid.feature.Point;
 import cn.edu.njnu.earthgrid.feature.Polygon;
@@ -44,29 +46,24 @@ public class MathUtil {
 
     /**
      * get final sub diamond.
+     * note: d isn't modified, a new diamond is returned
      *
-     * @param d      the located diamond, firstly initial parent diamond should be passed
+     * @param d      initial parent diamond
      * @param morton the morton code
      * @param level  grid's level
+     * @return final sub diamond
      */
-    public static void GetDiamond(DiamondBlock d, long morton, int level) {
-        if (level <= 0) {
-            return;
+    public static DiamondBlock GetDiamond(DiamondBlock d, long morton, int level) {
+        for (int lev = level; lev > 0; --lev) {
+            d = GetSubDiamond(d, (morton >> (lev * 2 - 2)) & 3);
         }
-
-        long andValue = Pow(2, level * 2 - 1) + Pow(2, level * 2 - 2);
-
-        long ret = morton & andValue;
-        ret = ret >> (level * 2 - 2);
-
-        GetSubDiamond(d, ret);
-
-        GetDiamond(d, morton, level - 1);
+        return d;
     }
 
     /**
      * get point's morton code.
      * you could ignore it for default value set
+     * note: d isn't modified, use GetDiamond with the result to get final sub diamond
      *
      * @param morton the morton code
      * @param cc     the point's cartesian coordination
@@ -74,15 +71,12 @@ public class MathUtil {
      * @param level  grid's level
      */
     public static long CalcMorton(long morton, CartesianCoord cc, DiamondBlock d, int level) {
-        if (level <= 0) {
-            return morton;
+        for (int lev = level; lev > 0; --lev) {
+            int subid = GetSubDiamondID(d, cc);
+            morton = (morton << 2) + subid;
+            d = GetSubDiamond(d, subid);
         }
-
-        int subid = GetSubDiamondID(d, cc);
-        morton = morton << 2;
-        morton += subid;
-
-        return CalcMorton(morton, cc, d, level - 1);
+        return morton;
     }
 
     /**
@@ -92,66 +86,41 @@ public class MathUtil {
      *            0   3
      *              2
      *
-     * @param d   the parent diamond
+     * @param d   the parent diamond, isn't modified
      * @param ret sub diamond's morton id
+     * @return new sub diamond
      */
-    public static void GetSubDiamond(DiamondBlock d, long ret) {
-        CartesianCoord m0 = new CartesianCoord();
-        CartesianCoord m1 = new CartesianCoord();
-        CartesianCoord m2 = new CartesianCoord();
-        CartesianCoord m3 = new CartesianCoord();
-        DiamondMids(d, m0, m1, m2, m3);
-
+    public static DiamondBlock GetSubDiamond(DiamondBlock d, long ret) {
+        CartesianCoord[] m = DiamondMids(d);
         CartesianCoord center = DiamondCenter(d);
 
-        CartesianCoord v0, v1, v2, v3;
-
         if (ret == 1) {
-            v0 = d.v(0);
-            v1 = m0;
-            v2 = center;
-            v3 = m3;
+            return new DiamondBlock(d.v(0), m[0], center, m[3]);
         } else if (ret == 3) {
-            v0 = m0;
-            v1 = d.v(1);
-            v2 = m1;
-            v3 = center;
+            return new DiamondBlock(m[0], d.v(1), m[1], center);
         } else if (ret == 2) {
-            v0 = center;
-            v1 = m1;
-            v2 = d.v(2);
-            v3 = m2;
+            return new DiamondBlock(center, m[1], d.v(2), m[2]);
         } else {
-            v0 = m3;
-            v1 = center;
-            v2 = m2;
-            v3 = d.v(3);
+            return new DiamondBlock(m[3], center, m[2], d.v(3));
         }
-
-        d.setValue(v0, v1, v2, v3);
     }
 
     /**
-     * get sub diamond id, and updata current diamond
+     * get sub diamond id
      *
-     * @param d  the parent diamond
+     * @param d  the parent diamond, isn't modified
      * @param cc the point in the diamond, ignore checking now
      * @return sub diamond id
      */
     public static int GetSubDiamondID(DiamondBlock d, CartesianCoord cc) {
-        CartesianCoord m0 = new CartesianCoord();
-        CartesianCoord m1 = new CartesianCoord();
-        CartesianCoord m2 = new CartesianCoord();
-        CartesianCoord m3 = new CartesianCoord();
-        DiamondMids(d, m0, m1, m2, m3);
-
+        CartesianCoord[] m = DiamondMids(d);
         CartesianCoord center = DiamondCenter(d);
 
         // cacculate subdiamond id
-        int pos0 = PointAbovePlane(cc, center, m0);
-        int pos1 = PointAbovePlane(cc, center, m1);
-        int pos2 = PointAbovePlane(cc, center, m2);
-        int pos3 = PointAbovePlane(cc, center, m3);
+        int pos0 = PointAbovePlane(cc, center, m[0]);
+        int pos1 = PointAbovePlane(cc, center, m[1]);
+        int pos2 = PointAbovePlane(cc, center, m[2]);
+        int pos3 = PointAbovePlane(cc, center, m[3]);
 
         int subid = -1;
         if (pos3 == 1 && pos2 == -1) {
@@ -164,31 +133,6 @@ public class MathUtil {
             subid = 3;
         }
 
-        //updata diamond
-        CartesianCoord v0, v1, v2, v3;
-        if (subid == 1) {
-            v0 = d.v(0);
-            v1 = m0;
-            v2 = center;
-            v3 = m3;
-        } else if (subid == 3) {
-            v0 = m0;
-            v1 = d.v(1);
-            v2 = m1;
-            v3 = center;
-        } else if (subid == 2) {
-            v0 = center;
-            v1 = m1;
-            v2 = d.v(2);
-            v3 = m2;
-        } else {
-            v0 = m3;
-            v1 = center;
-            v2 = m2;
-            v3 = d.v(3);
-        }
-        d.setValue(v0, v1, v2, v3);
-
         return subid;
     }
 
@@ -237,17 +181,11 @@ public class MathUtil {
                 cc = MidGreatArc(d.v(3), d.v(2));
                 break;
             case 4:
-                cc.Add(d.v(0));
-                cc.Add(d.v(1));
-                cc.Add(d.v(3));
-                cc.Divide(3.0);
+                cc = d.v(0).Add(d.v(1)).Add(d.v(3)).Divide(3.0);
                 cc = Normalize(cc, RADIUS);
                 break;
             case 5:
-                cc.Add(d.v(2));
-                cc.Add(d.v(1));
-                cc.Add(d.v(3));
-                cc.Divide(3.0);
+                cc = d.v(2).Add(d.v(1)).Add(d.v(3)).Divide(3.0);
                 cc = Normalize(cc, RADIUS);
                 break;
             default:
@@ -296,6 +234,402 @@ public class MathUtil {
         }
     }
 
+    /**
+     * get final sub diamond iteratively.
+     * note: same result as GetDiamond, using primitive vertices without allocation
+     *
+     * @param d      initial parent diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z}, updated to final sub diamond
+     * @param morton the morton code
+     * @param level  grid's level
+     */
+    public static void GetDiamond(double[] d, long morton, int level) {
+        for (int lev = level; lev > 0; --lev) {
+            GetSubDiamond(d, 0, d, 0, (int) ((morton >> (lev * 2 - 2)) & 3));
+        }
+    }
+
+    /**
+     * get sub diamond using primitive vertices.
+     * note: same result as GetSubDiamond, src and dst may be the same array
+     *
+     * @param src    parent diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z} from src[srcOff]
+     * @param srcOff start index in src
+     * @param dst    returned sub diamond's vertices from dst[dstOff]
+     * @param dstOff start index in dst
+     * @param subid  sub diamond's morton id
+     */
+    public static void GetSubDiamond(double[] src, int srcOff, double[] dst, int dstOff, int subid) {
+        double v0x = src[srcOff], v0y = src[srcOff + 1], v0z = src[srcOff + 2];
+        double v1x = src[srcOff + 3], v1y = src[srcOff + 4], v1z = src[srcOff + 5];
+        double v2x = src[srcOff + 6], v2y = src[srcOff + 7], v2z = src[srcOff + 8];
+        double v3x = src[srcOff + 9], v3y = src[srcOff + 10], v3z = src[srcOff + 11];
+
+        // center is always a vertex of sub diamond
+        if (subid == 1) {
+            SetVertex(dst, dstOff, 0, v0x, v0y, v0z);
+            MidGreatArc(v0x, v0y, v0z, v1x, v1y, v1z, dst, dstOff + 3);
+            MidGreatArc(v1x, v1y, v1z, v3x, v3y, v3z, dst, dstOff + 6);
+            MidGreatArc(v3x, v3y, v3z, v0x, v0y, v0z, dst, dstOff + 9);
+        } else if (subid == 3) {
+            MidGreatArc(v0x, v0y, v0z, v1x, v1y, v1z, dst, dstOff);
+            SetVertex(dst, dstOff, 1, v1x, v1y, v1z);
+            MidGreatArc(v1x, v1y, v1z, v2x, v2y, v2z, dst, dstOff + 6);
+            MidGreatArc(v1x, v1y, v1z, v3x, v3y, v3z, dst, dstOff + 9);
+        } else if (subid == 2) {
+            MidGreatArc(v1x, v1y, v1z, v3x, v3y, v3z, dst, dstOff);
+            MidGreatArc(v1x, v1y, v1z, v2x, v2y, v2z, dst, dstOff + 3);
+            SetVertex(dst, dstOff, 2, v2x, v2y, v2z);
+            MidGreatArc(v2x, v2y, v2z, v3x, v3y, v3z, dst, dstOff + 9);
+        } else {
+            MidGreatArc(v3x, v3y, v3z, v0x, v0y, v0z, dst, dstOff);
+            MidGreatArc(v1x, v1y, v1z, v3x, v3y, v3z, dst, dstOff + 3);
+            MidGreatArc(v2x, v2y, v2z, v3x, v3y, v3z, dst, dstOff + 6);
+            SetVertex(dst, dstOff, 3, v3x, v3y, v3z);
+        }
+    }
+
+    /**
+     * get element's point in this targeted sub diamond using primitive vertices.
+     * note: same result as GetDiamondElement
+     *
+     * @param d        the located sub diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z} from d[off]
+     * @param off      start index in d
+     * @param typeCode element type code
+     * @param out      returned {x, y, z} from out[outOff]
+     * @param outOff   start index in out
+     */
+    public static void GetDiamondElement(double[] d, int off, int typeCode, double[] out, int outOff) {
+        double v3x = d[off + 9], v3y = d[off + 10], v3z = d[off + 11];
+
+        switch (typeCode) {
+            case 0:
+                out[outOff] = v3x;
+                out[outOff + 1] = v3y;
+                out[outOff + 2] = v3z;
+                break;
+            case 1:
+            case 2:
+            case 3: {
+                int i = off + (typeCode - 1) * 3;
+                MidGreatArc(v3x, v3y, v3z, d[i], d[i + 1], d[i + 2], out, outOff);
+                break;
+            }
+            case 4:
+            case 5: {
+                // upper cell uses v0, lower cell uses v2
+                int i = off + (typeCode - 4) * 6;
+                double x = ((0. + d[i]) + d[off + 3]) + v3x;
+                double y = ((0. + d[i + 1]) + d[off + 4]) + v3y;
+                double z = ((0. + d[i + 2]) + d[off + 5]) + v3z;
+                x /= 3.0;
+                y /= 3.0;
+                z /= 3.0;
+
+                double len = Math.sqrt(x * x + y * y + z * z);
+                out[outOff] = x * (RADIUS / len);
+                out[outOff + 1] = y * (RADIUS / len);
+                out[outOff + 2] = z * (RADIUS / len);
+                break;
+            }
+            default:
+                out[outOff] = 0.;
+                out[outOff + 1] = 0.;
+                out[outOff + 2] = 0.;
+                break;
+        }
+    }
+
+    /**
+     * get point's morton code iteratively.
+     * note: same result as CalcMorton, but descends over primitive vertices without allocation
+     *
+     * @param x     the point's x coordinate
+     * @param y     the point's y coordinate
+     * @param z     the point's z coordinate
+     * @param d     initial parent diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z}, updated to final sub diamond
+     * @param level grid's level
+     * @return morton code
+     */
+    public static long CalcMorton(double x, double y, double z, double[] d, int level) {
+        long morton = 0;
+
+        for (int lev = level; lev > 0; --lev) {
+            double v0x = d[0], v0y = d[1], v0z = d[2];
+            double v1x = d[3], v1y = d[4], v1z = d[5];
+            double v2x = d[6], v2y = d[7], v2z = d[8];
+            double v3x = d[9], v3y = d[10], v3z = d[11];
+
+            // midpoints and center, same arithmetic as MidGreatArc
+            double m0x = (v0x + v1x) * 0.5, m0y = (v0y + v1y) * 0.5, m0z = (v0z + v1z) * 0.5;
+            double len = Math.sqrt(m0x * m0x + m0y * m0y + m0z * m0z);
+            m0x = m0x / len * RADIUS; m0y = m0y / len * RADIUS; m0z = m0z / len * RADIUS;
+
+            double m1x = (v1x + v2x) * 0.5, m1y = (v1y + v2y) * 0.5, m1z = (v1z + v2z) * 0.5;
+            len = Math.sqrt(m1x * m1x + m1y * m1y + m1z * m1z);
+            m1x = m1x / len * RADIUS; m1y = m1y / len * RADIUS; m1z = m1z / len * RADIUS;
+
+            double m2x = (v2x + v3x) * 0.5, m2y = (v2y + v3y) * 0.5, m2z = (v2z + v3z) * 0.5;
+            len = Math.sqrt(m2x * m2x + m2y * m2y + m2z * m2z);
+            m2x = m2x / len * RADIUS; m2y = m2y / len * RADIUS; m2z = m2z / len * RADIUS;
+
+            double m3x = (v3x + v0x) * 0.5, m3y = (v3y + v0y) * 0.5, m3z = (v3z + v0z) * 0.5;
+            len = Math.sqrt(m3x * m3x + m3y * m3y + m3z * m3z);
+            m3x = m3x / len * RADIUS; m3y = m3y / len * RADIUS; m3z = m3z / len * RADIUS;
+
+            double cx = (v1x + v3x) * 0.5, cy = (v1y + v3y) * 0.5, cz = (v1z + v3z) * 0.5;
+            len = Math.sqrt(cx * cx + cy * cy + cz * cz);
+            cx = cx / len * RADIUS; cy = cy / len * RADIUS; cz = cz / len * RADIUS;
+
+            int subid = SubDiamondID(x, y, z, cx, cy, cz,
+                    m0x, m0y, m0z, m1x, m1y, m1z, m2x, m2y, m2z, m3x, m3y, m3z);
+
+            //updata diamond
+            if (subid == 1) {
+                SetVertex(d, 1, m0x, m0y, m0z);
+                SetVertex(d, 2, cx, cy, cz);
+                SetVertex(d, 3, m3x, m3y, m3z);
+            } else if (subid == 3) {
+                SetVertex(d, 0, m0x, m0y, m0z);
+                SetVertex(d, 2, m1x, m1y, m1z);
+                SetVertex(d, 3, cx, cy, cz);
+            } else if (subid == 2) {
+                SetVertex(d, 0, cx, cy, cz);
+                SetVertex(d, 1, m1x, m1y, m1z);
+                SetVertex(d, 3, m2x, m2y, m2z);
+            } else {
+                SetVertex(d, 0, m3x, m3y, m3z);
+                SetVertex(d, 1, cx, cy, cz);
+                SetVertex(d, 2, m2x, m2y, m2z);
+            }
+
+            morton = (morton << 2) + subid;
+        }
+
+        return morton;
+    }
+
+    /**
+     * levels resolved by one projection, lattice error of projection is below 0.002 cell
+     * for diamonds of level 6 or deeper
+     */
+    private static final int PROJECT_STEP = 8;
+
+    /**
+     * squared sine of min angle between point and candidate's edges, twice EPS
+     */
+    private static final double PROJECT_MARGIN2 = (2 * EPS) * (2 * EPS);
+
+    /**
+     * bound of rounding error of triple product of points on sphere.
+     * note: normal of two close points has absolute error about ulp(RADIUS^2),
+     *       for deep levels it's comparable with cell size, so descent is decided by rounding there
+     */
+    private static final double PROJECT_NOISE = 32 * Math.ulp(1.) * RADIUS * RADIUS * RADIUS;
+
+    /**
+     * get point's morton code by projecting it into lattice of diamonds.
+     * note: same result as CalcMorton from domain corners.
+     *       levels in DiamondCache are descended through cache, then each PROJECT_STEP levels
+     *       are guessed by projecting point into (i, j) lattice of current diamond.
+     *       the guess is accepted only if point is inside guessed diamond by more than 2 * EPS and rounding error
+     *       to every edge, where descent can't decide otherwise, or the rest levels are resolved by CalcMorton
+     *
+     * @param x      the point's x coordinate
+     * @param y      the point's y coordinate
+     * @param z      the point's z coordinate
+     * @param domain domain id of point, 0-9
+     * @param d      working array, length no less than 24, d[0, 12) returns final sub diamond's vertices
+     * @param level  grid's level
+     * @return morton code
+     */
+    public static long CalcMortonByProjection(double x, double y, double z, int domain, double[] d, int level) {
+        DiamondCache cache = DiamondCache.getInstance();
+        int top = Math.min(level, cache.getLevel());
+        long morton = cache.calcMorton(x, y, z, domain, d, top);
+
+        for (int lev = top; lev < level; ) {
+            int step = Math.min(PROJECT_STEP, level - lev);
+            System.arraycopy(d, 0, d, 12, 12);
+
+            long sub = ProjectMorton(x, y, z, d, step);
+            GetDiamond(d, sub, step);
+            if (!PointInsideDiamond(x, y, z, d)) {
+                // near edges of guessed diamond, descend from the last accepted one
+                System.arraycopy(d, 12, d, 0, 12);
+                return (morton << (2 * (level - lev))) | CalcMorton(x, y, z, d, level - lev);
+            }
+
+            morton = (morton << (2 * step)) | sub;
+            lev += step;
+        }
+
+        return morton;
+    }
+
+    /**
+     * guess morton code of point's sub diamond by gnomonic projection.
+     * note: lattice origin is v3, i goes to v0 and j goes to v2, v1 is (1, 1),
+     *       point is located in triangle {v3, v0, v1} or {v3, v2, v1} by barycentric coordinates
+     *
+     * @param d     diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z}
+     * @param level levels below diamond
+     * @return guessed morton code within diamond
+     */
+    private static long ProjectMorton(double x, double y, double z, double[] d, int level) {
+        double v0x = d[0], v0y = d[1], v0z = d[2];
+        double v1x = d[3], v1y = d[4], v1z = d[5];
+        double v2x = d[6], v2y = d[7], v2z = d[8];
+        double v3x = d[9], v3y = d[10], v3z = d[11];
+
+        // weights of v3, v0 or v2, and v1, upper triangle is above plane through v3 and v1
+        double side = TripleProduct(v3x, v3y, v3z, v1x, v1y, v1z, x, y, z);
+        double wO, wA, wB, u, w;
+        if (side > 0) {
+            wO = TripleProduct(x, y, z, v0x, v0y, v0z, v1x, v1y, v1z);
+            wA = -side;
+            wB = TripleProduct(v3x, v3y, v3z, v0x, v0y, v0z, x, y, z);
+            double sum = wO + wA + wB;
+            u = (wA + wB) / sum;
+            w = wB / sum;
+        } else {
+            wO = TripleProduct(x, y, z, v2x, v2y, v2z, v1x, v1y, v1z);
+            wA = -side;
+            wB = TripleProduct(v3x, v3y, v3z, v2x, v2y, v2z, x, y, z);
+            double sum = wO + wA + wB;
+            u = wB / sum;
+            w = (wA + wB) / sum;
+        }
+
+        long n = 1L << level;
+        long i = Math.max(0, Math.min(n - 1, (long) Math.floor(u * n)));
+        long j = Math.max(0, Math.min(n - 1, (long) Math.floor(w * n)));
+
+        return IJToMorton((int) i, (int) j);
+    }
+
+    /**
+     * whether point is inside diamond and away from its edges by more than 2 * EPS and rounding error
+     *
+     * @param d diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z}
+     */
+    private static boolean PointInsideDiamond(double x, double y, double z, double[] d) {
+        return PointAbovePlaneByMargin(x, y, z, d, 3, 0)
+                && PointAbovePlaneByMargin(x, y, z, d, 6, 3)
+                && PointAbovePlaneByMargin(x, y, z, d, 9, 6)
+                && PointAbovePlaneByMargin(x, y, z, d, 0, 9);
+    }
+
+    /**
+     * whether point is above plane through d[a, a + 3), d[b, b + 3) and center of sphere,
+     * by an angle of more than 2 * EPS beyond rounding error
+     */
+    private static boolean PointAbovePlaneByMargin(double x, double y, double z, double[] d, int a, int b) {
+        double nx = d[a + 1] * d[b + 2] - d[a + 2] * d[b + 1];
+        double ny = d[a + 2] * d[b] - d[a] * d[b + 2];
+        double nz = d[a] * d[b + 1] - d[a + 1] * d[b];
+
+        double dot = nx * x + ny * y + nz * z - PROJECT_NOISE;
+        return dot > 0
+                && dot * dot > PROJECT_MARGIN2 * (nx * nx + ny * ny + nz * nz) * (x * x + y * y + z * z);
+    }
+
+    /**
+     * triple product a . (b x c)
+     */
+    private static double TripleProduct(double ax, double ay, double az, double bx, double by, double bz,
+                                        double cx, double cy, double cz) {
+        return ax * (by * cz - bz * cy) + ay * (bz * cx - bx * cz) + az * (bx * cy - by * cx);
+    }
+
+    /**
+     * get sub diamond's id of point from diamond's center and edges' midpoints.
+     * note: same decision as GetSubDiamondID, planes are only tested when needed
+     *
+     * @return sub diamond's morton id
+     */
+    static int SubDiamondID(double x, double y, double z, double cx, double cy, double cz,
+                            double m0x, double m0y, double m0z, double m1x, double m1y, double m1z,
+                            double m2x, double m2y, double m2z, double m3x, double m3y, double m3z) {
+        int pos3 = PointAbovePlane(x, y, z, cx, cy, cz, m3x, m3y, m3z);
+        int pos2 = PointAbovePlane(x, y, z, cx, cy, cz, m2x, m2y, m2z);
+
+        if (pos3 == 1 && pos2 == -1) {
+            return 0;
+        } else if (pos3 != 1 && PointAbovePlane(x, y, z, cx, cy, cz, m0x, m0y, m0z) == 1) {
+            return 1;
+        } else if (pos2 != -1 && PointAbovePlane(x, y, z, cx, cy, cz, m1x, m1y, m1z) == -1) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * get point's type in final sub diamond.
+     * note: same result as CalcType, using primitive vertices
+     *
+     * @param x   the point's x coordinate
+     * @param y   the point's y coordinate
+     * @param z   the point's z coordinate
+     * @param d   final sub diamond's vertices {v0.x, v0.y, v0.z, ..., v3.z}
+     * @param ele element identifier
+     * @return element type code
+     */
+    public static int CalcType(double x, double y, double z, double[] d, ElementType ele) {
+        if (ele == ElementType.GridNode) {
+            return 0;
+        } else if (ele == ElementType.GridCell) {
+            int pos = PointAbovePlane(x, y, z, d[9], d[10], d[11], d[3], d[4], d[5]);
+            return pos == 1 ? 4 : 5;
+        } else if (ele != ElementType.GridEdge) {
+            return -1;
+        }
+
+        // nearest edge, same arithmetic as GetNearestEdge
+        double disNW = MidArcDistance(x, y, z, d, 0);
+        double disC = MidArcDistance(x, y, z, d, 1);
+        double disSW = MidArcDistance(x, y, z, d, 2);
+
+        if (disNW < disC && disNW < disSW) {
+            return 1;
+        } else if (disC < disNW && disC < disSW) {
+            return 2;
+        } else {
+            return 3;
+        }
+    }
+
+    /**
+     * linear length between point and the middle point of great arc from diamond's vertex i to v3
+     */
+    private static double MidArcDistance(double x, double y, double z, double[] d, int i) {
+        double mx = (d[i * 3] + d[9]) * 0.5;
+        double my = (d[i * 3 + 1] + d[10]) * 0.5;
+        double mz = (d[i * 3 + 2] + d[11]) * 0.5;
+
+        double length = Math.sqrt(mx * mx + my * my + mz * mz);
+        mx = mx / length * RADIUS;
+        my = my / length * RADIUS;
+        mz = mz / length * RADIUS;
+
+        return Math.sqrt((mx - x) * (mx - x) + (my - y) * (my - y) + (mz - z) * (mz - z));
+    }
+
+    /**
+     * set vertex i of primitive diamond
+     */
+    private static void SetVertex(double[] d, int i, double x, double y, double z) {
+        SetVertex(d, 0, i, x, y, z);
+    }
+
+    /**
+     * set vertex i of primitive diamond starting from d[off]
+     */
+    private static void SetVertex(double[] d, int off, int i, double x, double y, double z) {
+        d[off + i * 3] = x;
+        d[off + i * 3 + 1] = y;
+        d[off + i * 3 + 2] = z;
+    }
+
     /**——————————————————util for encode and decode————————————————————**/
     /*****************************************************************************************************/
 
@@ -391,6 +725,120 @@ public class MathUtil {
 
     // row/col
 
+    /**
+     * max level of morton code that (i, j) lattice conversion supports
+     */
+    public static final int MAX_LATTICE_LEVEL = 31;
+
+    /**
+     * interleave lattice position into morton code.
+     * note: morton digit of each level is (j bit << 1) | i bit,
+     *       lattice origin is v3 of domain, i goes to v0 and j goes to v2
+     *
+     * @param i position along v3 to v0, in [0, 2^level)
+     * @param j position along v3 to v2, in [0, 2^level)
+     * @return morton code
+     */
+    public static long IJToMorton(int i, int j) {
+        assert i >= 0 && j >= 0;
+
+        return SpreadBits(i) | (SpreadBits(j) << 1);
+    }
+
+    /**
+     * get lattice position along v3 to v0 of morton code
+     *
+     * @param morton morton code
+     * @return i, in [0, 2^level)
+     */
+    public static int MortonToI(long morton) {
+        return CompactBits(morton);
+    }
+
+    /**
+     * get lattice position along v3 to v2 of morton code
+     *
+     * @param morton morton code
+     * @return j, in [0, 2^level)
+     */
+    public static int MortonToJ(long morton) {
+        return CompactBits(morton >>> 1);
+    }
+
+    /**
+     * whether lattice position is in domain at this level
+     *
+     * @param i     position along v3 to v0
+     * @param j     position along v3 to v2
+     * @param level grid's level, no more than MAX_LATTICE_LEVEL
+     * @return true if both are in [0, 2^level)
+     */
+    public static boolean IJInRange(long i, long j, int level) {
+        assert level >= 0 && level <= MAX_LATTICE_LEVEL;
+
+        long n = 1L << level;
+        return i >= 0 && i < n && j >= 0 && j < n;
+    }
+
+    /**
+     * offset morton code by lattice steps within domain
+     *
+     * @param morton morton code
+     * @param level  grid's level, no more than MAX_LATTICE_LEVEL
+     * @param di     steps along v3 to v0
+     * @param dj     steps along v3 to v2
+     * @return morton code of offset diamond, -1 if it is out of domain
+     */
+    public static long OffsetMorton(long morton, int level, long di, long dj) {
+        long i = MortonToI(morton) + di;
+        long j = MortonToJ(morton) + dj;
+        if (!IJInRange(i, j, level)) {
+            return -1;
+        }
+
+        return IJToMorton((int) i, (int) j);
+    }
+
+    /**
+     * truncate morton code to an upper level
+     *
+     * @param morton  morton code
+     * @param level   grid's level of morton code
+     * @param toLevel targeted level, no more than level
+     * @return morton code of ancestor at toLevel
+     */
+    public static long TruncateMorton(long morton, int level, int toLevel) {
+        assert toLevel >= 0 && toLevel <= level;
+
+        return morton >>> (2 * (level - toLevel));
+    }
+
+    /**
+     * spread low 32 bits to even bits
+     */
+    private static long SpreadBits(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * gather even bits to low 32 bits
+     */
+    private static int CompactBits(long v) {
+        long x = v & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
     /**——————————————util for transformation between code format————————————————**/
     /********************************************************************************************************/
 
@@ -442,6 +890,39 @@ public class MathUtil {
         return apart;
     }
 
+    /**
+     * predict which domain this point locates in.
+     * note: same result as PredictDomain(CartesianCoord) without allocation
+     *
+     * @param x the targeted point's x coordinate
+     * @param y the targeted point's y coordinate
+     * @param z the targeted point's z coordinate
+     */
+    public static int PredictDomain(double x, double y, double z) {
+        for (int domain = 8; domain >= 0; --domain) {
+            int[] c = DOMAIN_CORNERS[domain];
+            if (PointAbovePlane(x, y, z, c[0], c[3]) != -1 && PointAbovePlane(x, y, z, c[3], c[2]) != -1
+                    && PointAbovePlane(x, y, z, c[2], c[1]) == 1 && PointAbovePlane(x, y, z, c[1], c[0]) == 1) {
+                return domain;
+            }
+        }
+
+        if (Math.abs(z - RADIUS) <= EPS) {
+            return 4;
+        }
+        return 9;
+    }
+
+    /**
+     * whether this point is above the plane through two icosahedron vertexes
+     */
+    private static int PointAbovePlane(double x, double y, double z, int a, int b) {
+        Icosahedron ico = Icosahedron.getInstance();
+        CartesianCoord pA = ico.p(a);
+        CartesianCoord pB = ico.p(b);
+        return PointAbovePlane(x, y, z, pA.getX(), pA.getY(), pA.getZ(), pB.getX(), pB.getY(), pB.getZ());
+    }
+
     /**
      * whether this point is above this plane.
      * right hand rule
@@ -452,9 +933,68 @@ public class MathUtil {
      * @return 1 is above, 0 is in and -1 is under
      */
     public static int PointAbovePlane(CartesianCoord pt, CartesianCoord pA, CartesianCoord pB) {
-        CartesianCoord normal = GetNormalVector(pA, pB);
+        return PointAbovePlane(pt.getX(), pt.getY(), pt.getZ(),
+                pA.getX(), pA.getY(), pA.getZ(), pB.getX(), pB.getY(), pB.getZ());
+    }
+
+    /**
+     * squared bounds of cos(angle between normal and point) for the predicate filter
+     * note: point is in the plane if |cos| <= sin(EPS), sin(EPS) equals EPS in double,
+     *       FILTER_LOW/FILTER_HIGH leave 1e-4 relative margin around it,
+     *       FILTER_ONE keeps away from |cos| = 1, where acos of the rounded cosine may be NaN
+     */
+    private static final double FILTER_LOW = (EPS * (1 - 1e-4)) * (EPS * (1 - 1e-4));
+    private static final double FILTER_HIGH = (EPS * (1 + 1e-4)) * (EPS * (1 + 1e-4));
+    private static final double FILTER_ONE = 1 - 1e-10;
 
-        double angle = VectorsAngle(normal, pt);
+    /**
+     * whether this point is above the plane through pA, pB and center of sphere.
+     * note: classified by sign and size of triple product (pA x pB) . pt against |pA x pB| |pt|,
+     *       compared in squares, so neither sqrt nor acos is needed.
+     *       rounding error of both sides is below 1e-5 of the EPS threshold,
+     *       only points within the filter margin fall back to the angle arithmetic,
+     *       so result is always same as comparing the angle to PI / 2 with EPS
+     *
+     * @return 1 is above, 0 is in and -1 is under
+     */
+    public static int PointAbovePlane(double px, double py, double pz,
+                                      double ax, double ay, double az,
+                                      double bx, double by, double bz) {
+        double nx = ay * bz - az * by;
+        double ny = az * bx - ax * bz;
+        double nz = ax * by - ay * bx;
+
+        double dot = nx * px + ny * py + nz * pz;
+        double dot2 = dot * dot;
+        double norm2 = (nx * nx + ny * ny + nz * nz) * (px * px + py * py + pz * pz);
+
+        // NaN, infinite and degenerate normal all fall through to the angle arithmetic
+        if (norm2 > 0 && norm2 < Double.POSITIVE_INFINITY) {
+            if (dot2 < FILTER_LOW * norm2) {
+                return 0;
+            }
+            if (dot2 > FILTER_HIGH * norm2 && dot2 < FILTER_ONE * norm2) {
+                return dot > 0 ? 1 : -1;
+            }
+        }
+
+        return PointAbovePlaneByAngle(px, py, pz, nx, ny, nz);
+    }
+
+    /**
+     * angle arithmetic of PointAbovePlane, for points near the thresholds
+     *
+     * @param nx normal vector, not normalized
+     */
+    private static int PointAbovePlaneByAngle(double px, double py, double pz,
+                                              double nx, double ny, double nz) {
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        nx = nx / len;
+        ny = ny / len;
+        nz = nz / len;
+
+        double angle = Math.acos((nx * px + ny * py + nz * pz) /
+                (Math.sqrt(nx * nx + ny * ny + nz * nz) * Math.sqrt(px * px + py * py + pz * pz)));
         double minus = angle - PI / 2.;
 
         if (minus < -EPS) {
@@ -520,6 +1060,59 @@ public class MathUtil {
         return arcRad * RADIUS;
     }
 
+    /**
+     * area of spherical triangle on sphere with RADIUS.
+     * note: spherical excess E from tan(E / 2) = |a . (b x c)| / (1 + a . b + b . c + c . a) of unit vectors,
+     *       triple product is taken over b - a and c - a, so it keeps precision for tiny cells
+     *
+     * @param c0 vertex
+     * @param c1 vertex
+     * @param c2 vertex
+     * @return area in square meters
+     */
+    public static double SphericalTriangleArea(CartesianCoord c0, CartesianCoord c1, CartesianCoord c2) {
+        return SphericalTriangleArea(c0.getX(), c0.getY(), c0.getZ(), c1.getX(), c1.getY(), c1.getZ(),
+                c2.getX(), c2.getY(), c2.getZ());
+    }
+
+    /**
+     * area of spherical triangle on sphere with RADIUS.
+     * note: vertices are any points off the sphere center, they are projected onto sphere
+     *
+     * @return area in square meters
+     */
+    public static double SphericalTriangleArea(double ax, double ay, double az,
+                                               double bx, double by, double bz,
+                                               double cx, double cy, double cz) {
+        double la = 1 / Math.sqrt(ax * ax + ay * ay + az * az);
+        double lb = 1 / Math.sqrt(bx * bx + by * by + bz * bz);
+        double lc = 1 / Math.sqrt(cx * cx + cy * cy + cz * cz);
+        ax *= la; ay *= la; az *= la;
+        bx *= lb; by *= lb; bz *= lb;
+        cx *= lc; cy *= lc; cz *= lc;
+
+        double ux = bx - ax, uy = by - ay, uz = bz - az;
+        double vx = cx - ax, vy = cy - ay, vz = cz - az;
+        double triple = ax * (uy * vz - uz * vy) + ay * (uz * vx - ux * vz) + az * (ux * vy - uy * vx);
+        double denominator = 1 + (ax * bx + ay * by + az * bz) + (bx * cx + by * cy + bz * cz)
+                + (cx * ax + cy * ay + cz * az);
+
+        return 2 * Math.atan2(Math.abs(triple), denominator) * RADIUS * RADIUS;
+    }
+
+    /**
+     * area of spherical triangle on sphere with RADIUS.
+     *
+     * @param p points {x, y, z, ...}
+     * @param a start index of first vertex in p
+     * @param b start index of second vertex in p
+     * @param c start index of third vertex in p
+     * @return area in square meters
+     */
+    public static double SphericalTriangleArea(double[] p, int a, int b, int c) {
+        return SphericalTriangleArea(p[a], p[a + 1], p[a + 2], p[b], p[b + 1], p[b + 2], p[c], p[c + 1], p[c + 2]);
+    }
+
     /**
      * get normal vector of the face composed of two points on sphere and center of sphere.
      *
@@ -535,18 +1128,13 @@ public class MathUtil {
         double b2 = end.getY();
         double b3 = end.getZ();
 
-        CartesianCoord res = new CartesianCoord();
-        res.setX(a2 * b3 - a3 * b2);
-        res.setY(a3 * b1 - a1 * b3);
-        res.setZ(a1 * b2 - a2 * b1);
-
-        double len = Math.sqrt(res.getX() * res.getX() + res.getY() * res.getY() + res.getZ() * res.getZ());
+        double x = a2 * b3 - a3 * b2;
+        double y = a3 * b1 - a1 * b3;
+        double z = a1 * b2 - a2 * b1;
 
-        res.setX(res.getX() / len);
-        res.setY(res.getY() / len);
-        res.setZ(res.getZ() / len);
+        double len = Math.sqrt(x * x + y * y + z * z);
 
-        return res;
+        return new CartesianCoord(x / len, y / len, z / len);
     }
 
     /**
@@ -564,90 +1152,48 @@ public class MathUtil {
     }
 
     /**
-     * get initial diamond's vertices.
+     * get initial diamond.
      * @param domain targeted diamond
-     * @param cc0   v0
-     * @param cc1   v1
-     * @param cc2   v2
-     * @param cc3   v3
+     * @return diamond of domain, its vertexes are shared with Icosahedron
      */
-    public static void GetDomainCorner(int domain, CartesianCoord cc0, CartesianCoord cc1,
-                                       CartesianCoord cc2, CartesianCoord cc3) {
+    public static DiamondBlock GetDomainCorner(int domain) {
         Icosahedron ico = Icosahedron.getInstance();
-        switch (domain) {
-            case 0: {
-                cc0.setValue(ico.p(0));
-                cc1.setValue(ico.p(2));
-                cc2.setValue(ico.p(6));
-                cc3.setValue(ico.p(1));
-            }
-            break;
-            case 1: {
-                cc0.setValue(ico.p(0));
-                cc1.setValue(ico.p(3));
-                cc2.setValue(ico.p(7));
-                cc3.setValue(ico.p(2));
-            }
-            break;
-            case 2: {
-                cc0.setValue(ico.p(0));
-                cc1.setValue(ico.p(4));
-                cc2.setValue(ico.p(8));
-                cc3.setValue(ico.p(3));
-            }
-            break;
-            case 3: {
-                cc0.setValue(ico.p(0));
-                cc1.setValue(ico.p(5));
-                cc2.setValue(ico.p(9));
-                cc3.setValue(ico.p(4));
-            }
-            break;
-            case 4: {
-                cc0.setValue(ico.p(0));
-                cc1.setValue(ico.p(1));
-                cc2.setValue(ico.p(10));
-                cc3.setValue(ico.p(5));
-            }
-            break;
-            case 5: {
-                cc0.setValue(ico.p(2));
-                cc1.setValue(ico.p(7));
-                cc2.setValue(ico.p(11));
-                cc3.setValue(ico.p(6));
-            }
-            break;
-            case 6: {
-                cc0.setValue(ico.p(3));
-                cc1.setValue(ico.p(8));
-                cc2.setValue(ico.p(11));
-                cc3.setValue(ico.p(7));
-            }
-            break;
-            case 7: {
-                cc0.setValue(ico.p(4));
-                cc1.setValue(ico.p(9));
-                cc2.setValue(ico.p(11));
-                cc3.setValue(ico.p(8));
-            }
-            break;
-            case 8: {
-                cc0.setValue(ico.p(5));
-                cc1.setValue(ico.p(10));
-                cc2.setValue(ico.p(11));
-                cc3.setValue(ico.p(9));
-            }
-            break;
-            case 9: {
-                cc0.setValue(ico.p(1));
-                cc1.setValue(ico.p(6));
-                cc2.setValue(ico.p(11));
-                cc3.setValue(ico.p(10));
-            }
-            break;
-            default:
-                assert false;
-                ;
+        int[] c = DOMAIN_CORNERS[domain];
+        return new DiamondBlock(ico.p(c[0]), ico.p(c[1]), ico.p(c[2]), ico.p(c[3]));
+    }
+
+    /**
+     * icosahedron vertexes of initial diamonds, {v0, v1, v2, v3} for each domain
+     */
+    private static final int[][] DOMAIN_CORNERS = {
+            {0, 2, 6, 1}, {0, 3, 7, 2}, {0, 4, 8, 3}, {0, 5, 9, 4}, {0, 1, 10, 5},
+            {2, 7, 11, 6}, {3, 8, 11, 7}, {4, 9, 11, 8}, {5, 10, 11, 9}, {1, 6, 11, 10}
+    };
+
+    /**
+     * get icosahedron vertex at a corner of initial diamond.
+     *
+     * @param domain targeted diamond
+     * @param corner 0-3 for v0-v3
+     * @return index of icosahedron vertex
+     * @see Icosahedron#p
+     */
+    public static int GetDomainCornerIndex(int domain, int corner) {
+        return DOMAIN_CORNERS[domain][corner];
+    }
+
+    /**
+     * get initial diamond's vertices as primitive array.
+     *
+     * @param domain targeted diamond
+     * @param d      returned vertices {v0.x, v0.y, v0.z, ..., v3.z}
+     */
+    public static void GetDomainCorner(int domain, double[] d) {
+        Icosahedron ico = Icosahedron.getInstance();
+        int[] c = DOMAIN_CORNERS[domain];
+        for (int i = 0; i < 4; ++i) {
+            CartesianCoord p = ico.p(c[i]);
+            SetVertex(d, i, p.getX(), p.getY(), p.getZ());
         }
     }
 
@@ -663,17 +1209,11 @@ public class MathUtil {
     /**
      * get diamond's edges' middle points.
      * @param d   targeted diamond
-     * @param m0  midpoint of v0v1
-     * @param m1  midpoint of v1v2
-     * @param m2  midpoint of v2v3
-     * @param m3  midpoint of v3v0
+     * @return {m0, m1, m2, m3}, midpoints of v0v1, v1v2, v2v3 and v3v0
      */
-    public static void DiamondMids(DiamondBlock d,
-                                   CartesianCoord m0, CartesianCoord m1, CartesianCoord m2, CartesianCoord m3) {
-        m0.setValue(MidGreatArc(d.v(0), d.v(1)));
-        m1.setValue(MidGreatArc(d.v(1), d.v(2)));
-        m2.setValue(MidGreatArc(d.v(2), d.v(3)));
-        m3.setValue(MidGreatArc(d.v(3), d.v(0)));
+    public static CartesianCoord[] DiamondMids(DiamondBlock d) {
+        return new CartesianCoord[]{MidGreatArc(d.v(0), d.v(1)), MidGreatArc(d.v(1), d.v(2)),
+                MidGreatArc(d.v(2), d.v(3)), MidGreatArc(d.v(3), d.v(0))};
     }
 
     /**
@@ -695,6 +1235,25 @@ public class MathUtil {
         return new CartesianCoord(x, y, z);
     }
 
+    /**
+     * middle point of great arc using primitive coordinates.
+     * note: same result as MidGreatArc(CartesianCoord, CartesianCoord)
+     *
+     * @param out    returned midpoint {x, y, z} from out[outOff]
+     * @param outOff start index in out
+     */
+    public static void MidGreatArc(double x1, double y1, double z1, double x2, double y2, double z2,
+                                   double[] out, int outOff) {
+        double x = (x1 + x2) * 0.5;
+        double y = (y1 + y2) * 0.5;
+        double z = (z1 + z2) * 0.5;
+
+        double length = Math.sqrt(x * x + y * y + z * z);
+        out[outOff] = x / length * RADIUS;
+        out[outOff + 1] = y / length * RADIUS;
+        out[outOff + 2] = z / length * RADIUS;
+    }
+
     /**
      * middle of lat/lon.
      * @param c1
@@ -702,10 +1261,7 @@ public class MathUtil {
      * @return midpoint of c1c2
      */
     public static CartesianCoord MidLonLat(CartesianCoord c1, CartesianCoord c2) {
-        CartesianCoord mid_axis = new CartesianCoord();
-        mid_axis.Add(c1);
-        mid_axis.Add(c2);
-        mid_axis.Divide(0.5);
+        CartesianCoord mid_axis = c1.Add(c2).Divide(0.5);
 
         double mid_axis_length = Math.sqrt(mid_axis.getX() * mid_axis.getX() + mid_axis.getY() * mid_axis.getY());
         double square_of_radius_dir = mid_axis.getZ() * mid_axis.getZ();
@@ -746,12 +1302,9 @@ public class MathUtil {
      * two vectors' cross product, or face's normal vector
      */
     public static CartesianCoord Cross(CartesianCoord c1, CartesianCoord c2) {
-        CartesianCoord normal_vec = new CartesianCoord();
-        normal_vec.setX(c1.getY() * c2.getZ() - c1.getZ() * c2.getY());
-        normal_vec.setY(c1.getZ() * c2.getX() - c1.getX() * c2.getZ());
-        normal_vec.setZ(c1.getX() * c2.getY() - c1.getY() * c2.getX());
-
-        return normal_vec;
+        return new CartesianCoord(c1.getY() * c2.getZ() - c1.getZ() * c2.getY(),
+                c1.getZ() * c2.getX() - c1.getX() * c2.getZ(),
+                c1.getX() * c2.getY() - c1.getY() * c2.getX());
     }
 
     /**
@@ -778,12 +1331,9 @@ public class MathUtil {
         double RM21 = y * z * (1 - c) + x * s;
         double RM22 = z * z * (1 - c) + c;
 
-        CartesianCoord cc = new CartesianCoord();
-        cc.setX(px * RM00 + py * RM01 + pz * RM02);
-        cc.setY(px * RM10 + py * RM11 + pz * RM12);
-        cc.setZ(px * RM20 + py * RM21 + pz * RM22);
-
-        return cc;
+        return new CartesianCoord(px * RM00 + py * RM01 + pz * RM02,
+                px * RM10 + py * RM11 + pz * RM12,
+                px * RM20 + py * RM21 + pz * RM22);
     }
 
     /**
@@ -809,11 +1359,8 @@ public class MathUtil {
             return;
         }
 
-        CartesianCoord m0 = new CartesianCoord();
-        CartesianCoord m1 = new CartesianCoord();
-        CartesianCoord m2 = new CartesianCoord();
-        CartesianCoord m3 = new CartesianCoord();
-        DiamondMids(d, m0, m1, m2, m3);
+        CartesianCoord[] m = DiamondMids(d);
+        CartesianCoord m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
         CartesianCoord center = DiamondCenter(d);
 
         if (ccList != null) {
@@ -939,12 +1486,23 @@ public class MathUtil {
 
     /**
      * get all code in line
+     * note: codes from start to end, end excluded.
+     *       cells of same level are walked across trigon edges by EQLineWalker, others are bisected by MidCode
      *
      * @param start
      * @param end
      * @param codes
      */
     public static void getCodesInLine(BaseCode start, BaseCode end, ArrayList<BaseCode> codes){
+        if(IsWalkable(start) && IsWalkable(end) && start.getLevel() == end.getLevel()){
+            EQLineWalker walker = new EQLineWalker();
+            int n = walker.walk(EQCodes.pack((EQCode) start), EQCodes.pack((EQCode) end));
+            for(int k = 0; k < n - 1; ++k){
+                codes.add(EQCodes.toEQCode(walker.getCode(k)));
+            }
+            return;
+        }
+
         BaseCode midcode = MidCode(start, end);
 
         if(null == midcode){
@@ -957,24 +1515,67 @@ public class MathUtil {
         }
     }
 
+    private static boolean IsWalkable(BaseCode code){
+        return code instanceof EQCode && code.getElementType() == ElementType.GridCell
+                && code.getDomainID() < 10;
+    }
+
     /**
      * get all code in polyline
+     * note: every crossed cell is returned once between two break points, last break point included
      *
      * @param polyline
      * @return
      */
     public static ArrayList<BaseCode> getCodesInPolyline(Polyline polyline){
-        ArrayList<BaseCode> codes = new ArrayList<>();
+        long[] cells = getCellsInPolyline(polyline);
+        ArrayList<BaseCode> codes = new ArrayList<>(cells.length);
 
-        for(int pointID = 0; pointID < polyline.getPointNum() - 1; ++pointID){
-            BaseCode start = polyline.getPoint(pointID).getPosition();
-            BaseCode end = polyline.getPoint(pointID + 1).getPosition();
-            MathUtil.getCodesInLine(start, end, codes);
+        for(long cell : cells){
+            codes.add(EQCodes.toEQCode(cell));
         }
 
         return codes;
     }
 
+    /**
+     * get all packed cell codes in polyline
+     * note: break points of grid cells are walked by EQLineWalker without decoding,
+     *       other break points fall back to getCodesInLine
+     *
+     * @param polyline
+     * @return packed codes in order along polyline
+     */
+    public static long[] getCellsInPolyline(Polyline polyline){
+        long[] points = polyline.getCodes();
+        boolean walkable = points.length > 0;
+        for(int pointID = 0; pointID < points.length && walkable; ++pointID){
+            long code = points[pointID];
+            walkable = EQCodes.element(code) >= 4 && EQCodes.domain(code) < 10
+                    && EQCodes.level(code) == EQCodes.level(points[0]);
+        }
+
+        if(walkable){
+            EQLineWalker walker = new EQLineWalker();
+            walker.walk(points, 0, points.length);
+            return walker.toArray();
+        }
+
+        ArrayList<BaseCode> codes = new ArrayList<>();
+        for(int pointID = 0; pointID < points.length - 1; ++pointID){
+            getCodesInLine(EQCodes.toEQCode(points[pointID]), EQCodes.toEQCode(points[pointID + 1]), codes);
+        }
+        if(points.length > 0){
+            codes.add(EQCodes.toEQCode(points[points.length - 1]));
+        }
+
+        long[] cells = new long[codes.size()];
+        for(int k = 0; k < cells.length; ++k){
+            cells[k] = EQCodes.pack((EQCode) codes.get(k));
+        }
+        return cells;
+    }
+
     /**
      * test two line intersect
      *
@@ -1171,22 +1772,22 @@ public class MathUtil {
     public static void DecodePolyline(Polyline polyline, ArrayList<SpericalCoord> points, Set<Integer> domainSet){
         SpericalCoord scCur, scPre;
 
-        scPre = polyline.getPoint(0).getPosition().toSpericalCoord();
+        scPre = SpericalCoord.FromCode(polyline.getCode(0));
         if(Math.abs(scPre.getLongitude() - 180d) < MathUtil.EPS){
-            scCur = polyline.getPoint(1).getPosition().toSpericalCoord();
+            scCur = SpericalCoord.FromCode(polyline.getCode(1));
             if(scCur.getLatitude() > scPre.getLatitude())
-                scPre.setLongitude(-scPre.getLongitude());
+                scPre = new SpericalCoord(-scPre.getLongitude(), scPre.getLatitude());
         }
         points.add(scPre);
-        domainSet.add(polyline.getPoint(0).getPosition().getDomainID());
+        domainSet.add(EQCodes.domain(polyline.getCode(0)));
 
         for (int i = 1; i < polyline.getPointNum(); ++i) {
-            scCur = polyline.getPoint(i).getPosition().toSpericalCoord();
+            scCur = SpericalCoord.FromCode(polyline.getCode(i));
             if(Math.abs(scCur.getLongitude() - scPre.getLongitude()) > 350d)
-                scCur.setLongitude(-scCur.getLongitude());
+                scCur = new SpericalCoord(-scCur.getLongitude(), scCur.getLatitude());
 
             points.add(scCur);
-            domainSet.add(polyline.getPoint(i).getPosition().getDomainID());
+            domainSet.add(EQCodes.domain(polyline.getCode(i)));
             scPre = scCur;
         }
     }
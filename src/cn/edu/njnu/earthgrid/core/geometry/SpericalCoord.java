@@ -3,36 +3,29 @@ package cn.edu.njnu.earthgrid.core.geometry;
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
 import cn.edu.njnu.earthgrid.core.codes.EHCode;
 import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.core.codes.ElementType;
 
 /**
  * Sperical coordinate: longitude/latitude
+ * note: a coordinate is an immutable value, so it can be shared across threads
  *
  * @author LWJie, Xudepeng
  * @version EGS 1.0
  */
-public class SpericalCoord {
+public final class SpericalCoord {
 
-    private double longitude;
-    private double latitude;
+    private final double longitude;
+    private final double latitude;
 
-    public final double getLongitude() {
+    public double getLongitude() {
         return longitude;
     }
 
-    public final double getLatitude() {
+    public double getLatitude() {
         return latitude;
     }
 
-    public void setLongitude(double longitude) {
-        this.longitude = longitude;
-    }
-
-    public void setLatitude(double latitude) {
-        this.latitude = latitude;
-    }
-
-
     /**
      * default Constructor
      */
@@ -83,6 +76,28 @@ public class SpericalCoord {
         return code;
     }
 
+    /**
+     * convert packed EQTM code into Sperical coordinate
+     * @param code packed EQTM code
+     * @return lat/lon
+     * @see EQCodes
+     */
+    public static SpericalCoord FromCode(long code){
+        return EQCodes.toSpericalCoord(code);
+    }
+
+    /**
+     * convert Sperical coordinate into packed EQTM code.
+     * @param sc Sperical coordinate
+     * @param level the level of grid code
+     * @param ele the element of grid code
+     * @return packed EQTM code
+     * @see EQCodes
+     */
+    public static long ToCode(SpericalCoord sc, int level, ElementType ele){
+        return EQCodes.encode(sc, level, ele);
+    }
+
     /**
      * convert cartesian coordinate to sperical coordinate
      * @param cc cartesian coordinate
@@ -107,9 +122,8 @@ public class SpericalCoord {
         if(!(obj instanceof SpericalCoord)){
             return false;
         }
-        return super.equals(obj) &&
-                ((SpericalCoord) obj).latitude == this.latitude &&
-                ((SpericalCoord) obj).longitude == this.longitude;
+        return Double.compare(((SpericalCoord) obj).latitude, this.latitude) == 0 &&
+                Double.compare(((SpericalCoord) obj).longitude, this.longitude) == 0;
     }
 
     @Override
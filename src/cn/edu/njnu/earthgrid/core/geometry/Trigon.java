@@ -3,18 +3,19 @@ package cn.edu.njnu.earthgrid.core.geometry;
 /**
  * Trigon cell of EQTM
  * using Cartesian coordinate
+ * note: a trigon is immutable and can be shared across threads
  *
  * @author LWJie, Xudepeng
  * @version EGS 1.0
  */
-public class Trigon {
+public final class Trigon {
     /**
      * three vertxes of diamond cell
      * v[0], top vertex
      * v[1], left vertex
      * v[2], right vertex
      */
-    private CartesianCoord[] v = new CartesianCoord[3];
+    private final CartesianCoord[] v = new CartesianCoord[3];
 
     /**
      * Constructor
@@ -59,23 +60,13 @@ public class Trigon {
         return gcs;
     }
 
-    /**
-     * change vertxes's value
-     * @param v0 top vertex
-     * @param v1 left vertex
-     * @param v2 right vertex
-     */
-    public void setValue(CartesianCoord v0, CartesianCoord v1, CartesianCoord v2) {
-        this.v[0] = v0;
-        this.v[1] = v1;
-        this.v[2] = v2;
-    }
-
     /**
      * area of this Trigon
-     * @return
+     * note: spherical area on sphere with MathUtil.RADIUS
+     *
+     * @return area in square meters
      */
     public double getArea(){
-        return 0.0;
+        return MathUtil.SphericalTriangleArea(v[0], v[1], v[2]);
     }
 }
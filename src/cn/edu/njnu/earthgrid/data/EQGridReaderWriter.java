@@ -2,10 +2,13 @@ package cn.edu.njnu.earthgrid.data;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
 import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.core.codes.ElementType;
-import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
 import cn.edu.njnu.earthgrid.feature.*;
 import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.SparseFieldBand;
+import cn.edu.njnu.earthgrid.field.StorageType;
 import cn.edu.njnu.earthgrid.layer.BaseLayer;
 import cn.edu.njnu.earthgrid.layer.FeatureLayer;
 import cn.edu.njnu.earthgrid.layer.FieldLayer;
@@ -86,29 +89,26 @@ public class EQGridReaderWriter {
             ArrayList<FieldBand> bands = new ArrayList<>();
             for(int bandID = 0; bandID < bandNum; ++bandID) {
 
-                FieldBand band = new FieldBand(nodata, elementType);
-
                 //read mbs
                 ArrayList<EQCode> offsetList = new ArrayList<>();
+                ArrayList<Integer> sizeList = new ArrayList<>();
 
                 while (!(lineStr = reader.readLine().split(","))[0].equals("end_mbs")) {
-                    int domainID = (int) MathUtil.BinaryToDecimal(lineStr[0].substring(0, 4));
-                    int elementCode = (int) MathUtil.BinaryToDecimal(lineStr[0].substring(4, 8));
-                    long morton = MathUtil.QuaternaryToDecimal(lineStr[0].substring(8));
-
-                    EQCode offset = new EQCode(domainID, elementCode, level, morton);
+                    EQCode offset = EQCodes.toEQCode(EQCodeFormat.parse(lineStr[0]));
                     int size = Integer.parseInt(lineStr[1]);
                     offsetList.add(offset);
-
-                    band.setMBS(offset, size);
+                    sizeList.add(size);
                 }
+
+                FieldBand band = CreateBand(offsetList, sizeList, nodata, elementType,
+                        StorageType.FLOAT32, 1.f, 0.f);
                 //end read mbs
 
                 //read body
                 float min = 0, max = 0;
                 for (int i = 0; i < offsetList.size(); ++i) {
                     int domain = offsetList.get(i).getDomainID();
-                    int pos = 0;
+                    int pos = band.getPosition(offsetList.get(i).pack());
                     lineStr = reader.readLine().split("\\(|\\)|,");
                     for (String attrStr : lineStr) {
                         if (attrStr.equals("")) {
@@ -220,36 +220,51 @@ public class EQGridReaderWriter {
                 lineStr = reader.readLine().split(" ");
                 float nodata = Float.parseFloat(lineStr[lineStr.length - 1]);
 
-                //end read header
+                //storage of band, float32 if the lines aren't written
+                StorageType storageType = StorageType.FLOAT32;
+                float scale = 1.f, valueOffset = 0.f;
+                String line;
+                while (!(line = reader.readLine()).equals("mbs")) {
+                    lineStr = line.trim().split(" ");
+                    switch (lineStr[0]) {
+                        case "storage_type":
+                            storageType = StorageType.fromName(lineStr[1]);
+                            break;
+                        case "scale":
+                            scale = Float.parseFloat(lineStr[1]);
+                            break;
+                        case "offset":
+                            valueOffset = Float.parseFloat(lineStr[1]);
+                            break;
+                        default:
+                            break;
+                    }
+                }
 
-                FieldBand band = new FieldBand(nodata, elementType);
-                band.setMin(min);
-                band.setMax(max);
+                //end read header
 
                 //read mbs
-                if(reader.readLine() != "mbs"){
-                    assert false;
-                }
 
                 ArrayList<EQCode> offsetList = new ArrayList<>();
+                ArrayList<Integer> sizeList = new ArrayList<>();
 
                 while (!(lineStr = reader.readLine().split(","))[0].equals("end_mbs")) {
-                    int domainID = (int) MathUtil.BinaryToDecimal(lineStr[0].substring(0, 4));
-                    int elementCode = (int) MathUtil.BinaryToDecimal(lineStr[0].substring(4, 8));
-                    long morton = MathUtil.QuaternaryToDecimal(lineStr[0].substring(8));
-
-                    EQCode offset = new EQCode(domainID, elementCode, level, morton);
+                    EQCode offset = EQCodes.toEQCode(EQCodeFormat.parse(lineStr[0]));
                     int size = Integer.parseInt(lineStr[1]);
                     offsetList.add(offset);
-
-                    band.setMBS(offset, size);
+                    sizeList.add(size);
                 }
+
+                FieldBand band = CreateBand(offsetList, sizeList, nodata, elementType,
+                        storageType, scale, valueOffset);
+                band.setMin(min);
+                band.setMax(max);
                 //end read mbs
 
                 //read body
                 for (int i = 0; i < offsetList.size(); ++i) {
                     int domain = offsetList.get(i).getDomainID();
-                    int pos = 0;
+                    int pos = band.getPosition(offsetList.get(i).pack());
                     lineStr = reader.readLine().split("\\(|\\)|,");
                     for (String attrStr : lineStr) {
                         if (attrStr.equals("")) {
@@ -284,6 +299,43 @@ public class EQGridReaderWriter {
         return fieldLayer;
     }
 
+    /**
+     * create band of segments read from file
+     * note: a domain with more than one segment needs a sparse band, which stores float32 only,
+     *       so such a band of other storage type is rejected instead of read as float32
+     *
+     * @param offsetList  first element of each segment
+     * @param sizeList    number of elements of each segment
+     * @param nodata      no data value
+     * @param elementType the type of grid element
+     * @param storageType type of stored attribute
+     * @param scale       scale of raw value
+     * @param valueOffset offset of raw value
+     * @return band with segments
+     * @throws IllegalArgumentException if a band of several segments a domain isn't float32
+     */
+    private static FieldBand CreateBand(ArrayList<EQCode> offsetList, ArrayList<Integer> sizeList,
+                                        float nodata, ElementType elementType,
+                                        StorageType storageType, float scale, float valueOffset){
+        boolean[] used = new boolean[FieldBand.DOMAIN_COUNT];
+        boolean sparse = false;
+        for(EQCode offset : offsetList){
+            sparse |= used[offset.getDomainID()];
+            used[offset.getDomainID()] = true;
+        }
+        if(sparse && StorageType.FLOAT32 != storageType){
+            throw new IllegalArgumentException("storage_type " + storageType.getName()
+                    + " isn't supported by a band of several segments a domain, only float32 is");
+        }
+
+        FieldBand band = sparse ? new SparseFieldBand(nodata, elementType)
+                : new FieldBand(nodata, elementType, storageType, scale, valueOffset);
+        for(int i = 0; i < offsetList.size(); ++i){
+            band.setMBS(offsetList.get(i), sizeList.get(i));
+        }
+        return band;
+    }
+
     /**
      * write grid field layer to file
      *
@@ -312,7 +364,7 @@ public class EQGridReaderWriter {
             //write bands
             for(int bandID = 0; bandID < layer.getBandNum(); ++bandID){
                 FieldBand band = layer.getBands(bandID);
-                writer.write("band " + (bandID + 1) + "\n");
+                writer.write("band " + bandID + "\n");
                 writer.write("element_type ");
                 if(band.getElementType() == ElementType.GridCell)
                     writer.write("cell\n");
@@ -324,23 +376,51 @@ public class EQGridReaderWriter {
                 writer.write("max " + band.getMax() + "\n");
                 writer.write("min " + band.getMin() + "\n");
                 writer.write("nodata " + band.getNoData() + " \n");
+                if(band.getStorageType() != StorageType.FLOAT32){
+                    writer.write("storage_type " + band.getStorageType().getName() + "\n");
+                    writer.write("scale " + band.getScale() + "\n");
+                    writer.write("offset " + band.getValueOffset() + "\n");
+                }
+
+                //write mbs, a sparse band writes each of its segments
+                ArrayList<Long> offsetList = new ArrayList<>();
+                ArrayList<Integer> sizeList = new ArrayList<>();
+                for(int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID){
+                    if(band instanceof SparseFieldBand){
+                        SparseFieldBand sparse = (SparseFieldBand) band;
+                        for(int seg = 0; seg < sparse.getSegmentCount(domID); ++seg){
+                            offsetList.add(sparse.getSegmentOffset(domID, seg));
+                            sizeList.add(sparse.getSegmentSize(domID, seg));
+                        }
+                    }
+                    else if(band.getMBS(domID) != null){
+                        FieldBand.MinBoundSeg mbs = band.getMBS(domID);
+                        offsetList.add(mbs.getOffsetCode());
+                        sizeList.add((int) mbs.getSize());
+                    }
+                }
 
-                //write mbs
                 writer.write("mbs\n");
-                for(int domID = 0; domID < band.getMBSCount(); ++domID){
-                    FieldBand.MinBoundSeg mbs = band.getMBS(domID);
-                    EQCode offset = mbs.getOffset();
-                    writer.write(offset.toString() + "," + mbs.getSize() + "\n");
+                for(int i = 0; i < offsetList.size(); ++i){
+                    writer.write(EQCodeFormat.toString(offsetList.get(i)) + "," + sizeList.get(i) + "\n");
                 }
                 writer.write("end_mbs\n");
                 writer.flush();
 
-                for(int domID = 0; domID < band.getMBSCount(); ++domID){
+                float[] attrs = new float[4096];
+                for(int i = 0; i < offsetList.size(); ++i){
                     writer.write("(");
-                    FieldBand.MinBoundSeg mbs = band.getMBS(domID);
-
-                    for(int pos = 0; pos < mbs.getSize(); ++pos){
-                        writer.write(band.getAttribute(domID, pos) + ",");
+                    long offset = offsetList.get(i);
+                    int domID = EQCodes.domain(offset);
+                    int start = band.getPosition(offset);
+                    int size = sizeList.get(i);
+
+                    for(int pos = 0; pos < size; pos += attrs.length){
+                        int len = Math.min(attrs.length, size - pos);
+                        band.getAttributes(domID, start + pos, attrs, 0, len);
+                        for(int k = 0; k < len; ++k){
+                            writer.write(attrs[k] + ",");
+                        }
                     }
 
                     writer.write(")\n");
@@ -657,10 +737,13 @@ public class EQGridReaderWriter {
                 }
             }
             else if(layer.getFeatureClass().getShapeType() == ShapeType.Point){
+                char[] pointStr = new char[EQCodeFormat.MAX_LENGTH + 1];
                 for(int featureID = 0; featureID < layer.getFeatureCount(); ++featureID){
                     Feature feature = layer.getFeature(featureID);
                     Point point = (Point) feature.getShape();
-                    writer.write(point.toString() + ",");
+                    int len = EQCodeFormat.format(point.getCode(), pointStr, 0);
+                    pointStr[len++] = ',';
+                    writer.write(pointStr, 0, len);
                 }
             }
 
@@ -1,6 +1,7 @@
 package cn.edu.njnu.earthgrid.feature;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
 import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
 import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
 
@@ -59,9 +60,29 @@ public class Extent {
     }
 
     public double getMinLon(){
+        if(null == extentLonLat)
+            getExtentLonLat();
         return extentLonLat.minLon;
     }
 
+    public double getMaxLon(){
+        if(null == extentLonLat)
+            getExtentLonLat();
+        return extentLonLat.maxLon;
+    }
+
+    public double getMinLat(){
+        if(null == extentLonLat)
+            getExtentLonLat();
+        return extentLonLat.minLat;
+    }
+
+    public double getMaxLat(){
+        if(null == extentLonLat)
+            getExtentLonLat();
+        return extentLonLat.maxLat;
+    }
+
     private void getExtentLonLat(){
         double minLon, maxLon, minLat, maxLat;
 
@@ -104,8 +125,20 @@ public class Extent {
 
     @Override
     public String toString() {
-        return topleft.toString() + "," + topright.toString() +
-                "," + botleft.toString() + "," + botright.toString();
+        return appendTo(new StringBuilder(4 * EQCodeFormat.MAX_LENGTH)).toString();
+    }
+
+    /**
+     * append text of corners to string builder, same as toString
+     *
+     * @param sb string builder
+     * @return sb
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        EQCodeFormat.append(sb, topleft.getCode()).append(',');
+        EQCodeFormat.append(sb, topright.getCode()).append(',');
+        EQCodeFormat.append(sb, botleft.getCode()).append(',');
+        return EQCodeFormat.append(sb, botright.getCode());
     }
 
     /**
@@ -114,11 +147,28 @@ public class Extent {
      * @return
      */
     public static Extent FromString(String extStr){
-        extStr = extStr.substring(1, extStr.length() - 1);
-        String[] pointsStr = extStr.split(",");
+        return FromString(extStr, 1);
+    }
+
+    /**
+     * parse corners separated by ',' without substring
+     *
+     * @param str  text holding corners
+     * @param from index of topleft's first char
+     * @return
+     */
+    static Extent FromString(CharSequence str, int from){
+        Point[] corners = new Point[4];
+        for(int i = 0; i < 4; ++i){
+            int to = from;
+            while(to < str.length() && str.charAt(to) != ',' && str.charAt(to) != ')'){
+                ++to;
+            }
+            corners[i] = new Point(EQCodeFormat.parse(str, from, to));
+            from = to + 1;
+        }
 
-        return new Extent(Point.FromString(pointsStr[0]), Point.FromString(pointsStr[1]),
-                            Point.FromString(pointsStr[2]),Point.FromString(pointsStr[3]));
+        return new Extent(corners[0], corners[1], corners[2], corners[3]);
     }
 
     public static Extent FromString(String topleftStr, String toprightStr, String botleftStr, String botrightStr){
@@ -2,7 +2,8 @@ package cn.edu.njnu.earthgrid.feature;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
 import cn.edu.njnu.earthgrid.core.codes.EQCode;
-import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 
 /**
  * vector grid point
@@ -13,16 +14,18 @@ import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
  */
 public class Point extends Geometry {
     /**
-     * the position of point, record in grid code
+     * the position of point, record in packed EQTM code
+     *
+     * @see EQCodes
      */
-    private BaseCode position;
+    private long position;
 
     /**
      * Default Constructor
      */
     public Point() {
         super(ShapeType.Point);
-        this.position = new EQCode();
+        this.position = EQCodes.NONE;
     }
 
     /**
@@ -30,24 +33,56 @@ public class Point extends Geometry {
      * @param position the position of this point
      */
     public Point(BaseCode position) {
+        super(ShapeType.Point);
+        setPosition(position);
+    }
+
+    /**
+     * Constructor
+     * @param position the packed EQTM code of this point
+     */
+    public Point(long position) {
         super(ShapeType.Point);
         this.position = position;
     }
 
     /**
      * get position of this point
+     * note: a new code object is returned, use getCode to avoid allocation
      * @return
      */
     public BaseCode getPosition() {
 
-        return this.position;
+        return EQCodes.toEQCode(this.position);
     }
 
     /**
      * set position of this point
+     * note: only support EQTM in 1.0
      * @param position
      */
     public void setPosition(BaseCode position) {
+        if(position instanceof EQCode){
+            this.position = ((EQCode) position).pack();
+        }
+        else {
+            this.position = EQCodes.NONE;
+        }
+    }
+
+    /**
+     * get packed EQTM code of this point
+     * @return
+     */
+    public long getCode() {
+        return this.position;
+    }
+
+    /**
+     * set packed EQTM code of this point
+     * @param position
+     */
+    public void setCode(long position) {
         this.position = position;
     }
 
@@ -102,22 +137,20 @@ public class Point extends Geometry {
     public boolean equals(Object obj) {
         if(!(obj instanceof Point))
             return false;
-        return position.equals(((Point) obj).position);
+        return position == ((Point) obj).position;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(position);
     }
 
     @Override
     public String toString() {
-        return position.toString();
+        return EQCodeFormat.toString(position);
     }
 
     public static Point FromString(String pointStr){
-        int level = pointStr.length() - 8;
-        int domainID = (int) MathUtil.BinaryToDecimal(pointStr.substring(0, 4));
-        int elementCode = (int) MathUtil.BinaryToDecimal(pointStr.substring(4, 8));
-        long morton = MathUtil.QuaternaryToDecimal(pointStr.substring(8));
-
-        EQCode position = new EQCode(domainID, elementCode, level, morton);
-
-        return new Point(position);
+        return new Point(EQCodeFormat.parse(pointStr));
     }
 }
@@ -147,8 +147,8 @@ public class Polygon extends Geometry {
             }
 
             for(int i = 0; i < polyline.getPointNum() - 1; ++i){
-                SpericalCoord lineStart = polyline.getPoint(i).getPosition().toSpericalCoord();
-                SpericalCoord lineEnd = polyline.getPoint(i + 1).getPosition().toSpericalCoord();
+                SpericalCoord lineStart = SpericalCoord.FromCode(polyline.getCode(i));
+                SpericalCoord lineEnd = SpericalCoord.FromCode(polyline.getCode(i + 1));
                 int intersectCount = MathUtil.GetIntersectNum(this, lineStart, lineEnd);
                 if(intersectCount > 0 && 0 == (intersectCount % 2))
                     return false;
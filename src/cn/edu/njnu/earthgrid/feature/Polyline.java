@@ -1,10 +1,13 @@
 package cn.edu.njnu.earthgrid.feature;
 
-import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.CellUnion;
+import cn.edu.njnu.earthgrid.core.codes.EQCodeFormat;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
 import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * vector grid polyline
@@ -16,16 +19,24 @@ import java.util.ArrayList;
 public class Polyline extends Geometry {
 
     /**
-     * Break Points List
+     * Break Points List, record in packed EQTM code
+     *
+     * @see EQCodes
+     */
+    private long[] codes;
+
+    /**
+     * number of Break Points
      */
-    private ArrayList<Point> points;
+    private int pointNum;
 
     /**
      * Default Construct
      */
     public Polyline() {
         super(ShapeType.Polyline);
-        this.points = new ArrayList<Point>();
+        this.codes = new long[16];
+        this.pointNum = 0;
     }
 
     /**
@@ -35,16 +46,51 @@ public class Polyline extends Geometry {
      */
     public Polyline(ArrayList<Point> points) {
         super(ShapeType.Polyline);
-        this.points = points;
+        setPoints(points);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param codes packed EQTM codes of Break Points, the array is held without copying
+     * @param pointNum number of Break Points
+     */
+    public Polyline(long[] codes, int pointNum) {
+        super(ShapeType.Polyline);
+        this.codes = codes;
+        this.pointNum = pointNum;
     }
 
     /**
-     * get Break Points List
+     * get Break Point
+     * note: a new point is returned, use getCode to avoid allocation
      *
      * @return
      */
     public Point getPoint(int index) {
-        return this.points.get(index);
+        return new Point(getCode(index));
+    }
+
+    /**
+     * get packed EQTM code of Break Point
+     *
+     * @param index
+     * @return
+     */
+    public long getCode(int index) {
+        if (index < 0 || index >= pointNum) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + pointNum);
+        }
+        return this.codes[index];
+    }
+
+    /**
+     * get packed EQTM codes of all Break Points
+     *
+     * @return copy of codes
+     */
+    public long[] getCodes() {
+        return Arrays.copyOf(this.codes, pointNum);
     }
 
     /**
@@ -53,7 +99,11 @@ public class Polyline extends Geometry {
      * @param points
      */
     public void setPoints(ArrayList<Point> points) {
-        this.points = points;
+        this.codes = new long[Math.max(points.size(), 16)];
+        this.pointNum = points.size();
+        for (int i = 0; i < pointNum; ++i) {
+            this.codes[i] = points.get(i).getCode();
+        }
     }
 
     /**
@@ -62,7 +112,7 @@ public class Polyline extends Geometry {
      * @return
      */
     public int getPointNum() {
-        return this.points.size();
+        return this.pointNum;
     }
 
     /**
@@ -72,7 +122,7 @@ public class Polyline extends Geometry {
      */
     public Point getFirstPoint() {
         if (getPointNum() > 0) {
-            return this.points.get(0);
+            return getPoint(0);
         } else {
             return null;
         }
@@ -85,7 +135,7 @@ public class Polyline extends Geometry {
      */
     public Point getLastPoint() {
         if (getPointNum() > 0) {
-            return this.points.get(getPointNum() - 1);
+            return getPoint(getPointNum() - 1);
         } else {
             return null;
         }
@@ -97,7 +147,19 @@ public class Polyline extends Geometry {
      * @param p
      */
     public void addPoint(Point p) {
-        this.points.add(p);
+        addCode(p.getCode());
+    }
+
+    /**
+     * add break point after end point
+     *
+     * @param code packed EQTM code of break point
+     */
+    public void addCode(long code) {
+        if (pointNum == codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(16, pointNum * 2));
+        }
+        codes[pointNum++] = code;
     }
 
     /**
@@ -107,7 +169,15 @@ public class Polyline extends Geometry {
      * @param p
      */
     public void addPoint(int i, Point p) {
-        this.points.add(i, p);
+        if (i < 0 || i > pointNum) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + pointNum);
+        }
+        if (pointNum == codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(16, pointNum * 2));
+        }
+        System.arraycopy(codes, i, codes, i + 1, pointNum - i);
+        codes[i] = p.getCode();
+        ++pointNum;
     }
 
     /**
@@ -117,7 +187,13 @@ public class Polyline extends Geometry {
      * @return
      */
     public boolean removePoint(Point p) {
-        return this.points.remove(p);
+        for (int i = 0; i < pointNum; ++i) {
+            if (codes[i] == p.getCode()) {
+                removeCode(i);
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -128,12 +204,19 @@ public class Polyline extends Geometry {
      */
     public Point removePoint(int i) {
         if (getPointNum() - 1 > i) {
-            return this.points.remove(i);
+            return new Point(removeCode(i));
         } else {
             return null;
         }
     }
 
+    private long removeCode(int i) {
+        long code = codes[i];
+        System.arraycopy(codes, i + 1, codes, i, pointNum - i - 1);
+        --pointNum;
+        return code;
+    }
+
     /**
      * return true if this polyline is closed
      *
@@ -159,7 +242,7 @@ public class Polyline extends Geometry {
         if(!getExtend().Contains(geometry))
             return false;
 
-        ArrayList<BaseCode> codes = MathUtil.getCodesInPolyline(this);
+        CellUnion codes = CellUnion.fromCodes(MathUtil.getCellsInPolyline(this));
 
         if(ShapeType.Point == geometry.getShapeType()){
             Point point = (Point) geometry;
@@ -169,10 +252,10 @@ public class Polyline extends Geometry {
         }
         else if(ShapeType.Polyline == geometry.getShapeType()){
             Polyline polyline = (Polyline) geometry;
-            ArrayList<BaseCode> codes2 = MathUtil.getCodesInPolyline(this);
+            long[] codes2 = MathUtil.getCellsInPolyline(this);
 
-            for(int i = 0; i < codes2.size(); ++i){
-                if(!codes.contains(codes2.get(i)))
+            for(int i = 0; i < codes2.length; ++i){
+                if(!codes.contains(codes2[i]))
                     return false;
             }
 
@@ -197,11 +280,11 @@ public class Polyline extends Geometry {
         else if(ShapeType.Polyline == geometry.getShapeType()){
             Polyline polyline = (Polyline) geometry;
 
-            ArrayList<BaseCode> codes = MathUtil.getCodesInPolyline(polyline);
-            ArrayList<BaseCode> codes2 = MathUtil.getCodesInPolyline(this);
+            CellUnion codes = CellUnion.fromCodes(MathUtil.getCellsInPolyline(polyline));
+            long[] codes2 = MathUtil.getCellsInPolyline(this);
 
-            for(int i = 0; i < codes2.size(); ++i){
-                if(!codes.contains(codes2.get(i)))
+            for(int i = 0; i < codes2.length; ++i){
+                if(!codes.contains(codes2[i]))
                     return false;
             }
 
@@ -225,11 +308,11 @@ public class Polyline extends Geometry {
         else if(ShapeType.Polyline == geometry.getShapeType()){
             Polyline polyline = (Polyline) geometry;
 
-            ArrayList<BaseCode> codes = MathUtil.getCodesInPolyline(polyline);
-            ArrayList<BaseCode> codes2 = MathUtil.getCodesInPolyline(this);
+            CellUnion codes = CellUnion.fromCodes(MathUtil.getCellsInPolyline(polyline));
+            long[] codes2 = MathUtil.getCellsInPolyline(this);
 
-            for(int i = 0; i < codes2.size(); ++i){
-                if(codes.contains(codes2.get(i)))
+            for(int i = 0; i < codes2.length; ++i){
+                if(codes.contains(codes2[i]))
                     return false;
             }
         }
@@ -242,13 +325,13 @@ public class Polyline extends Geometry {
         if(ShapeType.Polyline == geometry.getShapeType()){
             Polyline polyline = (Polyline) geometry;
 
-            ArrayList<BaseCode> codes = MathUtil.getCodesInPolyline(polyline);
-            ArrayList<BaseCode> codes2 = MathUtil.getCodesInPolyline(this);
+            CellUnion codes = CellUnion.fromCodes(MathUtil.getCellsInPolyline(polyline));
+            long[] codes2 = MathUtil.getCellsInPolyline(this);
 
             int nDisjoint = 0;
             int nContain = 0;
-            for(int i = 0; i < codes2.size(); ++i){
-                if(!codes.contains(codes2.get(i)))
+            for(int i = 0; i < codes2.length; ++i){
+                if(!codes.contains(codes2[i]))
                     ++nDisjoint;
                 else
                     ++nContain;
@@ -270,30 +353,48 @@ public class Polyline extends Geometry {
     public boolean equals(Object obj) {
         if(!(obj instanceof Polyline))
             return false;
-        return super.equals(obj) && points.equals(((Polyline) obj).points);
+        Polyline polyline = (Polyline) obj;
+        return super.equals(obj) && pointNum == polyline.pointNum
+                && Arrays.equals(codes, 0, pointNum, polyline.codes, 0, pointNum);
     }
 
     @Override
     public String toString() {
-        String str = "(";
-        str = str + getExtend().toString() + ",";
+        StringBuilder sb = new StringBuilder((pointNum + 4) * (EQCodeFormat.MAX_LENGTH + 1) + 2);
+        sb.append('(');
+        getExtend().appendTo(sb).append(',');
         for(int i = 0; i < getPointNum() - 1; ++i){
-            str = str + points.get(i).toString() + ",";
+            EQCodeFormat.append(sb, codes[i]).append(',');
         }
-        str = str + getLastPoint().toString() + ")";
+        EQCodeFormat.append(sb, codes[pointNum - 1]).append(')');
 
-        return str;
+        return sb.toString();
     }
 
+    /**
+     * get polyline from a format string
+     * note: break points are parsed in place, no string is made for each point
+     *
+     * @param polylineStr (topleft,topright,botleft,botright,point0,point1...)
+     * @return
+     */
     public static Polyline FormString(String polylineStr){
-        polylineStr = polylineStr.substring(1, polylineStr.length() - 1);    //remove ( & )
-        String[] pointsStr = polylineStr.split(",");
+        int end = polylineStr.length() - 1;    //skip ( & )
 
         Polyline polyline = new Polyline();
-        polyline.setExtend(Extent.FromString(pointsStr[0], pointsStr[1], pointsStr[2], pointsStr[3]));
+        polyline.setExtend(Extent.FromString(polylineStr, 1));
 
-        for(int i = 4; i < pointsStr.length; ++i){
-            polyline.addPoint(Point.FromString(pointsStr[i]));
+        int from = 1;
+        for(int i = 0; i < 4; ++i){
+            from = polylineStr.indexOf(',', from) + 1;
+        }
+        while(from < end){
+            int to = polylineStr.indexOf(',', from);
+            if(to < 0 || to > end){
+                to = end;
+            }
+            polyline.addCode(EQCodeFormat.parse(polylineStr, from, to));
+            from = to + 1;
         }
 
         return polyline;
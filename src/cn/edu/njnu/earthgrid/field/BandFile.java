@@ -0,0 +1,121 @@
+package cn.edu.njnu.earthgrid.field;
+
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * header of binary band file, shared by MappedFieldBand and ChunkedFieldBand
+ * note: the file is a header, then the min bound segments {offset, size}, then float attributes of
+ *       every segment in order of segments, little endian, from a multiple of os page size
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+final class BandFile {
+
+    /**
+     * "EQMB"
+     */
+    static final int MAGIC = 0x45514D42;
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int SEGMENT_SIZE = 16;
+    static final int DATA_ALIGN = 4096;
+
+    /**
+     * byte position of header fields
+     */
+    static final int ELEMENT_TYPE = 8;
+    static final int NO_DATA = 12;
+    static final int MIN = 16;
+    static final int MAX = 20;
+    static final int SEGMENT_COUNT = 24;
+
+    final ElementType elementType;
+    final float noData, min, max;
+    final long[] offsets;
+    final int[] sizes;
+    /**
+     * byte position of the first attribute
+     */
+    final long dataStart;
+
+    private BandFile(ByteBuffer header) {
+        this.elementType = ElementType.values()[header.getInt(ELEMENT_TYPE)];
+        this.noData = header.getFloat(NO_DATA);
+        this.min = header.getFloat(MIN);
+        this.max = header.getFloat(MAX);
+
+        int count = header.getInt(SEGMENT_COUNT);
+        this.offsets = new long[count];
+        this.sizes = new int[count];
+        for (int k = 0; k < count; ++k) {
+            offsets[k] = header.getLong(HEADER_SIZE + k * SEGMENT_SIZE);
+            sizes[k] = (int) header.getLong(HEADER_SIZE + k * SEGMENT_SIZE + 8);
+        }
+        this.dataStart = dataStart(count);
+    }
+
+    /**
+     * read header of band file
+     *
+     * @param channel band file
+     * @return header
+     * @throws IOException if channel isn't a band file
+     */
+    static BandFile read(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, head, 0);
+        if (MAGIC != head.getInt(0) || VERSION != head.getInt(4)) {
+            throw new IOException("error file!");
+        }
+
+        int count = head.getInt(SEGMENT_COUNT);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + count * SEGMENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        return new BandFile(header);
+    }
+
+    /**
+     * write header fields except min and max
+     *
+     * @param header buffer from the start of file, little endian
+     */
+    static void write(ByteBuffer header, ElementType elementType, float noData, long[] offsets, int[] sizes) {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(ELEMENT_TYPE, elementType.ordinal());
+        header.putFloat(NO_DATA, noData);
+        header.putInt(SEGMENT_COUNT, offsets.length);
+        for (int k = 0; k < offsets.length; ++k) {
+            header.putLong(HEADER_SIZE + k * SEGMENT_SIZE, offsets[k]);
+            header.putLong(HEADER_SIZE + k * SEGMENT_SIZE + 8, sizes[k]);
+        }
+    }
+
+    /**
+     * byte position of the first attribute of a file with segments
+     */
+    static long dataStart(int segments) {
+        long end = HEADER_SIZE + (long) segments * SEGMENT_SIZE;
+        return (end + DATA_ALIGN - 1) / DATA_ALIGN * DATA_ALIGN;
+    }
+
+    /**
+     * read until buffer is full
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("error file!");
+            }
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package cn.edu.njnu.earthgrid.field;
+
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * read only field band loaded lazily in chunks from a band file
+ * note: a chunk holds attributes of the descendants of one diamond at chunk level, i.e. of the elements
+ *       sharing a morton prefix, elements out of domain's segment read as no data value.
+ *       a chunk is read from file on first access and the least recently used chunks are dropped
+ *       when loaded chunks exceed the memory budget.
+ *       the file is written by MappedFieldBand.create, the text field file has no index to seek in.
+ *       attributes can be read by threads at the same time, setting attributes throws ReadOnlyBufferException
+ *       as a band of MappedFieldBand opened read only, min and max are set in memory and not in file.
+ *       segments are fixed by the file, setMBS isn't supported
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see MappedFieldBand#create
+ */
+public class ChunkedFieldBand extends FieldBand implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * level of chunk's diamond and number of elements in a chunk
+     */
+    private final int chunkLevel;
+    private final int chunkSize;
+    private final int maxChunks;
+
+    /**
+     * position of the first element of each domain's segment from the first element of domain,
+     * and byte position of its attributes in file
+     */
+    private final long[] segStart = new long[DOMAIN_COUNT];
+    private final long[] segSize = new long[DOMAIN_COUNT];
+    private final long[] filePos = new long[DOMAIN_COUNT];
+
+    /**
+     * loaded chunks in access order, guarded by itself
+     */
+    private final LinkedHashMap<Long, float[]> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    private final ByteBuffer buffer;
+    private long loads = 0;
+
+    /**
+     * the last read chunk, read without lock
+     */
+    private volatile Chunk last = null;
+
+    private ChunkedFieldBand(RandomAccessFile file, BandFile info, int chunkLevel, long budget) {
+        super(info.noData, info.elementType);
+        this.file = file;
+        this.channel = file.getChannel();
+
+        int k = elementsPerMorton(info.elementType), first = firstElement(info.elementType);
+        long dataPos = info.dataStart;
+        int level = chunkLevel;
+        for (int seg = 0; seg < info.offsets.length; ++seg) {
+            long offset = info.offsets[seg];
+            int domain = EQCodes.domain(offset);
+            super.setMBS(offset, info.sizes[seg]);
+            segStart[domain] = EQCodes.morton(offset) * k + EQCodes.element(offset) - first;
+            segSize[domain] = info.sizes[seg];
+            filePos[domain] = dataPos;
+            dataPos += (long) info.sizes[seg] * 4;
+            level = EQCodes.level(offset);
+        }
+        setMin(info.min);
+        setMax(info.max);
+
+        assert chunkLevel >= 0 && chunkLevel <= level;
+        assert ((long) k << (2 * (level - chunkLevel))) <= Integer.MAX_VALUE / 4;
+
+        this.chunkLevel = chunkLevel;
+        this.chunkSize = k << (2 * (level - chunkLevel));
+        this.maxChunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / ((long) chunkSize * 4)));
+        this.buffer = ByteBuffer.allocateDirect(chunkSize * 4).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * open a band file, only the header is read
+     *
+     * @param fileName   band file path
+     * @param chunkLevel level of chunk's diamond, not deeper than band's level
+     * @param budget     max bytes of loaded chunks, at least one chunk is kept
+     * @return band
+     * @throws IOException
+     */
+    public static ChunkedFieldBand open(String fileName, int chunkLevel, long budget) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            return new ChunkedFieldBand(file, BandFile.read(file.getChannel()), chunkLevel, budget);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getChunkLevel() {
+        return chunkLevel;
+    }
+
+    /**
+     * get number of elements in a chunk
+     *
+     * @return chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * get number of chunks loaded now
+     *
+     * @return loaded chunk count
+     */
+    public int getLoadedChunkCount() {
+        synchronized (chunks) {
+            return chunks.size();
+        }
+    }
+
+    /**
+     * get number of chunk reads from file, a dropped chunk is read again on next access
+     *
+     * @return load count
+     */
+    public long getLoadCount() {
+        synchronized (chunks) {
+            return loads;
+        }
+    }
+
+    /**
+     * drop all loaded chunks
+     */
+    public void clear() {
+        synchronized (chunks) {
+            chunks.clear();
+            last = null;
+        }
+    }
+
+    /**
+     * close band file, the band can't be read after
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        clear();
+        file.close();
+    }
+
+    @Override
+    public void setMBS(long offset, int size) {
+        assert false;
+    }
+
+    @Override
+    protected void allocate(int domain, int size) {
+    }
+
+    @Override
+    public void addAttribute(int domain, int pos, float attr) {
+        throw new ReadOnlyBufferException();
+    }
+
+    @Override
+    public void setAttributes(int domain, int pos, float[] in, int off, int len) {
+        throw new ReadOnlyBufferException();
+    }
+
+    @Override
+    public float getAttribute(int domain, int pos) {
+        long start = segStart[domain] + pos;
+        long prefix = Math.floorDiv(start, chunkSize);
+        long key = key(domain, prefix);
+        Chunk chunk = last;
+        if (null == chunk || chunk.key != key) {
+            chunk = new Chunk(key, chunk(domain, prefix));
+            last = chunk;
+        }
+        return chunk.values[(int) (start - prefix * chunkSize)];
+    }
+
+    @Override
+    public void getAttributes(int domain, int pos, float[] out, int off, int len) {
+        long start = segStart[domain] + pos;
+        while (len > 0) {
+            long prefix = Math.floorDiv(start, chunkSize);
+            int index = (int) (start - prefix * chunkSize);
+            int n = Math.min(len, chunkSize - index);
+            System.arraycopy(chunk(domain, prefix), index, out, off, n);
+            start += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * get attributes of a chunk, loaded if it isn't
+     */
+    private float[] chunk(int domain, long prefix) {
+        Long key = key(domain, prefix);
+        synchronized (chunks) {
+            float[] values = chunks.get(key);
+            if (null == values) {
+                values = load(domain, prefix);
+                chunks.put(key, values);
+                ++loads;
+                Iterator<Map.Entry<Long, float[]>> it = chunks.entrySet().iterator();
+                while (chunks.size() > maxChunks) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * read a chunk, elements out of segment are no data value
+     */
+    private float[] load(int domain, long prefix) {
+        float[] values = new float[chunkSize];
+        long first = prefix * chunkSize;
+        long from = Math.max(first, segStart[domain]);
+        long to = Math.min(first + chunkSize, segStart[domain] + segSize[domain]);
+        if (from >= to) {
+            Arrays.fill(values, getNoData());
+            return values;
+        }
+
+        Arrays.fill(values, 0, (int) (from - first), getNoData());
+        Arrays.fill(values, (int) (to - first), chunkSize, getNoData());
+        buffer.clear().limit((int) (to - from) * 4);
+        try {
+            BandFile.readFully(channel, buffer, filePos[domain] + (from - segStart[domain]) * 4);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(values, (int) (from - first), (int) (to - from));
+        return values;
+    }
+
+    private static long key(int domain, long prefix) {
+        return ((long) domain << 56) ^ prefix;
+    }
+
+    /**
+     * chunk and its key, published as a whole
+     */
+    private static final class Chunk {
+        final long key;
+        final float[] values;
+
+        Chunk(long key, float[] values) {
+            this.key = key;
+            this.values = values;
+        }
+    }
+}
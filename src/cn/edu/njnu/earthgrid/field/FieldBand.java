@@ -1,21 +1,29 @@
 package cn.edu.njnu.earthgrid.field;
 
 import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.core.codes.ElementType;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * the collection of field band, save field data
  * only support EQTM in 1.0
+ * note: values of a domain are kept in one primitive array, indexed by position in domain's min bound segment.
+ *       a band of storage type other than float32 keeps raw values, attribute is raw * scale + offset
+ *
+ * @see StorageType
  *
  * @author LWJie, Xudepeng
  * @version EGS 1.0
  */
 public class FieldBand {
 
+    /**
+     * number of domain ids of packed code, getMBS is null for a domain without data
+     */
+    public static final int DOMAIN_COUNT = 16;
+
     /**
      * the type of grid element to represent field data
      *
@@ -30,21 +38,36 @@ public class FieldBand {
      * no data value
      */
     private float noData;
+    /**
+     * type of stored attribute, and scale and offset of raw value
+     */
+    private final StorageType storageType;
+    private final float scale, valueOffset;
+    /**
+     * raw value of no data
+     */
+    private int rawNoData;
     /**
      * collection of grid code attribute
-     * 3 dimensions include:
-     * first is band number
-     * second is domain id
-     * third is attribute
+     * 2 dimensions include:
+     * first is domain id
+     * second is attribute
      */
-    private Map<Integer, ArrayList<Float>> attrs;               //attrs[domain][pos]
+    private final float[][] attrs;                              //attrs[domain][pos]
+    /**
+     * raw attributes of storage type other than float32,
+     * byte[] for uint8, short[] for int16 and float16, int[] for int32
+     */
+    private final Object[] raws;                                //raws[domain][pos]
     /**
      * collection of min bound segment
-     * 10 domains or less, a domain has a mbs
+     * indexed by domain id up to DOMAIN_COUNT, including pole domains 10 and 11,
+     * a domain has a mbs or null without data
      *
      * @see MinBoundSeg
      */
-    private Map<Integer, MinBoundSeg> mbs;                                //mbs[domain]
+    private final MinBoundSeg[] mbs;                            //mbs[domain]
+    private int mbsCount;
 
     /**
      * Constructor
@@ -53,11 +76,42 @@ public class FieldBand {
      * @param elementType The type of grid element
      */
     public FieldBand(float noData, ElementType elementType) {
+        this(noData, elementType, StorageType.FLOAT32, 1.f, 0.f);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param noData      no data value
+     * @param elementType The type of grid element
+     * @param storageType type of stored attribute
+     */
+    public FieldBand(float noData, ElementType elementType, StorageType storageType) {
+        this(noData, elementType, storageType, 1.f, 0.f);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param noData      no data value
+     * @param elementType The type of grid element
+     * @param storageType type of stored attribute
+     * @param scale       scale of raw value, not used by float32
+     * @param valueOffset offset of raw value, not used by float32
+     */
+    public FieldBand(float noData, ElementType elementType, StorageType storageType, float scale, float valueOffset) {
+        assert scale != 0.f;
+
         this.noData = noData;
         this.elementType = elementType;
-
-        this.attrs = new HashMap<Integer, ArrayList<Float>>();
-        this.mbs = new HashMap<Integer, MinBoundSeg>();
+        this.storageType = storageType;
+        this.scale = scale;
+        this.valueOffset = valueOffset;
+        this.rawNoData = StorageType.FLOAT32 == storageType ? 0 : storageType.toRawNoData(noData, scale, valueOffset);
+
+        this.attrs = new float[DOMAIN_COUNT][];
+        this.raws = new Object[DOMAIN_COUNT];
+        this.mbs = new MinBoundSeg[DOMAIN_COUNT];
     }
 
     public float getMax() {
@@ -88,30 +142,80 @@ public class FieldBand {
         return this.noData;
     }
 
+    /**
+     * set no data value
+     * note: stored attributes aren't changed
+     *
+     * @param noData no data value
+     */
     public void setNoData(float noData) {
         this.noData = noData;
+        if (StorageType.FLOAT32 != this.storageType) {
+            this.rawNoData = this.storageType.toRawNoData(noData, this.scale, this.valueOffset);
+        }
     }
 
-    public void setMBS(EQCode offset, int size) {
-        int domain = offset.getDomainID();
-        MinBoundSeg m = new MinBoundSeg(offset, size);
-        this.mbs.put(domain, m);
+    public StorageType getStorageType() {
+        return this.storageType;
+    }
 
-        this.attrs.put(domain, new ArrayList<Float>(size));
+    public float getScale() {
+        return this.scale;
+    }
 
+    public float getValueOffset() {
+        return this.valueOffset;
     }
 
-    public MinBoundSeg getMBS(int domain) {
-        if (true == this.mbs.containsKey(domain)) {
+    public void setMBS(EQCode offset, int size) {
+        setMBS(offset.pack(), size);
+    }
+
+    /**
+     * set min bound segment of a domain
+     * note: attributes of segment are set to no data value
+     *
+     * @param offset packed EQTM code of the first element in segment
+     * @param size   number of elements in segment
+     */
+    public void setMBS(long offset, int size) {
+        assert size >= 0;
 
-            return this.mbs.get(domain);
+        int domain = EQCodes.domain(offset);
+        if (null == this.mbs[domain]) {
+            ++this.mbsCount;
+        }
+        this.mbs[domain] = new MinBoundSeg(offset, size);
+        allocate(domain, size);
+    }
+
+    /**
+     * allocate attributes of a domain's segment, called by setMBS
+     * note: a band storing attributes elsewhere overrides this with
+     *       getAttribute, addAttribute, getAttributes and setAttributes of (domain, pos)
+     *
+     * @param domain domain id
+     * @param size   number of elements in segment
+     */
+    protected void allocate(int domain, int size) {
+        if (StorageType.FLOAT32 == this.storageType) {
+            float[] values = new float[size];
+            Arrays.fill(values, this.noData);
+            this.attrs[domain] = values;
         } else {
+            this.raws[domain] = newRaw(size, 0);
+        }
+    }
+
+    public MinBoundSeg getMBS(int domain) {
+        if (0 > domain || DOMAIN_COUNT <= domain) {
             return null;
         }
+        return this.mbs[domain];
     }
 
     public int getMBSCount() {
-        return this.mbs.size();
+        return this.mbsCount;
     }
 
     /**
@@ -121,94 +225,335 @@ public class FieldBand {
      * @param attr
      */
     public void addAttribute(EQCode code, float attr) {
+        int domain = code.getDomainID();
+        addAttribute(domain, getPos(domain, code.getMorton(), code.getElementCode()), attr);
+    }
+
+    /**
+     * set code's attribute in band
+     *
+     * @param code packed EQTM code
+     * @param attr
+     */
+    public void addAttribute(long code, float attr) {
+        int domain = EQCodes.domain(code);
+        addAttribute(domain, getPos(domain, EQCodes.morton(code), EQCodes.element(code)), attr);
+    }
 
+    /**
+     * set attribute at position of domain
+     * note: attribute is stored in place, so positions may be set in any order,
+     *       a position beyond segment's size grows domain's values
+     *
+     * @param domain domain id
+     * @param pos    position in domain
+     * @param attr
+     */
+    public void addAttribute(int domain, int pos, float attr) {
+        if (StorageType.FLOAT32 != this.storageType) {
+            if (pos >= rawLength(domain)) {
+                growRaw(domain, pos + 1);
+            }
+            setRaw(this.raws[domain], pos, toRaw(attr));
+            return;
+        }
+
+        float[] values = this.attrs[domain];
+        if (pos >= values.length) {
+            values = grow(domain, pos + 1);
+        }
+        values[pos] = attr;
+    }
+
+    /**
+     * set attributes of a range of positions in domain
+     *
+     * @param domain domain id
+     * @param pos    position of first attribute in domain
+     * @param in     attributes from in[off]
+     * @param off    start index in in
+     * @param len    number of attributes
+     */
+    public void setAttributes(int domain, int pos, float[] in, int off, int len) {
+        if (StorageType.FLOAT32 != this.storageType) {
+            if (pos + len > rawLength(domain)) {
+                growRaw(domain, pos + len);
+            }
+            Object raw = this.raws[domain];
+            for (int k = 0; k < len; ++k) {
+                setRaw(raw, pos + k, toRaw(in[off + k]));
+            }
+            return;
+        }
+
+        float[] values = this.attrs[domain];
+        if (pos + len > values.length) {
+            values = grow(domain, pos + len);
+        }
+        System.arraycopy(in, off, values, pos, len);
+    }
+
+    /**
+     * get code's attribute in band
+     *
+     * @param code
+     * @return
+     */
+    public float getAttribute(EQCode code) {
         int domain = code.getDomainID();
-        if (false == this.mbs.containsKey(domain)) {
-            assert false;
+        return getAttribute(domain, getPos(domain, code.getMorton(), code.getElementCode()));
+    }
+
+    /**
+     * get code's attribute in band
+     *
+     * @param code packed EQTM code
+     * @return
+     */
+    public float getAttribute(long code) {
+        int domain = EQCodes.domain(code);
+        return getAttribute(domain, getPos(domain, EQCodes.morton(code), EQCodes.element(code)));
+    }
+
+    public float getAttribute(int domain, int pos) {
+        if (StorageType.FLOAT32 != this.storageType) {
+            return fromRaw(getRaw(this.raws[domain], pos));
         }
+        return this.attrs[domain][pos];
+    }
 
-        EQCode offset = this.mbs.get(domain).getOffset();
-        long pos = 0;
-        switch (this.elementType) {
-            case GridNode:
-                pos = (code.getMorton() - offset.getMorton()) +
-                        (code.getElementCode() - offset.getElementCode());
-                break;
-            case GridEdge:
-                pos = (code.getMorton() - offset.getMorton()) * 3 +
-                        (code.getElementCode() - offset.getElementCode());
+    /**
+     * get attributes of a range of positions in domain
+     *
+     * @param domain domain id
+     * @param pos    position of first attribute in domain
+     * @param out    returned attributes from out[off]
+     * @param off    start index in out
+     * @param len    number of attributes
+     */
+    public void getAttributes(int domain, int pos, float[] out, int off, int len) {
+        if (StorageType.FLOAT32 != this.storageType) {
+            Object raw = this.raws[domain];
+            for (int k = 0; k < len; ++k) {
+                out[off + k] = fromRaw(getRaw(raw, pos + k));
+            }
+            return;
+        }
+        System.arraycopy(this.attrs[domain], pos, out, off, len);
+    }
+
+    /**
+     * grow values of domain to hold at least size attributes, new positions are no data
+     */
+    private float[] grow(int domain, int size) {
+        float[] values = this.attrs[domain];
+        int oldSize = values.length;
+        values = Arrays.copyOf(values, Math.max(size, oldSize + (oldSize >> 1)));
+        Arrays.fill(values, oldSize, values.length, this.noData);
+        this.attrs[domain] = values;
+        return values;
+    }
+
+    private int toRaw(float attr) {
+        if (attr == this.noData || (Float.isNaN(attr) && Float.isNaN(this.noData))) {
+            return this.rawNoData;
+        }
+        return this.storageType.toRaw(attr, this.scale, this.valueOffset, this.rawNoData);
+    }
+
+    private float fromRaw(int raw) {
+        return raw == this.rawNoData ? this.noData : this.storageType.fromRaw(raw, this.scale, this.valueOffset);
+    }
+
+    private int getRaw(Object raw, int pos) {
+        switch (this.storageType) {
+            case UINT8:
+                return ((byte[]) raw)[pos] & 0xFF;
+            case INT16:
+            case FLOAT16:
+                return ((short[]) raw)[pos];
+            default:
+                return ((int[]) raw)[pos];
+        }
+    }
+
+    private void setRaw(Object raw, int pos, int value) {
+        switch (this.storageType) {
+            case UINT8:
+                ((byte[]) raw)[pos] = (byte) value;
                 break;
-            case GridCell:
-                pos = (code.getMorton() - offset.getMorton()) * 2 +
-                        (code.getElementCode() - offset.getElementCode());
+            case INT16:
+            case FLOAT16:
+                ((short[]) raw)[pos] = (short) value;
                 break;
             default:
+                ((int[]) raw)[pos] = value;
                 break;
         }
+    }
 
-        this.attrs.get(domain).add((int) (pos), attr);
+    private int rawLength(int domain) {
+        switch (this.storageType) {
+            case UINT8:
+                return ((byte[]) this.raws[domain]).length;
+            case INT16:
+            case FLOAT16:
+                return ((short[]) this.raws[domain]).length;
+            default:
+                return ((int[]) this.raws[domain]).length;
+        }
     }
 
-    public void addAttribute(int domain, int pos, float attr){
-        this.attrs.get(domain).add((int) (pos), attr);
+    /**
+     * new raw array, positions from filled are no data
+     */
+    private Object newRaw(int size, int filled) {
+        Object raw;
+        switch (this.storageType) {
+            case UINT8:
+                raw = new byte[size];
+                break;
+            case INT16:
+            case FLOAT16:
+                raw = new short[size];
+                break;
+            default:
+                raw = new int[size];
+                break;
+        }
+        if (0 != this.rawNoData) {
+            for (int k = filled; k < size; ++k) {
+                setRaw(raw, k, this.rawNoData);
+            }
+        }
+        return raw;
     }
 
     /**
-     * get code's attribute in band
+     * grow raw values of domain to hold at least size attributes, new positions are no data
+     */
+    private void growRaw(int domain, int size) {
+        Object old = this.raws[domain];
+        int oldSize = rawLength(domain);
+        Object raw = newRaw(Math.max(size, oldSize + (oldSize >> 1)), oldSize);
+        System.arraycopy(old, 0, raw, 0, oldSize);
+        this.raws[domain] = raw;
+    }
+
+    /**
+     * get position of code's attribute in domain
      *
-     * @param code
-     * @return
+     * @param code packed EQTM code
+     * @return position in domain, relative to offset of domain's min bound segment,
+     *         out of [0, size of segment) if code is out of the segment
+     * @throws IllegalArgumentException if code's domain has no min bound segment
      */
-    public float getAttribute(EQCode code) {
+    public int getPosition(long code) {
+        return getPos(EQCodes.domain(code), EQCodes.morton(code), EQCodes.element(code));
+    }
 
-        int domain = code.getDomainID();
-        if (false == this.mbs.containsKey(domain)) {
-            assert false;
+    /**
+     * get position of code's attribute in domain
+     *
+     * @param domain      domain id of code
+     * @param morton      morton code of code
+     * @param elementCode element type code of code
+     * @return position in domain
+     * @throws IllegalArgumentException if domain has no min bound segment
+     */
+    private int getPos(int domain, long morton, int elementCode) {
+        if (null == this.mbs[domain]) {
+            throw new IllegalArgumentException("domain " + domain + " has no min bound segment");
         }
 
-        EQCode offset = this.mbs.get(domain).getOffset();
+        long offset = this.mbs[domain].getOffsetCode();
         long pos = 0;
         switch (this.elementType) {
             case GridNode:
-                pos = (code.getMorton() - offset.getMorton()) +
-                        (code.getElementCode() - offset.getElementCode());
+                pos = (morton - EQCodes.morton(offset)) +
+                        (elementCode - EQCodes.element(offset));
                 break;
             case GridEdge:
-                pos = (code.getMorton() - offset.getMorton()) * 3 +
-                        (code.getElementCode() - offset.getElementCode());
+                pos = (morton - EQCodes.morton(offset)) * 3 +
+                        (elementCode - EQCodes.element(offset));
                 break;
             case GridCell:
-                pos = (code.getMorton() - offset.getMorton()) * 2 +
-                        (code.getElementCode() - offset.getElementCode());
+                pos = (morton - EQCodes.morton(offset)) * 2 +
+                        (elementCode - EQCodes.element(offset));
                 break;
             default:
                 break;
         }
 
-        return this.attrs.get(domain).get((int) (pos));
+        return (int) pos;
     }
 
-    public float getAttribute(int domain, int pos){
-        return this.attrs.get(domain).get((int) (pos));
+    /**
+     * number of elements of a diamond
+     */
+    static int elementsPerMorton(ElementType elementType) {
+        switch (elementType) {
+            case GridEdge:
+                return 3;
+            case GridCell:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * element code of the first element of a diamond
+     */
+    static int firstElement(ElementType elementType) {
+        switch (elementType) {
+            case GridEdge:
+                return 1;
+            case GridCell:
+                return 4;
+            default:
+                return 0;
+        }
     }
 
     /**
      * min bound segment
      */
     public class MinBoundSeg {
-        private EQCode offset;
+        /**
+         * packed EQTM code of the first element in segment
+         */
+        private long offset;
         private int size;
 
-        public MinBoundSeg(EQCode offset, int size) {
+        public MinBoundSeg(long offset, int size) {
             this.offset = offset;
             this.size = size;
         }
 
+        public MinBoundSeg(EQCode offset, int size) {
+            this(offset.pack(), size);
+        }
+
+        /**
+         * get offset code
+         * note: a new code object is returned, use getOffsetCode to avoid allocation
+         *
+         * @return
+         */
         public EQCode getOffset() {
+            return new EQCode(offset);
+        }
+
+        public long getOffsetCode() {
             return offset;
         }
 
         public void setOffset(EQCode offset) {
+            this.offset = offset.pack();
+        }
+
+        public void setOffset(long offset) {
             this.offset = offset;
         }
 
@@ -0,0 +1,182 @@
+package cn.edu.njnu.earthgrid.field;
+
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Overview levels of field band by morton aggregation
+ * note: the 4 children of a diamond are contiguous in morton order, so a band is reduced to its parent level
+ *       in one pass over each domain, domains are reduced in a ForkJoin pool.
+ *       a parent trigon holds child 1 (upper) or 2 (lower) and the same trigon of child 0 and 3,
+ *       a parent edge holds the two child edges along it, a parent node is the same point as node of child 0,
+ *       so nodes are sampled and reducer isn't used for them.
+ *       the parent band is dense over the min bound segments of band, a sparse band's gaps become no data,
+ *       and keeps storage type of band
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see Reducer
+ */
+public final class FieldPyramid {
+
+    private FieldPyramid() {
+        throw new AssertionError();
+    }
+
+    /**
+     * children of each parent element, by index in the 4 child diamonds' elements in morton order
+     */
+    private static final int[][] NODE_CHILDREN = {{0}};
+    private static final int[][] EDGE_CHILDREN = {{0, 3}, {1, 10}, {2, 8}};
+    private static final int[][] CELL_CHILDREN = {{0, 2, 3, 6}, {1, 4, 5, 7}};
+
+    /**
+     * number of parent diamonds reduced at a time
+     */
+    private static final int BATCH = 4096;
+
+    /**
+     * reduce band to parent level in common pool
+     *
+     * @param band    band of level 1 or deeper
+     * @param reducer reducer of children's attributes
+     * @return new band of parent level
+     */
+    public static FieldBand reduce(FieldBand band, Reducer reducer) {
+        return reduce(band, reducer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * reduce band to parent level
+     *
+     * @param band    band of level 1 or deeper
+     * @param reducer reducer of children's attributes
+     * @param pool    pool to run domains in
+     * @return new band of parent level, min and max are of its attributes
+     */
+    public static FieldBand reduce(FieldBand band, Reducer reducer, ForkJoinPool pool) {
+        ElementType type = band.getElementType();
+        assert type == ElementType.GridNode || type == ElementType.GridEdge || type == ElementType.GridCell;
+
+        int k = FieldBand.elementsPerMorton(type), first = FieldBand.firstElement(type);
+        FieldBand parent = new FieldBand(band.getNoData(), type, band.getStorageType(),
+                band.getScale(), band.getValueOffset());
+
+        ArrayList<DomainTask> tasks = new ArrayList<>();
+        for (int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID) {
+            FieldBand.MinBoundSeg mbs = band.getMBS(domID);
+            if (null == mbs) {
+                continue;
+            }
+
+            long offset = mbs.getOffsetCode();
+            int level = EQCodes.level(offset);
+            assert level > 0;
+
+            long start = EQCodes.morton(offset) * k + EQCodes.element(offset) - first;
+            long end = start + mbs.getSize();
+            long from = start / (4 * k), to = (end + 4 * k - 1) / (4 * k);
+            parent.setMBS(EQCodes.pack(domID, first, level - 1, from), (int) ((to - from) * k));
+            tasks.add(new DomainTask(band, parent, reducer, domID, start, end, from, to));
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (DomainTask task : tasks) {
+            min = Math.min(min, task.min);
+            max = Math.max(max, task.max);
+        }
+        parent.setMin(min <= max ? min : band.getMin());
+        parent.setMax(min <= max ? max : band.getMax());
+        return parent;
+    }
+
+    private static int[][] children(ElementType type) {
+        switch (type) {
+            case GridEdge:
+                return EDGE_CHILDREN;
+            case GridCell:
+                return CELL_CHILDREN;
+            default:
+                return NODE_CHILDREN;
+        }
+    }
+
+    /**
+     * reduce a domain, parent diamonds [from, to) of children's elements [start, end) from the first of domain
+     */
+    private static class DomainTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FieldBand band, parent;
+        private final Reducer reducer;
+        private final int domain;
+        private final long start, end, from, to;
+
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+
+        DomainTask(FieldBand band, FieldBand parent, Reducer reducer, int domain,
+                   long start, long end, long from, long to) {
+            this.band = band;
+            this.parent = parent;
+            this.reducer = reducer;
+            this.domain = domain;
+            this.start = start;
+            this.end = end;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int[][] table = children(band.getElementType());
+            int k = table.length, block = 4 * k;
+            float noData = band.getNoData();
+            float[] children = new float[BATCH * block];
+            float[] values = new float[BATCH * k];
+            float[] scratch = new float[4];
+
+            for (long m = from; m < to; m += BATCH) {
+                int n = (int) Math.min(BATCH, to - m);
+                long childFrom = m * block, childTo = (m + n) * block;
+                long readFrom = Math.max(childFrom, start), readTo = Math.min(childTo, end);
+                Arrays.fill(children, 0, (int) (readFrom - childFrom), noData);
+                Arrays.fill(children, (int) (readTo - childFrom), n * block, noData);
+                band.getAttributes(domain, (int) (readFrom - start), children, (int) (readFrom - childFrom),
+                        (int) (readTo - readFrom));
+
+                for (int d = 0; d < n; ++d) {
+                    for (int e = 0; e < k; ++e) {
+                        int count = 0;
+                        for (int c : table[e]) {
+                            float value = children[d * block + c];
+                            if (value != noData && !Float.isNaN(value)) {
+                                scratch[count++] = value;
+                            }
+                        }
+
+                        float value = 0 == count ? noData : reducer.reduce(scratch, count);
+                        values[d * k + e] = value;
+                        if (0 != count) {
+                            min = Math.min(min, value);
+                            max = Math.max(max, value);
+                        }
+                    }
+                }
+                parent.setAttributes(domain, (int) ((m - from) * k), values, 0, n * k);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package cn.edu.njnu.earthgrid.field;
+
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+
+import java.util.List;
+
+/**
+ * attributes of several bands stored pixel interleaved, attributes of all bands of an element are contiguous
+ * note: pixels[domain] is {b0, b1, ..., bn-1} of the first element, then of the next element,
+ *       so a pixel or a run of pixels is read by one copy instead of one lookup a band.
+ *       bands must share element type and min bound segments, or IllegalArgumentException is thrown,
+ *       attributes are stored as float32.
+ *       getBand gives a FieldBand view of a band reading and writing the same pixels,
+ *       segments of a view are fixed, setMBS isn't supported
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+public class InterleavedField {
+
+    private final int bandCount;
+    private final ElementType elementType;
+    private final float[][] pixels = new float[FieldBand.DOMAIN_COUNT][];
+    private final BandView[] views;
+
+    /**
+     * copy attributes of bands
+     * note: a sparse band is copied with its min bound segments, gaps are stored as no data value
+     *
+     * @param bands bands of same element type and same min bound segments
+     * @throws IllegalArgumentException if bands are empty, or differ in element type or min bound segments
+     */
+    public InterleavedField(List<FieldBand> bands) {
+        if (bands.isEmpty()) {
+            throw new IllegalArgumentException("no band to interleave");
+        }
+
+        FieldBand first = bands.get(0);
+        this.bandCount = bands.size();
+        this.elementType = first.getElementType();
+        this.views = new BandView[bandCount];
+        for (int b = 0; b < bandCount; ++b) {
+            FieldBand band = bands.get(b);
+            if (band.getElementType() != elementType) {
+                throw new IllegalArgumentException("element type of band " + b + " is " + band.getElementType()
+                        + ", not " + elementType);
+            }
+
+            views[b] = new BandView(this, b, band);
+        }
+
+        // segments are checked before any pixel is allocated
+        for (int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID) {
+            FieldBand.MinBoundSeg mbs = first.getMBS(domID);
+            for (int b = 1; b < bandCount; ++b) {
+                FieldBand.MinBoundSeg other = bands.get(b).getMBS(domID);
+                if ((null == mbs) != (null == other) || (null != mbs && (other.getOffsetCode() != mbs.getOffsetCode()
+                        || other.getSize() != mbs.getSize()))) {
+                    throw new IllegalArgumentException("min bound segment of domain " + domID + " of band " + b
+                            + " differs from band 0");
+                }
+            }
+            if (null != mbs && mbs.getSize() * bandCount > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("pixels of domain " + domID + " exceed an array");
+            }
+        }
+
+        float[] buffer = new float[1 << 16];
+        for (int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID) {
+            FieldBand.MinBoundSeg mbs = first.getMBS(domID);
+            if (null == mbs) {
+                continue;
+            }
+
+            int size = (int) mbs.getSize();
+            float[] values = new float[size * bandCount];
+            for (int b = 0; b < bandCount; ++b) {
+                FieldBand band = bands.get(b);
+                for (int pos = 0; pos < size; pos += buffer.length) {
+                    int len = Math.min(buffer.length, size - pos);
+                    band.getAttributes(domID, pos, buffer, 0, len);
+                    for (int k = 0, i = pos * bandCount + b; k < len; ++k, i += bandCount) {
+                        values[i] = buffer[k];
+                    }
+                }
+            }
+            pixels[domID] = values;
+            for (BandView view : views) {
+                view.setSegment(mbs.getOffsetCode(), size);
+            }
+        }
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+    /**
+     * get band sequential view of a band
+     *
+     * @param band band index
+     * @return view, attributes set by it are set in pixels
+     */
+    public FieldBand getBand(int band) {
+        return views[band];
+    }
+
+    /**
+     * get pixel of code
+     *
+     * @param code packed EQTM code
+     * @param out  returned attributes of every band from out[off]
+     * @param off  start index in out
+     */
+    public void getPixel(long code, float[] out, int off) {
+        getPixels(EQCodes.domain(code), views[0].getPosition(code), 1, out, off);
+    }
+
+    /**
+     * get pixel at position of domain
+     *
+     * @param domain domain id
+     * @param pos    position in domain
+     * @param out    returned attributes of every band from out[off]
+     * @param off    start index in out
+     */
+    public void getPixel(int domain, int pos, float[] out, int off) {
+        getPixels(domain, pos, 1, out, off);
+    }
+
+    /**
+     * get pixels of a range of positions in domain
+     *
+     * @param domain domain id
+     * @param pos    position of first pixel in domain
+     * @param count  number of pixels
+     * @param out    returned count * band count attributes, pixel by pixel from out[off]
+     * @param off    start index in out
+     */
+    public void getPixels(int domain, int pos, int count, float[] out, int off) {
+        System.arraycopy(pixels[domain], pos * bandCount, out, off, count * bandCount);
+    }
+
+    /**
+     * set pixels of a range of positions in domain
+     *
+     * @param domain domain id
+     * @param pos    position of first pixel in domain
+     * @param count  number of pixels
+     * @param in     count * band count attributes, pixel by pixel from in[off]
+     * @param off    start index in in
+     */
+    public void setPixels(int domain, int pos, int count, float[] in, int off) {
+        System.arraycopy(in, off, pixels[domain], pos * bandCount, count * bandCount);
+    }
+
+    /**
+     * a band of interleaved pixels
+     */
+    private static final class BandView extends FieldBand {
+
+        private final InterleavedField field;
+        private final int band;
+
+        BandView(InterleavedField field, int band, FieldBand source) {
+            super(source.getNoData(), source.getElementType());
+            this.field = field;
+            this.band = band;
+            setMin(source.getMin());
+            setMax(source.getMax());
+        }
+
+        void setSegment(long offset, int size) {
+            super.setMBS(offset, size);
+        }
+
+        @Override
+        public void setMBS(long offset, int size) {
+            assert false;
+        }
+
+        @Override
+        protected void allocate(int domain, int size) {
+        }
+
+        @Override
+        public void addAttribute(int domain, int pos, float attr) {
+            field.pixels[domain][pos * field.bandCount + band] = attr;
+        }
+
+        @Override
+        public float getAttribute(int domain, int pos) {
+            return field.pixels[domain][pos * field.bandCount + band];
+        }
+
+        @Override
+        public void getAttributes(int domain, int pos, float[] out, int off, int len) {
+            float[] values = field.pixels[domain];
+            int n = field.bandCount;
+            for (int k = 0, i = pos * n + band; k < len; ++k, i += n) {
+                out[off + k] = values[i];
+            }
+        }
+
+        @Override
+        public void setAttributes(int domain, int pos, float[] in, int off, int len) {
+            float[] values = field.pixels[domain];
+            int n = field.bandCount;
+            for (int k = 0, i = pos * n + band; k < len; ++k, i += n) {
+                values[i] = in[off + k];
+            }
+        }
+    }
+}
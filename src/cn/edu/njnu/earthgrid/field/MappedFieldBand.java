@@ -0,0 +1,275 @@
+package cn.edu.njnu.earthgrid.field;
+
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * field band whose attributes are kept in a memory mapped file
+ * note: the file is laid out as BandFile, one segment a domain. attributes are mapped in pages of 2^28 floats,
+ *       so a band may be larger than 2GB, and reading is left to OS paging.
+ *       a band opened read only may be shared by processes, setting its attributes throws
+ *       ReadOnlyBufferException. segments are fixed when the file is created, setMBS isn't supported.
+ *       attributes can be read by threads at the same time
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+public class MappedFieldBand extends FieldBand {
+
+    private static final int PAGE_SHIFT = 28;
+    private static final int PAGE_FLOATS = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_FLOATS - 1;
+
+    /**
+     * floats copied at a time by create and fill
+     */
+    private static final int BUFFER_FLOATS = 1 << 16;
+
+    /**
+     * index of first attribute of each domain in file
+     */
+    private final long[] base = new long[DOMAIN_COUNT];
+    private final MappedByteBuffer[] buffers;
+    private final FloatBuffer[] pages;
+    private final MappedByteBuffer header;
+    private final boolean writable;
+
+    private MappedFieldBand(float noData, ElementType elementType, long[] offsets, int[] sizes,
+                            MappedByteBuffer header, FileChannel channel, long dataStart, boolean writable)
+            throws IOException {
+        super(noData, elementType);
+        this.header = header;
+        this.writable = writable;
+
+        long count = 0;
+        for (int k = 0; k < offsets.length; ++k) {
+            super.setMBS(offsets[k], sizes[k]);
+            base[EQCodes.domain(offsets[k])] = count;
+            count += sizes[k];
+        }
+
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        int pageCount = (int) ((count + PAGE_MASK) >>> PAGE_SHIFT);
+        this.buffers = new MappedByteBuffer[pageCount];
+        this.pages = new FloatBuffer[pageCount];
+        for (int p = 0; p < pageCount; ++p) {
+            long first = (long) p << PAGE_SHIFT;
+            long floats = Math.min(PAGE_FLOATS, count - first);
+            buffers[p] = channel.map(mode, dataStart + first * 4, floats * 4);
+            pages[p] = buffers[p].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+    }
+
+    /**
+     * create a band file, attributes are set to no data value
+     *
+     * @param fileName    band file path, replaced if it exists
+     * @param noData      no data value
+     * @param elementType the type of grid element
+     * @param offsets     packed EQTM code of the first element of each segment, one segment a domain
+     * @param sizes       number of elements of each segment
+     * @return writable band
+     * @throws IOException
+     */
+    public static MappedFieldBand create(String fileName, float noData, ElementType elementType,
+                                         long[] offsets, int[] sizes) throws IOException {
+        assert offsets.length == sizes.length;
+
+        long count = 0;
+        for (int size : sizes) {
+            count += size;
+        }
+        long dataStart = BandFile.dataStart(offsets.length);
+
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.setLength(0);
+            file.setLength(dataStart + count * 4);
+            FileChannel channel = file.getChannel();
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataStart);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            BandFile.write(header, elementType, noData, offsets, sizes);
+
+            MappedFieldBand band = new MappedFieldBand(noData, elementType, offsets, sizes,
+                    header, channel, dataStart, true);
+            if (0 != Float.floatToRawIntBits(noData)) {
+                band.fill(noData);
+            }
+            return band;
+        }
+    }
+
+    /**
+     * create a band file with segments and attributes of a band
+     * note: a sparse band is copied with its min bound segments, gaps are stored as no data value
+     *
+     * @param band     band to copy
+     * @param fileName band file path, replaced if it exists
+     * @return writable band
+     * @throws IOException
+     */
+    public static MappedFieldBand create(FieldBand band, String fileName) throws IOException {
+        long[] offsets = new long[band.getMBSCount()];
+        int[] sizes = new int[offsets.length];
+        int k = 0;
+        for (int domID = 0; domID < DOMAIN_COUNT; ++domID) {
+            MinBoundSeg mbs = band.getMBS(domID);
+            if (null != mbs) {
+                offsets[k] = mbs.getOffsetCode();
+                sizes[k++] = (int) mbs.getSize();
+            }
+        }
+
+        MappedFieldBand mapped = create(fileName, band.getNoData(), band.getElementType(), offsets, sizes);
+        float[] buffer = new float[BUFFER_FLOATS];
+        for (k = 0; k < offsets.length; ++k) {
+            int domID = EQCodes.domain(offsets[k]);
+            for (int pos = 0; pos < sizes[k]; pos += buffer.length) {
+                int len = Math.min(buffer.length, sizes[k] - pos);
+                band.getAttributes(domID, pos, buffer, 0, len);
+                mapped.setAttributes(domID, pos, buffer, 0, len);
+            }
+        }
+        mapped.setMin(band.getMin());
+        mapped.setMax(band.getMax());
+        return mapped;
+    }
+
+    /**
+     * open a band file, only the header is read
+     *
+     * @param fileName band file path
+     * @param writable map attributes for writing, false to share the file read only
+     * @return band
+     * @throws IOException
+     */
+    public static MappedFieldBand open(String fileName, boolean writable) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, writable ? "rw" : "r")) {
+            FileChannel channel = file.getChannel();
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+
+            BandFile info = BandFile.read(channel);
+            MappedByteBuffer header = channel.map(mode, 0, info.dataStart);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            MappedFieldBand band = new MappedFieldBand(info.noData, info.elementType, info.offsets, info.sizes,
+                    header, channel, info.dataStart, writable);
+            band.loadRange(info.min, info.max);
+            return band;
+        }
+    }
+
+    /**
+     * write header and attributes to storage device
+     */
+    public void force() {
+        if (!writable) {
+            return;
+        }
+        header.force();
+        for (MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    @Override
+    public void setMBS(long offset, int size) {
+        assert false;
+    }
+
+    @Override
+    protected void allocate(int domain, int size) {
+    }
+
+    @Override
+    public void setMin(float min) {
+        super.setMin(min);
+        if (writable) {
+            header.putFloat(BandFile.MIN, min);
+        }
+    }
+
+    @Override
+    public void setMax(float max) {
+        super.setMax(max);
+        if (writable) {
+            header.putFloat(BandFile.MAX, max);
+        }
+    }
+
+    @Override
+    public void addAttribute(int domain, int pos, float attr) {
+        assert pos >= 0 && pos < getMBS(domain).getSize();
+
+        long index = base[domain] + pos;
+        pages[(int) (index >>> PAGE_SHIFT)].put((int) index & PAGE_MASK, attr);
+    }
+
+    @Override
+    public float getAttribute(int domain, int pos) {
+        assert pos >= 0 && pos < getMBS(domain).getSize();
+
+        long index = base[domain] + pos;
+        return pages[(int) (index >>> PAGE_SHIFT)].get((int) index & PAGE_MASK);
+    }
+
+    @Override
+    public void getAttributes(int domain, int pos, float[] out, int off, int len) {
+        assert pos >= 0 && pos + len <= getMBS(domain).getSize();
+
+        long index = base[domain] + pos;
+        while (len > 0) {
+            int n = Math.min(len, PAGE_FLOATS - ((int) index & PAGE_MASK));
+            FloatBuffer page = pages[(int) (index >>> PAGE_SHIFT)].duplicate();
+            page.position((int) index & PAGE_MASK);
+            page.get(out, off, n);
+            index += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void setAttributes(int domain, int pos, float[] in, int off, int len) {
+        assert pos >= 0 && pos + len <= getMBS(domain).getSize();
+
+        long index = base[domain] + pos;
+        while (len > 0) {
+            int n = Math.min(len, PAGE_FLOATS - ((int) index & PAGE_MASK));
+            FloatBuffer page = pages[(int) (index >>> PAGE_SHIFT)].duplicate();
+            page.position((int) index & PAGE_MASK);
+            page.put(in, off, n);
+            index += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void loadRange(float min, float max) {
+        super.setMin(min);
+        super.setMax(max);
+    }
+
+    private void fill(float value) {
+        float[] buffer = new float[BUFFER_FLOATS];
+        Arrays.fill(buffer, value);
+        for (FloatBuffer page : pages) {
+            FloatBuffer view = page.duplicate();
+            while (view.hasRemaining()) {
+                view.put(buffer, 0, Math.min(buffer.length, view.remaining()));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package cn.edu.njnu.earthgrid.field;
+
+/**
+ * reducer of children's attributes into parent's attribute, used by overview levels
+ * note: no data values are skipped, a parent whose children are all no data is no data
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see FieldPyramid
+ */
+public enum Reducer {
+    /**
+     * average value
+     */
+    MEAN {
+        @Override
+        public float reduce(float[] values, int count) {
+            double sum = 0;
+            for (int k = 0; k < count; ++k) {
+                sum += values[k];
+            }
+            return (float) (sum / count);
+        }
+    },
+    /**
+     * min value
+     */
+    MIN {
+        @Override
+        public float reduce(float[] values, int count) {
+            float min = values[0];
+            for (int k = 1; k < count; ++k) {
+                min = Math.min(min, values[k]);
+            }
+            return min;
+        }
+    },
+    /**
+     * max value
+     */
+    MAX {
+        @Override
+        public float reduce(float[] values, int count) {
+            float max = values[0];
+            for (int k = 1; k < count; ++k) {
+                max = Math.max(max, values[k]);
+            }
+            return max;
+        }
+    },
+    /**
+     * most frequent value, the first of them for a tie, for classified data
+     */
+    MODE {
+        @Override
+        public float reduce(float[] values, int count) {
+            float mode = values[0];
+            int best = 0;
+            for (int k = 0; k < count; ++k) {
+                int n = 0;
+                for (int t = k; t < count; ++t) {
+                    if (values[t] == values[k]) {
+                        ++n;
+                    }
+                }
+                if (n > best) {
+                    best = n;
+                    mode = values[k];
+                }
+            }
+            return mode;
+        }
+    };
+
+    /**
+     * reduce values without no data
+     *
+     * @param values values from values[0]
+     * @param count  number of values, at least 1
+     * @return reduced value
+     */
+    public abstract float reduce(float[] values, int count);
+}
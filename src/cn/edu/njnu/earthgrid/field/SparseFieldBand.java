@@ -0,0 +1,436 @@
+package cn.edu.njnu.earthgrid.field;
+
+import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.ElementType;
+
+import java.util.Arrays;
+
+/**
+ * field band holding many segments per domain, for data covering part of the globe
+ * note: segments of a domain are kept sorted by morton code and are found by binary search,
+ *       elements out of every segment read as no data value.
+ *       getMBS gives the min bound segment from the first to the last segment of domain,
+ *       positions of (domain, pos) accessors are relative to its offset as in FieldBand.
+ *       setMBS adds a segment, segments of a domain mustn't overlap.
+ *       use Builder to emit segments only where data exists
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+public class SparseFieldBand extends FieldBand {
+
+    /**
+     * segments of each domain, in order of start
+     * start is position of segment's first element from the first element of domain
+     */
+    private final long[][] starts = new long[DOMAIN_COUNT][];
+    private final float[][][] values = new float[DOMAIN_COUNT][][];
+    private final int[] counts = new int[DOMAIN_COUNT];
+    private final int[] levels = new int[DOMAIN_COUNT];
+
+    /**
+     * Constructor
+     *
+     * @param noData      no data value
+     * @param elementType The type of grid element
+     */
+    public SparseFieldBand(float noData, ElementType elementType) {
+        super(noData, elementType);
+    }
+
+    /**
+     * add a segment, attributes are set to no data value
+     *
+     * @param offset packed EQTM code of the first element in segment
+     * @param size   number of elements in segment
+     */
+    @Override
+    public void setMBS(long offset, int size) {
+        float[] segment = new float[size];
+        Arrays.fill(segment, getNoData());
+        addSegment(offset, segment);
+    }
+
+    @Override
+    protected void allocate(int domain, int size) {
+    }
+
+    /**
+     * get number of segments of a domain
+     *
+     * @param domain domain id
+     * @return number of segments
+     */
+    public int getSegmentCount(int domain) {
+        return counts[domain];
+    }
+
+    /**
+     * get number of segments of all domains
+     *
+     * @return number of segments
+     */
+    public int getSegmentCount() {
+        int count = 0;
+        for (int n : counts) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * get first element of segment
+     *
+     * @param domain domain id
+     * @param seg    index of segment in domain
+     * @return packed EQTM code
+     */
+    public long getSegmentOffset(int domain, int seg) {
+        assert seg >= 0 && seg < counts[domain];
+
+        return toCode(domain, levels[domain], starts[domain][seg]);
+    }
+
+    /**
+     * get number of elements in segment
+     *
+     * @param domain domain id
+     * @param seg    index of segment in domain
+     * @return number of elements
+     */
+    public int getSegmentSize(int domain, int seg) {
+        assert seg >= 0 && seg < counts[domain];
+
+        return values[domain][seg].length;
+    }
+
+    /**
+     * get attributes of a range in segment
+     *
+     * @param domain domain id
+     * @param seg    index of segment in domain
+     * @param pos    position of first attribute in segment
+     * @param out    returned attributes from out[off]
+     * @param off    start index in out
+     * @param len    number of attributes
+     */
+    public void getSegmentAttributes(int domain, int seg, int pos, float[] out, int off, int len) {
+        assert seg >= 0 && seg < counts[domain];
+
+        System.arraycopy(values[domain][seg], pos, out, off, len);
+    }
+
+    /**
+     * set attributes of a range in segment
+     *
+     * @param domain domain id
+     * @param seg    index of segment in domain
+     * @param pos    position of first attribute in segment
+     * @param in     attributes from in[off]
+     * @param off    start index in in
+     * @param len    number of attributes
+     */
+    public void setSegmentAttributes(int domain, int seg, int pos, float[] in, int off, int len) {
+        assert seg >= 0 && seg < counts[domain];
+
+        System.arraycopy(in, off, values[domain][seg], pos, len);
+    }
+
+    /**
+     * get number of stored attributes, elements out of segments aren't stored
+     *
+     * @return number of attributes
+     */
+    public long getAttributeCount() {
+        long count = 0;
+        for (int domain = 0; domain < DOMAIN_COUNT; ++domain) {
+            for (int seg = 0; seg < counts[domain]; ++seg) {
+                count += values[domain][seg].length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * get code's attribute in band
+     *
+     * @param code packed EQTM code
+     * @return attribute, no data value if code is out of every segment
+     */
+    @Override
+    public float getAttribute(long code) {
+        return get(EQCodes.domain(code), toStart(code));
+    }
+
+    @Override
+    public float getAttribute(EQCode code) {
+        return getAttribute(code.pack());
+    }
+
+    @Override
+    public float getAttribute(int domain, int pos) {
+        if (0 == counts[domain]) {
+            return getNoData();
+        }
+        return get(domain, starts[domain][0] + pos);
+    }
+
+    /**
+     * set attribute at position of domain
+     * note: position must be in a segment
+     *
+     * @param domain domain id
+     * @param pos    position in domain
+     * @param attr
+     */
+    @Override
+    public void addAttribute(int domain, int pos, float attr) {
+        assert counts[domain] > 0;
+
+        long start = starts[domain][0] + pos;
+        int seg = find(domain, start);
+        assert seg >= 0 && start - starts[domain][seg] < values[domain][seg].length;
+
+        values[domain][seg][(int) (start - starts[domain][seg])] = attr;
+    }
+
+    /**
+     * get attributes of a range of positions in domain, positions out of segments are no data value
+     */
+    @Override
+    public void getAttributes(int domain, int pos, float[] out, int off, int len) {
+        if (0 == counts[domain]) {
+            Arrays.fill(out, off, off + len, getNoData());
+            return;
+        }
+
+        long start = starts[domain][0] + pos, end = start + len;
+        int seg = Math.max(find(domain, start), 0);
+        while (start < end) {
+            long segStart = seg < counts[domain] ? starts[domain][seg] : end;
+            if (start < segStart) {
+                // gap before segment
+                int n = (int) (Math.min(segStart, end) - start);
+                Arrays.fill(out, off, off + n, getNoData());
+                start += n;
+                off += n;
+                continue;
+            }
+
+            float[] segment = values[domain][seg];
+            long index = start - segStart;
+            if (index < segment.length) {
+                int n = (int) Math.min(segment.length - index, end - start);
+                System.arraycopy(segment, (int) index, out, off, n);
+                start += n;
+                off += n;
+            }
+            ++seg;
+        }
+    }
+
+    /**
+     * set attributes of a range of positions in domain
+     * note: every position must be in a segment
+     */
+    @Override
+    public void setAttributes(int domain, int pos, float[] in, int off, int len) {
+        assert counts[domain] > 0;
+
+        long start = starts[domain][0] + pos, end = start + len;
+        int seg = find(domain, start);
+        while (start < end) {
+            assert seg >= 0 && seg < counts[domain] && start >= starts[domain][seg];
+
+            float[] segment = values[domain][seg];
+            long index = start - starts[domain][seg];
+            assert index < segment.length;
+
+            int n = (int) Math.min(segment.length - index, end - start);
+            System.arraycopy(in, off, segment, (int) index, n);
+            start += n;
+            off += n;
+            ++seg;
+        }
+    }
+
+    private float get(int domain, long start) {
+        int seg = find(domain, start);
+        if (seg < 0) {
+            return getNoData();
+        }
+        float[] segment = values[domain][seg];
+        long index = start - starts[domain][seg];
+        return index < segment.length ? segment[(int) index] : getNoData();
+    }
+
+    /**
+     * insert a segment in order and update min bound segment of domain
+     */
+    private void addSegment(long offset, float[] segment) {
+        int domain = EQCodes.domain(offset);
+        int level = EQCodes.level(offset);
+        long start = toStart(offset);
+        int count = counts[domain];
+        assert 0 == count || levels[domain] == level;
+
+        if (null == starts[domain]) {
+            starts[domain] = new long[4];
+            values[domain] = new float[4][];
+        } else if (count == starts[domain].length) {
+            starts[domain] = Arrays.copyOf(starts[domain], count * 2);
+            values[domain] = Arrays.copyOf(values[domain], count * 2);
+        }
+
+        int seg = find(domain, start) + 1;
+        assert seg == 0 || starts[domain][seg - 1] + values[domain][seg - 1].length <= start;
+        assert seg == count || start + segment.length <= starts[domain][seg];
+
+        System.arraycopy(starts[domain], seg, starts[domain], seg + 1, count - seg);
+        System.arraycopy(values[domain], seg, values[domain], seg + 1, count - seg);
+        starts[domain][seg] = start;
+        values[domain][seg] = segment;
+        levels[domain] = level;
+        counts[domain] = ++count;
+
+        long first = starts[domain][0];
+        long end = starts[domain][count - 1] + values[domain][count - 1].length;
+        assert end - first <= Integer.MAX_VALUE;
+        super.setMBS(toCode(domain, level, first), (int) (end - first));
+    }
+
+    /**
+     * index of the last segment starting at or before start, -1 if none
+     */
+    private int find(int domain, long start) {
+        long[] s = starts[domain];
+        int lo = 0, hi = counts[domain] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (s[mid] <= start) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    private long toStart(long code) {
+        return EQCodes.morton(code) * elementsPerMorton(getElementType()) + EQCodes.element(code) - firstElement(getElementType());
+    }
+
+    private long toCode(int domain, int level, long start) {
+        int k = elementsPerMorton(getElementType());
+        return EQCodes.pack(domain, firstElement(getElementType()) + (int) (start % k), level, start / k);
+    }
+
+    /**
+     * builder of sparse band from attributes in code order
+     * note: attributes equal to no data value aren't stored, a segment is closed at a gap
+     *       longer than max gap, shorter gaps are kept in segment as no data value.
+     *       min and max are set from stored attributes
+     */
+    public static class Builder {
+
+        private final SparseFieldBand band;
+        private final float noData;
+        private int maxGap = 0;
+
+        private float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+
+        /**
+         * open segment
+         */
+        private float[] buffer = new float[1024];
+        private int size = 0;
+        private int domain = -1;
+        private int level = -1;
+        private long start = 0;
+
+        /**
+         * Constructor
+         *
+         * @param noData      no data value
+         * @param elementType The type of grid element
+         */
+        public Builder(float noData, ElementType elementType) {
+            this.band = new SparseFieldBand(noData, elementType);
+            this.noData = noData;
+        }
+
+        /**
+         * set longest gap of no data kept in a segment
+         *
+         * @param maxGap number of elements
+         * @return this builder
+         */
+        public Builder setMaxGap(int maxGap) {
+            assert maxGap >= 0;
+
+            this.maxGap = maxGap;
+            return this;
+        }
+
+        /**
+         * add attribute of an element
+         *
+         * @param code packed EQTM code, after the last added code of domain, of same level
+         * @param attr attribute
+         * @return this builder
+         */
+        public Builder add(long code, float attr) {
+            if (attr == noData || (Float.isNaN(attr) && Float.isNaN(noData))) {
+                return this;
+            }
+
+            int d = EQCodes.domain(code);
+            long pos = band.toStart(code);
+            long next = start + size;
+            if (d != domain || pos < next || pos - next > maxGap) {
+                assert d != domain || pos >= next;
+
+                flush();
+                domain = d;
+                level = EQCodes.level(code);
+                start = pos;
+                next = pos;
+            }
+            assert level == EQCodes.level(code);
+
+            int need = size + (int) (pos - next) + 1;
+            if (need > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(need, buffer.length * 2));
+            }
+            Arrays.fill(buffer, size, need - 1, noData);
+            buffer[need - 1] = attr;
+            size = need;
+
+            min = Math.min(min, attr);
+            max = Math.max(max, attr);
+            return this;
+        }
+
+        /**
+         * close the last segment and get band
+         *
+         * @return sparse band, the builder mustn't be used again
+         */
+        public SparseFieldBand build() {
+            flush();
+            if (min <= max) {
+                band.setMin(min);
+                band.setMax(max);
+            }
+            return band;
+        }
+
+        private void flush() {
+            if (size > 0) {
+                band.addSegment(band.toCode(domain, level, start), Arrays.copyOf(buffer, size));
+            }
+            size = 0;
+        }
+    }
+}
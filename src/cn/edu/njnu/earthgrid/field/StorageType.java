@@ -0,0 +1,207 @@
+package cn.edu.njnu.earthgrid.field;
+
+/**
+ * type of stored attribute in field band
+ * note: a stored value is raw * scale + offset of band, float32 values are stored as they are.
+ *       integer types round and clamp, float16 keeps 11 significant bits and is for smooth data.
+ *       a no data value an integer type can't hold, e.g. -9999 of uint8, is stored as max raw value,
+ *       a value rounded or clamped onto raw no data, of integer or float16, is stored next to it,
+ *       so it isn't read back as no data
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ * @see FieldBand
+ */
+public enum StorageType {
+    /**
+     * unsigned 8 bits integer, e.g. imagery
+     */
+    UINT8("uint8", 1, 0, 255),
+    /**
+     * signed 16 bits integer, e.g. DEM in meters
+     */
+    INT16("int16", 2, Short.MIN_VALUE, Short.MAX_VALUE),
+    /**
+     * signed 32 bits integer
+     */
+    INT32("int32", 4, Integer.MIN_VALUE, Integer.MAX_VALUE),
+    /**
+     * IEEE 754 half precision float
+     */
+    FLOAT16("float16", 2, 0, 0),
+    /**
+     * IEEE 754 single precision float
+     */
+    FLOAT32("float32", 4, 0, 0);
+
+    private final String label;
+    private final int bytes;
+    private final long minRaw, maxRaw;
+
+    StorageType(String name, int bytes, long minRaw, long maxRaw) {
+        this.label = name;
+        this.bytes = bytes;
+        this.minRaw = minRaw;
+        this.maxRaw = maxRaw;
+    }
+
+    /**
+     * get name written in field file header
+     *
+     * @return name
+     */
+    public String getName() {
+        return label;
+    }
+
+    /**
+     * get size of an attribute
+     *
+     * @return number of bytes
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * get type by name in field file header
+     *
+     * @param name type name
+     * @return storage type
+     */
+    public static StorageType fromName(String name) {
+        for (StorageType type : values()) {
+            if (type.label.equals(name)) {
+                return type;
+            }
+        }
+        assert false;
+        return FLOAT32;
+    }
+
+    /**
+     * get raw value of no data value
+     *
+     * @param noData no data value of band
+     * @param scale  scale of band
+     * @param offset offset of band
+     * @return raw value, max raw value if an integer type can't hold no data value
+     */
+    int toRawNoData(float noData, float scale, float offset) {
+        float scaled = (noData - offset) / scale;
+        if (this == FLOAT16) {
+            return toHalf(scaled);
+        }
+        if (Math.rint(scaled) == scaled && scaled >= minRaw && scaled <= maxRaw) {
+            return (int) scaled;
+        }
+        return (int) maxRaw;
+    }
+
+    /**
+     * convert value to raw integer, rounded and clamped, or float16 bits
+     * note: value isn't no data value, an integer landing on raw no data is moved to its neighbor
+     *       towards value, or into range at the ends of range. a float16 landing on raw no data is moved
+     *       to the adjacent half towards value, or to the max finite half if no data is infinite
+     *
+     * @param value     attribute
+     * @param scale     scale of band
+     * @param offset    offset of band
+     * @param rawNoData raw value of no data
+     * @return raw value
+     * @see #toRawNoData
+     */
+    int toRaw(float value, float scale, float offset, int rawNoData) {
+        float scaled = (value - offset) / scale;
+        if (this == FLOAT16) {
+            int half = toHalf(scaled);
+            if (half == rawNoData) {
+                int sign = half & 0x8000, magnitude = half & 0x7FFF;
+                boolean smaller = magnitude >= 0x7C00 || Math.abs(scaled) < Math.abs(fromHalf((short) half));
+                half = (short) (sign | (smaller ? magnitude - 1 : magnitude + 1));
+            }
+            return half;
+        }
+        long raw = Math.max(minRaw, Math.min(maxRaw, Math.round((double) scaled)));
+        if (raw == rawNoData) {
+            raw = raw == maxRaw || (scaled < raw && raw > minRaw) ? raw - 1 : raw + 1;
+        }
+        return (int) raw;
+    }
+
+    /**
+     * convert raw integer or float16 bits to value
+     *
+     * @param raw    raw value
+     * @param scale  scale of band
+     * @param offset offset of band
+     * @return attribute
+     */
+    float fromRaw(int raw, float scale, float offset) {
+        if (this == FLOAT16) {
+            return fromHalf((short) raw) * scale + offset;
+        }
+        return raw * scale + offset;
+    }
+
+    /**
+     * float to half float bits, rounded to nearest even
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xFF;
+        int mant = bits & 0x7FFFFF;
+
+        if (0xFF == exp) {
+            // infinity or NaN
+            return (short) (sign | 0x7C00 | (0 != mant ? 0x200 | (mant >>> 13) : 0));
+        }
+
+        int e = exp - 127 + 15;
+        if (e >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (e <= 0) {
+            // subnormal
+            if (e < -10) {
+                return (short) sign;
+            }
+            mant |= 0x800000;
+            int shift = 14 - e;
+            int half = mant >>> shift;
+            int rem = mant & ((1 << shift) - 1), mid = 1 << (shift - 1);
+            if (rem > mid || (rem == mid && 0 != (half & 1))) {
+                ++half;
+            }
+            return (short) (sign | half);
+        }
+
+        // a carry of rounding may go into exponent, up to infinity
+        int half = (e << 10) | (mant >>> 13);
+        int rem = mant & 0x1FFF;
+        if (rem > 0x1000 || (rem == 0x1000 && 0 != (half & 1))) {
+            ++half;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * half float bits to float
+     */
+    static float fromHalf(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exp = (bits >>> 10) & 0x1F;
+        int mant = bits & 0x3FF;
+
+        if (0 == exp) {
+            float value = mant * 0x1p-24f;
+            return 0 == sign ? value : -value;
+        }
+        if (0x1F == exp) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+    }
+}
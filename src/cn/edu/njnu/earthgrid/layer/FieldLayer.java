@@ -1,12 +1,20 @@
 package cn.edu.njnu.earthgrid.layer;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.field.FieldBand;
+import cn.edu.njnu.earthgrid.field.FieldPyramid;
+import cn.edu.njnu.earthgrid.field.InterleavedField;
+import cn.edu.njnu.earthgrid.field.Reducer;
 
 import java.util.ArrayList;
 
 /**
  * grid layer to save field data
+ * note: a layer may carry overview levels coarser than its level, built by buildOverviews,
+ *       bands of any level up to the layer's level are read by getBands(band, level).
+ *       bands may be stored pixel interleaved by interleave, then getBands gives views of the pixels.
+ *       interleaving is chosen by the caller, it copies bands into float32 over their min bound segments
  *
  * @author LWJie
  * @version EGS 1.0
@@ -23,6 +31,16 @@ public class FieldLayer extends BaseLayer {
      */
     private int bandNum;
 
+    /**
+     * overview bands, overviews[level][band], null for a level without overview
+     */
+    private FieldBand[][] overviews;
+
+    /**
+     * pixel interleaved bands, null if bands are stored band by band
+     */
+    private InterleavedField interleaved;
+
     /**
      * Constructor
      *
@@ -56,7 +74,171 @@ public class FieldLayer extends BaseLayer {
         return this.bands.get(band);
     }
 
+    /**
+     * get band of a level
+     *
+     * @param band  band index
+     * @param level level, not deeper than layer's level
+     * @return band, null if level has no overview
+     */
+    public FieldBand getBands(int band, int level) {
+        if (level == this.level) {
+            return getBands(band);
+        }
+        if (0 > band || bandNum - 1 < band || null == overviews || 0 > level || this.level < level
+                || null == overviews[level]) {
+            return null;
+        }
+        return overviews[level][band];
+    }
+
+    /**
+     * get attribute of code of any level up to layer's level
+     *
+     * @param band band index
+     * @param code packed EQTM code
+     * @return attribute in band of code's level
+     */
+    public float getAttribute(int band, long code) {
+        FieldBand fieldBand = getBands(band, EQCodes.level(code));
+        assert null != fieldBand;
+
+        return fieldBand.getAttribute(code);
+    }
+
+    /**
+     * build overview levels of every band, each level is reduced from the level below
+     * note: overviews are dropped when a band is added
+     *
+     * @param minLevel the coarsest overview level
+     * @param reducer  reducer of children's attributes
+     */
+    public void buildOverviews(int minLevel, Reducer reducer) {
+        assert minLevel >= 0 && minLevel <= this.level;
+
+        FieldBand[][] levels = new FieldBand[this.level + 1][];
+        FieldBand[] finer = new FieldBand[bandNum];
+        for (int b = 0; b < bandNum; ++b) {
+            finer[b] = getBands(b);
+        }
+        for (int lev = this.level - 1; lev >= minLevel; --lev) {
+            levels[lev] = new FieldBand[bandNum];
+            for (int b = 0; b < bandNum; ++b) {
+                levels[lev][b] = FieldPyramid.reduce(finer[b], reducer);
+            }
+            finer = levels[lev];
+        }
+        this.overviews = levels;
+    }
+
+    /**
+     * whether a level can be read
+     *
+     * @param level level
+     * @return true for layer's level and built overview levels
+     */
+    public boolean hasLevel(int level) {
+        return level == this.level
+                || (null != overviews && 0 <= level && this.level > level && null != overviews[level]);
+    }
+
+    /**
+     * store bands pixel interleaved, bands are replaced by views of pixels
+     * note: bands must have same element type and min bound segments, attributes are stored as float32.
+     *       a band added later is kept band by band and isn't in pixels, the layer isn't interleaved after
+     *
+     * @throws IllegalArgumentException if bands differ in element type or min bound segments
+     */
+    public void interleave() {
+        if (null != interleaved || 0 == bandNum) {
+            return;
+        }
+
+        InterleavedField field = new InterleavedField(this.bands.subList(0, bandNum));
+        ArrayList<FieldBand> views = new ArrayList<>(bandNum);
+        for (int b = 0; b < bandNum; ++b) {
+            views.add(field.getBand(b));
+        }
+        this.bands = views;
+        this.interleaved = field;
+    }
+
+    public boolean isInterleaved() {
+        return null != interleaved;
+    }
+
+    /**
+     * get pixel interleaved bands
+     *
+     * @return interleaved bands, null if layer isn't interleaved
+     */
+    public InterleavedField getInterleaved() {
+        return interleaved;
+    }
+
+    /**
+     * get attributes of every band of code
+     *
+     * @param code packed EQTM code of layer's level
+     * @param out  returned attributes from out[off], band by band
+     * @param off  start index in out
+     */
+    public void getPixel(long code, float[] out, int off) {
+        if (null != interleaved) {
+            interleaved.getPixel(code, out, off);
+            return;
+        }
+        for (int b = 0; b < bandNum; ++b) {
+            out[off + b] = getBands(b).getAttribute(code);
+        }
+    }
+
+    /**
+     * get attributes of every band of a range of positions in domain
+     * note: a layer stored band by band is read band by band into the same layout
+     *
+     * @param domain domain id
+     * @param pos    position of first pixel in domain
+     * @param count  number of pixels
+     * @param out    returned count * band number attributes, pixel by pixel from out[off]
+     * @param off    start index in out
+     */
+    public void getPixels(int domain, int pos, int count, float[] out, int off) {
+        if (null != interleaved) {
+            interleaved.getPixels(domain, pos, count, out, off);
+            return;
+        }
+        for (int b = 0; b < bandNum; ++b) {
+            FieldBand band = getBands(b);
+            for (int k = 0; k < count; ++k) {
+                out[off + k * bandNum + b] = band.getAttribute(domain, pos + k);
+            }
+        }
+    }
+
+    public void clearOverviews() {
+        this.overviews = null;
+    }
+
+    /**
+     * stop reading the layer pixel interleaved
+     * note: bands stay views of the same pixels, so attributes aren't changed or copied,
+     *       getPixel and getPixels read them band by band after
+     */
+    public void clearInterleaved() {
+        this.interleaved = null;
+    }
+
+    /**
+     * add a band
+     * note: overviews are dropped, and an interleaved layer isn't interleaved after as by clearInterleaved,
+     *       the new band isn't in pixels, so pixels of every band are read band by band
+     *
+     * @param band field band
+     */
     public void addBand(FieldBand band) {
+        clearOverviews();
+        clearInterleaved();
         this.bands.add(band);
     }
 
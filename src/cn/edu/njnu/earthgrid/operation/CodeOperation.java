@@ -1,9 +1,23 @@
 package cn.edu.njnu.earthgrid.operation;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCellArea;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.codes.EQRings;
+import cn.edu.njnu.earthgrid.core.codes.EQTopology;
 
 /**
  * operation for grid code
+ * note: operations on packed EQTM codes only shift morton and level fields.
+ *       cells follow the trigon hierarchy, a trigon is split at its edges' midpoints into 4 trigons,
+ *       upper cell {v0, v1, v3} holds upper cells of sub diamond 0, 1, 3 and lower cell of sub diamond 1,
+ *       lower cell {v2, v1, v3} holds lower cells of sub diamond 0, 2, 3 and upper cell of sub diamond 2.
+ *       nodes and edges follow the diamond hierarchy and keep their element code.
+ *       pole nodes are their own ancestors at every level.
+ *       adjacency is found by lattice arithmetic in EQTopology, results are written into given arrays,
+ *       so nothing is allocated.
+ *       rings and disks step through cells sharing a node, see EQRings
  *
  * @author LWJie
  * @version EGS 1.0
@@ -18,7 +32,9 @@ public class CodeOperation {
      * @return parent code
      */
     public static BaseCode GetParentCode(BaseCode code){
-        return null;
+        assert code instanceof EQCode;
+
+        return EQCodes.toEQCode(GetParentCode(EQCodes.pack((EQCode) code)));
     }
 
     /**
@@ -27,6 +43,346 @@ public class CodeOperation {
      * @return sub codes
      */
     public static BaseCode[] GetSubCode(BaseCode code){
-        return null;
+        assert code instanceof EQCode;
+
+        long[] subs = GetSubCode(EQCodes.pack((EQCode) code));
+        BaseCode[] ret = new BaseCode[subs.length];
+        for (int i = 0; i < subs.length; ++i) {
+            ret[i] = EQCodes.toEQCode(subs[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * get parent code of packed EQTM code
+     *
+     * @param code packed code, level no less than 1
+     * @return packed parent code
+     */
+    public static long GetParentCode(long code) {
+        return GetAncestorCode(code, EQCodes.level(code) - 1);
+    }
+
+    /**
+     * get ancestor code of packed EQTM code at a level
+     *
+     * @param code  packed code
+     * @param level targeted level, no more than code's level
+     * @return packed ancestor code
+     */
+    public static long GetAncestorCode(long code, int level) {
+        int domain = EQCodes.domain(code);
+        int element = EQCodes.element(code);
+        int depth = EQCodes.level(code) - level;
+        assert depth >= 0 && level >= 0;
+
+        if (domain == 10 || domain == 11) {
+            return EQCodes.pack(domain, element, level, 0);
+        }
+
+        long morton = EQCodes.morton(code);
+        if ((element == 4 || element == 5) && depth > 0) {
+            // the upmost removed digit of 1 or 2 decides the cell, digits of 0 and 3 keep it
+            long removed = morton & ((1L << (2 * depth)) - 1);
+            long flip = (removed ^ (removed >>> 1)) & 0x5555555555555555L;
+            if (flip != 0) {
+                int shift = 63 - Long.numberOfLeadingZeros(flip);
+                element = ((removed >>> shift) & 3) == 1 ? 4 : 5;
+            }
+        }
+
+        return EQCodes.pack(domain, element, level, morton >>> (2 * depth));
+    }
+
+    /**
+     * get sub codes of packed EQTM code
+     *
+     * @param code packed code, not a pole
+     * @return 4 packed sub codes in ascending order
+     */
+    public static long[] GetSubCode(long code) {
+        long[] ret = new long[4];
+        GetSubCode(code, ret, 0);
+        return ret;
+    }
+
+    /**
+     * get sub codes of packed EQTM code
+     *
+     * @param code packed code, not a pole
+     * @param out  returned 4 packed sub codes in ascending order, from out[off]
+     * @param off  start index in out
+     */
+    public static void GetSubCode(long code, long[] out, int off) {
+        int domain = EQCodes.domain(code);
+        int element = EQCodes.element(code);
+        int level = EQCodes.level(code) + 1;
+        long morton = EQCodes.morton(code) << 2;
+        assert domain < 10;
+
+        if (element == 4) {
+            out[off] = EQCodes.pack(domain, 4, level, morton);
+            out[off + 1] = EQCodes.pack(domain, 4, level, morton | 1);
+            out[off + 2] = EQCodes.pack(domain, 5, level, morton | 1);
+            out[off + 3] = EQCodes.pack(domain, 4, level, morton | 3);
+        } else if (element == 5) {
+            out[off] = EQCodes.pack(domain, 5, level, morton);
+            out[off + 1] = EQCodes.pack(domain, 4, level, morton | 2);
+            out[off + 2] = EQCodes.pack(domain, 5, level, morton | 2);
+            out[off + 3] = EQCodes.pack(domain, 5, level, morton | 3);
+        } else {
+            for (int i = 0; i < 4; ++i) {
+                out[off + i] = EQCodes.pack(domain, element, level, morton | i);
+            }
+        }
+    }
+
+    /**
+     * get the first packed code within ancestor's diamond at a level
+     * note: all codes in [GetFirstDescendant, GetLastDescendant] are in ancestor's diamond,
+     *       for cells every descendant trigon is in this range, with trigons of the other cell between them
+     *
+     * @param code  packed ancestor code, not a pole
+     * @param level targeted level, no less than code's level
+     * @return the least packed code
+     */
+    public static long GetFirstDescendant(long code, int level) {
+        int depth = level - EQCodes.level(code);
+        assert depth >= 0 && level <= EQCodes.MAX_LEVEL && EQCodes.domain(code) < 10;
+
+        return EQCodes.pack(EQCodes.domain(code), 0, level, EQCodes.morton(code) << (2 * depth));
+    }
+
+    /**
+     * get the last packed code within ancestor's diamond at a level
+     *
+     * @param code  packed ancestor code, not a pole
+     * @param level targeted level, no less than code's level
+     * @return the greatest packed code
+     * @see #GetFirstDescendant
+     */
+    public static long GetLastDescendant(long code, int level) {
+        int depth = level - EQCodes.level(code);
+        assert depth >= 0 && level <= EQCodes.MAX_LEVEL && EQCodes.domain(code) < 10;
+
+        long morton = (EQCodes.morton(code) << (2 * depth)) | ((1L << (2 * depth)) - 1);
+        return EQCodes.pack(EQCodes.domain(code), 5, level, morton);
+    }
+
+    /**
+     * whether a packed EQTM code is ancestor of another
+     *
+     * @param ancestor packed code of ancestor
+     * @param code     packed code
+     * @return true if ancestor equals code's ancestor at its level, a code is ancestor of itself
+     */
+    public static boolean IsAncestor(long ancestor, long code) {
+        int level = EQCodes.level(ancestor);
+        if (EQCodes.domain(ancestor) != EQCodes.domain(code) || level > EQCodes.level(code)) {
+            return false;
+        }
+
+        return GetAncestorCode(code, level) == ancestor;
+    }
+
+    /**
+     * get parent codes of packed EQTM codes
+     *
+     * @param codes packed codes
+     * @param out   returned packed parent codes, out[i] for code i, may be codes itself
+     */
+    public static void GetParentCodes(long[] codes, long[] out) {
+        assert out.length >= codes.length;
+
+        for (int i = 0; i < codes.length; ++i) {
+            out[i] = GetParentCode(codes[i]);
+        }
+    }
+
+    /**
+     * get ancestor codes of packed EQTM codes at a level
+     *
+     * @param codes packed codes
+     * @param level targeted level, no more than level of every code
+     * @param out   returned packed ancestor codes, out[i] for code i, may be codes itself
+     */
+    public static void GetAncestorCodes(long[] codes, int level, long[] out) {
+        assert out.length >= codes.length;
+
+        for (int i = 0; i < codes.length; ++i) {
+            out[i] = GetAncestorCode(codes[i], level);
+        }
+    }
+
+    /**
+     * get sub codes of packed EQTM codes
+     *
+     * @param codes packed codes, no pole
+     * @param out   returned packed sub codes, out[i * 4 + k] for sub code k of code i
+     */
+    public static void GetSubCodes(long[] codes, long[] out) {
+        assert out.length >= codes.length * 4;
+
+        for (int i = 0; i < codes.length; ++i) {
+            GetSubCode(codes[i], out, i * 4);
+        }
+    }
+
+    /**
+     * get cells sharing an edge with a cell
+     *
+     * @param cell packed cell code
+     * @param out  returned packed cell codes from out[off], room for 3 codes is needed
+     * @param off  start index in out
+     * @return number of cells, always 3
+     */
+    public static int GetEdgeNeighbors(long cell, long[] out, int off) {
+        return EQTopology.edgeNeighbors(cell, out, off);
+    }
+
+    /**
+     * get cells sharing a node with a cell, edge neighbors included
+     *
+     * @param cell packed cell code
+     * @param out  returned packed cell codes from out[off], room for EQTopology.MAX_VERTEX_NEIGHBORS is needed
+     * @param off  start index in out
+     * @return number of cells, 11 if cell is at an icosahedron vertex, otherwise 12
+     */
+    public static int GetVertexNeighbors(long cell, long[] out, int off) {
+        return EQTopology.vertexNeighbors(cell, out, off);
+    }
+
+    /**
+     * get nodes next to a node, in counterclockwise order
+     *
+     * @param node packed node code
+     * @param out  returned packed node codes from out[off], room for EQTopology.MAX_DEGREE is needed
+     * @param off  start index in out
+     * @return number of nodes, 5 for icosahedron vertexes, otherwise 6
+     */
+    public static int GetNodeNeighbors(long node, long[] out, int off) {
+        int count = EQTopology.degree(node);
+        for (int k = 0; k < count; ++k) {
+            out[off + k] = EQTopology.nodeNode(node, k);
+        }
+        return count;
+    }
+
+    /**
+     * get nodes of a cell or an edge
+     *
+     * @param code packed cell or edge code
+     * @param out  returned packed node codes from out[off], room for 3 codes is needed
+     * @param off  start index in out
+     * @return number of nodes, 3 for cell and 2 for edge
+     */
+    public static int GetIncidentNodes(long code, long[] out, int off) {
+        return EQTopology.nodes(code, out, off);
+    }
+
+    /**
+     * get edges of a cell, or edges from a node
+     *
+     * @param code packed cell or node code
+     * @param out  returned packed edge codes from out[off], room for EQTopology.MAX_DEGREE is needed
+     * @param off  start index in out
+     * @return number of edges
+     */
+    public static int GetIncidentEdges(long code, long[] out, int off) {
+        return EQTopology.edges(code, out, off);
+    }
+
+    /**
+     * get cells on an edge, or cells around a node
+     *
+     * @param code packed edge or node code
+     * @param out  returned packed cell codes from out[off], room for EQTopology.MAX_DEGREE is needed
+     * @param off  start index in out
+     * @return number of cells
+     */
+    public static int GetIncidentCells(long code, long[] out, int off) {
+        return EQTopology.cells(code, out, off);
+    }
+
+    /**
+     * get cells within k steps of a cell
+     *
+     * @param cell packed cell code
+     * @param k    number of rings, 0 for the cell itself
+     * @return packed cell codes ring by ring, center first, no duplicates
+     */
+    public static long[] KRing(long cell, int k) {
+        EQRings walker = new EQRings();
+        walker.kRing(cell, k);
+        return walker.toArray();
+    }
+
+    /**
+     * get cells whose centers are within a great arc distance of a cell's center
+     *
+     * @param cell   packed cell code
+     * @param meters distance in meters
+     * @return packed cell codes ring by ring, center first, no duplicates
+     */
+    public static long[] Disk(long cell, double meters) {
+        EQRings walker = new EQRings();
+        walker.disk(cell, meters);
+        return walker.toArray();
+    }
+
+    /**
+     * get cells within k steps of each cell
+     * note: one walker and its buffers are reused for all cells
+     *
+     * @param cells packed cell codes
+     * @param k     number of rings
+     * @return ret[i] for k-ring of cell i
+     */
+    public static long[][] KRings(long[] cells, int k) {
+        EQRings walker = new EQRings();
+        long[][] ret = new long[cells.length][];
+        for (int i = 0; i < cells.length; ++i) {
+            walker.kRing(cells[i], k);
+            ret[i] = walker.toArray();
+        }
+        return ret;
+    }
+
+    /**
+     * get cells within a great arc distance of each cell's center
+     * note: one walker and its buffers are reused for all cells
+     *
+     * @param cells  packed cell codes
+     * @param meters distance in meters
+     * @return ret[i] for disk of cell i
+     */
+    public static long[][] Disks(long[] cells, double meters) {
+        EQRings walker = new EQRings();
+        long[][] ret = new long[cells.length][];
+        for (int i = 0; i < cells.length; ++i) {
+            walker.disk(cells[i], meters);
+            ret[i] = walker.toArray();
+        }
+        return ret;
+    }
+
+    /**
+     * get spherical area of a cell
+     *
+     * @param cell packed cell code
+     * @return area in square meters
+     */
+    public static double GetCellArea(long cell) {
+        return EQCellArea.area(cell);
+    }
+
+    /**
+     * get total spherical area of cells
+     *
+     * @param cells packed cell codes, of any levels
+     * @return area in square meters
+     */
+    public static double GetCellsArea(long[] cells) {
+        return EQCellArea.sum(cells);
     }
 }
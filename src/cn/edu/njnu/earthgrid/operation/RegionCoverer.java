@@ -0,0 +1,527 @@
+package cn.edu.njnu.earthgrid.operation;
+
+import cn.edu.njnu.earthgrid.core.codes.CellUnion;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
+import cn.edu.njnu.earthgrid.core.geometry.CartesianCoord;
+import cn.edu.njnu.earthgrid.core.geometry.DiamondCache;
+import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
+import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
+import cn.edu.njnu.earthgrid.feature.Extent;
+import cn.edu.njnu.earthgrid.feature.Polygon;
+import cn.edu.njnu.earthgrid.feature.Polyline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * cover polygon by EQTM cells, descending the trigon hierarchy
+ * note: a cell of maxLevel is in polygon if its center is in polygon's extent, in exterior ring and out of
+ *       inner rings by Winding Number Method over lon/lat, same as MathUtil.Contain.
+ *       a coarser cell's lon/lat bounding box is found from its vertexes and the latitude extremes of its
+ *       great arc edges, if no ring edge or extent side crosses the box, all centers in cell are on same side,
+ *       so the whole cell is accepted or rejected by its own center, otherwise it is split.
+ *       only edges crossing parent's box are tested for a cell, cells across 180 longitude are always split.
+ *       boundary cells are split level by level until maxLevel, or until maxCells would be exceeded.
+ *       the box test is conservative, a box may be crossed while its cell isn't, so boundary cells left
+ *       coarser than maxLevel by maxCells may be wholly in or wholly out of polygon,
+ *       interior is in polygon and interior with boundary covers polygon in any case
+ *
+ * @author LWJie
+ * @version EGS 1.0
+ */
+public final class RegionCoverer {
+
+    /**
+     * padding of cell's bounding box in degree
+     */
+    private static final double BOX_PADDING = 1e-9;
+
+    /**
+     * coarsest level of returned cells
+     */
+    private final int minLevel;
+
+    /**
+     * level of cells tested by center, the finest level of returned cells
+     */
+    private final int maxLevel;
+
+    /**
+     * max number of interior and boundary cells, boundary cells stop splitting above maxLevel to keep it
+     */
+    private final int maxCells;
+
+    /**
+     * rings in lon/lat, ring 0 is exterior ring
+     */
+    private double[][] ringLon;
+    private double[][] ringLat;
+    private double minLon, maxLon, minLat, maxLat;
+
+    /**
+     * ring edges and extent sides, {lon0, lat0, lon1, lat1} for each
+     */
+    private double[] segments;
+    private int ringSegmentNum;
+
+    private CellUnion interior = CellUnion.EMPTY;
+    private CellUnion boundary = CellUnion.EMPTY;
+
+    private final double[] diamond = new double[12];
+    private final double[] point = new double[3];
+    private final double[] vertexLon = new double[3];
+    private final double[] vertexLat = new double[3];
+    private final double[] box = new double[4];
+
+    /**
+     * Constructor, cells are tested at level without limit of number
+     *
+     * @param level level of cells
+     */
+    public RegionCoverer(int level) {
+        this(0, level, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param minLevel coarsest level of returned cells
+     * @param maxLevel level of cells tested by center
+     * @param maxCells max number of returned cells, boundary is left coarser than maxLevel to keep it
+     */
+    public RegionCoverer(int minLevel, int maxLevel, int maxCells) {
+        assert minLevel >= 0 && minLevel <= maxLevel && maxLevel <= EQCodes.MAX_LEVEL && maxCells > 0;
+
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.maxCells = maxCells;
+    }
+
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public int getMaxCells() {
+        return maxCells;
+    }
+
+    /**
+     * get cells in polygon of the last cover
+     * note: coarse cells are whole subtrees whose centers at maxLevel are all in polygon
+     *
+     * @return interior cells
+     */
+    public CellUnion getInterior() {
+        return interior;
+    }
+
+    /**
+     * get cells crossed by polygon's rings or extent of the last cover
+     * note: boundary cells of maxLevel are tested by center and are also in interior if in polygon,
+     *       coarser boundary cells are left by maxCells and aren't in interior,
+     *       they are found by lon/lat bounding box, so some of them may be wholly in or out of polygon
+     *
+     * @return boundary cells
+     */
+    public CellUnion getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * get interior cells of the last cover, no coarser than minLevel
+     *
+     * @return packed cell codes in ascending order of trigon key
+     */
+    public long[] getCells() {
+        long[] codes = interior.toCodes();
+        int count = 0;
+        for (long code : codes) {
+            count += 1 << (2 * Math.max(0, minLevel - EQCodes.level(code)));
+        }
+        if (count == codes.length) {
+            return codes;
+        }
+
+        long[] ret = new long[count];
+        int n = 0;
+        for (long code : codes) {
+            if (EQCodes.level(code) >= minLevel) {
+                ret[n++] = code;
+            } else {
+                long[] subs = CellUnion.fromCodes(new long[]{code}).toCodes(minLevel);
+                System.arraycopy(subs, 0, ret, n, subs.length);
+                n += subs.length;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * cover a polygon
+     *
+     * @param polygon polygon with exterior ring and inner rings
+     */
+    public void cover(Polygon polygon) {
+        decode(polygon);
+
+        long[] interiorCodes = new long[64];
+        int interiorCount = 0;
+
+        // cells of current level, and the ring edges crossing their parents
+        long[] queue = new long[20];
+        int[] queueSeg = new int[20];
+        int[] queueSegCount = new int[20];
+        int queueCount = 0;
+        int[] pool = new int[segments.length / 4];
+        for (int k = 0; k < pool.length; ++k) {
+            pool[k] = k;
+        }
+        for (int domain = 0; domain < 10; ++domain) {
+            for (int element = 4; element <= 5; ++element) {
+                queue[queueCount] = EQCodes.pack(domain, element, 0, 0);
+                queueSeg[queueCount] = 0;
+                queueSegCount[queueCount++] = pool.length;
+            }
+        }
+
+        long[] crossing = new long[20];
+        int[] crossingSeg = new int[20];
+        int[] crossingSegCount = new int[20];
+        double[] crossingDiamond = new double[20 * 12];
+        double[] parentDiamond = new double[20 * 12];
+        int[] nextPool = new int[64];
+        for (int level = 0; ; ++level) {
+            int crossingCount = 0;
+            int nextPoolSize = 0;
+            for (int q = 0; q < queueCount; ++q) {
+                long cell = queue[q];
+                if (level == 0) {
+                    DiamondCache.getInstance().getDiamond(EQCodes.domain(cell), 0, 0, diamond, 0);
+                } else {
+                    MathUtil.GetSubDiamond(parentDiamond, (q >> 2) * 12, diamond, 0, (int) (EQCodes.morton(cell) & 3));
+                }
+
+                boolean wrap = cellBox(EQCodes.element(cell));
+                if (nextPoolSize + queueSegCount[q] > nextPool.length) {
+                    nextPool = Arrays.copyOf(nextPool, Math.max(nextPool.length * 2,
+                            nextPoolSize + queueSegCount[q]));
+                }
+                int kept = 0, keptRing = 0;
+                for (int k = queueSeg[q]; k < queueSeg[q] + queueSegCount[q]; ++k) {
+                    if (segmentCrossBox(pool[k], 0.) || (wrap && segmentCrossBox(pool[k], -360.))) {
+                        nextPool[nextPoolSize + kept++] = pool[k];
+                        if (pool[k] < ringSegmentNum) {
+                            ++keptRing;
+                        }
+                    }
+                }
+
+                // both sides of 180 longitude may differ, so a cell across it is always split
+                boolean split;
+                if (level == maxLevel) {
+                    split = false;
+                } else if (wrap) {
+                    split = true;
+                } else if (keptRing == 0) {
+                    // all centers are on same side of rings, out of rings, or in rings and in extent
+                    if (!centerInRings(cell)) {
+                        continue;
+                    }
+                    split = kept > 0;
+                } else {
+                    split = true;
+                }
+
+                if (!split) {
+                    if (keptRing > 0) {
+                        // boundary cell of maxLevel
+                        if (crossingCount == crossing.length) {
+                            crossing = Arrays.copyOf(crossing, crossingCount * 2);
+                        }
+                        crossing[crossingCount++] = cell;
+                    }
+                    if (level < maxLevel || centerInPolygon(cell)) {
+                        if (interiorCount == interiorCodes.length) {
+                            interiorCodes = Arrays.copyOf(interiorCodes, interiorCount * 2);
+                        }
+                        interiorCodes[interiorCount++] = cell;
+                    }
+                    continue;
+                }
+
+                if (crossingCount == crossing.length) {
+                    crossing = Arrays.copyOf(crossing, crossingCount * 2);
+                }
+                if (crossingCount == crossingSeg.length) {
+                    crossingSeg = Arrays.copyOf(crossingSeg, crossingCount * 2);
+                    crossingSegCount = Arrays.copyOf(crossingSegCount, crossingCount * 2);
+                }
+                if ((crossingCount + 1) * 12 > crossingDiamond.length) {
+                    crossingDiamond = Arrays.copyOf(crossingDiamond, crossingCount * 2 * 12);
+                }
+                System.arraycopy(diamond, 0, crossingDiamond, crossingCount * 12, 12);
+                crossing[crossingCount] = cell;
+                crossingSeg[crossingCount] = nextPoolSize;
+                crossingSegCount[crossingCount++] = kept;
+                nextPoolSize += kept;
+            }
+
+            if (level == maxLevel
+                    || (level >= minLevel && (long) interiorCount + 4L * crossingCount > maxCells)) {
+                boundary = CellUnion.fromCodes(crossing, 0, crossingCount);
+                break;
+            }
+
+            // split crossing cells, children share edges and diamond of their parent
+            if (crossingCount * 4 > queue.length) {
+                queue = new long[crossingCount * 4];
+                queueSeg = new int[crossingCount * 4];
+                queueSegCount = new int[crossingCount * 4];
+            }
+            queueCount = 0;
+            for (int c = 0; c < crossingCount; ++c) {
+                CodeOperation.GetSubCode(crossing[c], queue, queueCount);
+                for (int k = 0; k < 4; ++k) {
+                    queueSeg[queueCount + k] = crossingSeg[c];
+                    queueSegCount[queueCount + k] = crossingSegCount[c];
+                }
+                queueCount += 4;
+            }
+            int[] swap = pool;
+            pool = nextPool;
+            nextPool = swap;
+            double[] swapDiamond = parentDiamond;
+            parentDiamond = crossingDiamond;
+            crossingDiamond = swapDiamond;
+        }
+
+        interior = CellUnion.fromCodes(interiorCodes, 0, interiorCount);
+    }
+
+    /**
+     * decode rings and extent of polygon into lon/lat arrays
+     */
+    private void decode(Polygon polygon) {
+        int ringNum = polygon.getRingNum();
+        ringLon = new double[ringNum][];
+        ringLat = new double[ringNum][];
+
+        Set<Integer> domainSet = new HashSet<>();
+        int segmentNum = 4;
+        for (int ringID = 0; ringID < ringNum; ++ringID) {
+            Polyline ring = ringID == 0 ? polygon.getExteriorRing() : polygon.getInnerRing(ringID - 1);
+            ArrayList<SpericalCoord> points = new ArrayList<>();
+            MathUtil.DecodePolyline(ring, points, domainSet);
+
+            ringLon[ringID] = new double[points.size()];
+            ringLat[ringID] = new double[points.size()];
+            for (int k = 0; k < points.size(); ++k) {
+                ringLon[ringID][k] = points.get(k).getLongitude();
+                ringLat[ringID][k] = points.get(k).getLatitude();
+            }
+            segmentNum += Math.max(0, points.size() - 1);
+        }
+
+        Extent ext = polygon.getExtend();
+        minLon = ext.getMinLon();
+        maxLon = ext.getMaxLon();
+        minLat = ext.getMinLat();
+        maxLat = ext.getMaxLat();
+
+        segments = new double[segmentNum * 4];
+        int n = 0;
+        for (int ringID = 0; ringID < ringNum; ++ringID) {
+            for (int k = 0; k + 1 < ringLon[ringID].length; ++k) {
+                n = putSegment(n, ringLon[ringID][k], ringLat[ringID][k],
+                        ringLon[ringID][k + 1], ringLat[ringID][k + 1]);
+            }
+        }
+        ringSegmentNum = n / 4;
+        n = putSegment(n, minLon, minLat, maxLon, minLat);
+        n = putSegment(n, maxLon, minLat, maxLon, maxLat);
+        n = putSegment(n, maxLon, maxLat, minLon, maxLat);
+        putSegment(n, minLon, maxLat, minLon, minLat);
+    }
+
+    private int putSegment(int n, double lon0, double lat0, double lon1, double lat1) {
+        segments[n] = lon0;
+        segments[n + 1] = lat0;
+        segments[n + 2] = lon1;
+        segments[n + 3] = lat1;
+        return n + 4;
+    }
+
+    /**
+     * find lon/lat bounding box of cell in diamond
+     * note: longitude of a cell across 180 is in [0, 360), its box is also tested shifted by -360
+     *
+     * @param element cell's element code
+     * @return true if cell is across 180 longitude
+     */
+    private boolean cellBox(int element) {
+        // upper cell {v0, v1, v3}, lower cell {v2, v1, v3}
+        int[] offs = {element == 4 ? 0 : 6, 3, 9};
+        double west = Double.MAX_VALUE, east = -Double.MAX_VALUE;
+        double south = Double.MAX_VALUE, north = -Double.MAX_VALUE;
+        for (int k = 0; k < 3; ++k) {
+            int o = offs[k];
+            CartesianCoord.ToSpericalCoord(diamond[o], diamond[o + 1], diamond[o + 2], vertexLon, vertexLat, k);
+            south = Math.min(south, vertexLat[k]);
+            north = Math.max(north, vertexLat[k]);
+            // longitude of pole is free, edges from pole are meridians
+            if (!isPole(o)) {
+                west = Math.min(west, vertexLon[k]);
+                east = Math.max(east, vertexLon[k]);
+            }
+        }
+        boolean wrap = east - west > 180.;
+        if (wrap) {
+            west = Double.MAX_VALUE;
+            east = -Double.MAX_VALUE;
+            for (int k = 0; k < 3; ++k) {
+                if (!isPole(offs[k])) {
+                    double lon = vertexLon[k] < 0 ? vertexLon[k] + 360. : vertexLon[k];
+                    west = Math.min(west, lon);
+                    east = Math.max(east, lon);
+                }
+            }
+        }
+
+        // great arcs bend to poles in lon/lat
+        for (int k = 0; k < 3; ++k) {
+            int a = offs[k], b = offs[(k + 1) % 3];
+            if (isPole(a) || isPole(b)) {
+                continue;
+            }
+
+            double ax = diamond[a], ay = diamond[a + 1], az = diamond[a + 2];
+            double bx = diamond[b], by = diamond[b + 1], bz = diamond[b + 2];
+            double nx = ay * bz - az * by;
+            double ny = az * bx - ax * bz;
+            double nz = ax * by - ay * bx;
+            double h2 = nx * nx + ny * ny;
+            if (h2 == 0.) {
+                continue;
+            }
+
+            // highest point of great circle, lowest point is its opposite
+            double px = -nx * nz, py = -ny * nz, pz = h2;
+            boolean top = onArc(ax, ay, az, bx, by, bz, nx, ny, nz, px, py, pz);
+            boolean bottom = onArc(ax, ay, az, bx, by, bz, nx, ny, nz, -px, -py, -pz);
+            if (top || bottom) {
+                double lat = Math.atan2(pz, Math.sqrt(px * px + py * py)) * 180. / MathUtil.PI;
+                if (top) {
+                    north = Math.max(north, lat);
+                }
+                if (bottom) {
+                    south = Math.min(south, -lat);
+                }
+            }
+        }
+
+        box[0] = west - BOX_PADDING;
+        box[1] = south - BOX_PADDING;
+        box[2] = east + BOX_PADDING;
+        box[3] = north + BOX_PADDING;
+        return wrap;
+    }
+
+    private boolean isPole(int off) {
+        return Math.abs(diamond[off]) < MathUtil.EPS && Math.abs(diamond[off + 1]) < MathUtil.EPS;
+    }
+
+    /**
+     * whether p is on minor arc from a to b, n is a x b
+     */
+    private static boolean onArc(double ax, double ay, double az, double bx, double by, double bz,
+                                 double nx, double ny, double nz, double px, double py, double pz) {
+        double ap = (ay * pz - az * py) * nx + (az * px - ax * pz) * ny + (ax * py - ay * px) * nz;
+        double pb = (py * bz - pz * by) * nx + (pz * bx - px * bz) * ny + (px * by - py * bx) * nz;
+        return ap > 0 && pb > 0;
+    }
+
+    /**
+     * whether segment crosses box shifted in longitude, both in lon/lat plane
+     */
+    private boolean segmentCrossBox(int seg, double shift) {
+        double x0 = segments[seg * 4] - shift, y0 = segments[seg * 4 + 1];
+        double x1 = segments[seg * 4 + 2] - shift, y1 = segments[seg * 4 + 3];
+        if (Math.max(x0, x1) < box[0] || Math.min(x0, x1) > box[2]
+                || Math.max(y0, y1) < box[1] || Math.min(y0, y1) > box[3]) {
+            return false;
+        }
+
+        // corners of box on both sides of segment's line
+        double dx = x1 - x0, dy = y1 - y0;
+        int sides = 0;
+        for (int k = 0; k < 4; ++k) {
+            double cx = box[(k & 1) * 2], cy = box[1 + (k >> 1) * 2];
+            double cross = dx * (cy - y0) - dy * (cx - x0);
+            sides |= cross > 0 ? 1 : (cross < 0 ? 2 : 3);
+        }
+        return sides == 3;
+    }
+
+    /**
+     * whether center of cell in diamond is in polygon
+     */
+    private boolean centerInPolygon(long cell) {
+        MathUtil.GetDiamondElement(diamond, 0, EQCodes.element(cell), point, 0);
+        CartesianCoord.ToSpericalCoord(point[0], point[1], point[2], vertexLon, vertexLat, 0);
+        double lon = vertexLon[0], lat = vertexLat[0];
+
+        if (lon < minLon || lon > maxLon || lat < minLat || lat > maxLat) {
+            return false;
+        }
+        return inRings(lon, lat);
+    }
+
+    /**
+     * whether center of cell in diamond is in exterior ring and out of inner rings, regardless of extent
+     */
+    private boolean centerInRings(long cell) {
+        MathUtil.GetDiamondElement(diamond, 0, EQCodes.element(cell), point, 0);
+        CartesianCoord.ToSpericalCoord(point[0], point[1], point[2], vertexLon, vertexLat, 0);
+        return inRings(vertexLon[0], vertexLat[0]);
+    }
+
+    private boolean inRings(double lon, double lat) {
+        if (!inRing(0, lon, lat)) {
+            return false;
+        }
+        for (int ringID = 1; ringID < ringLon.length; ++ringID) {
+            if (inRing(ringID, lon, lat)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Winding Number Method, same as MathUtil.Contain
+     */
+    private boolean inRing(int ringID, double lon, double lat) {
+        double[] xs = ringLon[ringID];
+        double[] ys = ringLat[ringID];
+        int wn = 0;
+        for (int k = 0; k + 1 < xs.length; ++k) {
+            double left = (xs[k + 1] - xs[k]) * (lat - ys[k]) - (ys[k + 1] - ys[k]) * (lon - xs[k]);
+            if (ys[k] <= lat) {
+                if (ys[k + 1] > lat && left > 0) {
+                    ++wn;
+                }
+            } else {
+                if (ys[k + 1] <= lat && left < 0) {
+                    --wn;
+                }
+            }
+        }
+        return wn != 0;
+    }
+}
@@ -2,11 +2,13 @@ package cn.edu.njnu.earthgrid.renderer;
 
 import cn.edu.njnu.earthgrid.core.codes.BaseCode;
 import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
 import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
 import cn.edu.njnu.earthgrid.feature.*;
 import cn.edu.njnu.earthgrid.feature.Point;
 import cn.edu.njnu.earthgrid.layer.FeatureLayer;
+import cn.edu.njnu.earthgrid.operation.RegionCoverer;
 import gov.nasa.worldwind.WorldWind;
 import gov.nasa.worldwind.geom.Angle;
 import gov.nasa.worldwind.geom.Position;
@@ -19,8 +21,6 @@ import gov.nasa.worldwindx.examples.util.RandomShapeAttributes;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * renderer for grid feature layer
@@ -135,26 +135,11 @@ public class FeatureRenderer extends BaseRenderer {
 
         cn.edu.njnu.earthgrid.feature.Polygon polygon = (cn.edu.njnu.earthgrid.feature.Polygon) feature.getShape();
 
-        PolygonDecode polygonDecode = new PolygonDecode(polygon);
+        RegionCoverer coverer = new RegionCoverer(featureLayer.getLevel());
+        coverer.cover(polygon);
 
-        int cellCount = (int) (MathUtil.Pow(2, featureLayer.getLevel()) * MathUtil.Pow(2, featureLayer.getLevel()));
-
-        for(int domID : polygonDecode.getDomainSet()){
-            EQCode code = new EQCode(domID, 4, featureLayer.getLevel(), 0);
-            SpericalCoord sc;
-
-            for(int morID = 0; morID < cellCount; ++morID){
-                //upper cell
-                code.setMorton(morID);
-                code.setElementCode(4);
-                if(polygonDecode.Contain(code))
-                    renderableLayer.addRenderable(getWWPolygon(code, attr));
-
-                //lower cell
-                code.setElementCode(5);
-                if(polygonDecode.Contain(code))
-                    renderableLayer.addRenderable(getWWPolygon(code, attr));
-            }
+        for(long code : coverer.getInterior().toCodes(featureLayer.getLevel())){
+            renderableLayer.addRenderable(getWWPolygon(EQCodes.toEQCode(code), attr));
         }
     }
 
@@ -174,77 +159,4 @@ public class FeatureRenderer extends BaseRenderer {
         return trigon;
     }
 
-    private class PolygonDecode{
-        private ArrayList<SpericalCoord> extRingPoints;
-        private ArrayList<ArrayList<SpericalCoord>> innRingsPoints;
-        private Set<Integer> domainSet;
-        private final Extent ext;
-
-        public PolygonDecode(cn.edu.njnu.earthgrid.feature.Polygon polygon) {
-            this.extRingPoints = new ArrayList<>();
-            this.innRingsPoints = new ArrayList<>();
-            this.domainSet = new HashSet<>();
-            this.ext = polygon.getExtend();
-
-            MathUtil.DecodePolyline(polygon.getExteriorRing(), extRingPoints, domainSet);
-
-            for(int ringID = 0; ringID < polygon.getRingNum() - 1; ++ringID){
-                Polyline innerRing = polygon.getInnerRing(ringID);
-                ArrayList<SpericalCoord> innRingPoints = new ArrayList<>();
-                MathUtil.DecodePolyline(innerRing, innRingPoints, domainSet);
-                innRingsPoints.add(innRingPoints);
-            }
-        }
-
-        public Set<Integer> getDomainSet() {
-            return domainSet;
-        }
-
-        public boolean Contain(BaseCode code){
-            SpericalCoord sc = code.toSpericalCoord();
-            if(!ext.Contains(sc))
-                return false;
-
-            if(!Contain(extRingPoints, sc))
-                return false;
-
-            for(int i = 0; i < innRingsPoints.size(); ++i){
-                if(Contain(innRingsPoints.get(i), sc))
-                    return false;
-            }
-
-            return true;
-        }
-
-        private boolean Contain(ArrayList<SpericalCoord> ringPoints, SpericalCoord sc){
-            int wn = 0;
-            SpericalCoord sc1, sc2;
-
-            for(int pointID = 0; pointID < ringPoints.size() - 1; ++pointID){
-                sc1 = ringPoints.get(pointID);
-                sc2 = ringPoints.get(pointID + 1);
-
-                if (sc1.getLatitude() <= sc.getLatitude()) {
-                    if (sc2.getLatitude() > sc.getLatitude()) { // upward
-                        if (MathUtil.PointLeftLine(sc, sc1, sc2) > 0) {
-                            ++wn;
-                        }
-                    }
-                }
-                else {
-                    if (sc2.getLatitude() <= sc.getLatitude()) { // downward
-                        if (MathUtil.PointLeftLine(sc, sc1, sc2) < 0) {
-                            --wn;
-                        }
-                    }
-                }
-            }
-
-            if (wn == 0)
-                return false;
-            else
-                return true;
-        }
-    }
-
 }
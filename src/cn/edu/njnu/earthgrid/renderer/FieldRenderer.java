@@ -1,6 +1,6 @@
 package cn.edu.njnu.earthgrid.renderer;
 
-import cn.edu.njnu.earthgrid.core.codes.EQCode;
+import cn.edu.njnu.earthgrid.core.codes.EQCodes;
 import cn.edu.njnu.earthgrid.core.geometry.Icosahedron;
 import cn.edu.njnu.earthgrid.core.geometry.MathUtil;
 import cn.edu.njnu.earthgrid.core.geometry.SpericalCoord;
@@ -22,6 +22,8 @@ import java.util.ArrayList;
 /**
  * renderer for grid field layer
  * only support EQTM
+ * note: {r, g, b} of an image cell is read by FieldLayer.getPixels, the layer isn't changed,
+ *       a caller interleaving the layer beforehand reads a pixel by one copy
  *
  * @author LWJie
  * @version EGS 1.0
@@ -58,8 +60,6 @@ public class FieldRenderer extends BaseRenderer {
         }
 
         final FieldBand rBand = fieldLayer.getBands(0);
-        final FieldBand gBand = fieldLayer.getBands(1);
-        final FieldBand bBand = fieldLayer.getBands(2);
 
         RenderableLayer renderableLayer = new RenderableLayer();
         renderableLayer.setName(fieldLayer.getName());
@@ -67,43 +67,56 @@ public class FieldRenderer extends BaseRenderer {
         double elevation = 30000.;
 
 
-        for(int domID = 0; domID < rBand.getMBSCount(); ++domID){
+        //upper and lower cell of a diamond, {r, g, b} of each
+        float[] pixels = new float[6];
+        for(int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID){
             FieldBand.MinBoundSeg mbs = rBand.getMBS(domID);
-            EQCode offset = mbs.getOffset();
-            long size = mbs.getSize();
-
-            EQCode code = new EQCode(offset);
-
-            for(int i = 0; i < size / 2; ++i){
-                int rUpperAttr = (int)rBand.getAttribute(domID, i * 2);
-                int gUpperAttr = (int)gBand.getAttribute(domID, i * 2);
-                int bUpperAttr = (int)bBand.getAttribute(domID, i * 2);
-                int rLowerAttr = (int)rBand.getAttribute(domID, i * 2 + 1);
-                int gLowerAttr = (int)gBand.getAttribute(domID, i * 2 + 1);
-                int bLowerAttr = (int)bBand.getAttribute(domID, i * 2 + 1);
-
-                code.setMorton(offset.getMorton() + i);
-                SpericalCoord[] v = code.toDiamond().toSpericalCoord();
+            if(null == mbs)
+                continue;
+
+            //segment may start at a lower cell, diamonds are walked from the first element's to the last element's
+            long offset = mbs.getOffsetCode();
+            int level = EQCodes.level(offset);
+            long firstMorton = EQCodes.morton(offset);
+            long lastMorton = firstMorton + (EQCodes.element(offset) - 4 + mbs.getSize() - 1) / 2;
+
+            for(long morton = firstMorton; morton <= lastMorton; ++morton){
+                long upper = EQCodes.pack(domID, 4, level, morton);
+                long lower = EQCodes.pack(domID, 5, level, morton);
+                int upperPos = getPosition(rBand, upper);
+                int lowerPos = getPosition(rBand, lower);
+                if(upperPos >= 0){
+                    fieldLayer.getPixels(domID, upperPos, 1, pixels, 0);
+                }
+                if(lowerPos >= 0){
+                    fieldLayer.getPixels(domID, lowerPos, 1, pixels, 3);
+                }
+
+                SpericalCoord[] v = EQCodes.toDiamond(upper).toSpericalCoord();
 
                 //draw upper trigon cell
-                ArrayList<Position> uPositions = new ArrayList<Position>();
-                uPositions.add(new Position(Angle.fromDegrees(v[0].getLatitude()),Angle.fromDegrees(v[0].getLongitude()),elevation));
-                uPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
-                uPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+                if(upperPos >= 0){
+                    ArrayList<Position> uPositions = new ArrayList<Position>();
+                    uPositions.add(new Position(Angle.fromDegrees(v[0].getLatitude()),Angle.fromDegrees(v[0].getLongitude()),elevation));
+                    uPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
+                    uPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
 
-                Polygon upperTrigon = new Polygon(uPositions);
-                SetDefaultMaterial(upperTrigon, rUpperAttr, gUpperAttr, bUpperAttr);
-                renderableLayer.addRenderable(upperTrigon);
+                    Polygon upperTrigon = new Polygon(uPositions);
+                    SetDefaultMaterial(upperTrigon, (int)pixels[0], (int)pixels[1], (int)pixels[2]);
+                    renderableLayer.addRenderable(upperTrigon);
+                }
 
                 //draw lower trigon cell
-                ArrayList<Position> lPositions = new ArrayList<Position>();
-                lPositions.add(new Position(Angle.fromDegrees(v[2].getLatitude()),Angle.fromDegrees(v[2].getLongitude()),elevation));
-                lPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
-                lPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
-
-                Polygon lowerTrigon = new Polygon(lPositions);
-                SetDefaultMaterial(lowerTrigon, rLowerAttr, gLowerAttr, bLowerAttr);
-                renderableLayer.addRenderable(lowerTrigon);
+                if(lowerPos >= 0){
+                    ArrayList<Position> lPositions = new ArrayList<Position>();
+                    lPositions.add(new Position(Angle.fromDegrees(v[2].getLatitude()),Angle.fromDegrees(v[2].getLongitude()),elevation));
+                    lPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
+                    lPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+
+                    Polygon lowerTrigon = new Polygon(lPositions);
+                    SetDefaultMaterial(lowerTrigon, (int)pixels[3], (int)pixels[4], (int)pixels[5]);
+                    renderableLayer.addRenderable(lowerTrigon);
+                }
             }
 
         }
@@ -144,18 +157,21 @@ public class FieldRenderer extends BaseRenderer {
         float max = band.getMax();
         float min = band.getMin();
 
-        for(int domID = 0; domID < band.getMBSCount(); ++domID){
+        for(int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID){
             FieldBand.MinBoundSeg mbs = band.getMBS(domID);
-            EQCode offset = mbs.getOffset();
-            long size = mbs.getSize();
+            if(null == mbs)
+                continue;
 
-            EQCode code = new EQCode(offset);
+            long offset = mbs.getOffsetCode();
+            int level = EQCodes.level(offset);
+            long firstMorton = EQCodes.morton(offset);
+            long lastMorton = firstMorton + mbs.getSize() - 1;
 
-            for(int i = 0; i < size; ++i){
-                float attr = band.getAttribute(domID, i);
+            for(long morton = firstMorton; morton <= lastMorton; ++morton){
+                long code = EQCodes.pack(domID, 0, level, morton);
+                float attr = band.getAttribute(code);
 
-                code.setMorton(offset.getMorton() + i);
-                SpericalCoord node = code.toSpericalCoord();
+                SpericalCoord node = EQCodes.toSpericalCoord(code);
 
                 CappedCylinder nodeCylinder = new CappedCylinder();
                 nodeCylinder.setCenter(LatLon.fromDegrees(node.getLatitude(), node.getLongitude()));
@@ -187,48 +203,56 @@ public class FieldRenderer extends BaseRenderer {
         float max = band.getMax();
         float min = band.getMin();
 
-        for(int domID = 0; domID < band.getMBSCount(); ++domID){
+        for(int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID){
             FieldBand.MinBoundSeg mbs = band.getMBS(domID);
-            EQCode offset = mbs.getOffset();
-            long size = mbs.getSize();
+            if(null == mbs)
+                continue;
 
-            EQCode code = new EQCode(offset);
+            //segment may start at mid or sw edge, diamonds are walked from the first element's to the last element's
+            long offset = mbs.getOffsetCode();
+            int level = EQCodes.level(offset);
+            long firstMorton = EQCodes.morton(offset);
+            long lastMorton = firstMorton + (EQCodes.element(offset) - 1 + mbs.getSize() - 1) / 3;
 
-            for(int i = 0; i < size / 3; ++i){
-                float nwAttr = band.getAttribute(domID, i * 3);
-                float midAttr = band.getAttribute(domID, i * 3 + 1);
-                float swAttr = band.getAttribute(domID, i * 3 + 2);
+            for(long morton = firstMorton; morton <= lastMorton; ++morton){
+                long nw = EQCodes.pack(domID, 1, level, morton);
+                long mid = EQCodes.pack(domID, 2, level, morton);
+                long sw = EQCodes.pack(domID, 3, level, morton);
 
-                code.setMorton(offset.getMorton() + i);
-                SpericalCoord[] v = code.toDiamond().toSpericalCoord();
+                SpericalCoord[] v = EQCodes.toDiamond(nw).toSpericalCoord();
 
                 //nw edge
-                //draw upper trigon cell
-                ArrayList<Position> nwPositions = new ArrayList<Position>();
-                nwPositions.add(new Position(Angle.fromDegrees(v[0].getLatitude()),Angle.fromDegrees(v[0].getLongitude()),elevation));
-                nwPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+                if(getPosition(band, nw) >= 0){
+                    ArrayList<Position> nwPositions = new ArrayList<Position>();
+                    nwPositions.add(new Position(Angle.fromDegrees(v[0].getLatitude()),Angle.fromDegrees(v[0].getLongitude()),elevation));
+                    nwPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
 
-                Path nwEdge = new Path(nwPositions);
-                SetDefaultMaterial(nwEdge, (nwAttr - min)/(max - min));
-                layer.addRenderable(nwEdge);
+                    Path nwEdge = new Path(nwPositions);
+                    SetDefaultMaterial(nwEdge, (band.getAttribute(nw) - min)/(max - min));
+                    layer.addRenderable(nwEdge);
+                }
 
                 //mid edge
-                ArrayList<Position> midPositions = new ArrayList<Position>();
-                midPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
-                midPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+                if(getPosition(band, mid) >= 0){
+                    ArrayList<Position> midPositions = new ArrayList<Position>();
+                    midPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
+                    midPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
 
-                Path midEdge = new Path(midPositions);
-                SetDefaultMaterial(midEdge, (midAttr - min)/(max - min));
-                layer.addRenderable(midEdge);
+                    Path midEdge = new Path(midPositions);
+                    SetDefaultMaterial(midEdge, (band.getAttribute(mid) - min)/(max - min));
+                    layer.addRenderable(midEdge);
+                }
 
                 //sw edge
-                ArrayList<Position> swPositions = new ArrayList<Position>();
-                swPositions.add(new Position(Angle.fromDegrees(v[2].getLatitude()),Angle.fromDegrees(v[2].getLongitude()),elevation));
-                swPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
-
-                Path swEdge = new Path(swPositions);
-                SetDefaultMaterial(swEdge, (swAttr - min)/(max - min));
-                layer.addRenderable(swEdge);
+                if(getPosition(band, sw) >= 0){
+                    ArrayList<Position> swPositions = new ArrayList<Position>();
+                    swPositions.add(new Position(Angle.fromDegrees(v[2].getLatitude()),Angle.fromDegrees(v[2].getLongitude()),elevation));
+                    swPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+
+                    Path swEdge = new Path(swPositions);
+                    SetDefaultMaterial(swEdge, (band.getAttribute(sw) - min)/(max - min));
+                    layer.addRenderable(swEdge);
+                }
             }
 
         }
@@ -249,39 +273,46 @@ public class FieldRenderer extends BaseRenderer {
         float max = band.getMax();
         float min = band.getMin();
 
-        for(int domID = 0; domID < band.getMBSCount(); ++domID){
+        for(int domID = 0; domID < FieldBand.DOMAIN_COUNT; ++domID){
             FieldBand.MinBoundSeg mbs = band.getMBS(domID);
-            EQCode offset = mbs.getOffset();
-            long size = mbs.getSize();
+            if(null == mbs)
+                continue;
 
-            EQCode code = new EQCode(offset);
+            //segment may start at a lower cell, diamonds are walked from the first element's to the last element's
+            long offset = mbs.getOffsetCode();
+            int level = EQCodes.level(offset);
+            long firstMorton = EQCodes.morton(offset);
+            long lastMorton = firstMorton + (EQCodes.element(offset) - 4 + mbs.getSize() - 1) / 2;
 
-            for(int i = 0; i < size / 2; ++i){
-                float uAttr = band.getAttribute(domID, i * 2);
-                float lAttr = band.getAttribute(domID, i * 2 + 1);
+            for(long morton = firstMorton; morton <= lastMorton; ++morton){
+                long upper = EQCodes.pack(domID, 4, level, morton);
+                long lower = EQCodes.pack(domID, 5, level, morton);
 
-                code.setMorton(offset.getMorton() + i);
-                SpericalCoord[] v = code.toDiamond().toSpericalCoord();
+                SpericalCoord[] v = EQCodes.toDiamond(upper).toSpericalCoord();
 
                 //draw upper trigon cell
-                ArrayList<Position> uPositions = new ArrayList<Position>();
-                uPositions.add(new Position(Angle.fromDegrees(v[0].getLatitude()),Angle.fromDegrees(v[0].getLongitude()),elevation));
-                uPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
-                uPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+                if(getPosition(band, upper) >= 0){
+                    ArrayList<Position> uPositions = new ArrayList<Position>();
+                    uPositions.add(new Position(Angle.fromDegrees(v[0].getLatitude()),Angle.fromDegrees(v[0].getLongitude()),elevation));
+                    uPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
+                    uPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
 
-                Polygon upperTrigon = new Polygon(uPositions);
-                SetDefaultMaterial(upperTrigon, (uAttr - min)/(max - min));
-                layer.addRenderable(upperTrigon);
+                    Polygon upperTrigon = new Polygon(uPositions);
+                    SetDefaultMaterial(upperTrigon, (band.getAttribute(upper) - min)/(max - min));
+                    layer.addRenderable(upperTrigon);
+                }
 
                 //draw lower trigon cell
-                ArrayList<Position> lPositions = new ArrayList<Position>();
-                lPositions.add(new Position(Angle.fromDegrees(v[2].getLatitude()),Angle.fromDegrees(v[2].getLongitude()),elevation));
-                lPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
-                lPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
-
-                Polygon lowerTrigon = new Polygon(lPositions);
-                SetDefaultMaterial(lowerTrigon, (lAttr - min)/(max - min));
-                layer.addRenderable(lowerTrigon);
+                if(getPosition(band, lower) >= 0){
+                    ArrayList<Position> lPositions = new ArrayList<Position>();
+                    lPositions.add(new Position(Angle.fromDegrees(v[2].getLatitude()),Angle.fromDegrees(v[2].getLongitude()),elevation));
+                    lPositions.add(new Position(Angle.fromDegrees(v[1].getLatitude()),Angle.fromDegrees(v[1].getLongitude()),elevation));
+                    lPositions.add(new Position(Angle.fromDegrees(v[3].getLatitude()),Angle.fromDegrees(v[3].getLongitude()),elevation));
+
+                    Polygon lowerTrigon = new Polygon(lPositions);
+                    SetDefaultMaterial(lowerTrigon, (band.getAttribute(lower) - min)/(max - min));
+                    layer.addRenderable(lowerTrigon);
+                }
             }
 
         }
@@ -289,6 +320,22 @@ public class FieldRenderer extends BaseRenderer {
         return layer;
     }
 
+    /**
+     * get position of code in band's min bound segment
+     *
+     * @param band field band
+     * @param code packed EQTM code
+     * @return position in domain, -1 if code is out of segment or its domain has no segment
+     */
+    private int getPosition(FieldBand band, long code){
+        FieldBand.MinBoundSeg mbs = band.getMBS(EQCodes.domain(code));
+        if(null == mbs){
+            return -1;
+        }
+        int pos = band.getPosition(code);
+        return (0 <= pos && pos < mbs.getSize()) ? pos : -1;
+    }
+
     private void SetDefaultMaterial(AbstractShape shape, float gray){
         Color color = MathUtil.GrayToRGB(gray);
         ShapeAttributes attributes = new BasicShapeAttributes();